@@ -0,0 +1,34 @@
+package com.iseonline.shared.k8s.benchmarks;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rate of new connections through the tunnel: connect, one byte round trip,
+ * close. Each connection opens a new channel on the ssh session.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectBenchmark {
+
+    @Benchmark
+    public int connect(TunnelState tunnel) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", tunnel.port())) {
+            socket.setTcpNoDelay(true);
+            socket.getOutputStream().write(1);
+            return socket.getInputStream().read();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.iseonline.shared.k8s.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Request/response latency over an established connection through the
+ * tunnel. The sample time mode reports the percentiles.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LatencyBenchmark {
+
+    @State(Scope.Thread)
+    public static class Connection {
+
+        @Param({ "64", "16384" })
+        public int payloadSize;
+
+        private Socket socket;
+
+        private InputStream in;
+
+        private OutputStream out;
+
+        private byte[] payload;
+
+        @Setup(Level.Trial)
+        public void connect(TunnelState tunnel) throws IOException {
+            socket = new Socket("127.0.0.1", tunnel.port());
+            socket.setTcpNoDelay(true);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+            payload = Payloads.json(payloadSize);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public byte[] roundTrip(Connection connection) throws IOException {
+        connection.out.write(connection.payload);
+        connection.out.flush();
+        return connection.in.readNBytes(connection.payload.length);
+    }
+}
@@ -0,0 +1,41 @@
+package com.iseonline.shared.k8s.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Payloads for the benchmarks.
+ */
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * @return json like data of the given size, compressible like typical REST or
+     *         kafka payloads
+     */
+    static byte[] json(int size) {
+        StringBuilder sb = new StringBuilder(size + 128);
+        Random random = new Random(42);
+        sb.append('[');
+        while (sb.length() < size) {
+            sb.append("{\"id\":").append(random.nextInt(100000))
+                    .append(",\"name\":\"customer-").append(random.nextInt(1000))
+                    .append("\",\"active\":").append(random.nextBoolean())
+                    .append(",\"tags\":[\"dev\",\"k8s\"]},");
+        }
+        byte[] bytes = new byte[size];
+        System.arraycopy(sb.toString().getBytes(StandardCharsets.UTF_8), 0, bytes, 0, size);
+        return bytes;
+    }
+
+    /**
+     * @return incompressible data of the given size
+     */
+    static byte[] random(int size) {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,83 @@
+package com.iseonline.shared.k8s.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bulk transfer of 1 MiB through the tunnel and back. The result in ops/s
+ * equals MiB/s in each direction. The payload is either compressible json or
+ * random data to show the effect of compression.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThroughputBenchmark {
+
+    private static final int CHUNK = 1024 * 1024;
+
+    @State(Scope.Thread)
+    public static class Connection {
+
+        @Param({ "json", "random" })
+        public String payloadType;
+
+        private Socket socket;
+
+        private InputStream in;
+
+        private OutputStream out;
+
+        private byte[] payload;
+
+        private Thread writer;
+
+        @Setup(Level.Trial)
+        public void connect(TunnelState tunnel) throws IOException {
+            socket = new Socket("127.0.0.1", tunnel.port());
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+            payload = "random".equals(payloadType) ? Payloads.random(CHUNK) : Payloads.json(CHUNK);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public long transfer(Connection connection) throws Exception {
+        // Write and read concurrently, otherwise the echo would block on full windows
+        connection.writer = new Thread(() -> {
+            try {
+                connection.out.write(connection.payload);
+                connection.out.flush();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        connection.writer.start();
+        long read = connection.in.readNBytes(CHUNK).length;
+        connection.writer.join();
+        return read;
+    }
+}
@@ -0,0 +1,132 @@
+package com.iseonline.shared.k8s.benchmarks;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import org.apache.sshd.core.CoreModuleProperties;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.forward.AcceptAllForwardingFilter;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.iseonline.shared.k8s.deployment.ssh.LocalForwarder;
+import com.iseonline.shared.k8s.deployment.ssh.TunnelStats;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.Session;
+
+/**
+ * A tunnel like the one created by {@code SshDeployer}, but against an
+ * embedded ssh server instead of the gateway pod. The benchmarks connect to
+ * {@link #port()}, which is forwarded through the tunnel to an {@link EchoServer}.
+ */
+@State(Scope.Benchmark)
+public class TunnelState {
+
+    private static final String USERNAME = "bench";
+
+    private static final String PASSWORD = "bench";
+
+    /**
+     * The cipher negotiated for the ssh session.
+     */
+    @Param({ "aes128-ctr", "aes256-ctr" })
+    public String cipher;
+
+    /**
+     * none or zlib@openssh.com
+     */
+    @Param({ "none", "zlib@openssh.com" })
+    public String compression;
+
+    /**
+     * The window size of the ssh server, 0 for the default.
+     */
+    @Param({ "0" })
+    public long windowSize;
+
+    /**
+     * extension: {@link LocalForwarder} used for the port forwardings of the
+     * extension, jsch: {@link Session#setPortForwardingL}, remote: reverse proxy
+     * via {@link Session#setPortForwardingR}
+     */
+    @Param({ "extension" })
+    public String forwarder;
+
+    private SshServer sshd;
+
+    private EchoServer echoServer;
+
+    private Session session;
+
+    private LocalForwarder localForwarder;
+
+    private int port;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        echoServer = new EchoServer();
+
+        sshd = SshServer.setUpDefaultServer();
+        sshd.setPort(0);
+        sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+        sshd.setPasswordAuthenticator((username, password, s) -> USERNAME.equals(username)
+                && PASSWORD.equals(password));
+        sshd.setForwardingFilter(AcceptAllForwardingFilter.INSTANCE);
+        if (windowSize > 0) {
+            CoreModuleProperties.WINDOW_SIZE.set(sshd, windowSize);
+        }
+        sshd.start();
+
+        session = new JSch().getSession(USERNAME, "127.0.0.1", sshd.getPort());
+        session.setPassword(PASSWORD);
+        session.setConfig("StrictHostKeyChecking", "no");
+        session.setConfig("cipher.c2s", cipher);
+        session.setConfig("cipher.s2c", cipher);
+        session.setConfig("compression.c2s", compression);
+        session.setConfig("compression.s2c", compression);
+        session.connect(15000);
+
+        port = switch (forwarder) {
+            case "extension" -> {
+                localForwarder = new LocalForwarder(() -> session, "127.0.0.1", echoServer.getPort(),
+                        new TunnelStats(TunnelStats.KIND_FORWARDING, "benchmark"));
+                yield localForwarder.start(0);
+            }
+            case "jsch" -> session.setPortForwardingL(0, "127.0.0.1", echoServer.getPort());
+            case "remote" -> {
+                int remotePort = freePort();
+                session.setPortForwardingR("127.0.0.1", remotePort, "127.0.0.1", echoServer.getPort());
+                yield remotePort;
+            }
+            default -> throw new IllegalArgumentException("Unknown forwarder " + forwarder);
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (localForwarder != null) {
+            localForwarder.close();
+        }
+        session.disconnect();
+        sshd.stop(true);
+        echoServer.close();
+    }
+
+    /**
+     * @return the local port forwarded through the tunnel to the echo server
+     */
+    public int port() {
+        return port;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.iseonline.shared.k8s.deployment;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
 
 import io.quarkus.runtime.annotations.ConfigPhase;
@@ -33,6 +35,31 @@ public interface K8sDevServicesBuildTimeConfig {
     @WithDefault("rancher-desktop")
     String kubeContext();
 
+    /**
+     * The kube contexts to choose from, instead of {@link #kubeContext()}. They
+     * are probed in parallel at startup and the reachable one with the most
+     * releases of the charts already deployed, the lowest api latency and the
+     * most free resources is used.
+     */
+    @WithName("kube-context.candidates")
+    Optional<List<String>> kubeContextCandidates();
+
+    /**
+     * The time probing a kube context candidate may take at most.
+     */
+    @WithDefault("5s")
+    @WithName("kube-context.probe-timeout")
+    Duration kubeContextProbeTimeout();
+
+    /**
+     * Whether the tunnels fail over to the next candidate of
+     * {@link #kubeContextCandidates()}, if the api of the used kube context is
+     * not reachable anymore. The helm releases are not installed there.
+     */
+    @WithDefault("false")
+    @WithName("kube-context.failover")
+    boolean kubeContextFailover();
+
     /**
      * The namespace into which everything should be deployed.
      */
@@ -78,6 +105,14 @@ public interface K8sDevServicesBuildTimeConfig {
     @WithDefault("registry-secret")
     String registrySecretName();
 
+    /**
+     * How long a successful helm login to a registry of the registry secret is
+     * remembered. Within this time, the login is skipped as long as the
+     * credentials did not change.
+     */
+    @WithDefault("12h")
+    Duration registryLoginCacheTtl();
+
     /**
      * Whether the whole deployed dev context should be stopped and cleaned before
      * the dev-services are started. Useful, if there is some old data in it which
@@ -86,6 +121,28 @@ public interface K8sDevServicesBuildTimeConfig {
     @WithDefault("false")
     boolean stopCleanRestart();
 
+    /**
+     * How the dev context is cleaned, if stop-clean-restart is enabled.
+     * <ul>
+     * <li>reinstall: uninstall all helm releases and install them again</li>
+     * <li>data-only: keep the helm releases, but delete the volumes of all
+     * statefulsets and restart them</li>
+     * <li>snapshot: like data-only, but restore the volumes from seed snapshots
+     * taken after the first successful start instead of starting empty</li>
+     * </ul>
+     */
+    @WithDefault("reinstall")
+    @WithName("clean-restart.mode")
+    CleanRestartMode cleanRestartMode();
+
+    /**
+     * The volume snapshot class to use for the seed snapshots in clean restart
+     * mode snapshot. If not set, the default volume snapshot class of the cluster
+     * is used.
+     */
+    @WithName("clean-restart.volume-snapshot-class")
+    Optional<String> cleanRestartVolumeSnapshotClass();
+
     /**
      * Whether the whole deployed dev context should be shutdown after quarkus:dev
      * has finished.
@@ -93,6 +150,32 @@ public interface K8sDevServicesBuildTimeConfig {
     @WithDefault("false")
     boolean shutdown();
 
+    /**
+     * The time closing the dev services may take at most. Teardown which is
+     * still running afterwards continues in the background, till the JVM exits.
+     */
+    @WithDefault("30s")
+    @WithName("shutdown.timeout")
+    Duration shutdownTimeout();
+
+    /**
+     * Whether the helm releases are uninstalled by a job inside the cluster
+     * instead of by quarkus, if {@link #shutdown()} is enabled. Dev mode exits
+     * immediately then. The job runs with a service account which is bound to
+     * the admin role of the namespace.
+     */
+    @WithDefault("false")
+    @WithName("shutdown.detach")
+    boolean shutdownDetach();
+
+    /**
+     * The image with the helm cli used by the uninstall job, see
+     * {@link #shutdownDetach()}.
+     */
+    @WithDefault("alpine/helm:3.17.2")
+    @WithName("shutdown.helm-image")
+    String shutdownHelmImage();
+
     /**
      * The image of the ssh server to user
      */
@@ -113,6 +196,191 @@ public interface K8sDevServicesBuildTimeConfig {
     @WithDefault("quarkus-dev-apps")
     String sshPassword();
 
+    /**
+     * The address (host:port) under which the ssh server is directly reachable,
+     * e.g. via a node port. If not set, the ssh port of the pod is forwarded via
+     * the kubernetes api.
+     */
+    Optional<String> sshAddress();
+
+    /**
+     * The time connecting to the ssh server may take at most, including the
+     * retries while the gateway pod starts. Failed attempts are retried with
+     * exponential backoff, authentication failures are not retried.
+     */
+    @WithDefault("2m")
+    @WithName("ssh.connect-deadline")
+    Duration sshConnectDeadline();
+
+    /**
+     * How the ssh transport is tuned.
+     * <ul>
+     * <li>default: the defaults of JSch</li>
+     * <li>bandwidth: for slow connections, e.g. from home to the office cluster.
+     * Compresses the traffic and uses bigger windows.</li>
+     * <li>cpu: for local clusters, where encryption and not the network is the
+     * bottleneck. No compression and the cheapest cipher.</li>
+     * <li>auto: measures round trip time and bandwidth when connecting the first
+     * time and chooses one of the above</li>
+     * </ul>
+     * The settings below override the chosen profile.
+     */
+    @WithDefault("default")
+    @WithName("ssh.transport.profile")
+    SshTransportProfile sshTransportProfile();
+
+    /**
+     * The preferred ciphers of the ssh session, in order of preference.
+     */
+    @WithName("ssh.transport.ciphers")
+    Optional<List<String>> sshTransportCiphers();
+
+    /**
+     * Whether the ssh traffic should be compressed with zlib.
+     */
+    @WithName("ssh.transport.compression")
+    Optional<Boolean> sshTransportCompression();
+
+    /**
+     * The zlib compression level from 1 (fastest) to 9 (best compression).
+     */
+    @WithDefault("6")
+    @WithName("ssh.transport.compression-level")
+    int sshTransportCompressionLevel();
+
+    /**
+     * The window size in bytes of the port forwarding channels, i.e. how much data
+     * the gateway may send before waiting for an acknowledgement. Bigger windows
+     * help on connections with high latency.
+     */
+    @WithName("ssh.transport.window-size")
+    Optional<Integer> sshTransportWindowSize();
+
+    /**
+     * The maximum packet size in bytes of the port forwarding channels.
+     */
+    @WithName("ssh.transport.packet-size")
+    Optional<Integer> sshTransportPacketSize();
+
+    /**
+     * The interval in which the watchdogs check the ssh session, the port
+     * forwardings and the reverse proxies and recreate them if they are lost. The
+     * ssh session is considered dead after three intervals without any answer of
+     * the ssh server, e.g. after a network partition.
+     */
+    @WithDefault("10s")
+    Duration watchdogInterval();
+
+    /**
+     * Whether a second gateway pod runs as hot standby, with an established ssh
+     * session. Once the active gateway pod is gone or terminating, e.g. while its
+     * node is drained, the tunnels switch to the standby at once and a new
+     * standby is connected, as soon as the lost pod is replaced. Not supported in
+     * multi user mode.
+     */
+    @WithDefault("false")
+    @WithName("gateway.standby")
+    boolean gatewayStandby();
+
+    /**
+     * The port of the single listener on the gateway, which receives the
+     * requests of all http reverse proxies. The services of these proxies point
+     * to it and the {@link com.iseonline.shared.k8s.deployment.ssh.HttpRouter}
+     * routes each request by its Host header or path to the local port. In multi
+     * user mode a port per developer is derived from the namespace instead.
+     */
+    @WithDefault("8000")
+    @WithName("reverse-proxy.http-port")
+    int reverseProxyHttpPort();
+
+    /**
+     * Whether port forwardings are also created for the services in the
+     * namespace, which are annotated with {@link #discoveryAnnotation()}. The
+     * services are watched, so forwardings of new services are added and those
+     * of removed services released while dev mode is running.
+     */
+    @WithDefault("true")
+    @WithName("discovery.enabled")
+    boolean discoveryEnabled();
+
+    /**
+     * The annotation of the services to forward, its value is
+     * {@code <name>[:<localPort>[:<servicePort>]]}.
+     */
+    @WithDefault("com.iseonline.quarkus.k8s/forward")
+    @WithName("discovery.annotation")
+    String discoveryAnnotation();
+
+    /**
+     * Whether the port forwardings are exposed as unix domain sockets in
+     * {@link #unixSocketDirectory()} instead of local tcp ports. The path is
+     * provided as {@code ${name}.socket}. A forwarding can override it with
+     * {@code unixSocket} in the values.yaml.
+     */
+    @WithDefault("false")
+    @WithName("unix-socket.enabled")
+    boolean unixSocketEnabled();
+
+    /**
+     * The directory of the unix domain sockets of the port forwardings, named
+     * {@code <name>.sock}.
+     */
+    @WithDefault("target/k8s-devservices")
+    @WithName("unix-socket.directory")
+    String unixSocketDirectory();
+
+    /**
+     * Whether the dev mode applications of the user share one gateway connection
+     * per kube context and namespace. The first application owns the connection
+     * and creates the tunnels of the others, identical tunnels are only created
+     * once.
+     */
+    @WithDefault("false")
+    @WithName("shared-tunnel.enabled")
+    boolean sharedTunnelEnabled();
+
+    /**
+     * The directory of the unix domain sockets of the shared tunnels, see
+     * {@link #sharedTunnelEnabled()}. Defaults to
+     * {@code ~/.quarkus-dev-apps-k8s}.
+     */
+    @WithName("shared-tunnel.directory")
+    Optional<String> sharedTunnelDirectory();
+
+    /**
+     * Whether several developers share the cluster. Each one gets an own
+     * namespace, {@code <namespace>-<user>}, while the gateway and the charts
+     * listed in {@link #multiUserSharedCharts()} are deployed only once into
+     * {@link #multiUserSharedNamespace()}.
+     */
+    @WithDefault("false")
+    @WithName("multi-user.enabled")
+    boolean multiUserEnabled();
+
+    /**
+     * The name of the developer in multi user mode, defaults to the name of the
+     * operating system user.
+     */
+    @WithName("multi-user.user")
+    Optional<String> multiUserUser();
+
+    /**
+     * The namespace of the gateway and the shared charts in multi user mode.
+     */
+    @WithDefault("dev-shared")
+    @WithName("multi-user.shared-namespace")
+    String multiUserSharedNamespace();
+
+    /**
+     * The charts (by release name, i.e. the directory names below the chart
+     * path or {@code quarkus-dev-k8s}, if the chart path is a chart itself),
+     * which are installed once into the shared namespace and used by all
+     * developers in multi user mode. They are not upgraded, once they are
+     * deployed.
+     */
+    @WithName("multi-user.shared-charts")
+    Optional<List<String>> multiUserSharedCharts();
+
     /**
      * The directory, where the helm files should be cached. Note: Currently, the
      * used helm library does not support setting the cache dir, therefore the
@@ -121,4 +389,75 @@ public interface K8sDevServicesBuildTimeConfig {
     @WithDefault("target/helm-cache")
     @WithName("helm.cache-path")
     String helmCachePath();
+
+    /**
+     * The time the helm upgrade of a release may take at most, including
+     * retries. Upgrades blocked by another operation in progress and connection
+     * errors are retried with exponential backoff, others fail directly.
+     */
+    @WithDefault("10m")
+    @WithName("helm.upgrade-deadline")
+    Duration helmUpgradeDeadline();
+
+    /**
+     * Whether the cpu and memory usage of the pods in the dev namespace is
+     * recorded from the metrics api. From the peaks of the last sessions a values
+     * overlay with right-sized resource requests is generated per release below
+     * the build output, and applied by the next helm upgrade.
+     */
+    @WithDefault("false")
+    @WithName("sizing.enabled")
+    boolean sizingEnabled();
+
+    /**
+     * The interval, in which the usage of the pods is sampled.
+     */
+    @WithDefault("30s")
+    @WithName("sizing.interval")
+    Duration sizingInterval();
+
+    /**
+     * The headroom in percent, which is added to the measured peak usage.
+     */
+    @WithDefault("30")
+    @WithName("sizing.headroom")
+    int sizingHeadroom();
+
+    /**
+     * The number of sessions, i.e. runs of dev mode, whose peak usage is
+     * considered for the overlay.
+     */
+    @WithDefault("5")
+    @WithName("sizing.sessions")
+    int sizingSessions();
+
+    /**
+     * Whether a table with the duration of each startup phase per helm release
+     * should be logged after the dev services are started.
+     */
+    @WithDefault("true")
+    @WithName("timeline.log")
+    boolean timelineLog();
+
+    /**
+     * Whether the startup timeline should be written as json file
+     * k8s-devservices-timeline.json into the build output directory, e.g. to track
+     * regressions of the startup time.
+     */
+    @WithDefault("false")
+    @WithName("timeline.json")
+    boolean timelineJson();
+
+    enum CleanRestartMode {
+        REINSTALL,
+        DATA_ONLY,
+        SNAPSHOT
+    }
+
+    enum SshTransportProfile {
+        AUTO,
+        DEFAULT,
+        BANDWIDTH,
+        CPU
+    }
 }
@@ -0,0 +1,298 @@
+package com.iseonline.shared.k8s.deployment.helm;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jboss.logging.Logger;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig.CleanRestartMode;
+import com.iseonline.shared.k8s.deployment.helm.HelmCommands.HelmRelease;
+import com.iseonline.shared.k8s.deployment.utils.K8sDevServicesUtils;
+
+import io.fabric8.kubernetes.api.model.GenericKubernetesResource;
+import io.fabric8.kubernetes.api.model.GenericKubernetesResourceBuilder;
+import io.fabric8.kubernetes.api.model.GenericKubernetesResourceList;
+import io.fabric8.kubernetes.api.model.PersistentVolumeClaim;
+import io.fabric8.kubernetes.api.model.PersistentVolumeClaimBuilder;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.apps.StatefulSet;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.dsl.NonNamespaceOperation;
+import io.fabric8.kubernetes.client.dsl.Resource;
+
+/**
+ * Cleans the dev namespace before the dev services are started, see
+ * {@link K8sDevServicesBuildTimeConfig#stopCleanRestart()}.
+ * <p>
+ * Depending on {@link K8sDevServicesBuildTimeConfig#cleanRestartMode()} either
+ * all helm releases are uninstalled (in parallel) or only the data of the
+ * statefulsets is reset while the releases stay installed.
+ */
+public class CleanRestart {
+    private static final Logger log = Logger.getLogger(CleanRestart.class);
+
+    private static final String INSTANCE_LABEL = "app.kubernetes.io/instance";
+
+    private static final String SNAPSHOT_API_VERSION = "snapshot.storage.k8s.io/v1";
+
+    private static final String SNAPSHOT_KIND = "VolumeSnapshot";
+
+    private static final String SEED_SUFFIX = "-seed";
+
+    private static final long WAIT_TIMEOUT = 5 * 60000;
+
+    private static final Executor UNINSTALLER = r -> {
+        Thread thread = new Thread(r, "k8s-devservices-helm-uninstall");
+        thread.setDaemon(true);
+        thread.start();
+    };
+
+    private final K8sDevServicesBuildTimeConfig config;
+
+    private final String namespace;
+
+    private final KubernetesClient k8sClient;
+
+    private final HelmCommands helm;
+
+    private final Path kubeConfigPath;
+
+    public CleanRestart(K8sDevServicesBuildTimeConfig config, KubernetesClient k8sClient, HelmCommands helm,
+            Path kubeConfigPath) {
+        this.config = config;
+        this.namespace = K8sDevServicesUtils.namespace(config);
+        this.k8sClient = k8sClient;
+        this.helm = helm;
+        this.kubeConfigPath = kubeConfigPath;
+    }
+
+    /**
+     * Resets the namespace according to the configured clean restart mode.
+     */
+    public void reset() {
+        switch (config.cleanRestartMode()) {
+            case REINSTALL -> uninstallAll();
+            case DATA_ONLY -> resetData(false);
+            case SNAPSHOT -> resetData(true);
+        }
+    }
+
+    /**
+     * Uninstalls all helm releases in the namespace in parallel and waits till
+     * their pods and deleted volume claims are really gone. Waiting is done via
+     * watches, so we continue as soon as the finalizers have run. Each release is
+     * uninstalled on its own thread, helm mostly waits for the api server.
+     */
+    public void uninstallAll() {
+        List<HelmRelease> helmReleases = helm.list(kubeConfigPath, namespace, false);
+        List<CompletableFuture<?>> watches = new CopyOnWriteArrayList<>();
+
+        // The namespace belongs to the dev services, so all releases are removed,
+        // also those of charts, which were renamed or removed from the chart path
+        // meanwhile and would survive the clean restart otherwise
+        List<CompletableFuture<Void>> removals = helmReleases.stream()
+                .map(helmRelease -> CompletableFuture.runAsync(() -> {
+                    log.infof("Uninstalling helm release %s", helmRelease.name());
+                    helm.uninstall(kubeConfigPath, namespace, helmRelease.name());
+                }, UNINSTALLER).thenCompose(v -> waitTillRemoved(helmRelease.name(), watches)))
+                .toList();
+        await(removals, watches, "uninstalling helm releases");
+    }
+
+    /**
+     * Once the releases are deployed and ready, snapshots of the statefulset
+     * volumes are taken, if they do not exist yet. These are used as seeded state
+     * in the next clean restart in {@link CleanRestartMode#SNAPSHOT} mode.
+     */
+    public void createMissingSnapshots() {
+        if (config.cleanRestartMode() != CleanRestartMode.SNAPSHOT) {
+            return;
+        }
+        for (StatefulSet sts : listStatefulSets()) {
+            for (String claimName : getClaimNames(sts)) {
+                String snapshotName = claimName + SEED_SUFFIX;
+                if (snapshots().withName(snapshotName).get() != null) {
+                    continue;
+                }
+                log.infof("Creating seed snapshot %s of volume %s", snapshotName, claimName);
+                Map<String, Object> spec = new HashMap<>();
+                spec.put("source", Collections.singletonMap("persistentVolumeClaimName", claimName));
+                config.cleanRestartVolumeSnapshotClass()
+                        .ifPresent(snapshotClass -> spec.put("volumeSnapshotClassName", snapshotClass));
+                snapshots().resource(new GenericKubernetesResourceBuilder()
+                        .withApiVersion(SNAPSHOT_API_VERSION)
+                        .withKind(SNAPSHOT_KIND)
+                        .withNewMetadata()
+                        .withName(snapshotName)
+                        .withNamespace(namespace)
+                        .endMetadata()
+                        .addToAdditionalProperties("spec", spec)
+                        .build())
+                        .create();
+            }
+        }
+    }
+
+    /**
+     * Resets the volumes of all statefulsets in the namespace, the helm releases
+     * themselves stay untouched. The statefulsets are scaled down, their volume
+     * claims deleted (or restored from a seed snapshot) and scaled up again.
+     */
+    private void resetData(boolean restoreSnapshots) {
+        List<CompletableFuture<Void>> resets = listStatefulSets().stream()
+                .map(sts -> CompletableFuture.runAsync(() -> resetStatefulSet(sts, restoreSnapshots), UNINSTALLER))
+                .toList();
+        await(resets, List.of(), "resetting statefulset data");
+    }
+
+    private void resetStatefulSet(StatefulSet sts, boolean restoreSnapshots) {
+        String name = sts.getMetadata().getName();
+        List<String> claimNames = getClaimNames(sts);
+        if (claimNames.isEmpty()) {
+            return;
+        }
+        int replicas = Optional.ofNullable(sts.getSpec().getReplicas()).orElse(1);
+        log.infof("Resetting data of statefulset %s", name);
+
+        List<PersistentVolumeClaim> claims = claimNames.stream()
+                .map(claimName -> k8sClient.persistentVolumeClaims()
+                        .inNamespace(namespace)
+                        .withName(claimName)
+                        .get())
+                .filter(Objects::nonNull)
+                .toList();
+
+        k8sClient.apps().statefulSets()
+                .inNamespace(namespace)
+                .withName(name)
+                .scale(0);
+        await(List.of(k8sClient.pods()
+                .inNamespace(namespace)
+                .withLabels(sts.getSpec().getSelector().getMatchLabels())
+                .informOnCondition(List::isEmpty)), List.of(), "scaling down statefulset " + name);
+
+        for (PersistentVolumeClaim claim : claims) {
+            Resource<PersistentVolumeClaim> claimResource = k8sClient.persistentVolumeClaims()
+                    .inNamespace(namespace)
+                    .withName(claim.getMetadata().getName());
+            claimResource.delete();
+            claimResource.waitUntilCondition(Objects::isNull, WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+
+            String snapshotName = claim.getMetadata().getName() + SEED_SUFFIX;
+            if (restoreSnapshots && snapshots().withName(snapshotName).get() != null) {
+                log.infof("Restoring volume %s from seed snapshot %s", claim.getMetadata().getName(), snapshotName);
+                k8sClient.persistentVolumeClaims().inNamespace(namespace).resource(new PersistentVolumeClaimBuilder()
+                        .withNewMetadata()
+                        .withName(claim.getMetadata().getName())
+                        .withNamespace(namespace)
+                        .withLabels(claim.getMetadata().getLabels())
+                        .endMetadata()
+                        .withNewSpec()
+                        .withAccessModes(claim.getSpec().getAccessModes())
+                        .withStorageClassName(claim.getSpec().getStorageClassName())
+                        .withVolumeMode(claim.getSpec().getVolumeMode())
+                        .withResources(claim.getSpec().getResources())
+                        .withNewDataSource()
+                        .withApiGroup("snapshot.storage.k8s.io")
+                        .withKind(SNAPSHOT_KIND)
+                        .withName(snapshotName)
+                        .endDataSource()
+                        .endSpec()
+                        .build()).create();
+            }
+        }
+
+        k8sClient.apps().statefulSets()
+                .inNamespace(namespace)
+                .withName(name)
+                .scale(replicas);
+    }
+
+    /**
+     * The statefulset controller names the claims of its volume claim templates
+     * {@code <template>-<statefulset>-<ordinal>}.
+     */
+    private List<String> getClaimNames(StatefulSet sts) {
+        int replicas = Optional.ofNullable(sts.getSpec().getReplicas()).orElse(1);
+        List<String> claimNames = new ArrayList<>();
+        for (PersistentVolumeClaim template : sts.getSpec().getVolumeClaimTemplates()) {
+            for (int i = 0; i < replicas; i++) {
+                claimNames.add(template.getMetadata().getName() + "-" + sts.getMetadata().getName() + "-" + i);
+            }
+        }
+        return claimNames;
+    }
+
+    private List<StatefulSet> listStatefulSets() {
+        return k8sClient.apps().statefulSets()
+                .inNamespace(namespace)
+                .list()
+                .getItems();
+    }
+
+    private NonNamespaceOperation<GenericKubernetesResource, GenericKubernetesResourceList, Resource<GenericKubernetesResource>> snapshots() {
+        return k8sClient.genericKubernetesResources(SNAPSHOT_API_VERSION, SNAPSHOT_KIND)
+                .inNamespace(namespace);
+    }
+
+    /**
+     * Completes once all pods of the release are gone and all volume claims which
+     * are currently being deleted have been removed by their finalizers. The
+     * informer futures are added to {@code watches}, so they can be cancelled
+     * (which stops the informers) if waiting times out.
+     */
+    private CompletableFuture<Void> waitTillRemoved(String releaseName, List<CompletableFuture<?>> watches) {
+        CompletableFuture<List<Pod>> pods = k8sClient.pods()
+                .inNamespace(namespace)
+                .withLabel(INSTANCE_LABEL, releaseName)
+                .informOnCondition(List::isEmpty);
+        CompletableFuture<List<PersistentVolumeClaim>> claims = k8sClient.persistentVolumeClaims()
+                .inNamespace(namespace)
+                .withLabel(INSTANCE_LABEL, releaseName)
+                .informOnCondition(list -> list.stream()
+                        .noneMatch(pvc -> pvc.getMetadata().getDeletionTimestamp() != null));
+        watches.add(pods);
+        watches.add(claims);
+        return CompletableFuture.allOf(pods, claims);
+    }
+
+    /**
+     * Waits for all futures. If waiting fails, the futures and the informer
+     * futures in {@code watches} are cancelled, cancelling an informer future
+     * closes its informer. Cancelling only the combined future would leave them
+     * running.
+     */
+    private void await(List<? extends CompletableFuture<?>> futures, List<CompletableFuture<?>> watches,
+            String action) {
+        boolean done = false;
+        try {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+            done = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while " + action, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed " + action, e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Timed out " + action, e);
+        } finally {
+            if (!done) {
+                futures.forEach(future -> future.cancel(true));
+                watches.forEach(watch -> watch.cancel(true));
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.iseonline.shared.k8s.deployment.helm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.logging.Logger;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.utils.K8sDevServicesUtils;
+
+import io.fabric8.kubernetes.api.model.ServiceAccountBuilder;
+import io.fabric8.kubernetes.api.model.batch.v1.Job;
+import io.fabric8.kubernetes.api.model.batch.v1.JobBuilder;
+import io.fabric8.kubernetes.api.model.rbac.RoleBindingBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+
+/**
+ * Hands the uninstallation of the helm releases to a job inside the cluster,
+ * see {@link K8sDevServicesBuildTimeConfig#shutdownDetach()}. Only the job is
+ * created here, so closing the dev service does not wait for the releases to
+ * be removed.
+ */
+public class DetachedUninstall {
+    private static final Logger log = Logger.getLogger(DetachedUninstall.class);
+
+    static final String NAME = "quarkus-dev-uninstall";
+
+    /**
+     * The job removes itself after this time.
+     */
+    private static final int TTL_SECONDS = 600;
+
+    private final K8sDevServicesBuildTimeConfig config;
+
+    private final String namespace;
+
+    private final KubernetesClient k8sClient;
+
+    public DetachedUninstall(K8sDevServicesBuildTimeConfig config, KubernetesClient k8sClient) {
+        this.config = config;
+        this.namespace = K8sDevServicesUtils.namespace(config);
+        this.k8sClient = k8sClient;
+    }
+
+    /**
+     * Creates the job uninstalling the given releases, together with its service
+     * account.
+     *
+     * @return the created job, null if there is nothing to uninstall
+     */
+    public Job start(List<String> releaseNames) {
+        if (releaseNames.isEmpty()) {
+            return null;
+        }
+        k8sClient.serviceAccounts()
+                .inNamespace(namespace)
+                .resource(new ServiceAccountBuilder()
+                        .withNewMetadata()
+                        .withName(NAME)
+                        .withNamespace(namespace)
+                        .endMetadata()
+                        .build())
+                .createOr(r -> r.patch());
+        k8sClient.rbac().roleBindings()
+                .inNamespace(namespace)
+                .resource(new RoleBindingBuilder()
+                        .withNewMetadata()
+                        .withName(NAME)
+                        .withNamespace(namespace)
+                        .endMetadata()
+                        .withNewRoleRef()
+                        .withApiGroup("rbac.authorization.k8s.io")
+                        .withKind("ClusterRole")
+                        .withName("admin")
+                        .endRoleRef()
+                        .addNewSubject()
+                        .withKind("ServiceAccount")
+                        .withName(NAME)
+                        .withNamespace(namespace)
+                        .endSubject()
+                        .build())
+                .createOr(r -> r.patch());
+
+        List<String> args = new ArrayList<>();
+        args.add("uninstall");
+        args.addAll(releaseNames);
+        args.addAll(List.of("--namespace", namespace, "--wait"));
+
+        log.infof("Uninstalling helm releases %s by a job in the cluster", String.join(", ", releaseNames));
+        return k8sClient.batch().v1().jobs()
+                .inNamespace(namespace)
+                .resource(new JobBuilder()
+                        .withNewMetadata()
+                        .withGenerateName(NAME + "-")
+                        .withNamespace(namespace)
+                        .addToLabels("app", NAME)
+                        .endMetadata()
+                        .withNewSpec()
+                        .withBackoffLimit(2)
+                        .withTtlSecondsAfterFinished(TTL_SECONDS)
+                        .withNewTemplate()
+                        .withNewMetadata()
+                        .addToLabels("app", NAME)
+                        .endMetadata()
+                        .withNewSpec()
+                        .withServiceAccountName(NAME)
+                        .withRestartPolicy("Never")
+                        .addNewContainer()
+                        .withName("helm")
+                        .withImage(config.shutdownHelmImage())
+                        .withArgs(args)
+                        .endContainer()
+                        .endSpec()
+                        .endTemplate()
+                        .endSpec()
+                        .build())
+                .create();
+    }
+}
@@ -0,0 +1,50 @@
+package com.iseonline.shared.k8s.deployment.helm;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * The helm operations used by the extension. By default they are executed with
+ * helm-java ({@link HelmJavaCommands}), another implementation can be provided
+ * via {@link ServiceLoader}, e.g. a stub in tests.
+ */
+public interface HelmCommands {
+
+    record HelmRelease(String name, String revision) {
+    }
+
+    /**
+     * @param all whether releases in all states should be listed, not only the
+     *        deployed ones
+     */
+    List<HelmRelease> list(Path kubeConfig, String namespace, boolean all);
+
+    void uninstall(Path kubeConfig, String namespace, String releaseName);
+
+    void registryLogin(String host, String username, String password);
+
+    /**
+     * Updates the dependencies of the chart in the chart directory.
+     */
+    void dependencyUpdate(Path chartDir);
+
+    /**
+     * Installs or upgrades the release and waits till it is ready. Values
+     * which are not given are reset to the chart defaults.
+     */
+    void upgrade(Path chartDir, Path kubeConfig, String namespace, String releaseName, List<Path> valuesFiles);
+
+    /**
+     * Loads whatever the first call needs, so it can be done in the background
+     * before the deployment.
+     */
+    default void warmUp() {
+    }
+
+    static HelmCommands load() {
+        return ServiceLoader.load(HelmCommands.class, HelmCommands.class.getClassLoader())
+                .findFirst()
+                .orElseGet(HelmJavaCommands::new);
+    }
+}
@@ -9,11 +9,15 @@ import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -22,19 +26,23 @@ import org.jboss.logging.Logger;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jdk8.WrappedIOException;
 import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.helm.HelmCommands.HelmRelease;
+import com.iseonline.shared.k8s.deployment.timeline.StartupTimeline;
+import com.iseonline.shared.k8s.deployment.timeline.StartupTimeline.Span;
 import com.iseonline.shared.k8s.deployment.utils.K8sDevServicesUtils;
-import com.marcnuri.helm.Helm;
-import com.marcnuri.helm.Release;
-import com.marcnuri.helm.UpgradeCommand;
+import com.iseonline.shared.k8s.deployment.utils.KubeClients;
+import com.iseonline.shared.k8s.deployment.utils.KubeContextSelector;
+import com.iseonline.shared.k8s.deployment.utils.RetryPolicy;
+import com.iseonline.shared.k8s.deployment.utils.ShutdownCoordinator;
+import com.iseonline.shared.k8s.deployment.utils.StartupPipeline;
 
 import io.fabric8.kubernetes.api.model.NamedContext;
 import io.fabric8.kubernetes.api.model.NamespaceBuilder;
+import io.fabric8.kubernetes.api.model.Secret;
 import io.fabric8.kubernetes.api.model.SecretBuilder;
 import io.fabric8.kubernetes.client.Config;
 import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.KubernetesClientBuilder;
 import io.fabric8.kubernetes.client.internal.KubeConfigUtils;
 import io.quarkus.deployment.IsNormal;
 import io.quarkus.deployment.annotations.BuildStep;
@@ -47,14 +55,34 @@ import io.quarkus.runtime.util.StringUtil;
 
 @BuildSteps(onlyIfNot = IsNormal.class, onlyIf = DevServicesConfig.Enabled.class)
 public class HelmDeployer implements Closeable {
-    private static final String HELM_RELEASE_NAME = "quarkus-dev-k8s";
+    private static final String HELM_RELEASE_NAME = KubeContextSelector.DEFAULT_RELEASE_NAME;
 
     private static final String FEATURE = "K8sDevServicesSshTunnel";
 
+    private static final String OPERATION_IN_PROGRESS = "another operation (install/upgrade/rollback) is in progress";
+
+    private static final Duration UPGRADE_INITIAL_BACKOFF = Duration.ofSeconds(1);
+
+    private static final Duration UPGRADE_MAX_BACKOFF = Duration.ofSeconds(15);
+
+    private static final String CONTENT_HASH_ANNOTATION = "com.iseonline.quarkus.k8s/content-hash";
+
     private static final Logger log = Logger.getLogger(HelmDeployer.class);
 
     private static volatile K8sDevServicesBuildTimeConfig config;
 
+    /**
+     * The namespace of the dev context, see
+     * {@link K8sDevServicesUtils#namespace(K8sDevServicesBuildTimeConfig)}.
+     */
+    private static volatile String namespace;
+
+    /**
+     * The kube context the releases are deployed to, see
+     * {@link KubeContextSelector}.
+     */
+    private static volatile String kubeContext;
+
     private static volatile KubernetesClient k8sClient;
 
     private static volatile Path kubeConfigPath;
@@ -63,9 +91,77 @@ public class HelmDeployer implements Closeable {
 
     private static volatile String[] profiles;
 
+    /**
+     * Records the resource usage, if sizing is enabled.
+     */
+    private static volatile ResourceSizing sizing;
+
+    /**
+     * The histories and overlays of the sizing below the build output.
+     */
+    private static volatile Path sizingDir;
+
+    /**
+     * The uninstall of the last close, which may still run in the background
+     * after the shutdown timeout. The next start waits for it.
+     */
+    private static volatile CompletableFuture<Void> pendingUninstall;
+
+    private static final HelmCommands helm = HelmCommands.load();
+
+    /**
+     * Announces the releases, before they are deployed, so the tunnels into them
+     * are created as soon as each one is ready.
+     */
     @BuildStep
+    public StartupPipeline startupPipeline(K8sDevServicesBuildTimeConfig config) {
+        if (!config.enabled() || devService != null) {
+            return StartupPipeline.none();
+        }
+        warmUp(config);
+        return StartupPipeline.of(Path.of(config.chartPath()));
+    }
+
+    /**
+     * Selects the kube context, connects its client and loads the helm library in
+     * the background, while the build continues. The deployers pick them up once
+     * they start.
+     */
+    private static void warmUp(K8sDevServicesBuildTimeConfig config) {
+        Thread thread = new Thread(() -> {
+            try (Span span = StartupTimeline.span(StartupTimeline.GLOBAL, "warmUp")) {
+                KubeClients.warmUp(KubeContextSelector.current(config));
+                helm.warmUp();
+            } catch (RuntimeException | LinkageError e) {
+                // The deployers run into the same failure and report it
+                log.debugf("Warm-up failed: %s", e.getMessage());
+            }
+        }, "k8s-devservices-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Deploys without announcing the releases to the tunnels.
+     */
     public DevServicesResultBuildItem startServices(BuildSystemTargetBuildItem bst,
             K8sDevServicesBuildTimeConfig config) {
+        return startServices(bst, config, StartupPipeline.none());
+    }
+
+    @BuildStep
+    public DevServicesResultBuildItem startServices(BuildSystemTargetBuildItem bst,
+            K8sDevServicesBuildTimeConfig config, StartupPipeline pipeline) {
+        try {
+            return deploy(bst, config, pipeline);
+        } finally {
+            // Tunnels into skipped or failed releases must not wait forever
+            pipeline.finish();
+        }
+    }
+
+    private DevServicesResultBuildItem deploy(BuildSystemTargetBuildItem bst, K8sDevServicesBuildTimeConfig config,
+            StartupPipeline pipeline) {
         if (!config.enabled()) {
             return null;
         }
@@ -76,38 +172,52 @@ public class HelmDeployer implements Closeable {
         String profilesString = bst.getBuildSystemProps().getProperty("quarkus.profile");
         profiles = profilesString != null ? profilesString.trim().split("\\s*,\\s*") : new String[0];
 
+        awaitPendingUninstall();
         HelmDeployer.config = config;
+        namespace = K8sDevServicesUtils.namespace(config);
+        kubeContext = KubeContextSelector.current(config);
         // We need our own kubeconfig.yaml definition, as this helm plugin cannot
         // specify the context to use
         kubeConfigPath = bst.getOutputDirectory().resolve("kubeconfig.yaml");
-        saveKubeConfig(config.kubeContext(), kubeConfigPath);
+        sizingDir = ResourceSizing.directory(bst.getOutputDirectory());
+        try (Span span = StartupTimeline.span(StartupTimeline.GLOBAL, "saveKubeConfig")) {
+            saveKubeConfig(kubeContext, kubeConfigPath);
+        }
 
         if (k8sClient == null) {
-            Config k8sConfig = Config.autoConfigure(config.kubeContext());
-            k8sClient = new KubernetesClientBuilder()
-                    .withConfig(k8sConfig)
-                    .build();
+            try (Span span = StartupTimeline.span(StartupTimeline.GLOBAL, "createClient")) {
+                k8sClient = KubeClients.acquire(kubeContext);
+            }
         }
 
         Path chartsDir = Path.of(config.chartPath());
         try {
             if (config.stopCleanRestart()) {
-                uninstall();
+                try (Span span = StartupTimeline.span(StartupTimeline.GLOBAL, "cleanRestart")) {
+                    new CleanRestart(config, k8sClient, helm, kubeConfigPath).reset();
+                }
+            }
+            try (Span span = StartupTimeline.span(StartupTimeline.GLOBAL, "installSecret")) {
+                installSecret(namespace);
+                if (config.multiUserEnabled() && config.multiUserSharedCharts().isPresent()) {
+                    installSecret(config.multiUserSharedNamespace());
+                }
+            }
+            try (Span span = StartupTimeline.span(StartupTimeline.GLOBAL, "helmRegistryLogin")) {
+                helmRegistryLogin();
             }
-            installSecret();
-            helmRegistryLogin();
             // If a Chart.yaml is found in the dev directory, install this chart,
             // otherwise check one more level whether they are charts to allow more
             // installations
             if (Files.exists(chartsDir.resolve("Chart.yaml"))) {
-                upgradeDeployment(chartsDir, HELM_RELEASE_NAME);
+                upgradeDeployment(chartsDir, HELM_RELEASE_NAME, pipeline);
             } else if (Files.exists(chartsDir)) {
                 List<Exception> exceptions = Files.walk(chartsDir, 1)
                         .filter(dir -> Files.exists(dir.resolve("Chart.yaml")))
                         .parallel()
                         .map(dir -> {
                             try {
-                                upgradeDeployment(dir, dir.getFileName().toString());
+                                upgradeDeployment(dir, dir.getFileName().toString(), pipeline);
                             } catch (Exception e) {
                                 return e;
                             }
@@ -120,6 +230,17 @@ public class HelmDeployer implements Closeable {
                     throw new RuntimeException("Helm deployment failed", exceptions.get(0));
                 }
             }
+            if (config.stopCleanRestart()) {
+                try (Span span = StartupTimeline.span(StartupTimeline.GLOBAL, "createSnapshots")) {
+                    new CleanRestart(config, k8sClient, helm, kubeConfigPath).createMissingSnapshots();
+                }
+            }
+
+            if (config.sizingEnabled()) {
+                sizing = new ResourceSizing(config, k8sClient, namespace, ResourceSizing.releases(chartsDir),
+                        sizingDir);
+                sizing.start();
+            }
 
             devService = new RunningDevService(FEATURE, null, this::close,
                     Collections.emptyMap());
@@ -138,52 +259,113 @@ public class HelmDeployer implements Closeable {
         }
     }
 
+    /**
+     * Uninstalls the releases in the background, if configured, and waits for it
+     * at most till the shutdown timeout. An uninstall which takes longer is
+     * awaited by the next start.
+     */
     @Override
     public void close() {
-        if (config.shutdown()) {
-            uninstall();
+        devService = null;
+        if (sizing != null) {
+            sizing.close();
+            sizing = null;
+        }
+        KubernetesClient client = k8sClient;
+        k8sClient = null;
+        if (client == null) {
+            return;
         }
+        if (!config.shutdown()) {
+            KubeClients.release(client);
+            return;
+        }
+        CompletableFuture<Void> uninstalled = new CompletableFuture<>();
+        pendingUninstall = uninstalled;
+        new ShutdownCoordinator(config.shutdownTimeout()).run("uninstalling helm releases", () -> {
+            try {
+                uninstall(client);
+            } finally {
+                KubeClients.release(client);
+                uninstalled.complete(null);
+            }
+        });
+    }
+
+    /**
+     * Waits for the uninstall of the last close, so it neither removes the
+     * releases installed now nor the kubeconfig helm needs for them.
+     */
+    private static void awaitPendingUninstall() {
+        CompletableFuture<Void> pending = pendingUninstall;
+        if (pending == null) {
+            return;
+        }
+        if (!pending.isDone()) {
+            log.infof("Waiting for the uninstall of the previous run to finish");
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the previous uninstall", e);
+        } catch (ExecutionException e) {
+            // failures have been logged by the shutdown coordinator
+        }
+        pendingUninstall = null;
     }
 
     /**
      * There might be the requirement to have a secret installed into kubernetes, to
-     * access some images. This should be done with a registry secret type
+     * access some images. This should be done with a registry secret type. The
+     * secret carries a hash of its content, so it is only applied if it changed.
      */
-    private void installSecret() {
+    private void installSecret(String namespace) {
         String registrySecret = config.registrySecret().orElse(null);
         if (StringUtil.isNullOrEmpty(registrySecret)) {
             return;
         }
-        Config k8sConfig = Config.autoConfigure(config.kubeContext());
-        try (KubernetesClient k8sClient = new KubernetesClientBuilder()
-                .withConfig(k8sConfig)
-                .build()) {
-
-            String credentials = Base64.getEncoder()
-                    .encodeToString(registrySecret.getBytes(StandardCharsets.UTF_8));
-
-            log.infof("Creating or patching registry secret %s/%s", config.namespace(), config.registrySecretName());
-
-            k8sClient.namespaces()
-                    .resource(new NamespaceBuilder()
-                            .withNewMetadata()
-                            .withName(config.namespace())
-                            .endMetadata()
-                            .build())
-                    .serverSideApply();
-            k8sClient.secrets()
-                    .resource(new SecretBuilder()
-                            .withNewMetadata()
-                            .withName(config.registrySecretName())
-                            .withNamespace(config.namespace())
-                            .endMetadata()
-                            .withData(Collections.singletonMap(".dockerconfigjson", credentials))
-                            .withType("kubernetes.io/dockerconfigjson")
-                            .build())
-                    .serverSideApply();
+        String contentHash = K8sDevServicesUtils.sha256(registrySecret);
+        Secret existing = k8sClient.secrets()
+                .inNamespace(namespace)
+                .withName(config.registrySecretName())
+                .get();
+        if (existing != null && existing.getMetadata().getAnnotations() != null
+                && contentHash.equals(existing.getMetadata().getAnnotations().get(CONTENT_HASH_ANNOTATION))) {
+            log.debugf("Registry secret %s/%s is up to date", namespace, config.registrySecretName());
+            return;
         }
+
+        String credentials = Base64.getEncoder()
+                .encodeToString(registrySecret.getBytes(StandardCharsets.UTF_8));
+
+        log.infof("Creating or patching registry secret %s/%s", namespace, config.registrySecretName());
+
+        k8sClient.namespaces()
+                .resource(new NamespaceBuilder()
+                        .withNewMetadata()
+                        .withName(namespace)
+                        .endMetadata()
+                        .build())
+                .serverSideApply();
+        k8sClient.secrets()
+                .resource(new SecretBuilder()
+                        .withNewMetadata()
+                        .withName(config.registrySecretName())
+                        .withNamespace(namespace)
+                        .addToAnnotations(CONTENT_HASH_ANNOTATION, contentHash)
+                        .endMetadata()
+                        .withData(Collections.singletonMap(".dockerconfigjson", credentials))
+                        .withType("kubernetes.io/dockerconfigjson")
+                        .build())
+                .serverSideApply();
     }
 
+    /**
+     * Logs in to all registries of the registry secret in parallel. Successful
+     * logins are cached, so unchanged credentials are not sent to the registry
+     * again until the cache ttl expires.
+     */
     private void helmRegistryLogin() {
         String registrySecret = config.registrySecret().orElse(null);
         if (StringUtil.isNullOrEmpty(registrySecret)) {
@@ -195,17 +377,26 @@ public class HelmDeployer implements Closeable {
             if (auths == null) {
                 throw new RuntimeException("No \"auths\" field found in registry secret");
             }
-            auths.fields().forEachRemaining(auth -> {
-                String host = auth.getKey();
-                JsonNode value = auth.getValue();
-                String username = value.get("username") != null ? value.get("username").asText() : null;
-                String password = value.get("password") != null ? value.get("password").asText() : null;
-                Helm.registry().login()
-                        .withHost(host)
-                        .withUsername(username)
-                        .withPassword(password)
-                        .call();
-            });
+            RegistryLoginCache loginCache = new RegistryLoginCache(Path.of(config.helmCachePath()),
+                    RegistryLoginCache.defaultRegistryConfig(), config.registryLoginCacheTtl());
+            List<Map.Entry<String, JsonNode>> entries = new ArrayList<>();
+            auths.fields().forEachRemaining(entries::add);
+            try {
+                entries.parallelStream().forEach(auth -> {
+                    String host = auth.getKey();
+                    JsonNode value = auth.getValue();
+                    String username = value.get("username") != null ? value.get("username").asText() : null;
+                    String password = value.get("password") != null ? value.get("password").asText() : null;
+                    if (loginCache.isValid(host, username, password)) {
+                        log.debugf("Skipping helm registry login for %s, already logged in", host);
+                        return;
+                    }
+                    helm.registryLogin(host, username, password);
+                    loginCache.loggedIn(host, username, password);
+                });
+            } finally {
+                loginCache.save();
+            }
         } catch (JsonProcessingException e) {
             throw new RuntimeException("Could not parse registry secret, is it valid json?", e);
         }
@@ -215,13 +406,13 @@ public class HelmDeployer implements Closeable {
      * Helm requires a kubeconfig file and can't set a kube context here. Therefore
      * we must export the required kube context into a file and load it from there.
      *
-     * @param kubeContext    the kubernetes context to use
+     * @param kubeContext the kubernetes context to use
      * @param kubeConfigPath path to which the kubernetes config should be written
-     * @param config         the kubernetes config read by fabric8
+     * @param config the kubernetes config read by fabric8
      */
     private void saveKubeConfig(String kubeContext, Path kubeConfigPath) {
 
-        Config k8sConfig = Config.autoConfigure(kubeContext);
+        Config k8sConfig = KubeClients.config(kubeContext);
         io.fabric8.kubernetes.api.model.Config kubeConfig;
         try {
             kubeConfig = KubeConfigUtils.parseConfig(k8sConfig.getFile());
@@ -248,64 +439,110 @@ public class HelmDeployer implements Closeable {
         }
     }
 
+    /**
+     * Upgrades the release and marks it as deployed in the pipeline, once its
+     * resources are applied.
+     */
+    private void upgradeDeployment(Path chartDir, String releaseName, StartupPipeline pipeline) throws IOException {
+        try {
+            upgradeDeployment(chartDir, releaseName);
+            pipeline.deployed(releaseName);
+        } catch (IOException | RuntimeException e) {
+            pipeline.failed(releaseName, e);
+            throw e;
+        }
+    }
+
     private void upgradeDeployment(Path chartDir, String releaseName) throws IOException {
-        Helm helm = new Helm(chartDir);
-        UpgradeCommand upgrade = helm.upgrade();
+        String namespace = HelmDeployer.namespace;
+        // Listed by release name, as the chart path itself may be the chart
+        if (config.multiUserEnabled() && config.multiUserSharedCharts().orElse(List.of()).contains(releaseName)) {
+            // One release serves all developers, whoever deploys it first
+            namespace = config.multiUserSharedNamespace();
+            if (helm.list(kubeConfigPath, namespace, false).stream().anyMatch(r -> releaseName.equals(r.name()))) {
+                log.infof("Using shared release %s in namespace %s", releaseName, namespace);
+                return;
+            }
+        }
+        String releaseNamespace = namespace;
+        List<Path> valuesFiles = new ArrayList<>();
+        Path sizingValuesFile = ResourceSizing.valuesFile(sizingDir, releaseName);
+        if (config.sizingEnabled() && Files.exists(sizingValuesFile)) {
+            valuesFiles.add(sizingValuesFile);
+        }
         for (String profile : profiles) {
             Path profileValuesFile = chartDir.resolve(String.format("values-%s.yaml", profile));
             if (Files.exists(profileValuesFile)) {
-                upgrade.withValuesFile(profileValuesFile);
+                valuesFiles.add(profileValuesFile);
             }
         }
 
         // Make sure, the dependencies are the same as in Chart.yaml
-        helmDependencyUpdate(helm);
-        upgrade.withKubeConfig(kubeConfigPath)
-                .withName(releaseName)
-                .withNamespace(config.namespace())
-                .install()
-                // This is not sufficicent, as this does not re-download updated dependencies
-                // .dependencyUpdate()
-                .createNamespace()
-                .waitReady()
-                // .debug()
-                .resetValues();
-
-        K8sDevServicesUtils.Retry(3, 0, () -> {
-            try {
-                upgrade.call();
-            } catch (Exception e) {
-                if (e.getMessage().contains("another operation (install/upgrade/rollback) is in progress")) {
-                    // As we should be the only ones deploying here, we assume this is an error.
-                    // Simplest way is to
-                    // delete the corresponding helm secret. As this is only a dev environment, this
-                    // should not be a problem.
-                    List<Release> releases = Helm.list()
-                            .withNamespace(config.namespace())
-                            .all()
-                            .call();
-                    releases.stream()
-                            .filter(r -> releaseName.equals(r.getName()))
-                            .map(hr -> "sh.helm.release.v1." + releaseName + ".v" + hr.getRevision())
-                            .map(secretName -> k8sClient.secrets()
-                                    .inNamespace(config.namespace())
-                                    .withName(secretName)
-                                    .get())
-                            .filter(secret -> secret != null
-                                    // Magic number: the old release must be at least 60 seconds old, to be sure
-                                    // that there really is no other process in progress.
-                                    // As we don't wait for the release with helm, this should be more than enough
-                                    // time.
-                                    && Instant.parse(secret.getMetadata().getCreationTimestamp())
-                                            .isBefore(Instant.now().minus(Duration.ofSeconds(60))))
-                            .forEach(secret -> k8sClient.secrets()
-                                    .inNamespace(config.namespace())
-                                    .withName(secret.getMetadata().getName())
-                                    .delete());
-                }
-                throw e;
+        try (Span span = StartupTimeline.span(releaseName, "helmDependencyUpdate")) {
+            helmDependencyUpdate(chartDir);
+        }
+
+        RetryPolicy.await(RetryPolicy.of("Helm upgrade of " + releaseName)
+                .withBackoff(UPGRADE_INITIAL_BACKOFF, UPGRADE_MAX_BACKOFF)
+                .withDeadline(config.helmUpgradeDeadline())
+                .retryOn(HelmDeployer::isRetryable)
+                .run(() -> {
+                    try (Span span = StartupTimeline.span(releaseName, "upgrade")) {
+                        helm.upgrade(chartDir, kubeConfigPath, releaseNamespace, releaseName, valuesFiles);
+                    } catch (Exception e) {
+                        if (isOperationInProgress(e)) {
+                            // As we should be the only ones deploying here, we assume this is an error.
+                            // Simplest way is to
+                            // delete the corresponding helm secret. As this is only a dev environment, this
+                            // should not be a problem.
+                            List<HelmRelease> releases = helm.list(kubeConfigPath, releaseNamespace, true);
+                            releases.stream()
+                                    .filter(r -> releaseName.equals(r.name()))
+                                    .map(hr -> "sh.helm.release.v1." + releaseName + ".v" + hr.revision())
+                                    .map(secretName -> k8sClient.secrets()
+                                            .inNamespace(releaseNamespace)
+                                            .withName(secretName)
+                                            .get())
+                                    .filter(secret -> secret != null
+                                            // Magic number: the old release must be at least 60 seconds old, to be sure
+                                            // that there really is no other process in progress.
+                                            // As we don't wait for the release with helm, this should be more than enough
+                                            // time.
+                                            && Instant.parse(secret.getMetadata().getCreationTimestamp())
+                                                    .isBefore(Instant.now().minus(Duration.ofSeconds(60))))
+                                    .forEach(secret -> k8sClient.secrets()
+                                            .inNamespace(releaseNamespace)
+                                            .withName(secret.getMetadata().getName())
+                                            .delete());
+                        }
+                        throw e;
+                    }
+                }));
+    }
+
+    /**
+     * @return whether the upgrade may succeed when retried: another operation
+     *         was in progress, or the api was not reachable
+     */
+    static boolean isRetryable(Throwable e) {
+        if (isOperationInProgress(e)) {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            String message = cause.getMessage() != null ? cause.getMessage().toLowerCase() : "";
+            if (message.contains("unauthorized") || message.contains("forbidden")) {
+                return false;
             }
-        });
+            if (cause instanceof IOException || message.contains("connection refused")
+                    || message.contains("timeout") || message.contains("connection reset")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isOperationInProgress(Throwable e) {
+        return e.getMessage() != null && e.getMessage().contains(OPERATION_IN_PROGRESS);
     }
 
     /**
@@ -315,7 +552,7 @@ public class HelmDeployer implements Closeable {
      * manually
      * before and afterwards.
      */
-    private synchronized void helmDependencyUpdate(Helm helm) throws IOException {
+    private synchronized void helmDependencyUpdate(Path chartDir) throws IOException {
         Path cachepath = Path.of(config.helmCachePath());
         Path basepath = Path.of(".");
         Files.createDirectories(cachepath);
@@ -323,7 +560,7 @@ public class HelmDeployer implements Closeable {
             moveFiles(cachepath, basepath);
             // The helm repo update is
             // Helm.repo().update().call();
-            helm.dependency().update().call();
+            helm.dependencyUpdate(chartDir);
         } finally {
             moveFiles(basepath, cachepath);
         }
@@ -345,20 +582,24 @@ public class HelmDeployer implements Closeable {
                 });
     }
 
-    private void uninstall() {
-        List<Release> helmReleases = Helm.list()
-                .withNamespace(config.namespace())
-                .call();
-
-        // Will uninstall all helmReleases in the specified namespace
-        // TODO: is this really the desired behavior or do we want to determine, which
-        // helmreleases should be uninstalled?
-        for (Release helmRelease : helmReleases) {
-            Helm.uninstall(helmRelease.getName())
-                    .withKubeConfig(kubeConfigPath)
-                    .withNamespace(config.namespace())
-                    .call();
+    private void uninstall(KubernetesClient client) {
+        try {
+            // The kubeconfig has been deleted after the start, helm needs it again
+            saveKubeConfig(kubeContext, kubeConfigPath);
+            if (config.shutdownDetach()) {
+                new DetachedUninstall(config, client).start(helm.list(kubeConfigPath, namespace, false)
+                        .stream()
+                        .map(HelmRelease::name)
+                        .toList());
+            } else {
+                new CleanRestart(config, client, helm, kubeConfigPath).uninstallAll();
+            }
+        } finally {
+            try {
+                Files.delete(kubeConfigPath);
+            } catch (IOException e) {
+                // can be ignored
+            }
         }
-
     }
 }
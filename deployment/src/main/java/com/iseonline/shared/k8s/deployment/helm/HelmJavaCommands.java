@@ -0,0 +1,76 @@
+package com.iseonline.shared.k8s.deployment.helm;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import com.marcnuri.helm.Helm;
+import com.marcnuri.helm.ListCommand;
+import com.marcnuri.helm.UpgradeCommand;
+
+/**
+ * {@link HelmCommands} executed with the native helm library of helm-java.
+ */
+public class HelmJavaCommands implements HelmCommands {
+
+    /**
+     * The first call extracts and loads the native library, which takes a few
+     * hundred milliseconds.
+     */
+    @Override
+    public void warmUp() {
+        Helm.version().call();
+    }
+
+    @Override
+    public List<HelmRelease> list(Path kubeConfig, String namespace, boolean all) {
+        ListCommand list = Helm.list()
+                .withKubeConfig(kubeConfig)
+                .withNamespace(namespace);
+        if (all) {
+            list.all();
+        }
+        return list.call().stream()
+                .map(r -> new HelmRelease(r.getName(), r.getRevision()))
+                .toList();
+    }
+
+    @Override
+    public void uninstall(Path kubeConfig, String namespace, String releaseName) {
+        Helm.uninstall(releaseName)
+                .withKubeConfig(kubeConfig)
+                .withNamespace(namespace)
+                .call();
+    }
+
+    @Override
+    public void registryLogin(String host, String username, String password) {
+        Helm.registry().login()
+                .withHost(host)
+                .withUsername(username)
+                .withPassword(password)
+                .call();
+    }
+
+    @Override
+    public void dependencyUpdate(Path chartDir) {
+        new Helm(chartDir).dependency().update().call();
+    }
+
+    @Override
+    public void upgrade(Path chartDir, Path kubeConfig, String namespace, String releaseName,
+            List<Path> valuesFiles) {
+        UpgradeCommand upgrade = new Helm(chartDir).upgrade();
+        valuesFiles.forEach(upgrade::withValuesFile);
+        upgrade.withKubeConfig(kubeConfig)
+                .withName(releaseName)
+                .withNamespace(namespace)
+                .install()
+                // This is not sufficicent, as this does not re-download updated dependencies
+                // .dependencyUpdate()
+                .createNamespace()
+                .waitReady()
+                // .debug()
+                .resetValues()
+                .call();
+    }
+}
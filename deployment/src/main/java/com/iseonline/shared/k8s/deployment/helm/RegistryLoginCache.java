@@ -0,0 +1,199 @@
+package com.iseonline.shared.k8s.deployment.helm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Properties;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jboss.logging.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Remembers successful helm registry logins, so unchanged credentials don't
+ * have to be sent to the registry again on every start. Helm itself keeps the
+ * credentials in its registry config, we only store when and with which
+ * credentials the login happened, as HMAC with a random key of the machine,
+ * which only the user can read.
+ */
+public class RegistryLoginCache {
+    private static final Logger log = Logger.getLogger(RegistryLoginCache.class);
+
+    private static final String CACHE_FILE = "registry-logins.properties";
+
+    private static final String KEY_FILE = "registry-logins.key";
+
+    private static final String HMAC = "HmacSHA256";
+
+    private static final int KEY_LENGTH = 32;
+
+    private final Path cacheFile;
+
+    private final Path keyFile;
+
+    private final Path registryConfig;
+
+    private final Duration ttl;
+
+    private final Properties logins = new Properties();
+
+    private byte[] key;
+
+    /**
+     * @param registryConfig the registry config of helm, a login is only valid
+     *        while it still has the credentials of the host
+     */
+    public RegistryLoginCache(Path cacheDir, Path registryConfig, Duration ttl) {
+        this.cacheFile = cacheDir.resolve(CACHE_FILE);
+        this.keyFile = cacheDir.resolve(KEY_FILE);
+        this.registryConfig = registryConfig;
+        this.ttl = ttl;
+        if (Files.exists(cacheFile)) {
+            try (InputStream is = Files.newInputStream(cacheFile)) {
+                logins.load(is);
+            } catch (IOException e) {
+                log.debugf("Could not read registry login cache %s: %s", cacheFile, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the registry config of helm, like helm resolves it
+     */
+    public static Path defaultRegistryConfig() {
+        String configured = System.getenv("HELM_REGISTRY_CONFIG");
+        if (configured != null && !configured.isBlank()) {
+            return Path.of(configured);
+        }
+        Path home = Path.of(System.getProperty("user.home"));
+        String os = System.getProperty("os.name", "").toLowerCase();
+        Path configHome;
+        if (System.getenv("XDG_CONFIG_HOME") != null) {
+            configHome = Path.of(System.getenv("XDG_CONFIG_HOME"));
+        } else if (os.contains("mac")) {
+            configHome = home.resolve("Library").resolve("Preferences");
+        } else if (os.contains("win") && System.getenv("APPDATA") != null) {
+            configHome = Path.of(System.getenv("APPDATA"));
+        } else {
+            configHome = home.resolve(".config");
+        }
+        return configHome.resolve("helm").resolve("registry").resolve("config.json");
+    }
+
+    /**
+     * @return true, if a login with the same credentials to the host succeeded
+     *         within the ttl and helm still has credentials of the host, e.g.
+     *         there was no {@code helm registry logout} since
+     */
+    public synchronized boolean isValid(String host, String username, String password) {
+        String entry = logins.getProperty(host);
+        if (entry == null) {
+            return false;
+        }
+        String[] split = entry.split(":", 2);
+        if (split.length != 2 || !split[1].equals(hash(host, username, password))) {
+            return false;
+        }
+        try {
+            if (!Instant.ofEpochMilli(Long.parseLong(split[0])).plus(ttl).isAfter(Instant.now())) {
+                return false;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return isLoggedIn(host);
+    }
+
+    public synchronized void loggedIn(String host, String username, String password) {
+        String hash = hash(host, username, password);
+        if (hash != null) {
+            logins.setProperty(host, System.currentTimeMillis() + ":" + hash);
+        }
+    }
+
+    public synchronized void save() {
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            try (OutputStream os = Files.newOutputStream(cacheFile)) {
+                logins.store(os, "Successful helm registry logins of quarkus-dev-apps-k8s");
+            }
+        } catch (IOException e) {
+            log.warnf("Could not write registry login cache %s: %s", cacheFile, e.getMessage());
+        }
+    }
+
+    private boolean isLoggedIn(String host) {
+        if (!Files.exists(registryConfig)) {
+            return false;
+        }
+        try {
+            JsonNode config = new ObjectMapper().readTree(registryConfig.toFile());
+            return config.path("auths").has(host);
+        } catch (IOException e) {
+            log.debugf("Could not read helm registry config %s: %s", registryConfig, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return the HMAC of the credentials, null if there is no key, so nothing
+     *         is cached
+     */
+    private String hash(String host, String username, String password) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(new SecretKeySpec(key(), HMAC));
+            return HexFormat.of().formatHex(
+                    mac.doFinal((host + "\n" + username + "\n" + password).getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException | GeneralSecurityException e) {
+            log.debugf("Could not hash registry credentials with key %s: %s", keyFile, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the key of the machine, created with owner only permissions on the
+     *         first use
+     */
+    private byte[] key() throws IOException {
+        if (key != null) {
+            return key;
+        }
+        if (!Files.exists(keyFile)) {
+            byte[] created = new byte[KEY_LENGTH];
+            new SecureRandom().nextBytes(created);
+            Files.createDirectories(keyFile.getParent());
+            try {
+                if (keyFile.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                    Files.createFile(keyFile,
+                            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+                } else {
+                    Files.createFile(keyFile);
+                }
+                Files.write(keyFile, created);
+            } catch (FileAlreadyExistsException e) {
+                // created concurrently by another application
+            }
+        }
+        byte[] read = Files.readAllBytes(keyFile);
+        if (read.length < KEY_LENGTH) {
+            throw new IOException("Key is too short");
+        }
+        key = read;
+        return key;
+    }
+}
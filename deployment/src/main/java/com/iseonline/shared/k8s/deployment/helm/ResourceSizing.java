@@ -0,0 +1,384 @@
+package com.iseonline.shared.k8s.deployment.helm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.fasterxml.jackson.dataformat.yaml.YAMLGenerator;
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.utils.KubeContextSelector;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.metrics.v1beta1.ContainerMetrics;
+import io.fabric8.kubernetes.api.model.metrics.v1beta1.PodMetrics;
+import io.fabric8.kubernetes.client.KubernetesClient;
+
+/**
+ * Records the peak cpu and memory usage of the pods of the releases and
+ * generates a values overlay per chart, which requests the peak of the last
+ * sessions plus a headroom, instead of the production sized defaults of the
+ * charts.
+ * <p>
+ * A pod is mapped to the values of its chart by the recommended labels, like
+ * the bitnami charts set them: {@code app.kubernetes.io/instance} is the
+ * release, {@code app.kubernetes.io/name} the chart or one of its dependencies
+ * and {@code app.kubernetes.io/component}, if it differs from the name, the
+ * values section of the component, e.g. {@code postgresql.primary.resources}.
+ * Only the main container of a pod is sized, the one named like the component
+ * or chart, otherwise the first one. The requests are capped at the limits of
+ * that container, as kubernetes rejects requests above the limits.
+ * <p>
+ * The history and the overlay are written per release below the build output,
+ * not into the charts. A session is a run of the JVM, so restarts of the dev
+ * services in dev mode continue it.
+ */
+public class ResourceSizing implements Closeable {
+    private static final Logger log = Logger.getLogger(ResourceSizing.class);
+
+    /**
+     * The generated overlay of a release, applied before the profile values, so
+     * they can still override it.
+     */
+    public static final String VALUES_FILE = "values-k8s-devservices-sizing.yaml";
+
+    /**
+     * The peaks per session of a release.
+     */
+    static final String HISTORY_FILE = "history.yaml";
+
+    /**
+     * The limits of the containers of a release, as deployed without overlay.
+     */
+    static final String LIMITS_FILE = "limits.yaml";
+
+    /**
+     * The current session, the start of the JVM.
+     */
+    private static final long JVM_SESSION = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+    private static final long MIN_CPU_MILLIS = 10;
+
+    private static final long MIN_MEMORY_BYTES = 32L * 1024 * 1024;
+
+    private static final long MEBIBYTE = 1024L * 1024;
+
+    private static final ObjectMapper yamlMapper = new ObjectMapper(
+            new YAMLFactory().disable(YAMLGenerator.Feature.USE_NATIVE_TYPE_ID)
+                    .disable(YAMLGenerator.Feature.WRITE_DOC_START_MARKER));
+
+    /**
+     * The peak usage of a session.
+     */
+    record Usage(long cpuMillis, long memoryBytes) {
+        Usage max(Usage other) {
+            return new Usage(Math.max(cpuMillis, other.cpuMillis), Math.max(memoryBytes, other.memoryBytes));
+        }
+    }
+
+    private static class Chart {
+        private final Path dir;
+
+        /**
+         * The directory of the history and the overlay.
+         */
+        private final Path sizingDir;
+
+        private final String name;
+
+        /**
+         * The values key of each dependency by its chart name.
+         */
+        private final Map<String, String> dependencies = new LinkedHashMap<>();
+
+        /**
+         * The peaks per values path and session.
+         */
+        private final Map<String, TreeMap<Long, Usage>> history;
+
+        /**
+         * The limits per values path, 0 if there is no limit.
+         */
+        private final Map<String, Usage> limits;
+
+        Chart(Path dir, Path sizingDir) throws IOException {
+            this.dir = dir;
+            this.sizingDir = sizingDir;
+            JsonNode chart = yamlMapper.readTree(dir.resolve("Chart.yaml").toFile());
+            name = chart.path("name").asText();
+            for (JsonNode dependency : chart.path("dependencies")) {
+                String dependencyName = dependency.path("name").asText();
+                dependencies.put(dependencyName, dependency.path("alias").asText(dependencyName));
+            }
+            Path historyFile = sizingDir.resolve(HISTORY_FILE);
+            history = Files.exists(historyFile)
+                    ? yamlMapper.readValue(historyFile.toFile(),
+                            new TypeReference<TreeMap<String, TreeMap<Long, Usage>>>() {
+                            })
+                    : new TreeMap<>();
+            Path limitsFile = sizingDir.resolve(LIMITS_FILE);
+            limits = Files.exists(limitsFile)
+                    ? yamlMapper.readValue(limitsFile.toFile(), new TypeReference<TreeMap<String, Usage>>() {
+                    })
+                    : new TreeMap<>();
+        }
+
+        /**
+         * @return the values path of the resources of the pod, or null if it does
+         *         not belong to the chart
+         */
+        String valuesPath(Map<String, String> labels) {
+            String podChart = labels.get("app.kubernetes.io/name");
+            String component = labels.get("app.kubernetes.io/component");
+            String path;
+            if (podChart == null || podChart.equals(name)) {
+                path = "";
+            } else if (dependencies.containsKey(podChart)) {
+                path = dependencies.get(podChart) + ".";
+            } else {
+                return null;
+            }
+            if (component != null && !component.equals(podChart)) {
+                path += component + ".";
+            }
+            return path + "resources";
+        }
+    }
+
+    private final K8sDevServicesBuildTimeConfig config;
+
+    private final KubernetesClient k8sClient;
+
+    private final String namespace;
+
+    private final long session;
+
+    /**
+     * The charts by their release name.
+     */
+    private final Map<String, Chart> charts = new LinkedHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param releases the chart directories by their release name
+     * @param sizingDir the directory of the histories and overlays, see
+     *        {@link #directory(Path)}
+     */
+    public ResourceSizing(K8sDevServicesBuildTimeConfig config, KubernetesClient k8sClient, String namespace,
+            Map<String, Path> releases, Path sizingDir) {
+        this(config, k8sClient, namespace, releases, sizingDir, JVM_SESSION);
+    }
+
+    ResourceSizing(K8sDevServicesBuildTimeConfig config, KubernetesClient k8sClient, String namespace,
+            Map<String, Path> releases, Path sizingDir, long session) {
+        this.config = config;
+        this.k8sClient = k8sClient;
+        this.namespace = namespace;
+        this.session = session;
+        releases.forEach((release, dir) -> {
+            try {
+                charts.put(release, new Chart(dir, sizingDir.resolve(release)));
+            } catch (IOException e) {
+                log.warnf("Could not read the sizing history of %s, not sizing it: %s", release, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * @return the directory of the histories and overlays below the build output
+     */
+    public static Path directory(Path outputDirectory) {
+        return outputDirectory.resolve("k8s-devservices").resolve("sizing");
+    }
+
+    /**
+     * @return the overlay of the release, it may not exist yet
+     */
+    public static Path valuesFile(Path sizingDir, String release) {
+        return sizingDir.resolve(release).resolve(VALUES_FILE);
+    }
+
+    /**
+     * @return the chart directories by release of the charts path, like the helm
+     *         deployer installs them
+     */
+    public static Map<String, Path> releases(Path chartsDir) {
+        Map<String, Path> releases = new LinkedHashMap<>();
+        if (Files.exists(chartsDir.resolve("Chart.yaml"))) {
+            releases.put(KubeContextSelector.DEFAULT_RELEASE_NAME, chartsDir);
+            return releases;
+        }
+        try (var dirs = Files.list(chartsDir)) {
+            dirs.filter(dir -> Files.exists(dir.resolve("Chart.yaml")))
+                    .sorted()
+                    .forEach(dir -> releases.put(dir.getFileName().toString(), dir));
+        } catch (IOException e) {
+            log.debugf("Could not list charts dir %s: %s", chartsDir, e.getMessage());
+        }
+        return releases;
+    }
+
+    /**
+     * Samples the usage in the configured interval till it is closed.
+     */
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "k8s-devservices-sizing");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = config.sizingInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                sample();
+            } catch (RuntimeException e) {
+                // e.g. no metrics server installed
+                log.debugf("Could not sample the resource usage in %s: %s", namespace, e.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records the current usage of the pods and updates the overlays of the
+     * charts, whose peaks changed.
+     */
+    public synchronized void sample() {
+        Set<Chart> changed = new HashSet<>();
+        for (PodMetrics pod : k8sClient.top().pods().metrics(namespace).getItems()) {
+            Map<String, String> labels = Objects.requireNonNullElse(pod.getMetadata().getLabels(), Map.of());
+            Chart chart = charts.get(labels.get("app.kubernetes.io/instance"));
+            String path = chart != null ? chart.valuesPath(labels) : null;
+            ContainerMetrics container = mainContainer(pod, labels);
+            if (path == null || container == null) {
+                continue;
+            }
+            Usage usage = new Usage(
+                    amount(container.getUsage().get("cpu")).movePointRight(3).longValue(),
+                    amount(container.getUsage().get("memory")).longValue());
+            TreeMap<Long, Usage> peaks = chart.history.computeIfAbsent(path, p -> new TreeMap<>());
+            Usage peak = peaks.get(session);
+            if (peak != null && peak.max(usage).equals(peak)) {
+                continue;
+            }
+            peaks.put(session, peak != null ? peak.max(usage) : usage);
+            Usage limit = limits(pod, container);
+            if (limit != null) {
+                chart.limits.put(path, limit);
+            }
+            while (peaks.size() > config.sizingSessions()) {
+                peaks.pollFirstEntry();
+            }
+            changed.add(chart);
+        }
+        for (Chart chart : changed) {
+            write(chart);
+        }
+    }
+
+    private void write(Chart chart) {
+        Map<String, Object> overlay = new TreeMap<>();
+        chart.history.forEach((path, peaks) -> {
+            Usage peak = peaks.values().stream().reduce(new Usage(0, 0), Usage::max);
+            long cpu = Math.max(MIN_CPU_MILLIS, withHeadroom(peak.cpuMillis()));
+            long memoryMebibytes = (Math.max(MIN_MEMORY_BYTES, withHeadroom(peak.memoryBytes())) + MEBIBYTE - 1)
+                    / MEBIBYTE;
+            Usage limit = chart.limits.get(path);
+            if (limit != null && limit.cpuMillis() > 0) {
+                cpu = Math.min(cpu, limit.cpuMillis());
+            }
+            if (limit != null && limit.memoryBytes() >= MEBIBYTE) {
+                memoryMebibytes = Math.min(memoryMebibytes, limit.memoryBytes() / MEBIBYTE);
+            }
+            Map<String, Object> requests = new LinkedHashMap<>();
+            requests.put("cpu", cpu + "m");
+            requests.put("memory", memoryMebibytes + "Mi");
+            put(overlay, path + ".requests", requests);
+        });
+        try {
+            Files.createDirectories(chart.sizingDir);
+            yamlMapper.writeValue(chart.sizingDir.resolve(HISTORY_FILE).toFile(), chart.history);
+            yamlMapper.writeValue(chart.sizingDir.resolve(LIMITS_FILE).toFile(), chart.limits);
+            Files.writeString(chart.sizingDir.resolve(VALUES_FILE),
+                    "# Generated by the k8s dev services from the measured usage of " + chart.dir
+                            + ", changes are overwritten\n" + yamlMapper.writeValueAsString(overlay));
+        } catch (IOException e) {
+            log.warnf("Could not write the sizing of %s: %s", chart.dir, e.getMessage());
+        }
+    }
+
+    private long withHeadroom(long value) {
+        return value * (100 + config.sizingHeadroom()) / 100;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void put(Map<String, Object> values, String path, Object value) {
+        String[] keys = path.split("\\.");
+        Map<String, Object> current = values;
+        for (int i = 0; i < keys.length - 1; i++) {
+            current = (Map<String, Object>) current.computeIfAbsent(keys[i], k -> new TreeMap<>());
+        }
+        current.put(keys[keys.length - 1], value);
+    }
+
+    /**
+     * @return the limits of the container in the spec of the pod, null if the
+     *         pod is gone meanwhile
+     */
+    private Usage limits(PodMetrics metrics, ContainerMetrics container) {
+        Pod pod = k8sClient.pods().inNamespace(namespace).withName(metrics.getMetadata().getName()).get();
+        if (pod == null) {
+            return null;
+        }
+        return pod.getSpec().getContainers().stream()
+                .filter(c -> c.getName().equals(container.getName()))
+                .findFirst()
+                .map(c -> c.getResources() != null && c.getResources().getLimits() != null
+                        ? c.getResources().getLimits()
+                        : Map.<String, Quantity> of())
+                .map(limits -> new Usage(
+                        amount(limits.get("cpu")).movePointRight(3).longValue(),
+                        amount(limits.get("memory")).longValue()))
+                .orElse(null);
+    }
+
+    private static ContainerMetrics mainContainer(PodMetrics pod, Map<String, String> labels) {
+        List<ContainerMetrics> containers = Objects.requireNonNullElse(pod.getContainers(), List.of());
+        return containers.stream()
+                .filter(c -> c.getName().equals(labels.get("app.kubernetes.io/component"))
+                        || c.getName().equals(labels.get("app.kubernetes.io/name")))
+                .findFirst()
+                .orElse(containers.isEmpty() ? null : containers.get(0));
+    }
+
+    private static BigDecimal amount(Quantity quantity) {
+        return quantity != null ? Quantity.getAmountInBytes(quantity) : BigDecimal.ZERO;
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import com.jcraft.jsch.SocketFactory;
+
+/**
+ * Socket factory for the local side of a reverse proxy, which counts the
+ * traffic in the {@link TunnelStats}.
+ */
+public class CountingSocketFactory implements SocketFactory {
+
+    private final TunnelStats stats;
+
+    public CountingSocketFactory(TunnelStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        long start = System.nanoTime();
+        try {
+            Socket socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            stats.connected(System.nanoTime() - start);
+            return socket;
+        } catch (IOException e) {
+            stats.failed();
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream(Socket socket) throws IOException {
+        return stats.countOut(socket.getInputStream());
+    }
+
+    @Override
+    public OutputStream getOutputStream(Socket socket) throws IOException {
+        return stats.countIn(socket.getOutputStream());
+    }
+}
@@ -0,0 +1,210 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+
+import com.iseonline.shared.k8s.deployment.ssh.PortsConfiguration.LoadBalancing;
+
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.ServicePort;
+import io.fabric8.kubernetes.api.model.discovery.v1.Endpoint;
+import io.fabric8.kubernetes.api.model.discovery.v1.EndpointPort;
+import io.fabric8.kubernetes.api.model.discovery.v1.EndpointSlice;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+
+/**
+ * Spreads the connections of a port forwarding across the ready pods behind a
+ * service, instead of letting kube-proxy in the gateway pod choose one. The
+ * endpoints are taken from the EndpointSlices of the service, which are kept up
+ * to date via a watch.
+ */
+public class EndpointBalancer implements Closeable {
+    private static final Logger log = Logger.getLogger(EndpointBalancer.class);
+
+    private static final String SERVICE_NAME_LABEL = "kubernetes.io/service-name";
+
+    /**
+     * An address and port of a pod behind the service.
+     */
+    public record Target(String host, int port) {
+    }
+
+    private final KubernetesClient k8sClient;
+
+    private final String namespace;
+
+    private final String serviceName;
+
+    private final int servicePort;
+
+    private final LoadBalancing strategy;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final Map<Target, AtomicInteger> connections = new ConcurrentHashMap<>();
+
+    private volatile List<Target> targets = Collections.emptyList();
+
+    private volatile SharedIndexInformer<EndpointSlice> informer;
+
+    /**
+     * @param serviceName the name of the service, optionally followed by
+     *        {@code .<namespace>}
+     * @param namespace the namespace of the service, if it is not part of the
+     *        name
+     */
+    public EndpointBalancer(KubernetesClient k8sClient, String namespace, String serviceName, int servicePort,
+            LoadBalancing strategy) {
+        String[] split = serviceName.split("\\.");
+        this.k8sClient = k8sClient;
+        this.serviceName = split[0];
+        this.namespace = split.length > 1 ? split[1] : namespace;
+        this.servicePort = servicePort;
+        this.strategy = strategy;
+    }
+
+    /**
+     * Starts watching the endpoints of the service.
+     *
+     * @return false, if the service or its port does not exist
+     */
+    public boolean start() {
+        Service service = k8sClient.services().inNamespace(namespace).withName(serviceName).get();
+        ServicePort port = service == null || service.getSpec().getPorts() == null ? null
+                : service.getSpec().getPorts().stream()
+                        .filter(p -> Objects.equals(p.getPort(), servicePort))
+                        .findFirst()
+                        .orElse(null);
+        if (port == null) {
+            log.warnf("Service %s.%s with port %d not found, connections are not load balanced", serviceName,
+                    namespace, servicePort);
+            return false;
+        }
+        String portName = port.getName() != null ? port.getName() : "";
+        informer = k8sClient.discovery().v1().endpointSlices()
+                .inNamespace(namespace)
+                .withLabel(SERVICE_NAME_LABEL, serviceName)
+                .inform(new ResourceEventHandler<>() {
+                    @Override
+                    public void onAdd(EndpointSlice slice) {
+                        refresh(portName);
+                    }
+
+                    @Override
+                    public void onUpdate(EndpointSlice oldSlice, EndpointSlice slice) {
+                        refresh(portName);
+                    }
+
+                    @Override
+                    public void onDelete(EndpointSlice slice, boolean deletedFinalStateUnknown) {
+                        refresh(portName);
+                    }
+                });
+        refresh(portName);
+        return true;
+    }
+
+    /**
+     * Chooses the target for a new connection, which must be handed back via
+     * {@link #release(Target)} once the connection is closed.
+     *
+     * @return the chosen target, null if there is no ready endpoint
+     */
+    public Target acquire() {
+        List<Target> current = targets;
+        if (current.isEmpty()) {
+            return null;
+        }
+        int offset = Math.floorMod(next.getAndIncrement(), current.size());
+        Target chosen = current.get(offset);
+        if (strategy == LoadBalancing.LEAST_CONNECTIONS) {
+            // Start at the round robin position, so ties are spread as well
+            int least = Integer.MAX_VALUE;
+            for (int i = 0; i < current.size(); i++) {
+                Target target = current.get((offset + i) % current.size());
+                int active = connections(target).get();
+                if (active < least) {
+                    least = active;
+                    chosen = target;
+                }
+            }
+        }
+        connections(chosen).incrementAndGet();
+        return chosen;
+    }
+
+    public void release(Target target) {
+        AtomicInteger active = connections.get(target);
+        if (active != null) {
+            active.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the currently ready endpoints
+     */
+    public List<Target> getTargets() {
+        return targets;
+    }
+
+    @Override
+    public void close() {
+        SharedIndexInformer<EndpointSlice> current = informer;
+        informer = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private AtomicInteger connections(Target target) {
+        return connections.computeIfAbsent(target, t -> new AtomicInteger());
+    }
+
+    private synchronized void refresh(String portName) {
+        SharedIndexInformer<EndpointSlice> current = informer;
+        if (current == null) {
+            return;
+        }
+        List<Target> ready = new ArrayList<>();
+        for (EndpointSlice slice : current.getStore().list()) {
+            Integer port = slice.getPorts() == null ? null
+                    : slice.getPorts().stream()
+                            .filter(p -> portName.equals(p.getName() != null ? p.getName() : ""))
+                            .map(EndpointPort::getPort)
+                            .filter(Objects::nonNull)
+                            .findFirst()
+                            .orElse(null);
+            if (port == null || slice.getEndpoints() == null) {
+                continue;
+            }
+            for (Endpoint endpoint : slice.getEndpoints()) {
+                // Unknown readiness is interpreted as ready
+                if (endpoint.getConditions() != null
+                        && Boolean.FALSE.equals(endpoint.getConditions().getReady())) {
+                    continue;
+                }
+                for (String address : endpoint.getAddresses()) {
+                    ready.add(new Target(address, port));
+                }
+            }
+        }
+        ready.sort(Comparator.comparing(Target::host).thenComparingInt(Target::port));
+        if (!ready.equals(targets)) {
+            log.infof("Load balancing %s.%s:%d across %d endpoints", serviceName, namespace, servicePort,
+                    ready.size());
+        }
+        targets = List.copyOf(ready);
+        connections.keySet().retainAll(ready);
+    }
+}
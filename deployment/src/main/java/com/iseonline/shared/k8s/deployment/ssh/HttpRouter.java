@@ -0,0 +1,580 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Routes the HTTP requests of the single reverse proxy listener on the gateway
+ * to the local ports, by the Host header or the path prefix. Every request is
+ * routed on its own, while the connection to a local port stays open and is
+ * reused by the following requests of the same connection. Upgraded
+ * connections, e.g. websockets, are piped through once the upgrade is
+ * accepted.
+ */
+public class HttpRouter implements Closeable {
+    private static final Logger log = Logger.getLogger(HttpRouter.class);
+
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final ExecutorService connections = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "k8s-devservices-http-router");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param serviceName matches the first label of the Host header, as sent by
+     *        the pods using the service
+     * @param host matches the whole host of the Host header, e.g. of an ingress,
+     *        null for none
+     * @param pathPrefix the path prefix to route, null for all paths
+     * @param localPort the local port the requests are routed to
+     */
+    public record Route(String serviceName, String host, String pathPrefix, int localPort) {
+
+        boolean matchesHost(String hostName) {
+            if (host != null && host.equalsIgnoreCase(hostName)) {
+                return true;
+            }
+            int dot = hostName.indexOf('.');
+            return serviceName.equalsIgnoreCase(dot < 0 ? hostName : hostName.substring(0, dot));
+        }
+
+        boolean matchesPath(String path) {
+            if (pathPrefix == null || pathPrefix.equals("/")) {
+                return true;
+            }
+            String prefix = pathPrefix.endsWith("/") ? pathPrefix.substring(0, pathPrefix.length() - 1) : pathPrefix;
+            return path.equals(prefix) || path.startsWith(prefix + "/");
+        }
+
+        int prefixLength() {
+            return pathPrefix != null ? pathPrefix.length() : 0;
+        }
+    }
+
+    private final List<Route> routes = new CopyOnWriteArrayList<>();
+
+    private final TunnelStats stats;
+
+    private volatile ServerSocket serverSocket;
+
+    public HttpRouter(TunnelStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Binds a random local port and starts accepting connections.
+     *
+     * @return the bound local port
+     */
+    public int start() throws IOException {
+        ServerSocket socket = new ServerSocket();
+        socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        serverSocket = socket;
+
+        Thread acceptor = new Thread(() -> accept(socket), "k8s-devservices-http-router-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return socket.getLocalPort();
+    }
+
+    public void add(Route route) {
+        routes.add(route);
+    }
+
+    public void remove(Route route) {
+        routes.remove(route);
+    }
+
+    public List<Route> getRoutes() {
+        return List.copyOf(routes);
+    }
+
+    /**
+     * Routes with a matching host take precedence, among them the longest
+     * matching path prefix wins. If no route matches the host, e.g. for requests
+     * of an ingress, the path prefix alone decides.
+     *
+     * @param hostHeader the Host header, with or without port
+     * @return the route of the request, null if none matches
+     */
+    Route route(String hostHeader, String path) {
+        String hostName = hostHeader != null ? hostHeader.trim() : "";
+        int colon = hostName.lastIndexOf(':');
+        if (colon >= 0 && !hostName.endsWith("]")) {
+            hostName = hostName.substring(0, colon);
+        }
+        String requestHost = hostName;
+        int query = path.indexOf('?');
+        String requestPath = query >= 0 ? path.substring(0, query) : path;
+
+        List<Route> candidates = routes.stream().filter(r -> r.matchesHost(requestHost)).toList();
+        if (candidates.isEmpty()) {
+            candidates = routes;
+        }
+        return candidates.stream()
+                .filter(r -> r.matchesPath(requestPath))
+                .max(Comparator.comparingInt(Route::prefixLength))
+                .orElse(null);
+    }
+
+    public boolean isAlive() {
+        ServerSocket socket = serverSocket;
+        return socket != null && !socket.isClosed();
+    }
+
+    @Override
+    public void close() {
+        ServerSocket socket = serverSocket;
+        serverSocket = null;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // can be ignored
+            }
+        }
+    }
+
+    private void accept(ServerSocket socket) {
+        while (!socket.isClosed()) {
+            try {
+                Socket client = socket.accept();
+                connections.execute(() -> handle(client));
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    log.debugf("Error during accepting http connection: %s", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * The connection to one local port, kept for the following requests of the
+     * same client connection.
+     */
+    private record Upstream(Socket socket, InputStream in, OutputStream out) implements Closeable {
+        static Upstream connect(int port) throws IOException {
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            return new Upstream(socket, new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE),
+                    socket.getOutputStream());
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // can be ignored
+            }
+        }
+    }
+
+    private void handle(Socket client) {
+        Map<Integer, Upstream> upstreams = new HashMap<>();
+        try (client) {
+            client.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(client.getInputStream(), BUFFER_SIZE);
+            OutputStream out = client.getOutputStream();
+            Head request;
+            while ((request = Head.read(in)) != null) {
+                long start = System.nanoTime();
+                String[] requestLine = request.startLine.split(" ");
+                Route route = requestLine.length == 3 ? route(request.header("Host"), requestLine[1]) : null;
+                if (route == null) {
+                    log.debugf("No route for http request %s of host %s", request.startLine,
+                            request.header("Host"));
+                    stats.failed();
+                    respond(out, "404 Not Found", "No route for " + request.startLine);
+                    return;
+                }
+                if (request.contentLength() == Head.MALFORMED) {
+                    log.debugf("Malformed content length of http request %s", request.startLine);
+                    stats.failed();
+                    respond(out, "400 Bad Request", "Malformed Content-Length");
+                    return;
+                }
+                Upstream upstream = upstreams.get(route.localPort());
+                boolean reused = upstream != null;
+                if (upstream == null) {
+                    upstream = connect(route, upstreams, out, start);
+                    if (upstream == null) {
+                        return;
+                    }
+                }
+                if (request.hasToken("Expect", "100-continue")) {
+                    // Otherwise the client waits for the local application before sending the body
+                    out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                    out.flush();
+                    request.remove("Expect");
+                }
+                Head response;
+                try {
+                    response = exchange(request, in, upstream);
+                } catch (ProtocolException e) {
+                    // The request body was not sent completely, the connection is useless
+                    log.debugf("Malformed body of http request %s: %s", request.startLine, e.getMessage());
+                    upstreams.remove(route.localPort()).close();
+                    stats.failed();
+                    respond(out, "400 Bad Request", e.getMessage());
+                    return;
+                }
+                if (response == null && reused && !request.hasBody()) {
+                    // The local application closed the idle connection meanwhile
+                    upstreams.remove(route.localPort()).close();
+                    upstream = connect(route, upstreams, out, start);
+                    if (upstream == null) {
+                        return;
+                    }
+                    response = exchange(request, in, upstream);
+                }
+                while (response != null && response.status() >= 100 && response.status() < 200
+                        && response.status() != 101) {
+                    response.write(out);
+                    response = Head.read(upstream.in);
+                }
+                if (response == null) {
+                    upstreams.remove(route.localPort()).close();
+                    stats.failed();
+                    respond(out, "502 Bad Gateway", "Local port " + route.localPort() + " closed the connection");
+                    return;
+                }
+                if (response.status() == Head.MALFORMED || response.contentLength() == Head.MALFORMED) {
+                    log.debugf("Malformed http response %s of local port %d", response.startLine, route.localPort());
+                    upstreams.remove(route.localPort()).close();
+                    stats.failed();
+                    respond(out, "502 Bad Gateway", "Local port " + route.localPort() + " sent a malformed response");
+                    return;
+                }
+                response.write(out);
+
+                if (response.status() == 101 || requestLine[0].equals("CONNECT") && response.status() / 100 == 2) {
+                    out.flush();
+                    pipe(client, in, out, upstream);
+                    return;
+                }
+                boolean bodyless = requestLine[0].equals("HEAD") || response.status() == 204
+                        || response.status() == 304;
+                if (!bodyless && !relayBody(response, upstream.in, out, false)) {
+                    // Without framing the body ends with the connection
+                    upstream.in.transferTo(out);
+                    return;
+                }
+                out.flush();
+                if (!response.keepAlive()) {
+                    upstreams.remove(route.localPort()).close();
+                }
+                if (!request.keepAlive()) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            log.debugf("Http connection closed: %s", e.getMessage());
+        } finally {
+            upstreams.values().forEach(Upstream::close);
+        }
+    }
+
+    /**
+     * @return the new connection to the local port of the route, null if it is
+     *         not reachable, which is answered to the client
+     */
+    private Upstream connect(Route route, Map<Integer, Upstream> upstreams, OutputStream out, long start)
+            throws IOException {
+        try {
+            Upstream upstream = Upstream.connect(route.localPort());
+            upstreams.put(route.localPort(), upstream);
+            stats.connected(System.nanoTime() - start);
+            return upstream;
+        } catch (IOException e) {
+            log.debugf("Could not connect to local port %d: %s", route.localPort(), e.getMessage());
+            stats.failed();
+            respond(out, "502 Bad Gateway", "Local port " + route.localPort() + " is not reachable");
+            return null;
+        }
+    }
+
+    /**
+     * Sends the request to the local port.
+     *
+     * @return the head of the response, null if the connection was closed
+     *         before, which is only detected for requests without body
+     */
+    private static Head exchange(Head request, InputStream in, Upstream upstream) throws IOException {
+        try {
+            request.write(upstream.out);
+            relayBody(request, in, upstream.out, true);
+            upstream.out.flush();
+            return Head.read(upstream.in);
+        } catch (IOException e) {
+            if (request.hasBody()) {
+                throw e;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Copies a body framed by content length or chunked transfer encoding.
+     *
+     * @param request whether the head is a request, which has no body without
+     *        framing
+     * @return false if the body has no framing
+     */
+    private static boolean relayBody(Head head, InputStream in, OutputStream out, boolean request)
+            throws IOException {
+        if (head.hasToken("Transfer-Encoding", "chunked")) {
+            relayChunked(in, out);
+            return true;
+        }
+        long remaining = head.contentLength();
+        if (remaining == Head.MALFORMED) {
+            throw new ProtocolException("Malformed Content-Length");
+        }
+        if (remaining >= 0) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("Body ended after " + remaining + " missing bytes");
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+            return true;
+        }
+        return request;
+    }
+
+    private static void relayChunked(InputStream in, OutputStream out) throws IOException {
+        while (true) {
+            String sizeLine = Head.readLine(in);
+            out.write((sizeLine + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            int extension = sizeLine.indexOf(';');
+            long size;
+            try {
+                size = Long.parseLong((extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim(), 16);
+            } catch (NumberFormatException e) {
+                size = -1;
+            }
+            if (size < 0) {
+                throw new ProtocolException("Malformed chunk size " + sizeLine);
+            }
+            if (size == 0) {
+                // Trailers till the empty line
+                String trailer;
+                do {
+                    trailer = Head.readLine(in);
+                    out.write((trailer + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                } while (!trailer.isEmpty());
+                return;
+            }
+            // The chunk and its CRLF
+            long remaining = size + 2;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("Chunk ended after " + remaining + " missing bytes");
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    /**
+     * Copies both directions till one side closes the connection.
+     */
+    private static void pipe(Socket client, InputStream in, OutputStream out, Upstream upstream) {
+        Thread upload = new Thread(() -> {
+            try {
+                in.transferTo(upstream.out);
+            } catch (IOException e) {
+                // closed
+            } finally {
+                upstream.close();
+            }
+        }, "k8s-devservices-http-router-upgrade");
+        upload.setDaemon(true);
+        upload.start();
+        try {
+            upstream.in.transferTo(out);
+        } catch (IOException e) {
+            // closed
+        } finally {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // can be ignored
+            }
+        }
+    }
+
+    private static void respond(OutputStream out, String status, String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        out.write(("HTTP/1.1 " + status + "\r\nContent-Type: text/plain\r\nContent-Length: " + body.length
+                + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+
+    /**
+     * The start line and the headers of a request or response.
+     */
+    static class Head {
+        final String startLine;
+
+        /**
+         * Status or content length which cannot be parsed.
+         */
+        static final int MALFORMED = -2;
+
+        private final List<String[]> headers = new ArrayList<>();
+
+        private Head(String startLine) {
+            this.startLine = startLine;
+        }
+
+        /**
+         * @return the head, null if the connection is closed before a new message
+         */
+        static Head read(InputStream in) throws IOException {
+            String line;
+            try {
+                line = readLine(in);
+            } catch (EOFException e) {
+                return null;
+            }
+            Head head = new Head(line);
+            int size = line.length();
+            while (!(line = readLine(in)).isEmpty()) {
+                size += line.length();
+                if (size > MAX_HEAD_SIZE) {
+                    throw new IOException("Http head exceeds " + MAX_HEAD_SIZE + " bytes");
+                }
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    head.headers.add(new String[] { line.substring(0, colon), line.substring(colon + 1).trim() });
+                }
+            }
+            return head;
+        }
+
+        static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new EOFException("Connection closed");
+                }
+                if (line.size() > MAX_HEAD_SIZE) {
+                    throw new IOException("Http line exceeds " + MAX_HEAD_SIZE + " bytes");
+                }
+                line.write(b);
+            }
+            byte[] bytes = line.toByteArray();
+            int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+            return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+        }
+
+        String header(String name) {
+            return headers.stream()
+                    .filter(h -> h[0].equalsIgnoreCase(name))
+                    .map(h -> h[1])
+                    .findFirst()
+                    .orElse(null);
+        }
+
+        boolean hasToken(String name, String token) {
+            return headers.stream()
+                    .filter(h -> h[0].equalsIgnoreCase(name))
+                    .flatMap(h -> List.of(h[1].toLowerCase(Locale.ROOT).split("\\s*,\\s*")).stream())
+                    .anyMatch(token::equalsIgnoreCase);
+        }
+
+        boolean hasBody() {
+            String contentLength = header("Content-Length");
+            return header("Transfer-Encoding") != null
+                    || contentLength != null && !contentLength.trim().equals("0");
+        }
+
+        void remove(String name) {
+            headers.removeIf(h -> h[0].equalsIgnoreCase(name));
+        }
+
+        /**
+         * @return the status of a response, {@link #MALFORMED} if it has none
+         */
+        int status() {
+            String[] split = startLine.split(" ", 3);
+            try {
+                int status = split.length > 1 ? Integer.parseInt(split[1]) : MALFORMED;
+                return status >= 100 && status <= 999 ? status : MALFORMED;
+            } catch (NumberFormatException e) {
+                return MALFORMED;
+            }
+        }
+
+        /**
+         * @return the content length, -1 without header and {@link #MALFORMED}
+         *         if it is no valid length
+         */
+        long contentLength() {
+            String contentLength = header("Content-Length");
+            if (contentLength == null) {
+                return -1;
+            }
+            try {
+                long length = Long.parseLong(contentLength.trim());
+                return length >= 0 ? length : MALFORMED;
+            } catch (NumberFormatException e) {
+                return MALFORMED;
+            }
+        }
+
+        /**
+         * @return whether the connection is kept open after the message, the
+         *         default of HTTP/1.1
+         */
+        boolean keepAlive() {
+            if (hasToken("Connection", "close")) {
+                return false;
+            }
+            return !startLine.contains("HTTP/1.0") || hasToken("Connection", "keep-alive");
+        }
+
+        void write(OutputStream out) throws IOException {
+            StringBuilder sb = new StringBuilder(startLine).append("\r\n");
+            headers.forEach(h -> sb.append(h[0]).append(": ").append(h[1]).append("\r\n"));
+            sb.append("\r\n");
+            out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+}
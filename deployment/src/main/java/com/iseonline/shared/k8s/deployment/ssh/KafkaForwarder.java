@@ -0,0 +1,506 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.jboss.logging.Logger;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.Session;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.apps.StatefulSet;
+import io.fabric8.kubernetes.client.KubernetesClient;
+
+/**
+ * Forwards a kafka cluster with several brokers. The bootstrap connections go
+ * to the service, every broker pod of the StatefulSet gets an own local port.
+ * The broker addresses in the metadata and coordinator responses are rewritten
+ * to these ports, so the clients reach every broker over its own tunnel, e.g.
+ * to fetch the partitions of all brokers in parallel.
+ * <p>
+ * A broker is identified by the first label of its advertised host, which is
+ * the pod name for the headless service of a StatefulSet, or by its address,
+ * if it advertises one. Brokers, which are not discovered at the start, e.g.
+ * after a scale up, get a local port once they are advertised.
+ */
+public class KafkaForwarder extends LocalForwarder {
+    private static final Logger log = Logger.getLogger(KafkaForwarder.class);
+
+    private static final short METADATA = 3;
+
+    private static final short FIND_COORDINATOR = 10;
+
+    /**
+     * The first versions with compact strings, arrays and tagged fields.
+     */
+    private static final int METADATA_FLEXIBLE = 9;
+
+    private static final int FIND_COORDINATOR_FLEXIBLE = 3;
+
+    /**
+     * The first version with a list of coordinators.
+     */
+    private static final int FIND_COORDINATOR_BATCHED = 4;
+
+    /**
+     * The size and the request header up to the correlation id.
+     */
+    private static final int REQUEST_HEADER = 12;
+
+    /**
+     * The size and the correlation id.
+     */
+    private static final int RESPONSE_HEADER = 8;
+
+    private static final String LOCAL_HOST = InetAddress.getLoopbackAddress().getHostAddress();
+
+    private record Request(short apiKey, short apiVersion) {
+    }
+
+    private record Broker(int port, LocalForwarder forwarder, int localPort) {
+    }
+
+    private final Supplier<Session> session;
+
+    private final TunnelStats stats;
+
+    private final Consumer<Channel> channelTuning;
+
+    private final KubernetesClient k8sClient;
+
+    private final String namespace;
+
+    private final String statefulSet;
+
+    private final int port;
+
+    /**
+     * The brokers by pod name or address.
+     */
+    private final Map<String, Broker> brokers = new ConcurrentHashMap<>();
+
+    /**
+     * @param host the service of the bootstrap connections
+     * @param statefulSet the StatefulSet of the broker pods
+     */
+    public KafkaForwarder(Supplier<Session> session, String host, int port, TunnelStats stats,
+            Consumer<Channel> channelTuning, KubernetesClient k8sClient, String namespace, String statefulSet) {
+        super(session, host, port, stats, channelTuning);
+        this.session = session;
+        this.stats = stats;
+        this.channelTuning = channelTuning;
+        this.k8sClient = k8sClient;
+        this.namespace = namespace;
+        this.statefulSet = statefulSet;
+        this.port = port;
+    }
+
+    /**
+     * Binds the bootstrap port and a local port for every broker pod.
+     */
+    @Override
+    public int start(int localPort) throws IOException {
+        int bound = super.start(localPort);
+        try {
+            discoverBrokers();
+        } catch (RuntimeException e) {
+            log.warnf("Could not discover the kafka brokers of %s, they are forwarded once advertised: %s",
+                    statefulSet, e.getMessage());
+        }
+        return bound;
+    }
+
+    /**
+     * @return the local ports by broker pod name or address
+     */
+    public Map<String, Integer> getBrokers() {
+        Map<String, Integer> ports = new TreeMap<>();
+        brokers.forEach((name, broker) -> ports.put(name, broker.localPort()));
+        return ports;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized (this) {
+            brokers.values().forEach(broker -> broker.forwarder().close());
+            brokers.clear();
+        }
+    }
+
+    @Override
+    protected ConnectionFilter connectionFilter() {
+        return new KafkaConnection();
+    }
+
+    private void discoverBrokers() throws IOException {
+        StatefulSet brokerSet = k8sClient.apps().statefulSets().inNamespace(namespace).withName(statefulSet).get();
+        if (brokerSet == null || brokerSet.getSpec().getServiceName() == null) {
+            log.warnf("No StatefulSet %s with a headless service found, kafka brokers are forwarded once advertised",
+                    statefulSet);
+            return;
+        }
+        for (Pod pod : k8sClient.pods()
+                .inNamespace(namespace)
+                .withLabels(brokerSet.getSpec().getSelector().getMatchLabels())
+                .list().getItems()) {
+            String name = pod.getMetadata().getName();
+            synchronized (this) {
+                if (!brokers.containsKey(name)) {
+                    // The address of the pod in the headless service, like it is advertised
+                    startBroker(name, name + "." + brokerSet.getSpec().getServiceName() + "." + namespace, port, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the local port of the advertised broker, -1 if it can't be
+     *         forwarded
+     */
+    private synchronized int localPort(String host, int brokerPort) {
+        if (!isAlive()) {
+            // closed meanwhile
+            return -1;
+        }
+        // An address is the broker itself, otherwise the pod name is the first label
+        String name = host.matches("[\\d.]+") || host.contains(":") ? host : host.split("\\.")[0];
+        Broker broker = brokers.get(name);
+        try {
+            if (broker == null) {
+                broker = startBroker(name, host, brokerPort, 0);
+            } else if (broker.port() != brokerPort || !broker.forwarder().isAlive()) {
+                // Advertised on another port than the service, the local port is kept
+                broker.forwarder().close();
+                broker = startBroker(name, host, brokerPort, broker.localPort());
+            }
+            return broker.localPort();
+        } catch (IOException e) {
+            log.warnf("Could not forward kafka broker %s:%d: %s", host, brokerPort, e.getMessage());
+            return -1;
+        }
+    }
+
+    private Broker startBroker(String name, String host, int brokerPort, int localPort) throws IOException {
+        LocalForwarder forwarder = new LocalForwarder(session, host, brokerPort, stats, channelTuning) {
+            @Override
+            protected ConnectionFilter connectionFilter() {
+                // Metadata is requested from the brokers as well
+                return new KafkaConnection();
+            }
+        };
+        Broker broker = new Broker(brokerPort, forwarder, forwarder.start(localPort));
+        brokers.put(name, broker);
+        log.infof("Kafka broker %s:%d of %s forwarded on %d", host, brokerPort, stats.getName(), broker.localPort());
+        return broker;
+    }
+
+    /**
+     * Tracks the requests of a connection, whose responses contain broker
+     * addresses, and rewrites these responses. All other frames are passed
+     * through as they arrive.
+     */
+    private class KafkaConnection implements ConnectionFilter {
+        /**
+         * The pending requests by correlation id.
+         */
+        private final Map<Integer, Request> pending = new ConcurrentHashMap<>();
+
+        @Override
+        public InputStream requests(InputStream in) {
+            return new FilterInputStream(in) {
+                private final byte[] header = new byte[REQUEST_HEADER];
+
+                private int headerLength;
+
+                private int remaining;
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        observe(new byte[] { (byte) b }, 0, 1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) {
+                        observe(b, off, read);
+                    }
+                    return read;
+                }
+
+                private void observe(byte[] b, int off, int len) {
+                    int i = off;
+                    int end = off + len;
+                    while (i < end) {
+                        if (remaining > 0) {
+                            int skip = Math.min(remaining, end - i);
+                            remaining -= skip;
+                            i += skip;
+                            continue;
+                        }
+                        header[headerLength++] = b[i++];
+                        if (headerLength == REQUEST_HEADER) {
+                            ByteBuffer buffer = ByteBuffer.wrap(header);
+                            int size = buffer.getInt();
+                            Request request = new Request(buffer.getShort(), buffer.getShort());
+                            if (request.apiKey() == METADATA || request.apiKey() == FIND_COORDINATOR) {
+                                pending.put(buffer.getInt(), request);
+                            }
+                            remaining = Math.max(0, size - (REQUEST_HEADER - 4));
+                            headerLength = 0;
+                        }
+                    }
+                }
+            };
+        }
+
+        @Override
+        public OutputStream responses(OutputStream out) {
+            return new FilterOutputStream(out) {
+                private final byte[] header = new byte[RESPONSE_HEADER];
+
+                private int headerLength;
+
+                private int remaining;
+
+                /**
+                 * The response to rewrite, null while passing through.
+                 */
+                private Request request;
+
+                private ByteArrayOutputStream frame;
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    int i = off;
+                    int end = off + len;
+                    while (i < end) {
+                        if (remaining > 0) {
+                            int length = Math.min(remaining, end - i);
+                            if (frame != null) {
+                                frame.write(b, i, length);
+                            } else {
+                                out.write(b, i, length);
+                            }
+                            remaining -= length;
+                            i += length;
+                        } else {
+                            header[headerLength++] = b[i++];
+                            if (headerLength < RESPONSE_HEADER) {
+                                continue;
+                            }
+                            ByteBuffer buffer = ByteBuffer.wrap(header);
+                            remaining = Math.max(0, buffer.getInt() - (RESPONSE_HEADER - 4));
+                            request = pending.remove(buffer.getInt());
+                            headerLength = 0;
+                            if (request != null) {
+                                frame = new ByteArrayOutputStream(remaining + 4);
+                                frame.write(header, 4, 4);
+                            } else {
+                                out.write(header);
+                            }
+                        }
+                        if (remaining == 0 && frame != null) {
+                            out.write(rewrite(request, frame.toByteArray()));
+                            frame = null;
+                            request = null;
+                        }
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * @param body the response after the size, starting with the correlation id
+     * @return the response with the size, the original one if it can't be parsed
+     */
+    private byte[] rewrite(Request request, byte[] body) {
+        ByteBuffer in = ByteBuffer.wrap(body);
+        ByteArrayOutputStream rewritten = new ByteArrayOutputStream(body.length + 64);
+        DataOutputStream out = new DataOutputStream(rewritten);
+        short version = request.apiVersion();
+        try {
+            out.writeInt(0);
+            copy(in, out, 4);
+            if (request.apiKey() == METADATA) {
+                boolean flexible = version >= METADATA_FLEXIBLE;
+                if (flexible) {
+                    copyTaggedFields(in, out);
+                }
+                if (version >= 3) {
+                    // throttle time
+                    copy(in, out, 4);
+                }
+                int count = copyArrayLength(in, out, flexible);
+                for (int i = 0; i < count; i++) {
+                    // node id
+                    copy(in, out, 4);
+                    rewriteAddress(in, out, flexible);
+                    if (version >= 1) {
+                        // rack
+                        copyString(in, out, flexible);
+                    }
+                    if (flexible) {
+                        copyTaggedFields(in, out);
+                    }
+                }
+            } else {
+                boolean flexible = version >= FIND_COORDINATOR_FLEXIBLE;
+                if (flexible) {
+                    copyTaggedFields(in, out);
+                }
+                if (version >= 1) {
+                    // throttle time
+                    copy(in, out, 4);
+                }
+                if (version < FIND_COORDINATOR_BATCHED) {
+                    // error code
+                    copy(in, out, 2);
+                    if (version >= 1) {
+                        // error message
+                        copyString(in, out, flexible);
+                    }
+                    // node id
+                    copy(in, out, 4);
+                    rewriteAddress(in, out, flexible);
+                } else {
+                    int count = copyArrayLength(in, out, true);
+                    for (int i = 0; i < count; i++) {
+                        // key and node id
+                        copyString(in, out, true);
+                        copy(in, out, 4);
+                        rewriteAddress(in, out, true);
+                        // error code and message
+                        copy(in, out, 2);
+                        copyString(in, out, true);
+                        copyTaggedFields(in, out);
+                    }
+                }
+            }
+            out.write(body, in.position(), in.remaining());
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            log.debugf("Could not rewrite kafka response %d v%d of %s: %s", request.apiKey(), version,
+                    stats.getName(), e.getMessage());
+            rewritten.reset();
+            ByteBuffer original = ByteBuffer.allocate(body.length + 4).putInt(body.length).put(body);
+            return original.array();
+        }
+        byte[] response = rewritten.toByteArray();
+        ByteBuffer.wrap(response).putInt(response.length - 4);
+        return response;
+    }
+
+    private void rewriteAddress(ByteBuffer in, DataOutputStream out, boolean flexible) throws IOException {
+        String host = readString(in, flexible);
+        int brokerPort = in.getInt();
+        // An error response has no coordinator
+        int localPort = host != null && !host.isEmpty() && brokerPort >= 0 ? localPort(host, brokerPort) : -1;
+        writeString(out, localPort >= 0 ? LOCAL_HOST : host, flexible);
+        out.writeInt(localPort >= 0 ? localPort : brokerPort);
+    }
+
+    private static void copy(ByteBuffer in, DataOutputStream out, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        out.write(bytes);
+    }
+
+    private static int copyArrayLength(ByteBuffer in, DataOutputStream out, boolean flexible) throws IOException {
+        if (flexible) {
+            int length = readUnsignedVarint(in);
+            writeUnsignedVarint(out, length);
+            return Math.max(0, length - 1);
+        }
+        int length = in.getInt();
+        out.writeInt(length);
+        return Math.max(0, length);
+    }
+
+    private static void copyString(ByteBuffer in, DataOutputStream out, boolean flexible) throws IOException {
+        writeString(out, readString(in, flexible), flexible);
+    }
+
+    private static void copyTaggedFields(ByteBuffer in, DataOutputStream out) throws IOException {
+        int count = readUnsignedVarint(in);
+        writeUnsignedVarint(out, count);
+        for (int i = 0; i < count; i++) {
+            // tag
+            writeUnsignedVarint(out, readUnsignedVarint(in));
+            int size = readUnsignedVarint(in);
+            writeUnsignedVarint(out, size);
+            copy(in, out, size);
+        }
+    }
+
+    /**
+     * @return the nullable string, compact if flexible
+     */
+    private static String readString(ByteBuffer in, boolean flexible) {
+        int length = flexible ? readUnsignedVarint(in) - 1 : in.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value, boolean flexible) throws IOException {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+        int length = bytes != null ? bytes.length : -1;
+        if (flexible) {
+            writeUnsignedVarint(out, length + 1);
+        } else {
+            out.writeShort(length);
+        }
+        if (bytes != null) {
+            out.write(bytes);
+        }
+    }
+
+    private static int readUnsignedVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint is too long");
+    }
+
+    private static void writeUnsignedVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
@@ -0,0 +1,373 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.jboss.logging.Logger;
+
+import com.iseonline.shared.k8s.deployment.ssh.EndpointBalancer.Target;
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelDirectTCPIP;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * Local port forwarding into the cluster. In contrast to
+ * {@link Session#setPortForwardingL(int, String, int)} the local port stays
+ * bound, even if the ssh session is recreated, and every connection is counted
+ * in the {@link TunnelStats}. Instead of a local port it can listen on a unix
+ * domain socket.
+ */
+public class LocalForwarder implements Closeable {
+    private static final Logger log = Logger.getLogger(LocalForwarder.class);
+
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    /**
+     * The longest path of a unix domain socket in bytes, sun_path has 108 bytes
+     * on linux and 104 on macOS, including the terminating zero.
+     */
+    static final int MAX_SOCKET_PATH = System.getProperty("os.name", "").toLowerCase().contains("mac") ? 103 : 107;
+
+    private static final ExecutorService connector = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "k8s-devservices-forward-connect");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Supplier<Session> session;
+
+    private final String host;
+
+    private final int port;
+
+    private final TunnelStats stats;
+
+    private final Consumer<Channel> channelTuning;
+
+    private final EndpointBalancer balancer;
+
+    /**
+     * Inspects or rewrites the traffic of a connection, e.g. the addresses in
+     * the responses of a protocol.
+     */
+    public interface ConnectionFilter {
+        /**
+         * @return the stream of the client to the target
+         */
+        InputStream requests(InputStream in);
+
+        /**
+         * @return the stream of the target to the client
+         */
+        OutputStream responses(OutputStream out);
+    }
+
+    private volatile ServerSocket serverSocket;
+
+    private volatile ServerSocketChannel unixSocket;
+
+    private volatile Path socketPath;
+
+    public LocalForwarder(Supplier<Session> session, String host, int port, TunnelStats stats) {
+        this(session, host, port, stats, channel -> {
+        });
+    }
+
+    /**
+     * @param channelTuning applied to every channel before it is connected, e.g.
+     *        {@link TransportTuning#apply(Channel)}
+     */
+    public LocalForwarder(Supplier<Session> session, String host, int port, TunnelStats stats,
+            Consumer<Channel> channelTuning) {
+        this(session, host, port, stats, channelTuning, null);
+    }
+
+    /**
+     * @param balancer chooses the pod for every connection, if null or no pod is
+     *        ready the connection goes to the given host and port
+     */
+    public LocalForwarder(Supplier<Session> session, String host, int port, TunnelStats stats,
+            Consumer<Channel> channelTuning, EndpointBalancer balancer) {
+        this.session = session;
+        this.host = host;
+        this.port = port;
+        this.stats = stats;
+        this.channelTuning = channelTuning;
+        this.balancer = balancer;
+    }
+
+    /**
+     * Binds the local port and starts accepting connections.
+     *
+     * @param localPort the local port, 0 for a random one
+     * @return the bound local port
+     */
+    public int start(int localPort) throws IOException {
+        ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), localPort));
+        serverSocket = socket;
+
+        Thread acceptor = new Thread(() -> accept(socket), "k8s-devservices-forward-" + stats.getName());
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return socket.getLocalPort();
+    }
+
+    /**
+     * @return whether the path fits into the address of a unix domain socket
+     */
+    public static boolean fitsSocketPath(Path socketPath) {
+        return socketPath.toString().getBytes(StandardCharsets.UTF_8).length <= MAX_SOCKET_PATH;
+    }
+
+    /**
+     * Binds the unix domain socket and starts accepting connections. A socket
+     * file left over by an earlier run is replaced. The socket is only
+     * accessible by the user.
+     */
+    public void start(Path socketPath) throws IOException {
+        if (!fitsSocketPath(socketPath)) {
+            throw new IOException("Unix socket path %s is longer than %d bytes, configure a shorter "
+                    .formatted(socketPath, MAX_SOCKET_PATH) + "quarkus.k8s.devservices.unix-socket.directory");
+        }
+        ServerSocketChannel previous = unixSocket;
+        if (previous != null) {
+            previous.close();
+        }
+        Files.createDirectories(socketPath.getParent());
+        Files.deleteIfExists(socketPath);
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.bind(UnixDomainSocketAddress.of(socketPath));
+            if (socketPath.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                Files.setPosixFilePermissions(socketPath, PosixFilePermissions.fromString("rw-------"));
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        unixSocket = channel;
+        this.socketPath = socketPath;
+
+        Thread acceptor = new Thread(() -> accept(channel), "k8s-devservices-forward-" + stats.getName());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the balancer choosing the pods, null if the service is the target
+     */
+    public EndpointBalancer getBalancer() {
+        return balancer;
+    }
+
+    public boolean isAlive() {
+        ServerSocket socket = serverSocket;
+        ServerSocketChannel channel = unixSocket;
+        return socket != null && !socket.isClosed()
+                || channel != null && channel.isOpen() && Files.exists(socketPath);
+    }
+
+    @Override
+    public void close() {
+        ServerSocket socket = serverSocket;
+        serverSocket = null;
+        ServerSocketChannel channel = unixSocket;
+        unixSocket = null;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+            if (channel != null) {
+                channel.close();
+                Files.deleteIfExists(socketPath);
+            }
+        } catch (IOException e) {
+            // can be ignored
+        }
+    }
+
+    /**
+     * @return the filter of a new connection, null to forward it unchanged
+     */
+    protected ConnectionFilter connectionFilter() {
+        return null;
+    }
+
+    private void accept(ServerSocket socket) {
+        while (!socket.isClosed()) {
+            try {
+                Socket client = socket.accept();
+                connector.execute(() -> forward(client));
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    log.debugf("Error during accepting connection for %s: %s", stats.getName(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel socket) {
+        while (socket.isOpen()) {
+            try {
+                SocketChannel client = socket.accept();
+                connector.execute(() -> forward(client, streamIn(client), streamOut(client), "127.0.0.1", 0));
+            } catch (IOException e) {
+                if (socket.isOpen()) {
+                    log.debugf("Error during accepting connection for %s: %s", stats.getName(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void forward(Socket client) {
+        try {
+            client.setTcpNoDelay(true);
+            forward(client, client.getInputStream(), client.getOutputStream(), client.getInetAddress().getHostAddress(),
+                    client.getPort());
+        } catch (IOException e) {
+            log.debugf("Could not forward connection for %s: %s", stats.getName(), e.getMessage());
+            stats.failed();
+            try {
+                client.close();
+            } catch (IOException e2) {
+                // can be ignored
+            }
+        }
+    }
+
+    private void forward(Closeable client, InputStream in, OutputStream clientOut, String orgAddress, int orgPort) {
+        long start = System.nanoTime();
+        Target target = balancer != null ? balancer.acquire() : null;
+        String targetHost = target != null ? target.host() : host;
+        int targetPort = target != null ? target.port() : port;
+        try {
+            Session current = session.get();
+            if (current == null || !current.isConnected()) {
+                throw new JSchException("SSH session is not connected");
+            }
+            ChannelDirectTCPIP channel = (ChannelDirectTCPIP) current.openChannel("direct-tcpip");
+            channel.setHost(targetHost);
+            channel.setPort(targetPort);
+            channel.setOrgIPAddress(orgAddress);
+            channel.setOrgPort(orgPort);
+            ConnectionFilter filter = connectionFilter();
+            channel.setInputStream(stats.countOut(filter != null ? filter.requests(in) : in));
+            OutputStream out = stats.countIn(clientOut);
+            if (filter != null) {
+                out = filter.responses(out);
+            }
+            channel.setOutputStream(target != null ? releasing(out, target) : out);
+            channelTuning.accept(channel);
+            channel.connect(CONNECT_TIMEOUT);
+            stats.connected(System.nanoTime() - start);
+        } catch (Exception e) {
+            log.debugf("Could not forward connection for %s to %s:%d: %s", stats.getName(), targetHost, targetPort,
+                    e.getMessage());
+            stats.failed();
+            if (target != null) {
+                balancer.release(target);
+            }
+            try {
+                client.close();
+            } catch (IOException e2) {
+                // can be ignored
+            }
+        }
+    }
+
+    /**
+     * Reads directly from the channel. The streams of {@link Channels} block
+     * each other on the same channel before Java 19, while JSch reads and writes
+     * concurrently.
+     */
+    private static InputStream streamIn(SocketChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * Writes directly to the channel, see {@link #streamIn(SocketChannel)}.
+     */
+    private static OutputStream streamOut(SocketChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * Hands the target back to the balancer, once the connection is closed.
+     */
+    private OutputStream releasing(OutputStream out, Target target) {
+        AtomicBoolean closed = new AtomicBoolean();
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed.compareAndSet(false, true)) {
+                    balancer.release(target);
+                }
+                super.close();
+            }
+        };
+    }
+}
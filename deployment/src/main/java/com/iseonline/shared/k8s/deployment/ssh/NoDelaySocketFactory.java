@@ -0,0 +1,42 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import com.jcraft.jsch.SocketFactory;
+
+/**
+ * Socket factory for the ssh session with disabled Nagle algorithm. JSch writes
+ * small packets (channel opens, window adjustments, keepalives), which are
+ * otherwise delayed till the previous packet is acknowledged, i.e. up to the
+ * 40ms delayed ack timeout of the gateway.
+ */
+public class NoDelaySocketFactory implements SocketFactory {
+
+    private final int connectTimeout;
+
+    public NoDelaySocketFactory(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), connectTimeout);
+        return socket;
+    }
+
+    @Override
+    public InputStream getInputStream(Socket socket) throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream(Socket socket) throws IOException {
+        return socket.getOutputStream();
+    }
+}
@@ -19,6 +19,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.fasterxml.jackson.dataformat.yaml.YAMLGenerator;
+import com.iseonline.shared.k8s.deployment.utils.KubeContextSelector;
 
 import lombok.Getter;
 
@@ -46,6 +47,53 @@ public class PortsConfiguration {
         private int realLocalPort;
         private int servicePort;
         private String serviceName;
+        /**
+         * How connections are spread across the pods behind the service.
+         */
+        private LoadBalancing loadBalancing;
+        /**
+         * The helm release of the values.yaml, null if not configured by a chart.
+         */
+        private String release;
+        /**
+         * Whether the forwarding is exposed as unix domain socket instead of a local
+         * port, null for the configured default.
+         */
+        private Boolean unixSocket;
+        /**
+         * The unix domain socket, once it is bound.
+         */
+        private Path socketPath;
+        /**
+         * The StatefulSet of the kafka brokers behind the service, null for a plain
+         * forwarding, see {@link KafkaForwarder}.
+         */
+        private String kafkaStatefulSet;
+
+        /**
+         * Creates a forwarding, which is not configured in a values.yaml.
+         */
+        public static PortForwarding of(String name, int localPort, String serviceName, int servicePort) {
+            return of(name, localPort, serviceName, servicePort, LoadBalancing.NONE);
+        }
+
+        public static PortForwarding of(String name, int localPort, String serviceName, int servicePort,
+                LoadBalancing loadBalancing) {
+            return of(name, localPort, serviceName, servicePort, loadBalancing, null);
+        }
+
+        public static PortForwarding of(String name, int localPort, String serviceName, int servicePort,
+                LoadBalancing loadBalancing, String kafkaStatefulSet) {
+            PortForwarding portForwarding = new PortForwarding();
+            portForwarding.name = name;
+            portForwarding.localPort = localPort;
+            portForwarding.realLocalPort = localPort;
+            portForwarding.serviceName = serviceName;
+            portForwarding.servicePort = servicePort;
+            portForwarding.loadBalancing = loadBalancing;
+            portForwarding.kafkaStatefulSet = kafkaStatefulSet;
+            return portForwarding;
+        }
 
         public void setRealPort(int realPort) {
             if (this.realLocalPort == 0) {
@@ -53,11 +101,35 @@ public class PortsConfiguration {
             }
         }
 
+        public void setSocketPath(Path socketPath) {
+            this.socketPath = socketPath;
+        }
+
         public String getJschString() {
             return realLocalPort + ":" + serviceName + ":" + servicePort;
         }
     }
 
+    /**
+     * How the connections of a port forwarding are spread across the pods of the
+     * service, see {@link EndpointBalancer}.
+     */
+    public enum LoadBalancing {
+        /**
+         * The service itself is the target, kube-proxy chooses the pod.
+         */
+        NONE,
+        ROUND_ROBIN,
+        LEAST_CONNECTIONS;
+
+        static LoadBalancing parse(String value) {
+            if (value == null || value.isBlank()) {
+                return NONE;
+            }
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
     @Getter
     public static class ReverseProxy {
         private int localPort;
@@ -68,6 +140,43 @@ public class PortsConfiguration {
          * down if existent.
          */
         private boolean scaleDown;
+        /**
+         * Whether the requests are routed by the {@link HttpRouter} over the single
+         * http listener of the gateway, instead of an own tunnel.
+         */
+        private boolean http;
+        /**
+         * An additional host routed to the local port, e.g. of an ingress.
+         */
+        private String host;
+        /**
+         * Only requests with this path prefix are routed to the local port.
+         */
+        private String pathPrefix;
+        /**
+         * The helm release of the values.yaml, null if not configured by a chart.
+         */
+        private String release;
+
+        /**
+         * Creates a reverse proxy, which is not configured in a values.yaml.
+         */
+        public static ReverseProxy of(int localPort, String serviceName, int servicePort, boolean scaleDown) {
+            return of(localPort, serviceName, servicePort, scaleDown, false, null, null);
+        }
+
+        public static ReverseProxy of(int localPort, String serviceName, int servicePort, boolean scaleDown,
+                boolean http, String host, String pathPrefix) {
+            ReverseProxy reverseProxy = new ReverseProxy();
+            reverseProxy.localPort = localPort;
+            reverseProxy.serviceName = serviceName;
+            reverseProxy.servicePort = servicePort;
+            reverseProxy.scaleDown = scaleDown;
+            reverseProxy.http = http || host != null || pathPrefix != null;
+            reverseProxy.host = host;
+            reverseProxy.pathPrefix = pathPrefix;
+            return reverseProxy;
+        }
 
         public String getJschString() {
             return localPort + ":localhost:" + localPort;
@@ -88,14 +197,15 @@ public class PortsConfiguration {
         // otherwise check one more level whether they are charts to allow more
         // installations
         if (Files.exists(chartsDir.resolve("Chart.yaml"))) {
-            return parseConfig(yamlMapper, chartsDir.resolve("values.yaml"));
+            return parseConfig(yamlMapper, chartsDir.resolve("values.yaml"), KubeContextSelector.DEFAULT_RELEASE_NAME);
         } else if (Files.exists(chartsDir)) {
             try {
                 return Stream.concat(
                         Stream.of(chartsDir.resolve("values.yaml")),
                         Files.walk(chartsDir, 1))
                         .filter(dir -> Files.exists(dir.resolve("values.yaml")))
-                        .map(dir -> parseConfig(yamlMapper, dir.resolve("values.yaml")))
+                        .map(dir -> parseConfig(yamlMapper, dir.resolve("values.yaml"),
+                                Files.exists(dir.resolve("Chart.yaml")) ? dir.getFileName().toString() : null))
                         .reduce(new PortsConfiguration(new ArrayList<>(), new ArrayList<>()),
                                 (subtotal, element) -> {
                                     subtotal.portForwardings.addAll(element.portForwardings);
@@ -109,7 +219,7 @@ public class PortsConfiguration {
         return null;
     }
 
-    private static PortsConfiguration parseConfig(ObjectMapper yamlMapper, Path valuesFile) {
+    private static PortsConfiguration parseConfig(ObjectMapper yamlMapper, Path valuesFile, String release) {
         JsonNode valuesYaml;
         try {
             valuesYaml = yamlMapper.readTree(valuesFile.toFile());
@@ -123,10 +233,21 @@ public class PortsConfiguration {
                         .map(e -> {
                             PortForwarding portForwarding = new PortForwarding();
                             portForwarding.name = getString(e.path("name"));
-                            portForwarding.localPort = getInt(e.path("localPort"));
+                            String unixSocket = getOptionalString(e.path("unixSocket"));
+                            portForwarding.unixSocket = unixSocket != null ? Boolean.parseBoolean(unixSocket) : null;
+                            // Without local port, e.g. for a unix domain socket, a free one is used
+                            portForwarding.localPort = e.path("localPort").isMissingNode() ? 0
+                                    : getInt(e.path("localPort"));
                             portForwarding.realLocalPort = portForwarding.localPort;
                             portForwarding.servicePort = getInt(e.path("service").path("port"));
                             portForwarding.serviceName = getString(e.path("service").path("name"));
+                            portForwarding.loadBalancing = LoadBalancing.parse(
+                                    e.path("service").path("loadBalancing").asText(null));
+                            // true for a StatefulSet named like the service
+                            String kafka = getOptionalString(e.path("service").path("kafka"));
+                            portForwarding.kafkaStatefulSet = kafka == null || "false".equals(kafka) ? null
+                                    : "true".equals(kafka) ? portForwarding.serviceName : kafka;
+                            portForwarding.release = release;
                             return portForwarding;
                         })
                         .filter(e -> e != null)
@@ -145,6 +266,11 @@ public class PortsConfiguration {
                                     .map(p -> p.get("scaleDown"))
                                     .map(p -> getBoolean(p))
                                     .orElse(false);
+                            reverseProxy.host = getOptionalString(e.path("service").path("host"));
+                            reverseProxy.pathPrefix = getOptionalString(e.path("service").path("pathPrefix"));
+                            reverseProxy.http = Boolean.parseBoolean(getOptionalString(e.path("service").path("http")))
+                                    || reverseProxy.host != null || reverseProxy.pathPrefix != null;
+                            reverseProxy.release = release;
                             return reverseProxy;
                         })
                         .filter(e -> e != null)
@@ -160,6 +286,10 @@ public class PortsConfiguration {
         return Boolean.parseBoolean(getString(e));
     }
 
+    private static String getOptionalString(JsonNode e) {
+        return e.isMissingNode() || e.isNull() ? null : getString(e);
+    }
+
     private static int getInt(JsonNode e) {
         return Integer.parseInt(getString(e));
     }
@@ -0,0 +1,385 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.jboss.logging.Logger;
+
+import com.iseonline.shared.k8s.deployment.ssh.PortsConfiguration.ReverseProxy;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.ServiceBuilder;
+import io.fabric8.kubernetes.api.model.ServicePort;
+import io.fabric8.kubernetes.api.model.apps.Deployment;
+import io.fabric8.kubernetes.api.model.apps.DeploymentBuilder;
+import io.fabric8.kubernetes.api.model.apps.StatefulSet;
+import io.fabric8.kubernetes.api.model.apps.StatefulSetBuilder;
+import io.fabric8.kubernetes.api.model.discovery.v1.EndpointBuilder;
+import io.fabric8.kubernetes.api.model.discovery.v1.EndpointSlice;
+import io.fabric8.kubernetes.api.model.discovery.v1.EndpointSliceBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+import io.fabric8.kubernetes.client.informers.cache.Cache;
+
+/**
+ * Keeps the services of the reverse proxies pointing to the gateway and the
+ * workloads behind them scaled down. The services and workloads of the dev
+ * namespace are watched and only changed, once they drift from the desired
+ * state, e.g. a helm upgrade resets the replicas or overwrites the selector of
+ * the service.
+ * <p>
+ * In multi user mode the services can't select the gateway in the shared
+ * namespace. They have no selector and an EndpointSlice
+ * {@code <service>-gateway}, which follows the gateway pods.
+ */
+public class ReverseProxyController implements Closeable {
+    private static final Logger log = Logger.getLogger(ReverseProxyController.class);
+
+    static final String SLICE_SUFFIX = "-gateway";
+
+    static final String SLICE_MANAGER = "quarkus-dev-apps-k8s";
+
+    private record Registration(Supplier<Service> service, boolean scaleDown) {
+    }
+
+    private final KubernetesClient k8sClient;
+
+    private final String namespace;
+
+    /**
+     * The namespace of the gateway pods, null if the services select them.
+     */
+    private final String gatewayNamespace;
+
+    private final long resyncMillis;
+
+    /**
+     * The reverse proxies per service name.
+     */
+    private final Map<String, Registration> registrations = new ConcurrentHashMap<>();
+
+    private final List<SharedIndexInformer<?>> informers = new ArrayList<>();
+
+    /**
+     * Reconciles the changes off the informer threads, a burst of events for a
+     * service is reconciled once.
+     */
+    private final ExecutorService reconciler = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "k8s-devservices-reverse-proxies");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The resource versions of the drifted resources, which were changed last,
+     * per kind and name. Till the informer has seen the change, the stale cached
+     * state is not compared again.
+     */
+    private final Map<String, String> applied = new ConcurrentHashMap<>();
+
+    private volatile SharedIndexInformer<Service> services;
+
+    private volatile SharedIndexInformer<Deployment> deployments;
+
+    private volatile SharedIndexInformer<StatefulSet> statefulSets;
+
+    private volatile SharedIndexInformer<EndpointSlice> slices;
+
+    private volatile SharedIndexInformer<Pod> gatewayPods;
+
+    private volatile boolean closed;
+
+    /**
+     * @param gatewayNamespace the namespace of the gateway pods, if the services
+     *        point to them with an EndpointSlice
+     * @param resync the interval, in which the cached state is checked again,
+     *        e.g. after a failed change
+     */
+    public ReverseProxyController(KubernetesClient k8sClient, String namespace, String gatewayNamespace,
+            Duration resync) {
+        this.k8sClient = k8sClient;
+        this.namespace = namespace;
+        this.gatewayNamespace = gatewayNamespace;
+        this.resyncMillis = resync.toMillis();
+    }
+
+    /**
+     * Applies the service of the reverse proxy and scales down its workloads, if
+     * configured. Both are kept till the reverse proxy is released.
+     *
+     * @param service supplies the desired service, it is asked on every drift
+     * @return releases the reverse proxy again, the service stays
+     */
+    public Runnable register(ReverseProxy p, Supplier<Service> service) {
+        start(p.isScaleDown());
+        String name = p.getServiceName();
+        Registration registration = new Registration(service, p.isScaleDown());
+        registrations.put(name, registration);
+        reconcile(name);
+        return () -> registrations.remove(name, registration);
+    }
+
+    /**
+     * Compares the service, its EndpointSlice and workloads with the desired
+     * state and changes only what drifted. Reads the watched state, so it is
+     * cheap without drift.
+     */
+    public synchronized void reconcile(String name) {
+        Registration registration = registrations.get(name);
+        if (registration == null || closed) {
+            return;
+        }
+        try {
+            Service desired = registration.service().get();
+            reconcileService(name, desired);
+            if (gatewayNamespace != null) {
+                reconcileSlice(name, desired);
+            }
+            if (registration.scaleDown()) {
+                scaleDown(name);
+            }
+        } catch (KubernetesClientException e) {
+            // Retried on the next change or resync
+            log.warnf("Could not reconcile the reverse proxy service %s: %s", name, e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        reconciler.shutdownNow();
+        synchronized (informers) {
+            informers.forEach(SharedIndexInformer::close);
+            informers.clear();
+        }
+        registrations.clear();
+        applied.clear();
+    }
+
+    private void start(boolean scaleDown) {
+        synchronized (informers) {
+            if (closed) {
+                return;
+            }
+            if (services == null) {
+                services = inform(k8sClient.services().inNamespace(namespace)
+                        .inform(handler(s -> s.getMetadata().getName()), resyncMillis));
+                if (gatewayNamespace != null) {
+                    slices = inform(k8sClient.discovery().v1().endpointSlices().inNamespace(namespace)
+                            .withLabel("endpointslice.kubernetes.io/managed-by", SLICE_MANAGER)
+                            .inform(handler(s -> sliceService(s.getMetadata().getName())), resyncMillis));
+                    // Any gateway pod changes the slices of all services
+                    gatewayPods = inform(k8sClient.pods().inNamespace(gatewayNamespace)
+                            .withLabel("app", SshDeployer.SSH_DEPLOYMENT_NAME)
+                            .inform(handler(pod -> null), resyncMillis));
+                }
+            }
+            if (scaleDown && deployments == null) {
+                deployments = inform(k8sClient.apps().deployments().inNamespace(namespace)
+                        .inform(handler(d -> d.getMetadata().getName()), resyncMillis));
+                statefulSets = inform(k8sClient.apps().statefulSets().inNamespace(namespace)
+                        .inform(handler(s -> s.getMetadata().getName()), resyncMillis));
+            }
+        }
+    }
+
+    private <T> SharedIndexInformer<T> inform(SharedIndexInformer<T> informer) {
+        informers.add(informer);
+        return informer;
+    }
+
+    /**
+     * @param serviceName the affected service of a resource, null for all
+     */
+    private <T extends HasMetadata> ResourceEventHandler<T> handler(Function<T, String> serviceName) {
+        return new ResourceEventHandler<>() {
+            @Override
+            public void onAdd(T resource) {
+                changed(serviceName.apply(resource));
+            }
+
+            @Override
+            public void onUpdate(T oldResource, T resource) {
+                changed(serviceName.apply(resource));
+            }
+
+            @Override
+            public void onDelete(T resource, boolean deletedFinalStateUnknown) {
+                changed(serviceName.apply(resource));
+            }
+        };
+    }
+
+    private void changed(String serviceName) {
+        if (serviceName == null) {
+            registrations.keySet().forEach(this::changed);
+        } else if (registrations.containsKey(serviceName) && queued.add(serviceName)) {
+            try {
+                reconciler.execute(() -> {
+                    queued.remove(serviceName);
+                    reconcile(serviceName);
+                });
+            } catch (RejectedExecutionException e) {
+                // closed
+            }
+        }
+    }
+
+    /**
+     * @return whether the cached resource is a change applied by this controller,
+     *         which has not been seen by the informer yet
+     */
+    private boolean isPending(String kind, HasMetadata cached) {
+        return cached != null && cached.getMetadata().getResourceVersion() != null
+                && cached.getMetadata().getResourceVersion()
+                        .equals(applied.get(kind + "/" + cached.getMetadata().getName()));
+    }
+
+    private void applied(String kind, HasMetadata drifted) {
+        applied.put(kind + "/" + drifted.getMetadata().getName(), drifted.getMetadata().getResourceVersion());
+    }
+
+    private void reconcileService(String name, Service desired) {
+        Service existing = services.getStore().getByKey(Cache.namespaceKeyFunc(namespace, name));
+        if (isPending("service", existing)) {
+            return;
+        }
+        if (existing == null) {
+            k8sClient.services().inNamespace(namespace).resource(desired).createOr(t -> t.patch());
+        } else if (!matches(existing, desired)) {
+            log.infof("Service %s drifted, pointing it to the gateway again", name);
+            k8sClient.services().inNamespace(namespace).withName(name).edit(s -> new ServiceBuilder(s)
+                    .editMetadata()
+                    .addToLabels(desired.getMetadata().getLabels())
+                    .endMetadata()
+                    .editSpec()
+                    .withSelector(desired.getSpec().getSelector())
+                    .withPorts(desired.getSpec().getPorts())
+                    .endSpec()
+                    .build());
+            applied("service", existing);
+        }
+    }
+
+    /**
+     * @return whether the service has the labels, selector and ports of the
+     *         desired one, fields defaulted by the api server are ignored
+     */
+    static boolean matches(Service existing, Service desired) {
+        Map<String, String> labels = existing.getMetadata().getLabels();
+        Map<String, String> desiredLabels = desired.getMetadata().getLabels();
+        if (desiredLabels != null && (labels == null || !labels.entrySet().containsAll(desiredLabels.entrySet()))) {
+            return false;
+        }
+        return Objects.equals(orEmpty(existing.getSpec().getSelector()), orEmpty(desired.getSpec().getSelector()))
+                && ports(existing).equals(ports(desired));
+    }
+
+    private static Map<String, String> orEmpty(Map<String, String> map) {
+        return map != null ? map : Map.of();
+    }
+
+    private static List<String> ports(Service service) {
+        List<ServicePort> ports = service.getSpec().getPorts();
+        return ports == null ? List.of()
+                : ports.stream()
+                        .map(p -> p.getPort() + "/" + Objects.requireNonNullElse(p.getProtocol(), "TCP") + "->"
+                                + (p.getTargetPort() != null ? p.getTargetPort().getValue() : p.getPort()))
+                        .toList();
+    }
+
+    private void reconcileSlice(String name, Service desired) {
+        int port = desired.getSpec().getPorts().get(0).getTargetPort().getIntVal();
+        List<String> ips = gatewayPods.getStore().list().stream()
+                .filter(pod -> pod.getStatus() != null && pod.getStatus().getPodIP() != null)
+                .map(pod -> pod.getStatus().getPodIP())
+                .sorted()
+                .toList();
+        EndpointSlice existing = slices.getStore().getByKey(Cache.namespaceKeyFunc(namespace, name + SLICE_SUFFIX));
+        if (isPending("slice", existing)) {
+            return;
+        }
+        if (existing != null && existing.getPorts().size() == 1 && existing.getPorts().get(0).getPort() == port
+                && existing.getEndpoints().stream()
+                        .flatMap(e -> e.getAddresses().stream())
+                        .sorted()
+                        .toList()
+                        .equals(ips)) {
+            return;
+        }
+        EndpointSlice slice = new EndpointSliceBuilder()
+                .withNewMetadata()
+                .withName(name + SLICE_SUFFIX)
+                .withNamespace(namespace)
+                .addToLabels("kubernetes.io/service-name", name)
+                .addToLabels("endpointslice.kubernetes.io/managed-by", SLICE_MANAGER)
+                .endMetadata()
+                .withAddressType("IPv4")
+                .addNewPort().withPort(port).withProtocol("TCP").endPort()
+                .withEndpoints(ips.stream()
+                        .map(ip -> new EndpointBuilder()
+                                .withAddresses(ip)
+                                .withNewConditions().withReady(true).endConditions()
+                                .build())
+                        .toList())
+                .build();
+        k8sClient.discovery().v1().endpointSlices().inNamespace(namespace).resource(slice)
+                .createOr(t -> t.patch());
+        if (existing != null) {
+            applied("slice", existing);
+        }
+    }
+
+    private void scaleDown(String name) {
+        String key = Cache.namespaceKeyFunc(namespace, name);
+        Deployment deployment = deployments.getStore().getByKey(key);
+        if (deployment != null && !isPending("deployment", deployment)
+                && replicas(deployment.getSpec().getReplicas()) != 0) {
+            log.infof("Scaling down deployment %s from %d replicas", name, replicas(deployment.getSpec().getReplicas()));
+            k8sClient.apps().deployments().inNamespace(namespace).withName(name)
+                    .edit(d -> new DeploymentBuilder(d).editSpec().withReplicas(0).endSpec().build());
+            applied("deployment", deployment);
+        }
+        StatefulSet statefulSet = statefulSets.getStore().getByKey(key);
+        if (statefulSet != null && !isPending("statefulset", statefulSet)
+                && replicas(statefulSet.getSpec().getReplicas()) != 0) {
+            log.infof("Scaling down stateful set %s from %d replicas", name,
+                    replicas(statefulSet.getSpec().getReplicas()));
+            k8sClient.apps().statefulSets().inNamespace(namespace).withName(name)
+                    .edit(s -> new StatefulSetBuilder(s).editSpec().withReplicas(0).endSpec().build());
+            applied("statefulset", statefulSet);
+        }
+    }
+
+    /**
+     * @return the replicas, defaulted to 1 like by the api server
+     */
+    private static int replicas(Integer replicas) {
+        return replicas != null ? replicas : 1;
+    }
+
+    /**
+     * @return the service of an EndpointSlice maintained for the gateway
+     */
+    private static String sliceService(String sliceName) {
+        return sliceName.endsWith(SLICE_SUFFIX) ? sliceName.substring(0, sliceName.length() - SLICE_SUFFIX.length())
+                : sliceName;
+    }
+}
@@ -0,0 +1,164 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.jboss.logging.Logger;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.ssh.PortsConfiguration.PortForwarding;
+
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.ServicePort;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+
+/**
+ * Discovers port forwardings from the services in the dev namespace, which are
+ * annotated with {@link K8sDevServicesBuildTimeConfig#discoveryAnnotation()}.
+ * The services are watched, so only the forwardings of added, changed or
+ * removed services are touched.
+ * <p>
+ * The annotation value is {@code <name>[:<localPort>[:<servicePort>]]}, where
+ * name is the config key prefix like in the values.yaml. Without a local port a
+ * random one is used, without a service port the first port of the service.
+ */
+public class ServiceDiscovery implements Closeable {
+    private static final Logger log = Logger.getLogger(ServiceDiscovery.class);
+
+    /**
+     * Receives the changes of the discovered forwardings.
+     */
+    public interface Listener {
+        void added(PortForwarding portForwarding);
+
+        void removed(PortForwarding portForwarding);
+    }
+
+    private final KubernetesClient k8sClient;
+
+    private final String namespace;
+
+    private final String annotation;
+
+    private final Listener listener;
+
+    /**
+     * The forwardings per service name.
+     */
+    private final Map<String, PortForwarding> discovered = new HashMap<>();
+
+    private volatile SharedIndexInformer<Service> informer;
+
+    public ServiceDiscovery(KubernetesClient k8sClient, String namespace, String annotation, Listener listener) {
+        this.k8sClient = k8sClient;
+        this.namespace = namespace;
+        this.annotation = annotation;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts watching the services. The forwardings of the services existing
+     * already are added before this method returns.
+     */
+    public void start() {
+        informer = k8sClient.services()
+                .inNamespace(namespace)
+                .inform(new ResourceEventHandler<>() {
+                    @Override
+                    public void onAdd(Service service) {
+                        update(service);
+                    }
+
+                    @Override
+                    public void onUpdate(Service oldService, Service service) {
+                        update(service);
+                    }
+
+                    @Override
+                    public void onDelete(Service service, boolean deletedFinalStateUnknown) {
+                        remove(service.getMetadata().getName());
+                    }
+                });
+        informer.getStore().list().forEach(this::update);
+    }
+
+    @Override
+    public void close() {
+        SharedIndexInformer<Service> current = informer;
+        informer = null;
+        if (current != null) {
+            current.close();
+        }
+        synchronized (this) {
+            discovered.clear();
+        }
+    }
+
+    private synchronized void update(Service service) {
+        if (informer == null) {
+            return;
+        }
+        String serviceName = service.getMetadata().getName();
+        PortForwarding portForwarding = parse(service);
+        PortForwarding existing = discovered.get(serviceName);
+        if (existing != null && portForwarding != null && sameTarget(existing, portForwarding)) {
+            return;
+        }
+        remove(serviceName);
+        if (portForwarding != null) {
+            log.infof("Discovered port forwarding %s for service %s", portForwarding.getName(), serviceName);
+            discovered.put(serviceName, portForwarding);
+            listener.added(portForwarding);
+        }
+    }
+
+    private synchronized void remove(String serviceName) {
+        PortForwarding removed = discovered.remove(serviceName);
+        if (removed != null) {
+            listener.removed(removed);
+        }
+    }
+
+    /**
+     * @return the forwarding of the service, null if it is not annotated or the
+     *         annotation is invalid
+     */
+    PortForwarding parse(Service service) {
+        Map<String, String> annotations = service.getMetadata().getAnnotations();
+        String value = annotations != null ? annotations.get(annotation) : null;
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        String[] split = value.trim().split(":");
+        try {
+            int localPort = split.length > 1 ? Integer.parseInt(split[1]) : 0;
+            Integer servicePort = split.length > 2 ? Integer.valueOf(split[2]) : firstPort(service);
+            if (servicePort == null) {
+                log.warnf("Service %s has no port to forward", service.getMetadata().getName());
+                return null;
+            }
+            return PortForwarding.of(split[0], localPort, service.getMetadata().getName(), servicePort);
+        } catch (NumberFormatException e) {
+            log.warnf("Invalid annotation %s=%s of service %s, expected <name>[:<localPort>[:<servicePort>]]",
+                    annotation, value, service.getMetadata().getName());
+            return null;
+        }
+    }
+
+    private static Integer firstPort(Service service) {
+        List<ServicePort> ports = service.getSpec().getPorts();
+        return ports == null || ports.isEmpty() ? null : ports.get(0).getPort();
+    }
+
+    private static boolean sameTarget(PortForwarding a, PortForwarding b) {
+        return a.getName().equals(b.getName())
+                && a.getLocalPort() == b.getLocalPort()
+                && a.getServicePort() == b.getServicePort()
+                && Objects.equals(a.getServiceName(), b.getServiceName());
+    }
+}
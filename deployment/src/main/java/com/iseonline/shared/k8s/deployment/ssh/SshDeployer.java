@@ -6,45 +6,75 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.ServerSocket;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ScheduledFuture;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import org.apache.commons.io.IOUtils;
 import org.jboss.logging.Logger;
 
 import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig.SshTransportProfile;
+import com.iseonline.shared.k8s.deployment.ssh.HttpRouter.Route;
+import com.iseonline.shared.k8s.deployment.ssh.PortsConfiguration.LoadBalancing;
 import com.iseonline.shared.k8s.deployment.ssh.PortsConfiguration.PortForwarding;
 import com.iseonline.shared.k8s.deployment.ssh.PortsConfiguration.ReverseProxy;
+import com.iseonline.shared.k8s.deployment.ssh.TransportTuning.Measurement;
+import com.iseonline.shared.k8s.deployment.timeline.StartupTimeline;
+import com.iseonline.shared.k8s.deployment.timeline.StartupTimeline.Span;
 import com.iseonline.shared.k8s.deployment.utils.K8sDevServicesUtils;
+import com.iseonline.shared.k8s.deployment.utils.KubeClients;
+import com.iseonline.shared.k8s.deployment.utils.KubeContextSelector;
+import com.iseonline.shared.k8s.deployment.utils.RetryPolicy;
+import com.iseonline.shared.k8s.deployment.utils.ShutdownCoordinator;
+import com.iseonline.shared.k8s.deployment.utils.StartupPipeline;
+import com.iseonline.shared.k8s.deployment.utils.Watchdogs;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SocketFactory;
 
+import io.fabric8.kubernetes.api.model.AffinityBuilder;
 import io.fabric8.kubernetes.api.model.ContainerPort;
 import io.fabric8.kubernetes.api.model.ContainerPortBuilder;
+import io.fabric8.kubernetes.api.model.IntOrString;
 import io.fabric8.kubernetes.api.model.Namespace;
 import io.fabric8.kubernetes.api.model.NamespaceBuilder;
 import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
 import io.fabric8.kubernetes.api.model.PodList;
 import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.ServiceBuilder;
 import io.fabric8.kubernetes.api.model.apps.Deployment;
-import io.fabric8.kubernetes.api.model.apps.StatefulSet;
-import io.fabric8.kubernetes.client.Config;
 import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.KubernetesClientBuilder;
 import io.fabric8.kubernetes.client.LocalPortForward;
 import io.fabric8.kubernetes.client.dsl.MixedOperation;
 import io.fabric8.kubernetes.client.dsl.Resource;
 import io.fabric8.kubernetes.client.dsl.RollableScalableResource;
-import io.fabric8.kubernetes.client.dsl.ServiceResource;
 import io.quarkus.deployment.IsNormal;
 import io.quarkus.deployment.annotations.BuildStep;
 import io.quarkus.deployment.annotations.BuildSteps;
@@ -60,8 +90,58 @@ public class SshDeployer implements Closeable {
 
     public static final String SSH_DEPLOYMENT_NAME = "quarkus-dev-ssh";
 
+    /**
+     * The port on which the openssh server listens inside the pod.
+     */
+    private static final int SSH_CONTAINER_PORT = 2222;
+
+    private static final String TIMELINE_RELEASE = SSH_DEPLOYMENT_NAME;
+
+    /**
+     * Number of watchdog intervals without any answer of the ssh server, after
+     * which the session is considered dead.
+     */
+    private static final int SERVER_ALIVE_COUNT_MAX = 3;
+
+    private static final int SSH_CONNECT_TIMEOUT = 15000;
+
+    private static final Duration CONNECT_INITIAL_BACKOFF = Duration.ofMillis(250);
+
+    private static final Duration CONNECT_MAX_BACKOFF = Duration.ofSeconds(5);
+
+    private static final ExecutorService GLOBAL_REQUESTS = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "k8s-devservices-ssh-requests");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Duration DEFAULT_SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final String REVERSE_PROXY_LABEL = "com.iseonline.quarkus.k8s";
+
+    /**
+     * Marks the active gateway pod in standby mode, the services of the reverse
+     * proxies select it.
+     */
+    private static final String GATEWAY_ROLE_LABEL = REVERSE_PROXY_LABEL + "/gateway-role";
+
+    private static final String GATEWAY_ROLE_ACTIVE = "active";
+
+    private static final Object GATEWAY_LOCK = new Object();
+
     private static volatile K8sDevServicesBuildTimeConfig config;
 
+    /**
+     * The namespace of the dev context, see
+     * {@link K8sDevServicesUtils#namespace(K8sDevServicesBuildTimeConfig)}.
+     */
+    private static volatile String namespace;
+
+    /**
+     * The namespace of the gateway, a shared one in multi user mode.
+     */
+    private static volatile String gatewayNamespace;
+
     private static volatile KubernetesClient k8sClient;
 
     private static volatile RunningDevService devService;
@@ -72,10 +152,151 @@ public class SshDeployer implements Closeable {
 
     private static volatile LocalPortForward portForward;
 
-    private static volatile ScheduledFuture<?> k8sFuture;
+    private static volatile Future<?> k8sFuture;
 
-    @BuildStep
+    /**
+     * Tells when the releases the tunnels point to are deployed.
+     */
+    private static volatile StartupPipeline pipeline = StartupPipeline.none();
+
+    private static final List<LocalForwarder> forwarders = new CopyOnWriteArrayList<>();
+
+    private static final List<EndpointBalancer> balancers = new CopyOnWriteArrayList<>();
+
+    private static volatile ServiceDiscovery serviceDiscovery;
+
+    private static volatile ReverseProxyController reverseProxyController;
+
+    /**
+     * Routes the requests of all http reverse proxies, started with the first one.
+     */
+    private static volatile HttpRouter httpRouter;
+
+    /**
+     * The port of the http router on the gateway.
+     */
+    private static volatile AtomicInteger httpRemotePort;
+
+    /**
+     * Releases the tunnel of the http router.
+     */
+    private static volatile Runnable httpTunnel;
+
+    /**
+     * Shares the tunnels of this application with others, if it owns the gateway
+     * connection.
+     */
+    private static volatile TunnelDaemon tunnelDaemon;
+
+    /**
+     * The tunnels of this application are owned by another one.
+     */
+    private static volatile TunnelClient tunnelClient;
+
+    private static final long SHARED_TUNNEL_TIMEOUT = 5 * 60000;
+
+    /**
+     * In multi user mode the reverse proxies of all developers listen on the
+     * shared gateway, each one gets a port of this range.
+     */
+    private static final int GATEWAY_PORT_BASE = 20000;
+
+    private static final int GATEWAY_PORT_RANGE = 40000;
+
+    private static final int GATEWAY_PORT_ATTEMPTS = 10;
+
+    /**
+     * The number of watchdog intervals without reaching the api, after which
+     * the tunnels fail over to another kube context.
+     */
+    private static final int FAILOVER_THRESHOLD = 3;
+
+    /**
+     * Caps the back-off while no other kube context is reachable, at
+     * {@code FAILOVER_THRESHOLD * 2^FAILOVER_MAX_BACKOFF} watchdog intervals.
+     */
+    private static final int FAILOVER_MAX_BACKOFF = 4;
+
+    /**
+     * Set while a failover runs, so later checks don't start another one.
+     */
+    private static final AtomicBoolean failoverRunning = new AtomicBoolean();
+
+    /**
+     * Checks the api of the kube context for the failover, with short timeouts.
+     */
+    private static volatile KubernetesClient failoverProbe;
+
+    private static final List<TunnelStats> tunnelStats = new CopyOnWriteArrayList<>();
+
+    private static volatile SshSessionStats sessionStats;
+
+    /**
+     * The watchdogs of the running dev service, they are shut down on close.
+     */
+    private static volatile Watchdogs watchdogs;
+
+    /**
+     * The transport settings, chosen on the first connect and kept for
+     * reconnects.
+     */
+    private static volatile TransportTuning transportTuning;
+
+    /**
+     * The unix socket directory below {@code java.io.tmpdir}, if the predictable
+     * one is not exclusively ours.
+     */
+    private static volatile Path socketTempDir;
+
+    /**
+     * The address of the ssh server of the active gateway, the local end of the
+     * port forwarding without ssh address.
+     */
+    private static volatile String sshHost;
+
+    private static volatile int sshPort;
+
+    /**
+     * The name of the gateway pod of the ssh session.
+     */
+    private static volatile String activePod;
+
+    /**
+     * The connected second gateway in standby mode, the tunnels switch to it,
+     * once the active one is lost.
+     */
+    private static volatile Session standbySession;
+
+    private static volatile LocalPortForward standbyPortForward;
+
+    private static volatile String standbyPod;
+
+    private static volatile int standbySshPort;
+
+    /**
+     * The remote bindings of the reverse proxies by remote port, they are
+     * replicated on the standby gateway.
+     */
+    private static final Map<Integer, ReverseBinding> reverseBindings = new ConcurrentHashMap<>();
+
+    private record ReverseBinding(int localPort, SocketFactory socketFactory) {
+    }
+
+    /**
+     * Creates the tunnels without waiting for any helm release.
+     */
     public DevServicesResultBuildItem clusterConnection(K8sDevServicesBuildTimeConfig config) {
+        return clusterConnection(config, StartupPipeline.none());
+    }
+
+    /**
+     * Runs concurrently with the helm deployment: the gateway is deployed and ssh
+     * connected right away, the tunnels into a release are created once it is
+     * deployed.
+     */
+    @BuildStep
+    public DevServicesResultBuildItem clusterConnection(K8sDevServicesBuildTimeConfig config,
+            StartupPipeline pipeline) {
         if (!config.enabled()) {
             return null;
         }
@@ -84,31 +305,202 @@ public class SshDeployer implements Closeable {
             return devService.toBuildItem();
         }
         SshDeployer.config = config;
+        SshDeployer.pipeline = pipeline;
+        namespace = K8sDevServicesUtils.namespace(config);
+        gatewayNamespace = K8sDevServicesUtils.gatewayNamespace(config);
+        if (watchdogs == null) {
+            watchdogs = new Watchdogs("k8s-devservices-watchdog");
+        }
 
         if (k8sClient == null) {
-            Config k8sConfig = Config.autoConfigure(config.kubeContext());
-            k8sClient = new KubernetesClientBuilder()
-                    .withConfig(k8sConfig)
-                    .build();
+            try (Span span = StartupTimeline.span(TIMELINE_RELEASE, "createClient")) {
+                k8sClient = KubeClients.acquire(KubeContextSelector.current(config));
+            }
         }
 
-        deploySsh();
-        Map<String, String> overrideConfigs = connectSSH();
+        // Discovered and shared forwardings change the overrides concurrently
+        Map<String, String> overrideConfigs = new ConcurrentHashMap<>();
+        try {
+            connect(overrideConfigs);
+            if (config.kubeContextFailover() && config.kubeContextCandidates().orElse(List.of()).size() > 1) {
+                watchFailover(overrideConfigs);
+            }
+        } catch (RuntimeException e) {
+            // Don't leave the watchdogs of a failed start running
+            try {
+                close();
+            } catch (IOException e2) {
+                e.addSuppressed(e2);
+            }
+            throw e;
+        }
 
         devService = new RunningDevService(FEATURE, null, this::close, overrideConfigs);
 
         return devService.toBuildItem();
     }
 
+    /**
+     * Deploys the gateway and creates the tunnels, or registers them at the
+     * owner of the shared tunnels.
+     */
+    private void connect(Map<String, String> overrideConfigs) {
+        if (config.sharedTunnelEnabled()) {
+            shareTunnels(overrideConfigs);
+        } else {
+            deploySsh();
+            connectSSH(overrideConfigs);
+        }
+    }
+
     @Override
     public void close() throws IOException {
-        closeSsh();
+        disconnect();
+        portsConfg = null;
+        pipeline = StartupPipeline.none();
+        devService = null;
+    }
+
+    /**
+     * Moves the gateway and the tunnels to the next kube context, once the api
+     * of the current one has not been reachable for some watchdog intervals.
+     * The failover runs on an own thread, as it replaces the watchdogs.
+     */
+    private void watchFailover(Map<String, String> overrideConfigs) {
+        String kubeContext = KubeContextSelector.current(config);
+        KubernetesClient probeClient = KubeContextSelector.probeClient(config, kubeContext);
+        failoverProbe = probeClient;
+        AtomicInteger failures = new AtomicInteger();
+        // Failovers in a row, which found no other reachable kube context
+        AtomicInteger unsuccessful = new AtomicInteger();
+        watch(() -> {
+            if (failures.get() < FAILOVER_THRESHOLD || !failoverRunning.compareAndSet(false, true)) {
+                return;
+            }
+            failures.set(0);
+            Thread failover = new Thread(() -> {
+                try {
+                    if (!failover(overrideConfigs)) {
+                        // Counts up from below zero, so the next attempt waits longer
+                        int backoff = 1 << Math.min(unsuccessful.incrementAndGet(), FAILOVER_MAX_BACKOFF);
+                        failures.set(-FAILOVER_THRESHOLD * (backoff - 1));
+                    }
+                } finally {
+                    failoverRunning.set(false);
+                }
+            }, "k8s-devservices-failover");
+            failover.setDaemon(true);
+            failover.start();
+        }, () -> {
+            try {
+                probeClient.namespaces().withName(gatewayNamespace).get();
+                failures.set(0);
+                unsuccessful.set(0);
+                return true;
+            } catch (RuntimeException e) {
+                log.debugf("Kube context %s is not reachable: %s", kubeContext, e.getMessage());
+                return failures.incrementAndGet() < FAILOVER_THRESHOLD;
+            }
+        });
+    }
+
+    /**
+     * @return false, if no other kube context is reachable
+     */
+    private boolean failover(Map<String, String> overrideConfigs) {
+        String kubeContext = KubeContextSelector.failover(config);
+        if (kubeContext == null) {
+            log.warn("No other kube context is reachable, the tunnels stay till the next check");
+            return false;
+        }
+        // The local ports of the forwardings are kept, the application keeps
+        // using them
+        disconnect();
+        watchdogs = new Watchdogs("k8s-devservices-watchdog");
+        k8sClient = KubeClients.acquire(kubeContext);
+        try {
+            connect(overrideConfigs);
+            watchFailover(overrideConfigs);
+            log.infof("Tunnels failed over to kube context %s", kubeContext);
+        } catch (RuntimeException e) {
+            log.errorf(e, "Could not fail over the tunnels to kube context %s", kubeContext);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the watchdogs first, otherwise they recreate what is closed here.
+     * Forwardings, ssh session and the port forwarding to the gateway are torn
+     * down in parallel, bounded by the shutdown timeout.
+     */
+    private void disconnect() {
+        if (watchdogs != null) {
+            watchdogs.close();
+            watchdogs = null;
+        }
+        k8sFuture = null;
+
+        List<Runnable> teardown = new ArrayList<>();
+        // No new forwardings must be discovered while closing
+        if (serviceDiscovery != null) {
+            serviceDiscovery.close();
+            serviceDiscovery = null;
+        }
+        if (reverseProxyController != null) {
+            reverseProxyController.close();
+            reverseProxyController = null;
+        }
+        HttpRouter router = httpRouter;
+        httpRouter = null;
+        httpTunnel = null;
+        if (router != null) {
+            // The remote binding ends with the ssh session
+            teardown.add(router::close);
+        }
+        forwarders.forEach(forwarder -> teardown.add(forwarder::close));
+        forwarders.clear();
+        balancers.forEach(balancer -> teardown.add(balancer::close));
+        balancers.clear();
+        teardown.add(this::closeSsh);
+        teardown.add(SshDeployer::closeStandby);
+        LocalPortForward tempPortForward = portForward;
+        portForward = null;
+        if (tempPortForward != null) {
+            teardown.add(() -> closePortForward(tempPortForward));
+        }
+        if (tunnelClient != null) {
+            // The owner releases the tunnels, which are not used by others
+            teardown.add(tunnelClient::close);
+            tunnelClient = null;
+        }
+        new ShutdownCoordinator(config != null ? config.shutdownTimeout() : DEFAULT_SHUTDOWN_TIMEOUT)
+                .run("closing ssh tunnels", teardown);
+        if (tunnelDaemon != null) {
+            // Once the local ports are free, another application takes over
+            tunnelDaemon.close();
+            tunnelDaemon = null;
+        }
+        if (failoverProbe != null) {
+            failoverProbe.close();
+            failoverProbe = null;
+        }
+
+        tunnelStats.forEach(TunnelStats::unregister);
+        tunnelStats.clear();
+        if (sessionStats != null) {
+            sessionStats.unregister();
+            sessionStats = null;
+        }
+        transportTuning = null;
+        activePod = null;
+        reverseBindings.clear();
         if (k8sClient != null) {
             try {
-                k8sClient.close();
+                KubeClients.release(k8sClient);
             } catch (Exception e) {
                 log.warn("Error during closing kuberne connection for dev apps k8s:", e);
             }
+            k8sClient = null;
         }
     }
 
@@ -116,20 +508,50 @@ public class SshDeployer implements Closeable {
         if (session != null) {
             Session tempSession = session;
             session = null;
-            // Make sure, all port forwardings are deleted to free the local ports,
-            // otherwise they are still blocked
-            try {
-                for (String pf : tempSession.getPortForwardingL()) {
-                    tempSession.delPortForwardingL(Integer.parseInt(pf.split(":")[0]));
-                }
-                for (String rp : tempSession.getPortForwardingR()) {
-                    String[] split = rp.split(":");
-                    tempSession.delPortForwardingR(split[1], Integer.parseInt(split[0]));
-                }
-            } catch (JSchException e) {
-                log.warn("Cloud not close all port forwardings:", e);
+            closeSession(tempSession);
+        }
+    }
+
+    private static void closeSession(Session tempSession) {
+        // Make sure, all port forwardings are deleted to free the local ports,
+        // otherwise they are still blocked
+        try {
+            for (String pf : tempSession.getPortForwardingL()) {
+                tempSession.delPortForwardingL(Integer.parseInt(pf.split(":")[0]));
             }
-            tempSession.disconnect();
+            for (String rp : tempSession.getPortForwardingR()) {
+                String[] split = rp.split(":");
+                tempSession.delPortForwardingR(split[1], Integer.parseInt(split[0]));
+            }
+        } catch (JSchException e) {
+            log.warn("Cloud not close all port forwardings:", e);
+        }
+        tempSession.disconnect();
+    }
+
+    private static void closePortForward(LocalPortForward forward) {
+        try {
+            forward.close();
+        } catch (IOException e) {
+            // can be ignored
+        }
+    }
+
+    private static void closeStandby() {
+        Session tempSession;
+        LocalPortForward tempPortForward;
+        synchronized (GATEWAY_LOCK) {
+            tempSession = standbySession;
+            tempPortForward = standbyPortForward;
+            standbySession = null;
+            standbyPortForward = null;
+            standbyPod = null;
+        }
+        if (tempSession != null) {
+            closeSession(tempSession);
+        }
+        if (tempPortForward != null) {
+            closePortForward(tempPortForward);
         }
     }
 
@@ -142,43 +564,61 @@ public class SshDeployer implements Closeable {
                 .withName("ssh")
                 .build());
 
-        // make sure the namespace exists before deploying anything
-        Namespace namespace = new NamespaceBuilder()
-                .withNewMetadata()
-                .withName(config.namespace())
-                .endMetadata()
-                .build();
-        k8sClient.namespaces()
-                .resource(namespace)
-                .createOr(t -> namespace);
+        // make sure the namespaces exist before deploying anything, the services
+        // of the reverse proxies are created in the dev namespace
+        Stream.of(namespace, gatewayNamespace).distinct().forEach(name -> {
+            Namespace ns = new NamespaceBuilder()
+                    .withNewMetadata()
+                    .withName(name)
+                    .endMetadata()
+                    .build();
+            k8sClient.namespaces()
+                    .resource(ns)
+                    .createOr(t -> ns);
+        });
 
         RollableScalableResource<Deployment> deploymentResource = getResource(k8sClient.apps().deployments(),
                 "sshdeploy.yaml",
-                config.namespace(),
+                gatewayNamespace,
                 config.sshImage(),
                 config.sshUsername(),
                 config.sshPassword());
 
-        portsConfg = PortsConfiguration.parseConfig(Path.of(config.chartPath()));
-
-        addPorts(deploymentResource);
+        if (portsConfg == null) {
+            portsConfg = PortsConfiguration.parseConfig(Path.of(config.chartPath()));
+        }
 
-        deploymentResource.createOr(t -> t.patch());
+        if (!config.multiUserEnabled()) {
+            addPorts(deploymentResource);
+        }
+        // else the shared gateway is not changed, its pod would be restarted for
+        // all developers. The container ports are informational only.
+        if (config.gatewayStandby() && config.multiUserEnabled()) {
+            log.warn("The standby gateway is not supported in multi user mode, it is ignored");
+        } else if (standby()) {
+            addStandby(deploymentResource.item());
+        }
 
-        // Kubernetes might need a short time, before it triggers the recalculation of
-        // the replicaset, give it a little bit of time, otherwise we might connect to
-        // an old pod
-        try {
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
+        try (Span span = StartupTimeline.span(TIMELINE_RELEASE, "applyDeployment")) {
+            deploymentResource.createOr(t -> t.patch());
         }
 
-        // Wait till ssh deployment is in ready state
-        K8sDevServicesUtils.waitTill(5 * 60000, () -> k8sClient.apps()
-                .deployments()
-                .inNamespace(config.namespace())
-                .withName(SSH_DEPLOYMENT_NAME)
-                .isReady());
+        try (Span span = StartupTimeline.span(TIMELINE_RELEASE, "waitReady")) {
+            // Kubernetes might need a short time, before it triggers the recalculation of
+            // the replicaset, give it a little bit of time, otherwise we might connect to
+            // an old pod
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+            }
+
+            // Wait till ssh deployment is in ready state
+            K8sDevServicesUtils.waitTill(5 * 60000, () -> k8sClient.apps()
+                    .deployments()
+                    .inNamespace(gatewayNamespace)
+                    .withName(SSH_DEPLOYMENT_NAME)
+                    .isReady());
+        }
     }
 
     private void addPorts(RollableScalableResource<Deployment> deploymentResource) {
@@ -193,8 +633,9 @@ public class SshDeployer implements Closeable {
                     .toList();
         }
 
+        // The http reverse proxies share one port
         List<Integer> proxyPorts = portsConfg.getReverseProxies().stream()
-                .map(p -> p.getServicePort())
+                .map(p -> p.isHttp() ? config.reverseProxyHttpPort() : p.getServicePort())
                 .toList();
 
         List<ContainerPort> ports = Stream.concat(proxyPorts.stream(), existingPorts.stream())
@@ -210,6 +651,34 @@ public class SshDeployer implements Closeable {
                 .get(0).getPorts().addAll(ports);
     }
 
+    /**
+     * Runs a second replica, preferably on another node, so a drained node does
+     * not take both.
+     */
+    private static void addStandby(Deployment deployment) {
+        deployment.getSpec().setReplicas(2);
+        deployment.getSpec().getTemplate().getSpec().setAffinity(new AffinityBuilder()
+                .withNewPodAntiAffinity()
+                .addNewPreferredDuringSchedulingIgnoredDuringExecution()
+                .withWeight(100)
+                .withNewPodAffinityTerm()
+                .withTopologyKey("kubernetes.io/hostname")
+                .withNewLabelSelector()
+                .addToMatchLabels("app", SSH_DEPLOYMENT_NAME)
+                .endLabelSelector()
+                .endPodAffinityTerm()
+                .endPreferredDuringSchedulingIgnoredDuringExecution()
+                .endPodAntiAffinity()
+                .build());
+    }
+
+    /**
+     * @return whether a standby gateway is connected besides the active one
+     */
+    private static boolean standby() {
+        return config.gatewayStandby() && !config.multiUserEnabled();
+    }
+
     private int getFreePort() {
         try (ServerSocket serverSocket = new ServerSocket(0)) {
             return serverSocket.getLocalPort();
@@ -218,100 +687,419 @@ public class SshDeployer implements Closeable {
         }
     }
 
-    private Map<String, String> connectSSH() {
+    private void connectSSH(Map<String, String> overrideConfigs) {
         try {
-            int localSshPort = getFreePort();
+            // Without a directly reachable ssh address, the ssh port of the pod is
+            // forwarded via the kubernetes api
+            sshHost = config.sshAddress().map(a -> a.substring(0, a.lastIndexOf(':'))).orElse("127.0.0.1");
+            sshPort = config.sshAddress().map(a -> Integer.parseInt(a.substring(a.lastIndexOf(':') + 1)))
+                    .orElseGet(this::getFreePort);
 
             // It can take quite some time before the ssh server is really ready to accept
-            // connections, therefore retry some times...
-            K8sDevServicesUtils.Retry(60, 1000, () -> {
-                createK8sTunnel(localSshPort);
-                createSshSession(config, localSshPort);
-            });
-
-            Map<String, String> overrideConfigs = new HashMap<>();
-            List<Exception> errors = portsConfg.getPortForwardings().stream()
-                    .map(p -> createPortForwarding(overrideConfigs, p))
-                    .filter(e -> e != null)
-                    .toList();
-            if (!errors.isEmpty()) {
-                throw errors.get(0);
+            // connections, therefore retry till the deadline
+            try (Span span = StartupTimeline.span(TIMELINE_RELEASE, "connectSsh")) {
+                RetryPolicy.await(RetryPolicy.of("Connecting ssh")
+                        .withMaxAttempts(Integer.MAX_VALUE)
+                        .withBackoff(CONNECT_INITIAL_BACKOFF, CONNECT_MAX_BACKOFF)
+                        .withDeadline(config.sshConnectDeadline())
+                        .retryOn(e -> !isAuthFailure(e))
+                        .run(() -> {
+                            try (Span attempt = StartupTimeline.span(TIMELINE_RELEASE, "connectSshAttempt")) {
+                                if (config.sshAddress().isEmpty()) {
+                                    createK8sTunnel();
+                                } else if (standby()) {
+                                    selectActivePod();
+                                }
+                                createSshSession(config);
+                            }
+                        }));
             }
-            errors = portsConfg.getReverseProxies().stream()
-                    .map(p -> createReverseProxy(p))
-                    .filter(e -> e != null)
-                    .toList();
-            if (!errors.isEmpty()) {
-                throw errors.get(0);
+            if (standby()) {
+                watchStandby();
             }
 
-            return overrideConfigs;
-        } catch (JSchException e) {
-            log.warn("Failed to establish ssh connection", e);
-            throw new RuntimeException(e);
-        } catch (IOException e) {
-            log.warn("Failed to read values.yaml", e);
-            throw new RuntimeException(e);
-        } catch (Exception e) {
+            // Each tunnel is created as soon as its release is deployed, its
+            // overrides are published right away
+            List<CompletableFuture<Void>> tunnels = new ArrayList<>();
+            for (PortForwarding p : portsConfg.getPortForwardings()) {
+                tunnels.add(pipeline.afterRelease(p.getRelease(), () -> {
+                    try (Span span = StartupTimeline.span(TIMELINE_RELEASE, "forwarding " + p.getName())) {
+                        if (tunnelDaemon != null) {
+                            // Shared with the other applications
+                            tunnelDaemon.forward(p);
+                            overrideConfigs.put(p.getName() + ".host", "localhost");
+                            overrideConfigs.put(p.getName() + ".port", "" + p.getRealLocalPort());
+                        } else {
+                            createPortForwarding(overrideConfigs, p);
+                        }
+                    }
+                }));
+            }
+            if (config.discoveryEnabled()) {
+                try (Span span = StartupTimeline.span(TIMELINE_RELEASE, "discoverForwardings")) {
+                    discoverPortForwardings(overrideConfigs);
+                }
+            }
+            for (ReverseProxy p : portsConfg.getReverseProxies()) {
+                // Otherwise helm overwrites the service of the proxy again
+                tunnels.add(pipeline.afterRelease(p.getRelease(), () -> {
+                    try (Span span = StartupTimeline.span(TIMELINE_RELEASE, "reverseProxy " + p.getServiceName())) {
+                        if (tunnelDaemon != null) {
+                            tunnelDaemon.reverse(p);
+                        } else {
+                            createReverseProxy(p);
+                        }
+                    }
+                }));
+            }
+            StartupPipeline.await(tunnels);
+        } catch (RuntimeException e) {
             log.warn("Error during connect ssh", e);
-            throw new RuntimeException(e);
+            throw e;
         }
     }
 
-    private void createK8sTunnel(int localSshPort) {
+    /**
+     * Either owns the gateway connection and shares it with the other
+     * applications via the {@link TunnelDaemon}, or registers the tunnels at the
+     * daemon of another application. If the owner exits, one of the others takes
+     * over.
+     */
+    private void shareTunnels(Map<String, String> overrideConfigs) {
+        Path socketPath = TunnelDaemon.socketPath(config);
+        TunnelDaemon.Tunnels tunnels = new TunnelDaemon.Tunnels() {
+            @Override
+            public Runnable forward(PortForwarding portForwarding) {
+                // The overrides are provided by the application requesting it, the
+                // daemon only hands out local ports
+                return createPortForwarding(new ConcurrentHashMap<>(), portForwarding, false);
+            }
+
+            @Override
+            public Runnable reverse(ReverseProxy reverseProxy) {
+                return createReverseProxy(reverseProxy);
+            }
+        };
+        watch(() -> {
+            boolean reconnect = tunnelClient != null;
+            if (reconnect) {
+                tunnelClient.close();
+                tunnelClient = null;
+                log.info("Lost the connection to the shared tunnels, reconnecting");
+            }
+            try {
+                TunnelDaemon daemon = TunnelDaemon.tryAcquire(socketPath, tunnels);
+                if (daemon != null) {
+                    tunnelDaemon = daemon;
+                    if (reconnect) {
+                        log.info("Taking over the shared tunnels");
+                    }
+                    // The local ports of an earlier connection are requested again
+                    deploySsh();
+                    connectSSH(overrideConfigs);
+                    daemon.start();
+                    return;
+                }
+                if (portsConfg == null) {
+                    portsConfg = PortsConfiguration.parseConfig(Path.of(config.chartPath()));
+                }
+                TunnelClient[] client = new TunnelClient[1];
+                // The owner may still be starting
+                if (!K8sDevServicesUtils.waitTill(SHARED_TUNNEL_TIMEOUT,
+                        () -> (client[0] = TunnelClient.connect(socketPath)) != null)) {
+                    throw new IllegalStateException("Shared tunnels are not available on " + socketPath);
+                }
+                for (PortForwarding p : portsConfg.getPortForwardings()) {
+                    client[0].forward(p);
+                    overrideConfigs.put(p.getName() + ".host", "localhost");
+                    overrideConfigs.put(p.getName() + ".port", "" + p.getRealLocalPort());
+                }
+                for (ReverseProxy p : portsConfg.getReverseProxies()) {
+                    client[0].reverse(p);
+                }
+                tunnelClient = client[0];
+                log.infof("Using the shared tunnels of another application via %s", socketPath);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not share tunnels via " + socketPath, e);
+            }
+        }, () -> tunnelDaemon != null || (tunnelClient != null && tunnelClient.isAlive()));
+    }
+
+    private void createK8sTunnel() {
         if (k8sFuture != null) {
             k8sFuture.cancel(false);
         }
-        Pod[] sshPod = new Pod[1];
-        k8sFuture = K8sDevServicesUtils.createAndWatch(() -> {
+        // The port forwarding of the failed check
+        LocalPortForward[] checked = { portForward };
+        k8sFuture = watchdogs.createAndWatch(() -> {
+            if (checked[0] != portForward || switchToStandby()) {
+                // Switched to the standby gateway meanwhile
+                return;
+            }
             if (portForward != null) {
                 try {
                     portForward.close();
                 } catch (Exception e2) {
                 }
             }
-            PodList podList = k8sClient.pods()
-                    .inNamespace(config.namespace())
-                    .withLabel("app", SSH_DEPLOYMENT_NAME)
-                    .list();
-            if (podList.getItems().size() > 1) {
-                throw new IllegalStateException("More than one ssh pod found, did not start correctly?");
-            }
-            sshPod[0] = podList.getItems().get(0);
+            String podName = selectActivePod();
             portForward = k8sClient.pods()
-                    .inNamespace(config.namespace())
-                    .withName(sshPod[0].getMetadata().getName())
-                    .portForward(2222, localSshPort);
+                    .inNamespace(gatewayNamespace)
+                    .withName(podName)
+                    .portForward(SSH_CONTAINER_PORT, sshPort);
             if (!portForward.isAlive()) {
                 log.warn("Portforwarding to SSH pod did not succeed!");
             }
         }, () -> {
+            checked[0] = portForward;
             if (!portForward.isAlive()) {
                 return false;
             }
             // isAlive returns true, even if the target pod is already deleted
-            if (k8sClient.pods()
-                    .inNamespace(config.namespace())
-                    .withName(sshPod[0].getMetadata().getName()).get() == null) {
+            return isRunning(activePod);
+        }, config.watchdogInterval().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Selects the gateway pod for the ssh session, another one than the standby
+     * in standby mode.
+     *
+     * @return the name of the pod
+     */
+    private String selectActivePod() {
+        if (!standby()) {
+            PodList podList = k8sClient.pods()
+                    .inNamespace(gatewayNamespace)
+                    .withLabel("app", SSH_DEPLOYMENT_NAME)
+                    .list();
+            if (podList.getItems().size() > 1) {
+                throw new IllegalStateException("More than one ssh pod found, did not start correctly?");
+            }
+            activePod = podList.getItems().get(0).getMetadata().getName();
+            return activePod;
+        }
+        Pod pod = Objects.requireNonNullElseGet(gatewayPod(standbyPod), () -> gatewayPod(null));
+        if (pod == null) {
+            throw new IllegalStateException("No running ssh pod found");
+        }
+        activePod = pod.getMetadata().getName();
+        markActive(activePod);
+        return activePod;
+    }
+
+    /**
+     * @return a running gateway pod, which is not terminating, or null
+     */
+    private static Pod gatewayPod(String excluded) {
+        return k8sClient.pods()
+                .inNamespace(gatewayNamespace)
+                .withLabel("app", SSH_DEPLOYMENT_NAME)
+                .list().getItems().stream()
+                .filter(p -> p.getMetadata().getDeletionTimestamp() == null)
+                .filter(p -> !p.getMetadata().getName().equals(excluded))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * @return whether the gateway pod exists and is not terminating, e.g. as its
+     *         node is drained
+     */
+    private static boolean isRunning(String podName) {
+        if (podName == null) {
+            return false;
+        }
+        Pod pod = k8sClient.pods().inNamespace(gatewayNamespace).withName(podName).get();
+        return pod != null && pod.getMetadata().getDeletionTimestamp() == null;
+    }
+
+    /**
+     * Moves the role label to the given gateway pod, so the services of the
+     * reverse proxies select only it.
+     */
+    private static void markActive(String podName) {
+        for (Pod pod : k8sClient.pods()
+                .inNamespace(gatewayNamespace)
+                .withLabel("app", SSH_DEPLOYMENT_NAME)
+                .list().getItems()) {
+            String name = pod.getMetadata().getName();
+            boolean active = GATEWAY_ROLE_ACTIVE.equals(pod.getMetadata().getLabels().get(GATEWAY_ROLE_LABEL));
+            if (active == name.equals(podName)) {
+                continue;
+            }
+            try {
+                k8sClient.pods().inNamespace(gatewayNamespace).withName(name).edit(p -> name.equals(podName)
+                        ? new PodBuilder(p).editMetadata().addToLabels(GATEWAY_ROLE_LABEL, GATEWAY_ROLE_ACTIVE)
+                                .endMetadata().build()
+                        : new PodBuilder(p).editMetadata().removeFromLabels(GATEWAY_ROLE_LABEL)
+                                .endMetadata().build());
+            } catch (RuntimeException e) {
+                // e.g. the lost pod is gone meanwhile
+                log.debugf("Could not label gateway pod %s: %s", name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Keeps a second ssh session to another gateway pod connected, with the
+     * bindings of the reverse proxies in place. Once the active gateway is lost,
+     * the tunnels switch to it right away, the watchdog connects the replacement
+     * of the lost pod as the next standby.
+     */
+    private void watchStandby() {
+        watch(this::connectStandby, () -> {
+            Session active = session;
+            if (active == null || !active.isConnected() || !isRunning(activePod)) {
+                switchToStandby();
+            }
+            Session standby = standbySession;
+            LocalPortForward forward = standbyPortForward;
+            return standby != null && standby.isConnected() && (forward == null || forward.isAlive())
+                    && isRunning(standbyPod);
+        });
+    }
+
+    private void connectStandby() {
+        closeStandby();
+        Pod pod = gatewayPod(activePod);
+        if (pod == null) {
+            log.debugf("No standby gateway pod available yet");
+            return;
+        }
+        String podName = pod.getMetadata().getName();
+        int port = sshPort;
+        LocalPortForward forward = null;
+        if (config.sshAddress().isEmpty()) {
+            port = getFreePort();
+            forward = k8sClient.pods()
+                    .inNamespace(gatewayNamespace)
+                    .withName(podName)
+                    .portForward(SSH_CONTAINER_PORT, port);
+        }
+        Session standby;
+        try {
+            standby = openSession(sshHost, port,
+                    Objects.requireNonNullElseGet(transportTuning,
+                            () -> TransportTuning.of(SshTransportProfile.DEFAULT, config)));
+        } catch (RuntimeException e) {
+            if (forward != null) {
+                closePortForward(forward);
+            }
+            log.debugf("Could not connect the standby gateway %s: %s", podName, e.getMessage());
+            return;
+        }
+        reverseBindings.forEach((remotePort, binding) -> bindStandby(standby, remotePort, binding));
+        synchronized (GATEWAY_LOCK) {
+            standbySession = standby;
+            standbyPortForward = forward;
+            standbyPod = podName;
+            standbySshPort = port;
+        }
+        log.infof("Standby gateway %s connected", podName);
+    }
+
+    private static void bindStandby(Session standby, int remotePort, ReverseBinding binding) {
+        try {
+            setPortForwardingR(standby, remotePort, binding.localPort(), binding.socketFactory());
+        } catch (JSchException e) {
+            // Bound by the watchdog of the reverse proxy after a switch
+            log.debugf("Could not bind remote port %d on the standby gateway: %s", remotePort, e.getMessage());
+        }
+    }
+
+    /**
+     * Makes the standby gateway the active one, if it is connected: the ssh
+     * session and its port forwarding replace the lost ones and the services of
+     * the reverse proxies select the standby pod.
+     *
+     * @return whether it switched
+     */
+    private static boolean switchToStandby() {
+        Session lostSession;
+        LocalPortForward lostPortForward;
+        String lostPod;
+        synchronized (GATEWAY_LOCK) {
+            Session standby = standbySession;
+            if (standby == null || !standby.isConnected()) {
                 return false;
             }
-            return true;
-        }, 10, TimeUnit.SECONDS);
+            lostSession = session;
+            lostPortForward = portForward;
+            lostPod = activePod;
+            session = standby;
+            portForward = standbyPortForward;
+            sshPort = standbySshPort;
+            activePod = standbyPod;
+            standbySession = null;
+            standbyPortForward = null;
+            standbyPod = null;
+        }
+        markActive(activePod);
+        // Connections of all tunnels are lost with the session
+        if (sessionStats != null) {
+            sessionStats.reconnected();
+        }
+        tunnelStats.forEach(TunnelStats::reconnected);
+        log.infof("Lost gateway %s, switched the tunnels to the standby gateway %s", lostPod, activePod);
+        Thread close = new Thread(() -> {
+            if (lostSession != null) {
+                closeSession(lostSession);
+            }
+            if (lostPortForward != null) {
+                closePortForward(lostPortForward);
+            }
+        }, "k8s-devservices-gateway-switch");
+        close.setDaemon(true);
+        close.start();
+        return true;
     }
 
-    private void createSshSession(K8sDevServicesBuildTimeConfig config, int localSshPort) throws RuntimeException {
-        K8sDevServicesUtils.createAndWatch(() -> {
+    private void createSshSession(K8sDevServicesBuildTimeConfig config) throws RuntimeException {
+        if (sessionStats == null) {
+            sessionStats = new SshSessionStats().register();
+        }
+        // The session of the failed check
+        Session[] checked = { session };
+        watch(() -> {
+            if (checked[0] != session || switchToStandby()) {
+                // Switched to the standby gateway meanwhile
+                return;
+            }
+            if (session != null) {
+                // Connections of all tunnels are lost with the session
+                sessionStats.reconnected();
+                tunnelStats.forEach(TunnelStats::reconnected);
+            }
             closeSsh();
-            log.infof("Connecting ssh on port %d", localSshPort);
-            try {
-                session = new JSch().getSession(config.sshUsername(), "127.0.0.1", localSshPort);
-                session.setPassword(config.sshPassword());
-                session.setConfig("StrictHostKeyChecking", "no");
-                session.connect(15000);
-            } catch (JSchException e) {
-                throw new RuntimeException("Could not initiate SSH session", e);
+            log.infof("Connecting ssh on %s:%d", sshHost, sshPort);
+            if (transportTuning != null) {
+                session = openSession(sshHost, sshPort, transportTuning);
+                return;
+            }
+            SshTransportProfile profile = config.sshTransportProfile();
+            if (profile != SshTransportProfile.AUTO) {
+                transportTuning = TransportTuning.of(profile, config);
+                log.infof("Using ssh transport profile %s", transportTuning);
+                session = openSession(sshHost, sshPort, transportTuning);
+                return;
             }
+            // Measure with the default settings and reconnect, if a different
+            // profile fits better
+            TransportTuning tuning = TransportTuning.of(SshTransportProfile.DEFAULT, config);
+            Session probed = openSession(sshHost, sshPort, tuning);
+            Measurement measurement = TransportTuning.measure(probed);
+            profile = TransportTuning.choose(measurement);
+            if (profile != SshTransportProfile.DEFAULT) {
+                tuning = TransportTuning.of(profile, config);
+                probed.disconnect();
+                probed = openSession(sshHost, sshPort, tuning);
+            }
+            log.infof("Using ssh transport profile %s, measured round trip %.1f ms, bandwidth %.1f MiB/s",
+                    tuning, measurement.rttMillis(), measurement.mibPerSecond());
+            transportTuning = tuning;
+            session = probed;
         }, () -> {
+            checked[0] = session;
             if (session == null || !session.isConnected()) {
                 return false;
             }
@@ -320,103 +1108,536 @@ public class SshDeployer implements Closeable {
             } catch (Exception e) {
                 return false;
             }
+            try {
+                sessionStats.measureRtt(session, SSH_CONTAINER_PORT);
+            } catch (Exception e) {
+                log.debugf("Could not measure ssh round trip time: %s", e.getMessage());
+            }
             return true;
-        }, 10, TimeUnit.SECONDS);
+        });
     }
 
-    private Exception createPortForwarding(Map<String, String> overrideConfigs, PortForwarding pf) {
+    /**
+     * @return the transport settings of the current ssh session
+     */
+    static TransportTuning getTransportTuning() {
+        return transportTuning;
+    }
+
+    /**
+     * @return whether the ssh server refused the credentials, which does not
+     *         change by retrying
+     */
+    static boolean isAuthFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof JSchException && cause.getMessage() != null
+                    && cause.getMessage().startsWith("Auth ")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Session openSession(String sshHost, int sshPort, TransportTuning tuning) {
+        try {
+            Session newSession = new JSch().getSession(config.sshUsername(), sshHost, sshPort);
+            newSession.setPassword(config.sshPassword());
+            newSession.setConfig("StrictHostKeyChecking", "no");
+            newSession.setSocketFactory(new NoDelaySocketFactory(SSH_CONNECT_TIMEOUT));
+            tuning.apply(newSession);
+            // Detects dead connections, e.g. after a network partition, where
+            // neither the keepalives nor the reads fail
+            newSession.setServerAliveInterval((int) config.watchdogInterval().toMillis());
+            newSession.setServerAliveCountMax(SERVER_ALIVE_COUNT_MAX);
+            newSession.connect(SSH_CONNECT_TIMEOUT);
+            return newSession;
+        } catch (JSchException e) {
+            throw new RuntimeException("Could not initiate SSH session", e);
+        }
+    }
+
+    /**
+     * @return releases the forwarding again
+     */
+    private Runnable createPortForwarding(Map<String, String> overrideConfigs, PortForwarding pf) {
+        return createPortForwarding(overrideConfigs, pf, true);
+    }
+
+    /**
+     * @param unixSockets whether the forwarding may listen on a unix domain
+     *        socket, see {@link PortForwarding#getUnixSocket()}
+     * @return releases the forwarding again
+     */
+    private Runnable createPortForwarding(Map<String, String> overrideConfigs, PortForwarding pf,
+            boolean unixSockets) {
+        TunnelStats stats = new TunnelStats(TunnelStats.KIND_FORWARDING, pf.getName()).register();
+        tunnelStats.add(stats);
+        String targetHost = targetHost(pf.getServiceName());
+        EndpointBalancer balancer = null;
+        if (pf.getLoadBalancing() != LoadBalancing.NONE && pf.getKafkaStatefulSet() == null) {
+            balancer = new EndpointBalancer(k8sClient, namespace, targetHost, pf.getServicePort(),
+                    pf.getLoadBalancing());
+            if (balancer.start()) {
+                balancers.add(balancer);
+            } else {
+                balancer = null;
+            }
+        }
+        LocalForwarder forwarder;
+        if (pf.getKafkaStatefulSet() != null) {
+            // The brokers are forwarded one by one, the service only bootstraps
+            forwarder = new KafkaForwarder(() -> session, targetHost, pf.getServicePort(), stats,
+                    channel -> transportTuning.apply(channel), k8sClient, namespace, pf.getKafkaStatefulSet());
+        } else {
+            forwarder = new LocalForwarder(() -> session, targetHost, pf.getServicePort(), stats,
+                    channel -> transportTuning.apply(channel), balancer);
+        }
+        forwarders.add(forwarder);
+        AtomicBoolean created = new AtomicBoolean();
         // Real port should be used again, if the connection is lost
-        K8sDevServicesUtils.createAndWatch(() -> {
+        Future<?> watchdog = watch(() -> {
+            if (created.getAndSet(true)) {
+                stats.reconnected();
+            }
             try {
-                pf.setRealPort(
-                        session.setPortForwardingL(pf.getRealLocalPort(), pf.getServiceName(), pf.getServicePort()));
+                // The advertised brokers of kafka need local ports
+                if (unixSockets && Objects.requireNonNullElse(pf.getUnixSocket(), config.unixSocketEnabled())
+                        && pf.getKafkaStatefulSet() == null) {
+                    Path socketPath = unixSocketPath(pf.getName());
+                    forwarder.start(socketPath);
+                    pf.setSocketPath(socketPath);
+                    overrideConfigs.put(pf.getName() + ".socket", socketPath.toString());
+                    log.infof("Port forwarding active for %s on %s", pf.getName(), socketPath);
+                    return;
+                }
+                pf.setRealPort(forwarder.start(pf.getRealLocalPort()));
                 overrideConfigs.put(pf.getName() + ".host", "localhost");
                 overrideConfigs.put(pf.getName() + ".port", "" + pf.getRealLocalPort());
                 log.infof("Port forwarding active for %s on %d", pf.getName(), pf.getRealLocalPort());
-            } catch (JSchException exc) {
+            } catch (IOException exc) {
                 log.warnf(exc, "Failed to create port forwarding for %s:", pf.getName());
             }
         }, () -> {
-            // Checks whether the connection is still established
-            try {
-                String[] portForwardings = session.getPortForwardingL();
-                String ourconfig = pf.getJschString();
-                if (!Arrays.stream(portForwardings).anyMatch(ourconfig::equals)) {
-                    log.warnf("SSH port forwarding lost, trying to recreate for %s on %d", pf.getName(),
-                            pf.getRealLocalPort());
-                    return false;
-                }
-            } catch (JSchException e) {
-                log.warnf("SSH port forwarding lost, trying to recreate for %s on %d", pf.getName(),
-                        pf.getRealLocalPort());
+            // Checks whether the local port is still bound, the connections itself
+            // always use the current ssh session
+            if (!forwarder.isAlive()) {
+                log.warnf("SSH port forwarding lost, trying to recreate for %s on %s", pf.getName(),
+                        pf.getSocketPath() != null ? pf.getSocketPath() : pf.getRealLocalPort());
                 return false;
             }
             return true;
-        }, 10, TimeUnit.SECONDS);
-        return null;
+        });
+        return () -> {
+            watchdog.cancel(true);
+            forwarder.close();
+            forwarders.remove(forwarder);
+            if (forwarder.getBalancer() != null) {
+                forwarder.getBalancer().close();
+                balancers.remove(forwarder.getBalancer());
+            }
+            stats.unregister();
+            tunnelStats.remove(stats);
+            overrideConfigs.remove(pf.getName() + ".host");
+            overrideConfigs.remove(pf.getName() + ".port");
+            overrideConfigs.remove(pf.getName() + ".socket");
+            log.infof("Port forwarding released for %s on %s", pf.getName(),
+                    pf.getSocketPath() != null ? pf.getSocketPath() : pf.getRealLocalPort());
+        };
+    }
+
+    /**
+     * In multi user mode the gateway runs in the shared namespace, so the
+     * services of the dev namespace are qualified with it. Services which only
+     * exist in the shared namespace, e.g. of shared charts, are used from there.
+     */
+    private String targetHost(String serviceName) {
+        if (!config.multiUserEnabled() || serviceName.contains(".")) {
+            return serviceName;
+        }
+        if (k8sClient.services().inNamespace(namespace).withName(serviceName).get() == null
+                && k8sClient.services().inNamespace(gatewayNamespace).withName(serviceName).get() != null) {
+            return serviceName + "." + gatewayNamespace;
+        }
+        return serviceName + "." + namespace;
+    }
+
+    /**
+     * Watches the annotated services, see {@link ServiceDiscovery}. Forwardings of
+     * the values.yaml take precedence over discovered ones with the same name.
+     */
+    private void discoverPortForwardings(Map<String, String> overrideConfigs) {
+        Map<String, Runnable> releases = new ConcurrentHashMap<>();
+        ServiceDiscovery discovery = new ServiceDiscovery(k8sClient, namespace, config.discoveryAnnotation(),
+                new ServiceDiscovery.Listener() {
+                    @Override
+                    public void added(PortForwarding pf) {
+                        if (portsConfg.getPortForwardings().stream().anyMatch(p -> p.getName().equals(pf.getName()))) {
+                            log.debugf("Port forwarding %s is configured in the values.yaml, ignoring service %s",
+                                    pf.getName(), pf.getServiceName());
+                            return;
+                        }
+                        PortForwarding forwarding = pf;
+                        if (pf.getLocalPort() != 0 && !isFree(pf.getLocalPort())) {
+                            log.infof("Local port %d for %s is in use, using a random one", pf.getLocalPort(),
+                                    pf.getName());
+                            forwarding = PortForwarding.of(pf.getName(), 0, pf.getServiceName(), pf.getServicePort());
+                        }
+                        releases.put(pf.getServiceName(), createPortForwarding(overrideConfigs, forwarding));
+                    }
+
+                    @Override
+                    public void removed(PortForwarding pf) {
+                        Runnable release = releases.remove(pf.getServiceName());
+                        if (release != null) {
+                            release.run();
+                        }
+                    }
+                });
+        discovery.start();
+        serviceDiscovery = discovery;
+    }
+
+    private static boolean isFree(int port) {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
     }
 
-    private Exception createReverseProxy(ReverseProxy p) {
+    /**
+     * @return releases the reverse proxy again, the service stays
+     */
+    private Runnable createReverseProxy(ReverseProxy p) {
+        if (p.isHttp()) {
+            return createHttpRoute(p);
+        }
+        TunnelStats stats = new TunnelStats(TunnelStats.KIND_REVERSE_PROXY, p.getServiceName()).register();
+        tunnelStats.add(stats);
+        // The port on the gateway, the shared one of multi user mode listens for
+        // all developers
+        AtomicInteger remotePort = new AtomicInteger(
+                config.multiUserEnabled() ? gatewayPort(p.getServiceName() + ":" + p.getServicePort())
+                        : p.getLocalPort());
         // SSH tunnel from cluster to localhost
-        K8sDevServicesUtils.createAndWatch(() -> {
-            try {
-                session.setPortForwardingR("0.0.0.0", p.getLocalPort(), "localhost", p.getLocalPort());
-                log.infof("Reverse proxy active for service %s:%d to local port %d", p.getServiceName(),
-                        p.getServicePort(), p.getLocalPort());
-            } catch (JSchException e) {
-                log.warnf(e, "Could not create reverse proxy for service %s:%d to local port %d", p.getServiceName(),
-                        p.getServicePort(), p.getLocalPort());
+        Future<?> watch = watchReverseForwarding("service " + p.getServiceName() + ":" + p.getServicePort(),
+                remotePort, p.getLocalPort(), stats, () -> {
+                    ReverseProxyController controller = reverseProxyController;
+                    if (controller != null) {
+                        // The port on the gateway may have changed
+                        controller.reconcile(p.getServiceName());
+                    }
+                });
+
+        Supplier<Service> service;
+        if (config.multiUserEnabled()) {
+            // The service can't select the gateway in the other namespace, it points
+            // to the gateway pods directly and follows them
+            service = () -> gatewayService(p, remotePort.get());
+        } else {
+            Service fixed = reverseProxyService(p, p.getLocalPort());
+            service = () -> fixed;
+        }
+        // Service creation and scale down inside the cluster, changed only on
+        // drift
+        Runnable unregister = reverseProxyController().register(p, service);
+
+        return () -> {
+            watch.cancel(true);
+            unregister.run();
+            delPortForwardingR(remotePort.get());
+            stats.unregister();
+            tunnelStats.remove(stats);
+            log.infof("Reverse proxy released for service %s:%d", p.getServiceName(), p.getServicePort());
+        };
+    }
+
+    /**
+     * Binds the remote port on the gateway to the local port and recreates the
+     * binding, if it is lost. In multi user mode the next remote port is tried,
+     * if another developer uses it already.
+     *
+     * @param created called after each successful binding
+     */
+    private Future<?> watchReverseForwarding(String target, AtomicInteger remotePort, int localPort,
+            TunnelStats stats, Runnable created) {
+        CountingSocketFactory socketFactory = new CountingSocketFactory(stats);
+        return watch(() -> {
+            int attempts = config.multiUserEnabled() ? GATEWAY_PORT_ATTEMPTS : 1;
+            for (int i = 0; i < attempts; i++) {
+                try {
+                    setPortForwardingR(remotePort.get(), localPort, socketFactory);
+                    log.infof("Reverse proxy active for %s to local port %d", target, localPort);
+                    created.run();
+                    return;
+                } catch (JSchException e) {
+                    if (i == attempts - 1) {
+                        log.warnf(e, "Could not create reverse proxy for %s to local port %d", target, localPort);
+                    } else {
+                        // Used by another developer
+                        remotePort.set(GATEWAY_PORT_BASE
+                                + (remotePort.get() - GATEWAY_PORT_BASE + 1) % GATEWAY_PORT_RANGE);
+                    }
+                }
             }
         }, () -> {
             // Checks whether the connection is still established
             try {
                 String[] portForwardings = session.getPortForwardingR();
-                String ourconfig = p.getJschString();
+                String ourconfig = remotePort.get() + ":localhost:" + localPort;
                 if (!Arrays.stream(portForwardings).anyMatch(ourconfig::equals)) {
-                    log.warnf("Lost reverse proxy connection for service %s:%d to local port %d", p.getServiceName(),
-                            p.getServicePort(), p.getLocalPort());
+                    log.warnf("Lost reverse proxy connection for %s to local port %d", target, localPort);
+                    stats.reconnected();
                     return false;
                 }
             } catch (JSchException e) {
                 return false;
             }
             return true;
-        }, 10, TimeUnit.SECONDS);
+        });
+    }
 
-        ServiceResource<Service> serviceResource = getResource(k8sClient.services(), "sshservice.yaml",
+    /**
+     * Adds the route of the http reverse proxy to the {@link HttpRouter}, which
+     * is started with the first one. All of them share its single tunnel, their
+     * services point to the http port of the gateway.
+     */
+    private Runnable createHttpRoute(ReverseProxy p) {
+        HttpRouter router;
+        AtomicInteger remotePort;
+        synchronized (SshDeployer.class) {
+            if (httpRouter == null) {
+                startHttpRouter();
+            }
+            router = httpRouter;
+            remotePort = httpRemotePort;
+        }
+        Route route = new Route(p.getServiceName(), p.getHost(), p.getPathPrefix(), p.getLocalPort());
+        router.add(route);
+
+        Supplier<Service> service;
+        if (config.multiUserEnabled()) {
+            service = () -> gatewayService(p, remotePort.get());
+        } else {
+            Service fixed = reverseProxyService(p, remotePort.get());
+            service = () -> fixed;
+        }
+        Runnable unregister = reverseProxyController().register(p, service);
+        log.infof("Http route active for service %s:%d%s to local port %d", p.getServiceName(), p.getServicePort(),
+                Objects.requireNonNullElse(p.getPathPrefix(), ""), p.getLocalPort());
+
+        return () -> {
+            unregister.run();
+            router.remove(route);
+            synchronized (SshDeployer.class) {
+                if (httpRouter == router && router.getRoutes().isEmpty()) {
+                    // The last route releases the tunnel
+                    httpTunnel.run();
+                    httpTunnel = null;
+                    httpRouter = null;
+                }
+            }
+            log.infof("Http route released for service %s:%d%s", p.getServiceName(), p.getServicePort(),
+                    Objects.requireNonNullElse(p.getPathPrefix(), ""));
+        };
+    }
+
+    private void startHttpRouter() {
+        TunnelStats stats = new TunnelStats(TunnelStats.KIND_REVERSE_PROXY, "http-router").register();
+        tunnelStats.add(stats);
+        HttpRouter router = new HttpRouter(stats);
+        int localPort;
+        try {
+            localPort = router.start();
+        } catch (IOException e) {
+            stats.unregister();
+            tunnelStats.remove(stats);
+            throw new IllegalStateException("Could not start the http router", e);
+        }
+        AtomicInteger remotePort = new AtomicInteger(
+                config.multiUserEnabled() ? gatewayPort("http") : config.reverseProxyHttpPort());
+        Future<?> watch = watchReverseForwarding("http routes", remotePort, localPort, stats, () -> {
+            ReverseProxyController controller = reverseProxyController;
+            if (controller != null) {
+                // The port on the gateway may have changed
+                router.getRoutes().forEach(r -> controller.reconcile(r.serviceName()));
+            }
+        });
+        httpRouter = router;
+        httpRemotePort = remotePort;
+        httpTunnel = () -> {
+            watch.cancel(true);
+            router.close();
+            delPortForwardingR(remotePort.get());
+            stats.unregister();
+            tunnelStats.remove(stats);
+        };
+    }
+
+    /**
+     * @return the service of the reverse proxy, which selects the gateway, only
+     *         the active one in standby mode
+     */
+    private Service reverseProxyService(ReverseProxy p, int targetPort) {
+        Service service = getResource(k8sClient.services(), "sshservice.yaml",
                 p.getServiceName(),
-                config.namespace(),
+                namespace,
                 p.getServicePort(),
-                p.getLocalPort());
-        // Service creation inside the cluster
-        K8sDevServicesUtils.createAndWatch(() -> {
-            serviceResource.createOr(t -> t.patch());
-        }, () -> true, // Reapplying is fastest
-                // TODO: should the time interval be configurable?
-                10, TimeUnit.SECONDS);
-
-        if (p.isScaleDown()) {
-            // Scale down creation inside the cluster
-            K8sDevServicesUtils.createAndWatch(() -> {
-                Deployment deploy = k8sClient.apps().deployments()
-                        .inNamespace(config.namespace())
-                        .withName(p.getServiceName())
-                        .get();
-                if (deploy != null) {
-                    deploy.edit().editSpec().withReplicas(0).endSpec();
+                targetPort).item();
+        if (standby()) {
+            service.getSpec().getSelector().put(GATEWAY_ROLE_LABEL, GATEWAY_ROLE_ACTIVE);
+        }
+        return service;
+    }
+
+    private static void delPortForwardingR(int remotePort) {
+        reverseBindings.remove(remotePort);
+        for (Session current : Arrays.asList(session, standbySession)) {
+            if (current != null) {
+                try {
+                    current.delPortForwardingR(remotePort);
+                } catch (JSchException e) {
+                    // already gone
+                }
+            }
+        }
+    }
+
+    /**
+     * JSch interrupts the requesting thread once the reply of the gateway
+     * arrives, sometimes only after the request returned already. The request
+     * runs on an own thread, so the interrupt does not hit the caller.
+     */
+    private static void setPortForwardingR(int remotePort, int localPort, SocketFactory socketFactory)
+            throws JSchException {
+        setPortForwardingR(session, remotePort, localPort, socketFactory);
+        ReverseBinding binding = new ReverseBinding(localPort, socketFactory);
+        reverseBindings.put(remotePort, binding);
+        Session standby = standbySession;
+        if (standby != null) {
+            bindStandby(standby, remotePort, binding);
+        }
+    }
+
+    private static void setPortForwardingR(Session current, int remotePort, int localPort,
+            SocketFactory socketFactory) throws JSchException {
+        Future<?> request = GLOBAL_REQUESTS.submit(() -> {
+            current.setPortForwardingR("0.0.0.0", remotePort, "localhost", localPort, socketFactory);
+            return null;
+        });
+        try {
+            request.get();
+        } catch (InterruptedException e) {
+            request.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new JSchException("Interrupted while creating the reverse proxy", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof JSchException jschException) {
+                throw jschException;
+            }
+            throw new JSchException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * @return the preferred port of the reverse proxy on the shared gateway,
+     *         stable for the developer and service
+     */
+    private static int gatewayPort(String target) {
+        String key = namespace + "/" + target;
+        return GATEWAY_PORT_BASE + Integer.parseInt(K8sDevServicesUtils.sha256(key).substring(0, 7), 16)
+                % GATEWAY_PORT_RANGE;
+    }
+
+    /**
+     * @return the service of the reverse proxy without selector, the
+     *         {@link ReverseProxyController} adds an EndpointSlice with the
+     *         gateway pods
+     */
+    private static Service gatewayService(ReverseProxy p, int remotePort) {
+        return new ServiceBuilder()
+                .withNewMetadata()
+                .withName(p.getServiceName())
+                .withNamespace(namespace)
+                .addToLabels(REVERSE_PROXY_LABEL, "reverseproxy")
+                .endMetadata()
+                .withNewSpec()
+                .addNewPort()
+                .withPort(p.getServicePort())
+                .withProtocol("TCP")
+                .withTargetPort(new IntOrString(remotePort))
+                .endPort()
+                .endSpec()
+                .build();
+    }
+
+    /**
+     * @return the controller of the reverse proxy services, created with the
+     *         first one
+     */
+    private static synchronized ReverseProxyController reverseProxyController() {
+        if (reverseProxyController == null) {
+            reverseProxyController = new ReverseProxyController(k8sClient, namespace,
+                    config.multiUserEnabled() ? gatewayNamespace : null, config.watchdogInterval());
+        }
+        return reverseProxyController;
+    }
+
+    /**
+     * @return the unix domain socket of the forwarding in the configured
+     *         directory, or in a short one below {@code java.io.tmpdir}, if the
+     *         path would exceed the limit of the os
+     */
+    private Path unixSocketPath(String name) throws IOException {
+        Path socketPath = Path.of(config.unixSocketDirectory(), name + ".sock").toAbsolutePath();
+        if (LocalForwarder.fitsSocketPath(socketPath)) {
+            return socketPath;
+        }
+        // Per user and directory, only accessible by the user
+        Path tmpDir = Path.of(System.getProperty("java.io.tmpdir"));
+        Path fallbackDir = tmpDir.resolve("k8s-devservices-" + K8sDevServicesUtils
+                .sha256(System.getProperty("user.name") + "/" + socketPath.getParent()).substring(0, 8));
+        if (fallbackDir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rwx------");
+            if (Files.notExists(fallbackDir, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    Files.createDirectory(fallbackDir, PosixFilePermissions.asFileAttribute(ownerOnly));
+                } catch (FileAlreadyExistsException e) {
+                    // created concurrently, checked below
                 }
-                StatefulSet sts = k8sClient.apps().statefulSets()
-                        .inNamespace(config.namespace())
-                        .withName(p.getServiceName())
-                        .get();
-                if (sts != null) {
-                    sts.edit().editSpec().withReplicas(0).endSpec();
+            }
+            // The name is predictable, another user may have created it before
+            UserPrincipal user = fallbackDir.getFileSystem().getUserPrincipalLookupService()
+                    .lookupPrincipalByName(System.getProperty("user.name"));
+            if (!Files.isDirectory(fallbackDir, LinkOption.NOFOLLOW_LINKS)
+                    || !user.equals(Files.getOwner(fallbackDir, LinkOption.NOFOLLOW_LINKS))
+                    || !ownerOnly.equals(Files.getPosixFilePermissions(fallbackDir, LinkOption.NOFOLLOW_LINKS))) {
+                synchronized (SshDeployer.class) {
+                    if (socketTempDir == null) {
+                        socketTempDir = Files.createTempDirectory(tmpDir, "k8s-devservices-",
+                                PosixFilePermissions.asFileAttribute(ownerOnly));
+                    }
                 }
-            }, () -> true, // Reapplying is fastest
-                    10, TimeUnit.SECONDS);
+                log.warnf("%s is not exclusively owned by %s, using %s for the unix sockets", fallbackDir,
+                        user.getName(), socketTempDir);
+                fallbackDir = socketTempDir;
+            }
+        } else {
+            Files.createDirectories(fallbackDir);
         }
+        Path fallback = fallbackDir.resolve(name + ".sock");
+        log.warnf("Unix socket path %s is too long, using %s, configure a shorter "
+                + "quarkus.k8s.devservices.unix-socket.directory", socketPath, fallback);
+        return fallback;
+    }
 
-        return null;
+    /**
+     * Same as {@link Watchdogs#createAndWatch} with the configured watchdog
+     * interval.
+     */
+    private Future<?> watch(Runnable creator, Supplier<Boolean> condition) {
+        return watchdogs.createAndWatch(creator, condition, config.watchdogInterval().toMillis(),
+                TimeUnit.MILLISECONDS);
     }
 
     private <T extends Resource<?>> T getResource(MixedOperation<?, ?, T> loader, String yamlFile, Object... args) {
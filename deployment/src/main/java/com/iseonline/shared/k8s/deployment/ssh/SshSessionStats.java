@@ -0,0 +1,83 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jboss.logging.Logger;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.Session;
+
+/**
+ * Collects the statistics of the ssh session, see
+ * {@link SshSessionStatsMXBean}.
+ */
+public class SshSessionStats implements SshSessionStatsMXBean {
+    private static final Logger log = Logger.getLogger(SshSessionStats.class);
+
+    private volatile double rttMillis = -1;
+
+    private final AtomicLong reconnects = new AtomicLong();
+
+    private ObjectName objectName;
+
+    public SshSessionStats register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(TunnelStats.DOMAIN + ":type=SshSession");
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.warnf("Could not register ssh session statistics: %s", e.getMessage());
+        }
+        return this;
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            // already gone
+        }
+        objectName = null;
+    }
+
+    /**
+     * JSch does not wait for the reply of a keepalive, therefore the round trip
+     * is measured by opening a channel to the ssh server itself, which requires
+     * one round trip to the gateway pod.
+     */
+    public void measureRtt(Session session, int sshPort) throws Exception {
+        long start = System.nanoTime();
+        Channel channel = session.getStreamForwarder("127.0.0.1", sshPort);
+        try {
+            channel.connect(5000);
+            rttMillis = (System.nanoTime() - start) / 1_000_000d;
+        } finally {
+            channel.disconnect();
+        }
+    }
+
+    public void reconnected() {
+        reconnects.incrementAndGet();
+    }
+
+    @Override
+    public double getRttMillis() {
+        return rttMillis;
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.get();
+    }
+}
@@ -0,0 +1,16 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+/**
+ * Health statistics of the ssh session to the gateway pod, registered as
+ * {@code com.iseonline.quarkus.k8s:type=SshSession}.
+ */
+public interface SshSessionStatsMXBean {
+
+    /**
+     * @return the round trip time measured during the last keepalive check or
+     *         -1, if not measured yet
+     */
+    double getRttMillis();
+
+    long getReconnects();
+}
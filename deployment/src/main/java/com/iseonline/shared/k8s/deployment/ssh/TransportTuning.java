@@ -0,0 +1,239 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.jboss.logging.Logger;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig.SshTransportProfile;
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * The settings of the ssh transport, see
+ * {@link K8sDevServicesBuildTimeConfig#sshTransportProfile()}.
+ *
+ * @param profile the profile the settings are based on
+ * @param ciphers the cipher preference, null for the JSch default
+ * @param compression whether zlib compression is enabled
+ * @param compressionLevel the zlib compression level
+ * @param windowSize the window size of forwarding channels, 0 for the JSch
+ *        default
+ * @param packetSize the maximum packet size of forwarding channels, 0 for the
+ *        JSch default
+ */
+public record TransportTuning(SshTransportProfile profile, String ciphers, boolean compression, int compressionLevel,
+        int windowSize, int packetSize) {
+
+    private static final Logger log = Logger.getLogger(TransportTuning.class);
+
+    /**
+     * The cheapest cipher of JSch, as it is accelerated by AES-NI.
+     */
+    private static final String FAST_CIPHER = "aes128-ctr";
+
+    private static final String COMPRESSION = "zlib@openssh.com,zlib,none";
+
+    private static final int BANDWIDTH_WINDOW_SIZE = 2 * 1024 * 1024;
+
+    private static final int CPU_WINDOW_SIZE = 1024 * 1024;
+
+    private static final int MAX_PACKET_SIZE = 32 * 1024;
+
+    /**
+     * Below this round trip time the cluster is considered local, it includes the
+     * overhead of the port forwarding via the kubernetes api.
+     */
+    private static final double LOCAL_RTT_MILLIS = 5;
+
+    /**
+     * Above this round trip time or below this bandwidth the network is
+     * considered the bottleneck.
+     */
+    private static final double SLOW_RTT_MILLIS = 20;
+
+    private static final double SLOW_MIB_PER_SECOND = 20;
+
+    private static final int PROBE_BYTES = 1024 * 1024;
+
+    private static final int PROBE_TIMEOUT = 2000;
+
+    private static final Method[] WINDOW_SETTERS = windowSetters();
+
+    /**
+     * Round trip time and bandwidth of the ssh connection, NaN if they could not
+     * be measured.
+     */
+    public record Measurement(double rttMillis, double mibPerSecond) {
+    }
+
+    /**
+     * @return the settings of the given profile with the overrides of the
+     *         configuration
+     */
+    public static TransportTuning of(SshTransportProfile profile, K8sDevServicesBuildTimeConfig config) {
+        String ciphers = null;
+        boolean compression = false;
+        int windowSize = 0;
+        int packetSize = 0;
+        switch (profile) {
+            case BANDWIDTH -> {
+                ciphers = FAST_CIPHER;
+                compression = true;
+                windowSize = BANDWIDTH_WINDOW_SIZE;
+                packetSize = MAX_PACKET_SIZE;
+            }
+            case CPU -> {
+                ciphers = FAST_CIPHER;
+                windowSize = CPU_WINDOW_SIZE;
+                packetSize = MAX_PACKET_SIZE;
+            }
+            default -> {
+            }
+        }
+        return new TransportTuning(profile,
+                config.sshTransportCiphers().map(c -> String.join(",", c)).orElse(ciphers),
+                config.sshTransportCompression().orElse(compression),
+                config.sshTransportCompressionLevel(),
+                config.sshTransportWindowSize().orElse(windowSize),
+                config.sshTransportPacketSize().orElse(packetSize));
+    }
+
+    /**
+     * Chooses the profile for the measured connection: compression and big
+     * windows for slow networks, no compression and the cheapest cipher for local
+     * clusters.
+     */
+    public static SshTransportProfile choose(Measurement measurement) {
+        if (measurement.rttMillis() > SLOW_RTT_MILLIS || measurement.mibPerSecond() < SLOW_MIB_PER_SECOND) {
+            return SshTransportProfile.BANDWIDTH;
+        }
+        if (measurement.rttMillis() < LOCAL_RTT_MILLIS) {
+            return SshTransportProfile.CPU;
+        }
+        return SshTransportProfile.DEFAULT;
+    }
+
+    /**
+     * Measures the round trip time by opening plain session channels, which are
+     * confirmed by the ssh server without any further work, and the bandwidth by
+     * downloading 1 MiB from it. The download requires a shell in the gateway,
+     * otherwise the bandwidth is NaN.
+     */
+    public static Measurement measure(Session session) {
+        double rtt = Double.NaN;
+        for (int i = 0; i < 3; i++) {
+            Channel channel = null;
+            try {
+                channel = session.openChannel("session");
+                long start = System.nanoTime();
+                channel.connect(PROBE_TIMEOUT);
+                double millis = (System.nanoTime() - start) / 1_000_000d;
+                if (Double.isNaN(rtt) || millis < rtt) {
+                    rtt = millis;
+                }
+            } catch (JSchException e) {
+                log.debugf("Could not measure ssh round trip time: %s", e.getMessage());
+            } finally {
+                if (channel != null) {
+                    channel.disconnect();
+                }
+            }
+        }
+
+        double bandwidth = Double.NaN;
+        ChannelExec exec = null;
+        try {
+            exec = (ChannelExec) session.openChannel("exec");
+            exec.setCommand("head -c " + PROBE_BYTES + " /dev/zero");
+            InputStream in = exec.getInputStream();
+            long start = System.nanoTime();
+            exec.connect(PROBE_TIMEOUT);
+            long deadline = start + PROBE_TIMEOUT * 1_000_000L;
+            byte[] buffer = new byte[32 * 1024];
+            long total = 0;
+            int read;
+            while (System.nanoTime() < deadline && (read = in.read(buffer)) >= 0) {
+                total += read;
+            }
+            if (total == PROBE_BYTES) {
+                bandwidth = total / 1024d / 1024d / ((System.nanoTime() - start) / 1_000_000_000d);
+            }
+        } catch (JSchException | IOException e) {
+            log.debugf("Could not measure ssh bandwidth: %s", e.getMessage());
+        } finally {
+            if (exec != null) {
+                exec.disconnect();
+            }
+        }
+        return new Measurement(rtt, bandwidth);
+    }
+
+    /**
+     * Applies cipher and compression to a session, before it is connected.
+     */
+    public void apply(Session session) {
+        if (ciphers != null) {
+            session.setConfig("cipher.c2s", ciphers);
+            session.setConfig("cipher.s2c", ciphers);
+        }
+        if (compression) {
+            session.setConfig("compression.c2s", COMPRESSION);
+            session.setConfig("compression.s2c", COMPRESSION);
+            session.setConfig("compression_level", String.valueOf(compressionLevel));
+        }
+    }
+
+    /**
+     * Applies window and packet size to a channel, before it is connected. JSch
+     * has no public api for it, therefore the settings are skipped if its
+     * internals changed.
+     */
+    public void apply(Channel channel) {
+        if (WINDOW_SETTERS == null || (windowSize <= 0 && packetSize <= 0)) {
+            return;
+        }
+        try {
+            if (windowSize > 0) {
+                WINDOW_SETTERS[0].invoke(channel, windowSize);
+                WINDOW_SETTERS[1].invoke(channel, windowSize);
+            }
+            if (packetSize > 0) {
+                WINDOW_SETTERS[2].invoke(channel, packetSize);
+            }
+        } catch (ReflectiveOperationException e) {
+            log.debugf("Could not set ssh window size: %s", e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "%s (ciphers %s, compression %s, window size %s, packet size %s)".formatted(
+                profile.name().toLowerCase(),
+                ciphers != null ? ciphers : "default",
+                compression ? "zlib level " + compressionLevel : "none",
+                windowSize > 0 ? windowSize : "default",
+                packetSize > 0 ? packetSize : "default");
+    }
+
+    private static Method[] windowSetters() {
+        try {
+            List<Method> setters = List.of(
+                    Channel.class.getDeclaredMethod("setLocalWindowSizeMax", int.class),
+                    Channel.class.getDeclaredMethod("setLocalWindowSize", int.class),
+                    Channel.class.getDeclaredMethod("setLocalPacketSize", int.class));
+            for (Method setter : setters) {
+                setter.setAccessible(true);
+            }
+            return setters.toArray(Method[]::new);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debugf("Window size of JSch channels cannot be changed: %s", e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import com.iseonline.shared.k8s.deployment.ssh.PortsConfiguration.PortForwarding;
+import com.iseonline.shared.k8s.deployment.ssh.PortsConfiguration.ReverseProxy;
+
+/**
+ * Registers the tunnels of this JVM at the {@link TunnelDaemon} of another
+ * one. The tunnels are kept as long as the connection is open.
+ */
+public class TunnelClient implements Closeable {
+
+    private final SocketChannel channel;
+
+    private final BufferedReader in;
+
+    private final PrintWriter out;
+
+    private TunnelClient(SocketChannel channel) {
+        this.channel = channel;
+        this.in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+        this.out = new PrintWriter(Channels.newOutputStream(channel), true, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the client, null if no daemon is listening on the socket
+     */
+    public static TunnelClient connect(Path socketPath) {
+        try {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                channel.connect(UnixDomainSocketAddress.of(socketPath));
+            } catch (IOException e) {
+                channel.close();
+                return null;
+            }
+            return new TunnelClient(channel);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Registers the forwarding and sets the local port bound by the daemon.
+     */
+    public void forward(PortForwarding portForwarding) throws IOException {
+        portForwarding.setRealPort(request(TunnelDaemon.forwardRequest(portForwarding)));
+    }
+
+    public void reverse(ReverseProxy reverseProxy) throws IOException {
+        request(TunnelDaemon.reverseRequest(reverseProxy));
+    }
+
+    /**
+     * @return whether the daemon still answers
+     */
+    public boolean isAlive() {
+        try {
+            request("PING");
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // can be ignored
+        }
+    }
+
+    private synchronized int request(String request) throws IOException {
+        out.println(request);
+        if (out.checkError()) {
+            throw new IOException("Tunnel daemon is gone");
+        }
+        String response = in.readLine();
+        if (response == null) {
+            throw new IOException("Tunnel daemon is gone");
+        }
+        if (response.startsWith("ERR ")) {
+            throw new IllegalStateException("Tunnel daemon refused " + request + ": " + response.substring(4));
+        }
+        return Integer.parseInt(response.substring(3));
+    }
+}
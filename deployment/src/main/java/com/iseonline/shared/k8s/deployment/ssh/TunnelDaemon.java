@@ -0,0 +1,408 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import org.jboss.logging.Logger;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.ssh.PortsConfiguration.LoadBalancing;
+import com.iseonline.shared.k8s.deployment.ssh.PortsConfiguration.PortForwarding;
+import com.iseonline.shared.k8s.deployment.ssh.PortsConfiguration.ReverseProxy;
+import com.iseonline.shared.k8s.deployment.utils.K8sDevServicesUtils;
+import com.iseonline.shared.k8s.deployment.utils.KubeContextSelector;
+
+/**
+ * Shares the tunnels of one dev mode JVM with the others of the same user,
+ * kube context and namespace, see
+ * {@link K8sDevServicesBuildTimeConfig#sharedTunnelEnabled()}. The JVM holding
+ * the lock file owns the gateway connection and serves the registrations of the
+ * others via a unix domain socket, see {@link TunnelClient}.
+ * <p>
+ * Identical tunnels are created once and reference counted, they are released
+ * when the last JVM using them closed its connection.
+ * <p>
+ * The socket directory is created accessible only by the user, as everyone who
+ * can connect to the socket can open tunnels into the cluster.
+ * <p>
+ * The protocol consists of one line per request and response, the fields of a
+ * request are separated by spaces and URL encoded:
+ * <ul>
+ * <li>{@code FORWARD <name> <localPort> <serviceName> <servicePort> <loadBalancing>},
+ * answered with the bound local port</li>
+ * <li>{@code REVERSE <localPort> <serviceName> <servicePort> <scaleDown> <http> <host> <pathPrefix>},
+ * host and path prefix are {@code -} if not set</li>
+ * <li>{@code PING}</li>
+ * </ul>
+ * The response is either {@code OK <port>} or {@code ERR <message>}.
+ */
+public class TunnelDaemon implements Closeable {
+    private static final Logger log = Logger.getLogger(TunnelDaemon.class);
+
+    private static final String NONE = "-";
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+
+    /**
+     * Creates the tunnels in the owning JVM.
+     */
+    public interface Tunnels {
+        /**
+         * Creates the forwarding and sets its real local port.
+         *
+         * @return releases the forwarding again
+         */
+        Runnable forward(PortForwarding portForwarding);
+
+        /**
+         * @return releases the reverse proxy again
+         */
+        Runnable reverse(ReverseProxy reverseProxy);
+    }
+
+    private static class Shared {
+        private final String target;
+
+        private final int port;
+
+        private final Runnable release;
+
+        private int references;
+
+        Shared(String target, int port, Runnable release) {
+            this.target = target;
+            this.port = port;
+            this.release = release;
+        }
+    }
+
+    private final Path socketPath;
+
+    private final FileChannel lockChannel;
+
+    private final FileLock lock;
+
+    private final Tunnels tunnels;
+
+    private final List<Shared> shared = new ArrayList<>();
+
+    private final List<SocketChannel> clients = new CopyOnWriteArrayList<>();
+
+    private volatile ServerSocketChannel server;
+
+    private TunnelDaemon(Path socketPath, FileChannel lockChannel, FileLock lock, Tunnels tunnels) {
+        this.socketPath = socketPath;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+        this.tunnels = tunnels;
+    }
+
+    /**
+     * @return the unix domain socket of the daemon for the configured kube
+     *         context and namespace
+     */
+    public static Path socketPath(K8sDevServicesBuildTimeConfig config) {
+        Path directory = config.sharedTunnelDirectory()
+                .map(Path::of)
+                .orElseGet(() -> Path.of(System.getProperty("user.home"), ".quarkus-dev-apps-k8s"));
+        String id = K8sDevServicesUtils
+                .sha256(KubeContextSelector.current(config) + "/" + K8sDevServicesUtils.namespace(config)).substring(0,
+                        12);
+        return directory.resolve("tunnel-" + id + ".sock");
+    }
+
+    /**
+     * Becomes the daemon, if no other JVM is it already.
+     *
+     * @return the daemon, not yet serving, null if another JVM owns the lock
+     */
+    public static TunnelDaemon tryAcquire(Path socketPath, Tunnels tunnels) throws IOException {
+        createDirectory(socketPath.getParent());
+        Path lockPath = socketPath.resolveSibling(socketPath.getFileName() + ".lock");
+        FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            return null;
+        }
+        return new TunnelDaemon(socketPath, channel, lock, tunnels);
+    }
+
+    /**
+     * Creates the socket directory with owner only permissions. An existing
+     * directory is left as it is, it might be configured to a shared one.
+     */
+    private static void createDirectory(Path directory) throws IOException {
+        if (Files.isDirectory(directory)) {
+            return;
+        }
+        if (directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        } else {
+            Files.createDirectories(directory);
+        }
+    }
+
+    /**
+     * Starts serving the other JVMs.
+     */
+    public void start() throws IOException {
+        // A socket file of a crashed daemon is left behind
+        Files.deleteIfExists(socketPath);
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.bind(UnixDomainSocketAddress.of(socketPath));
+        if (socketPath.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            // Also if the directory is shared with other users
+            Files.setPosixFilePermissions(socketPath, PosixFilePermissions.fromString("rw-------"));
+        }
+        server = channel;
+        Thread acceptor = new Thread(() -> accept(channel), "k8s-devservices-tunnel-daemon");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.infof("Sharing the tunnels with other dev mode applications via %s", socketPath);
+    }
+
+    /**
+     * Registers a forwarding of the owning JVM, it is kept till the daemon is
+     * closed.
+     *
+     * @return the bound local port
+     */
+    public int forward(PortForwarding portForwarding) {
+        return acquireForwarding(portForwarding).port;
+    }
+
+    /**
+     * Registers a reverse proxy of the owning JVM, it is kept till the daemon is
+     * closed.
+     */
+    public void reverse(ReverseProxy reverseProxy) {
+        acquireReverseProxy(reverseProxy);
+    }
+
+    @Override
+    public void close() {
+        ServerSocketChannel channel = server;
+        server = null;
+        if (channel != null) {
+            try {
+                channel.close();
+                Files.deleteIfExists(socketPath);
+            } catch (IOException e) {
+                // can be ignored
+            }
+        }
+        // The other JVMs take over, once their connection is closed
+        for (SocketChannel client : clients) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // can be ignored
+            }
+        }
+        clients.clear();
+        synchronized (this) {
+            // The tunnels themselves are closed by the owner
+            shared.clear();
+        }
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            // can be ignored
+        }
+    }
+
+    private synchronized Shared acquireForwarding(PortForwarding pf) {
+        // The brokers of a kafka forwarding have own ports
+        String target = "forward " + pf.getServiceName() + ":" + pf.getServicePort()
+                + (pf.getKafkaStatefulSet() != null ? " kafka " + pf.getKafkaStatefulSet() : "");
+        for (Shared existing : shared) {
+            if (existing.target.equals(target) && (pf.getLocalPort() == 0 || pf.getLocalPort() == existing.port)) {
+                existing.references++;
+                pf.setRealPort(existing.port);
+                return existing;
+            }
+        }
+        Runnable release = tunnels.forward(pf);
+        Shared created = new Shared(target, pf.getRealLocalPort(), release);
+        created.references++;
+        shared.add(created);
+        return created;
+    }
+
+    private synchronized Shared acquireReverseProxy(ReverseProxy p) {
+        // Http routes of one service differ by their path prefix
+        String target = "reverse " + p.getServiceName() + ":" + p.getServicePort()
+                + Objects.requireNonNullElse(p.getPathPrefix(), "");
+        for (Shared existing : shared) {
+            if (existing.target.equals(target)) {
+                if (existing.port != p.getLocalPort()) {
+                    throw new IllegalStateException("Service %s:%d is already proxied to local port %d"
+                            .formatted(p.getServiceName(), p.getServicePort(), existing.port));
+                }
+                existing.references++;
+                return existing;
+            }
+        }
+        Shared created = new Shared(target, p.getLocalPort(), tunnels.reverse(p));
+        created.references++;
+        shared.add(created);
+        return created;
+    }
+
+    private synchronized void release(Shared released) {
+        released.references--;
+        if (released.references > 0) {
+            return;
+        }
+        if (shared.remove(released)) {
+            log.infof("Releasing %s, it is not used anymore", released.target);
+            released.release.run();
+        }
+    }
+
+    private void accept(ServerSocketChannel channel) {
+        while (channel.isOpen()) {
+            try {
+                SocketChannel client = channel.accept();
+                clients.add(client);
+                Thread handler = new Thread(() -> serve(client), "k8s-devservices-tunnel-client");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (channel.isOpen()) {
+                    log.debugf("Error during accepting tunnel client: %s", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves the requests of one JVM, all its tunnels are released once it
+     * disconnects.
+     */
+    private void serve(SocketChannel client) {
+        List<Shared> used = new ArrayList<>();
+        try (client;
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+                PrintWriter out = new PrintWriter(Channels.newOutputStream(client), true, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                try {
+                    String[] request = Arrays.stream(line.trim().split(" "))
+                            .map(field -> URLDecoder.decode(field, StandardCharsets.UTF_8))
+                            .toArray(String[]::new);
+                    Shared acquired = switch (request[0]) {
+                        case "FORWARD" -> acquireForwarding(parseForwarding(request));
+                        case "REVERSE" -> acquireReverseProxy(parseReverseProxy(request));
+                        case "PING" -> null;
+                        default -> throw new IllegalArgumentException("Unknown request " + request[0]);
+                    };
+                    if (acquired != null) {
+                        used.add(acquired);
+                    }
+                    out.println("OK " + (acquired != null ? acquired.port : 0));
+                } catch (RuntimeException e) {
+                    // The response must stay a single line
+                    out.println("ERR " + String.valueOf(e.getMessage()).replaceAll("\\R", " "));
+                }
+            }
+        } catch (IOException e) {
+            log.debugf("Tunnel client disconnected: %s", e.getMessage());
+        }
+        clients.remove(client);
+        if (server != null) {
+            used.forEach(this::release);
+        }
+    }
+
+    private static PortForwarding parseForwarding(String[] request) {
+        return PortForwarding.of(request[1], Integer.parseInt(request[2]), request[3], Integer.parseInt(request[4]),
+                LoadBalancing.valueOf(request[5]), request.length > 6 ? optional(request[6]) : null);
+    }
+
+    private static ReverseProxy parseReverseProxy(String[] request) {
+        if (request.length < 8) {
+            return ReverseProxy.of(Integer.parseInt(request[1]), request[2], Integer.parseInt(request[3]),
+                    Boolean.parseBoolean(request[4]));
+        }
+        return ReverseProxy.of(Integer.parseInt(request[1]), request[2], Integer.parseInt(request[3]),
+                Boolean.parseBoolean(request[4]), Boolean.parseBoolean(request[5]), optional(request[6]),
+                optional(request[7]));
+    }
+
+    /**
+     * @return the forwarding request line of the protocol
+     */
+    static String forwardRequest(PortForwarding pf) {
+        return request("FORWARD", pf.getName(), pf.getRealLocalPort(), pf.getServiceName(), pf.getServicePort(),
+                pf.getLoadBalancing(), Objects.requireNonNullElse(pf.getKafkaStatefulSet(), NONE));
+    }
+
+    /**
+     * @return the reverse proxy request line of the protocol
+     */
+    static String reverseRequest(ReverseProxy p) {
+        return request("REVERSE", p.getLocalPort(), p.getServiceName(), p.getServicePort(), p.isScaleDown(),
+                p.isHttp(), Objects.requireNonNullElse(p.getHost(), NONE),
+                Objects.requireNonNullElse(p.getPathPrefix(), NONE));
+    }
+
+    /**
+     * @return the request line of the fields, each URL encoded, so none contains
+     *         a space or line break
+     */
+    private static String request(Object... fields) {
+        return Arrays.stream(fields)
+                .map(field -> URLEncoder.encode(String.valueOf(field), StandardCharsets.UTF_8))
+                .collect(Collectors.joining(" "));
+    }
+
+    private static String optional(String value) {
+        return NONE.equals(value) ? null : value;
+    }
+
+    /**
+     * Only for tests, the number of JVMs (including the owner) per tunnel.
+     */
+    synchronized Map<String, Integer> getReferences() {
+        Map<String, Integer> references = new HashMap<>();
+        shared.forEach(s -> references.merge(s.target + " " + s.port, s.references, Integer::sum));
+        return references;
+    }
+}
@@ -0,0 +1,200 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Collects the statistics of a tunnel, see {@link TunnelStatsMXBean}.
+ */
+public class TunnelStats implements TunnelStatsMXBean {
+    private static final Logger log = Logger.getLogger(TunnelStats.class);
+
+    public static final String DOMAIN = "com.iseonline.quarkus.k8s";
+
+    public static final String KIND_FORWARDING = "forwarding";
+
+    public static final String KIND_REVERSE_PROXY = "reverse-proxy";
+
+    private final String name;
+
+    private final String kind;
+
+    private final LongAdder bytesIn = new LongAdder();
+
+    private final LongAdder bytesOut = new LongAdder();
+
+    private final AtomicInteger activeConnections = new AtomicInteger();
+
+    private final AtomicLong connectCount = new AtomicLong();
+
+    private final AtomicLong connectTimeNanos = new AtomicLong();
+
+    private final AtomicLong reconnects = new AtomicLong();
+
+    private volatile long lastFailure;
+
+    private ObjectName objectName;
+
+    public TunnelStats(String kind, String name) {
+        this.kind = kind;
+        this.name = name;
+    }
+
+    /**
+     * Registers the statistics in the platform MBean server, an already
+     * registered bean of the same tunnel is replaced.
+     */
+    public TunnelStats register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(DOMAIN + ":type=Tunnel,kind=" + kind + ",name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.warnf("Could not register tunnel statistics for %s: %s", name, e.getMessage());
+        }
+        return this;
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            // already gone
+        }
+        objectName = null;
+    }
+
+    public void connected(long connectNanos) {
+        activeConnections.incrementAndGet();
+        connectCount.incrementAndGet();
+        connectTimeNanos.addAndGet(connectNanos);
+    }
+
+    public void failed() {
+        lastFailure = System.currentTimeMillis();
+    }
+
+    public void reconnected() {
+        reconnects.incrementAndGet();
+        failed();
+    }
+
+    /**
+     * Counts the bytes read from a local socket, which are sent into the cluster.
+     */
+    public InputStream countOut(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesOut.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    bytesOut.add(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    /**
+     * Counts the bytes from the cluster written to a local socket. Closing the
+     * stream ends the connection.
+     */
+    public OutputStream countIn(OutputStream out) {
+        AtomicBoolean closed = new AtomicBoolean();
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesIn.increment();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesIn.add(len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed.compareAndSet(false, true)) {
+                    activeConnections.decrementAndGet();
+                }
+                super.close();
+            }
+        };
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getKind() {
+        return kind;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    @Override
+    public long getConnectCount() {
+        return connectCount.get();
+    }
+
+    @Override
+    public double getConnectTimeTotalMillis() {
+        return connectTimeNanos.get() / 1_000_000d;
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    @Override
+    public long getLastFailureEpochMillis() {
+        return lastFailure;
+    }
+}
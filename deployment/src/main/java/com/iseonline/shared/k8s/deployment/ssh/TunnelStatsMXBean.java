@@ -0,0 +1,47 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+/**
+ * Traffic and health statistics of a single port forwarding or reverse proxy.
+ * Registered in the platform MBean server as
+ * {@code com.iseonline.quarkus.k8s:type=Tunnel,kind=<kind>,name=<name>}, so
+ * the runtime part of the extension can expose them via micrometer without
+ * sharing classes between the deployment and the application class loader.
+ */
+public interface TunnelStatsMXBean {
+
+    String getName();
+
+    /**
+     * @return forwarding or reverse-proxy
+     */
+    String getKind();
+
+    /**
+     * @return bytes sent from the cluster to the local side
+     */
+    long getBytesIn();
+
+    /**
+     * @return bytes sent from the local side into the cluster
+     */
+    long getBytesOut();
+
+    int getActiveConnections();
+
+    /**
+     * @return number of connections successfully established through the tunnel
+     */
+    long getConnectCount();
+
+    /**
+     * @return the summed up time to establish the connections through the tunnel
+     */
+    double getConnectTimeTotalMillis();
+
+    long getReconnects();
+
+    /**
+     * @return the time of the last failure in epoch millis or 0, if there was none
+     */
+    long getLastFailureEpochMillis();
+}
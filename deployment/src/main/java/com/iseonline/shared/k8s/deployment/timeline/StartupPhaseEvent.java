@@ -0,0 +1,24 @@
+package com.iseonline.shared.k8s.deployment.timeline;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for a single startup phase of the dev services, e.g. the helm
+ * upgrade of a release or the ssh connect. Can be inspected with JDK Mission
+ * Control when quarkus:dev is started with {@code -XX:StartFlightRecording}.
+ */
+@Name("com.iseonline.quarkus.k8s.StartupPhase")
+@Label("K8s Dev Services Startup Phase")
+@Description("A phase during the startup of the k8s dev services")
+@Category({ "Quarkus", "K8s Dev Services" })
+class StartupPhaseEvent extends jdk.jfr.Event {
+
+    @Label("Release")
+    String release;
+
+    @Label("Phase")
+    String phase;
+}
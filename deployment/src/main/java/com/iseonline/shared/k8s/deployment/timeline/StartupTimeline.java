@@ -0,0 +1,82 @@
+package com.iseonline.shared.k8s.deployment.timeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects the duration of the startup phases of {@code HelmDeployer} and
+ * {@code SshDeployer}. Each phase is recorded as {@link StartupPhaseEvent} in
+ * JFR and as {@link Entry} for the timeline printed by
+ * {@link StartupTimelineReporter}.
+ *
+ * <pre>
+ * try (Span span = StartupTimeline.span("keycloak", "upgrade")) {
+ *     upgrade.call();
+ * }
+ * </pre>
+ */
+public class StartupTimeline {
+
+    /**
+     * Release name for phases which do not belong to a single helm release.
+     */
+    public static final String GLOBAL = "-";
+
+    private static final ConcurrentLinkedQueue<Entry> entries = new ConcurrentLinkedQueue<>();
+
+    private static volatile long startedAt;
+
+    public record Entry(String release, String phase, long startMillis, long durationMillis) {
+    }
+
+    public static Span span(String release, String phase) {
+        long timelineStart = startedAt;
+        if (timelineStart == 0) {
+            synchronized (StartupTimeline.class) {
+                if (startedAt == 0) {
+                    startedAt = System.nanoTime();
+                }
+                timelineStart = startedAt;
+            }
+        }
+        return new Span(release, phase, timelineStart);
+    }
+
+    /**
+     * Spans which are still open (e.g. background phases) keep the offset they
+     * got at their start and show up in the next drain.
+     *
+     * @return all recorded phases ordered by their start and resets the timeline
+     */
+    static synchronized List<Entry> drain() {
+        List<Entry> result = new ArrayList<>(entries);
+        entries.clear();
+        startedAt = 0;
+        result.sort((a, b) -> Long.compare(a.startMillis(), b.startMillis()));
+        return result;
+    }
+
+    public static class Span implements AutoCloseable {
+        private final StartupPhaseEvent event = new StartupPhaseEvent();
+
+        private final long start = System.nanoTime();
+
+        private final long offset;
+
+        private Span(String release, String phase, long timelineStart) {
+            this.offset = start - timelineStart;
+            event.release = release;
+            event.phase = phase;
+            event.begin();
+        }
+
+        @Override
+        public void close() {
+            long end = System.nanoTime();
+            event.commit();
+            entries.add(new Entry(event.release, event.phase,
+                    offset / 1_000_000, (end - start) / 1_000_000));
+        }
+    }
+}
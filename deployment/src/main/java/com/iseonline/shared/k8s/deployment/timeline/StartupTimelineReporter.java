@@ -0,0 +1,91 @@
+package com.iseonline.shared.k8s.deployment.timeline;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.timeline.StartupTimeline.Entry;
+
+import io.quarkus.deployment.IsNormal;
+import io.quarkus.deployment.annotations.BuildStep;
+import io.quarkus.deployment.annotations.BuildSteps;
+import io.quarkus.deployment.annotations.Produce;
+import io.quarkus.deployment.builditem.DevServicesResultBuildItem;
+import io.quarkus.deployment.builditem.ServiceStartBuildItem;
+import io.quarkus.deployment.dev.devservices.DevServicesConfig;
+import io.quarkus.deployment.pkg.builditem.BuildSystemTargetBuildItem;
+
+/**
+ * Prints the startup timeline once all dev services are started and optionally
+ * writes it as json into the build output directory.
+ */
+@BuildSteps(onlyIfNot = IsNormal.class, onlyIf = DevServicesConfig.Enabled.class)
+public class StartupTimelineReporter {
+    private static final Logger log = Logger.getLogger(StartupTimelineReporter.class);
+
+    static final String TIMELINE_FILE = "k8s-devservices-timeline.json";
+
+    @BuildStep
+    @Produce(ServiceStartBuildItem.class)
+    public void reportTimeline(List<DevServicesResultBuildItem> devServices, BuildSystemTargetBuildItem bst,
+            K8sDevServicesBuildTimeConfig config) {
+        List<Entry> entries = StartupTimeline.drain();
+        if (!config.enabled() || entries.isEmpty()) {
+            return;
+        }
+        if (config.timelineLog()) {
+            log.info(format(entries));
+        }
+        if (config.timelineJson()) {
+            write(entries, bst.getOutputDirectory().resolve(TIMELINE_FILE));
+        }
+    }
+
+    /**
+     * Summarizes the entries per release and phase, retries of the same phase are
+     * summed up.
+     */
+    static String format(List<Entry> entries) {
+        Map<String, long[]> phases = new LinkedHashMap<>();
+        long total = 0;
+        for (Entry entry : entries) {
+            long[] summary = phases.computeIfAbsent(entry.release() + "\t" + entry.phase(),
+                    k -> new long[] { entry.startMillis(), 0, 0 });
+            summary[1] += entry.durationMillis();
+            summary[2]++;
+            total = Math.max(total, entry.startMillis() + entry.durationMillis());
+        }
+
+        StringBuilder sb = new StringBuilder("K8s dev services startup timeline (total ")
+                .append(total).append(" ms):\n")
+                .append(String.format("%-24s %-32s %9s %9s %5s%n", "release", "phase", "start", "duration", "runs"));
+        phases.forEach((key, summary) -> {
+            String[] split = key.split("\t", 2);
+            sb.append(String.format("%-24s %-32s %6d ms %6d ms %5d%n", split[0], split[1], summary[0], summary[1],
+                    summary[2]));
+        });
+        return sb.toString();
+    }
+
+    private void write(List<Entry> entries, Path file) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("timestamp", Instant.now().toString());
+        json.put("phases", entries);
+        try {
+            new ObjectMapper()
+                    .enable(SerializationFeature.INDENT_OUTPUT)
+                    .writeValue(file.toFile(), json);
+            log.infof("Startup timeline written to %s", file);
+        } catch (IOException e) {
+            log.warnf("Could not write startup timeline to %s: %s", file, e.getMessage());
+        }
+    }
+}
@@ -1,15 +1,15 @@
 package com.iseonline.shared.k8s.deployment.utils;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
 import java.util.function.Supplier;
 
-import org.jboss.logging.Logger;
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
 
 public class K8sDevServicesUtils {
-    private static final Logger log = Logger.getLogger(K8sDevServicesUtils.class);
 
     public static boolean waitTill(long timeout, Supplier<Boolean> condition) {
         long timeoutAt = System.currentTimeMillis() + timeout;
@@ -25,56 +25,46 @@ public class K8sDevServicesUtils {
         return result || condition.get();
     }
 
-    private static ScheduledExecutorService executor;
-
     /**
-     * Will create a resource and watch it via the given condition in a fixed time
-     * interval. If it fails, it'll try to recreate the resource.
-     * Creator will be invoked
-     *
-     * @param creator the interface to (re)create the resource
-     * @param condition whether the resource is still running
-     * @param period the time period in which to check
-     * @param unit the time unit in which to check
-     * @return
+     * @return the hex encoded sha-256 hash of the given value
      */
-    public static ScheduledFuture<?> createAndWatch(Runnable creator, Supplier<Boolean> condition, int period,
-            TimeUnit unit) {
-        if (executor == null) {
-            executor = Executors.newSingleThreadScheduledExecutor();
+    public static String sha256(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
+    }
 
-        // Create the resource at the beginning. If there is already an error, it should
-        // be handled by the source.
-        creator.run();
+    /**
+     * @return the namespace of the dev context, in multi user mode the one of the
+     *         current user
+     */
+    public static String namespace(K8sDevServicesBuildTimeConfig config) {
+        if (!config.multiUserEnabled()) {
+            return config.namespace();
+        }
+        String user = config.multiUserUser().orElseGet(() -> System.getProperty("user.name"));
+        return dnsLabel(config.namespace() + "-" + user);
+    }
 
-        return executor.scheduleAtFixedRate(() -> {
-            try {
-                if (!condition.get()) {
-                    creator.run();
-                }
-            } catch (Exception e) {
-                log.warn("Error during createAndWatch", e);
-            }
-        }, period, period, unit);
+    /**
+     * @return the namespace of the gateway, in multi user mode the shared one
+     */
+    public static String gatewayNamespace(K8sDevServicesBuildTimeConfig config) {
+        return config.multiUserEnabled() ? config.multiUserSharedNamespace() : config.namespace();
     }
 
-    public static void Retry(int maxRetries, int backoff, Runnable retrieable) {
-        for (int i = 0; i < maxRetries; i++) {
-            try {
-                retrieable.run();
-                return;
-            } catch (Exception e) {
-                if (i < maxRetries - 1) {
-                    log.warnf("Retrying %d/%d", (i + 1), maxRetries);
-                    try {
-                        Thread.sleep(backoff);
-                    } catch (Exception e2) {
-                    }
-                } else {
-                    throw new RuntimeException("Backing off retry after " + maxRetries + " attempts", e);
-                }
-            }
+    /**
+     * @return the value as valid kubernetes name, lower case alphanumeric and
+     *         dashes with at most 63 characters
+     */
+    static String dnsLabel(String value) {
+        String label = value.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9-]+", "-").replaceAll("-+", "-");
+        if (label.length() > 63) {
+            label = label.substring(0, 63);
         }
+        return label.replaceAll("^-+|-+$", "");
     }
 }
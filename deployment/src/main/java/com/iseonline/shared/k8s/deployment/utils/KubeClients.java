@@ -0,0 +1,158 @@
+package com.iseonline.shared.k8s.deployment.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.jboss.logging.Logger;
+
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientBuilder;
+
+/**
+ * One kubernetes client per kube context, shared by both deployers. It can be
+ * warmed up in the background, before the deployers need it: the kubeconfig is
+ * parsed, the client created and connected with a first request, so the TLS
+ * handshake is done already. The client is reference counted and closed, once
+ * the last user released it.
+ */
+public class KubeClients {
+    private static final Logger log = Logger.getLogger(KubeClients.class);
+
+    private static final Executor WARM_UP = r -> {
+        Thread thread = new Thread(r, "k8s-devservices-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    };
+
+    private static class Shared {
+        private final CompletableFuture<Config> config;
+
+        private final CompletableFuture<KubernetesClient> client;
+
+        private int references;
+
+        Shared(String kubeContext) {
+            config = CompletableFuture.supplyAsync(() -> Config.autoConfigure(kubeContext), WARM_UP);
+            client = config.thenApplyAsync(KubeClients::connect, WARM_UP);
+        }
+    }
+
+    /**
+     * Per kube context and kubeconfig file, tests switch the file for the same
+     * context.
+     */
+    private static final Map<String, Shared> clients = new HashMap<>();
+
+    private KubeClients() {
+    }
+
+    /**
+     * Starts to parse the kubeconfig and to connect the client of the kube
+     * context in the background, if this is not done yet.
+     */
+    public static synchronized void warmUp(String kubeContext) {
+        shared(kubeContext, key(kubeContext));
+    }
+
+    /**
+     * @return the parsed kubeconfig of the kube context
+     */
+    public static Config config(String kubeContext) {
+        CompletableFuture<Config> config;
+        synchronized (KubeClients.class) {
+            config = shared(kubeContext, key(kubeContext)).config;
+        }
+        return await(config);
+    }
+
+    /**
+     * @return the shared client of the kube context, waits for its warm-up, it
+     *         must be given back with {@link #release(KubernetesClient)}
+     */
+    public static KubernetesClient acquire(String kubeContext) {
+        String key = key(kubeContext);
+        CompletableFuture<KubernetesClient> client;
+        synchronized (KubeClients.class) {
+            Shared shared = shared(kubeContext, key);
+            shared.references++;
+            client = shared.client;
+        }
+        try {
+            return await(client);
+        } catch (RuntimeException e) {
+            release(key, client);
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the client, if no one else uses it anymore.
+     */
+    public static void release(KubernetesClient client) {
+        String key = null;
+        CompletableFuture<KubernetesClient> future = null;
+        synchronized (KubeClients.class) {
+            for (Map.Entry<String, Shared> entry : clients.entrySet()) {
+                if (entry.getValue().client.getNow(null) == client) {
+                    key = entry.getKey();
+                    future = entry.getValue().client;
+                }
+            }
+        }
+        if (future == null) {
+            // Not shared
+            client.close();
+            return;
+        }
+        release(key, future);
+    }
+
+    private static void release(String key, CompletableFuture<KubernetesClient> client) {
+        synchronized (KubeClients.class) {
+            Shared shared = clients.get(key);
+            if (shared == null || shared.client != client || --shared.references > 0) {
+                return;
+            }
+            clients.remove(key);
+        }
+        client.thenAccept(KubernetesClient::close);
+    }
+
+    /**
+     * A failed warm-up, e.g. as the kubeconfig was not written yet, is started
+     * again, unless someone still waits for it.
+     */
+    private static Shared shared(String kubeContext, String key) {
+        Shared shared = clients.get(key);
+        if (shared == null || (shared.references == 0 && shared.client.isCompletedExceptionally())) {
+            shared = new Shared(kubeContext);
+            clients.put(key, shared);
+        }
+        return shared;
+    }
+
+    private static KubernetesClient connect(Config config) {
+        KubernetesClient client = new KubernetesClientBuilder().withConfig(config).build();
+        try {
+            // Any request opens the connection, the version needs no permissions
+            client.getKubernetesVersion();
+        } catch (RuntimeException e) {
+            log.debugf("Warm-up request to %s failed: %s", config.getMasterUrl(), e.getMessage());
+        }
+        return client;
+    }
+
+    private static String key(String kubeContext) {
+        String kubeConfig = System.getProperty(Config.KUBERNETES_KUBECONFIG_FILE,
+                System.getenv("KUBECONFIG"));
+        return Objects.requireNonNullElse(kubeContext, "") + "@" + Objects.requireNonNullElse(kubeConfig, "");
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        return RetryPolicy.await(future);
+    }
+}
@@ -0,0 +1,294 @@
+package com.iseonline.shared.k8s.deployment.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.jboss.logging.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.Node;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.Secret;
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientBuilder;
+
+/**
+ * Chooses the kube context out of
+ * {@link K8sDevServicesBuildTimeConfig#kubeContextCandidates()}. The
+ * candidates are probed in parallel for
+ * <ul>
+ * <li>the api latency, the fastest of three requests</li>
+ * <li>the share of the allocatable cpu of the nodes, which is requested by
+ * pods already</li>
+ * <li>the helm releases of the charts, which are deployed already in the same
+ * chart version</li>
+ * </ul>
+ * The choice is kept for the JVM, so both deployers and dev mode restarts use
+ * the same context, till it fails over.
+ */
+public class KubeContextSelector {
+    private static final Logger log = Logger.getLogger(KubeContextSelector.class);
+
+    /**
+     * The release name of a chart directly in the chart path.
+     */
+    public static final String DEFAULT_RELEASE_NAME = "quarkus-dev-k8s";
+
+    /**
+     * Used, if the nodes or pods may not be listed.
+     */
+    private static final double UNKNOWN_UTILIZATION = 0.5;
+
+    private static final int LATENCY_SAMPLES = 3;
+
+    private static final Executor PROBES = r -> {
+        Thread thread = new Thread(r, "k8s-devservices-context-probe");
+        thread.setDaemon(true);
+        thread.start();
+    };
+
+    /**
+     * The result of probing one kube context.
+     *
+     * @param latencyMillis the fastest api request
+     * @param utilization the requested share of the allocatable cpu, from 0 to 1
+     * @param deployedReleases the number of releases deployed in the chart version
+     *        of the chart path
+     */
+    public record Probe(String context, boolean reachable, long latencyMillis, double utilization,
+            int deployedReleases) {
+
+        static Probe unreachable(String context) {
+            return new Probe(context, false, Long.MAX_VALUE, 1, 0);
+        }
+
+        /**
+         * @return the latency weighted with the utilization of the cluster
+         */
+        double cost() {
+            return latencyMillis * (1 + utilization);
+        }
+    }
+
+    static final Comparator<Probe> RANKING = Comparator.comparing((Probe p) -> !p.reachable())
+            .thenComparing(Comparator.comparingInt(Probe::deployedReleases).reversed())
+            .thenComparingDouble(Probe::cost);
+
+    private static List<String> candidates;
+
+    private static String current;
+
+    private KubeContextSelector() {
+    }
+
+    /**
+     * @return the kube context to use, the candidates are probed on the first
+     *         call
+     */
+    public static synchronized String current(K8sDevServicesBuildTimeConfig config) {
+        List<String> configured = config.kubeContextCandidates().orElse(List.of());
+        if (configured.isEmpty()) {
+            return config.kubeContext();
+        }
+        if (current == null || !configured.equals(candidates)) {
+            candidates = configured;
+            List<Probe> probes = probeAll(config, configured);
+            current = probes.get(0).reachable() ? probes.get(0).context() : configured.get(0);
+            log.infof("Using kube context %s", current);
+        }
+        return current;
+    }
+
+    /**
+     * Probes the other candidates again and switches to the best reachable one.
+     *
+     * @return the new kube context, null if no other one is reachable
+     */
+    public static synchronized String failover(K8sDevServicesBuildTimeConfig config) {
+        String failed = current(config);
+        List<Probe> probes = probeAll(config, candidates.stream().filter(c -> !c.equals(failed)).toList());
+        if (probes.isEmpty() || !probes.get(0).reachable()) {
+            return null;
+        }
+        current = probes.get(0).context();
+        log.warnf("Kube context %s is not reachable, failing over to %s", failed, current);
+        return current;
+    }
+
+    /**
+     * Only for tests, the next call of {@link #current} probes again.
+     */
+    public static synchronized void reset() {
+        candidates = null;
+        current = null;
+    }
+
+    /**
+     * @return the probes of the given contexts, best first
+     */
+    static List<Probe> probeAll(K8sDevServicesBuildTimeConfig config, List<String> contexts) {
+        Map<String, String> charts = chartVersions(Path.of(config.chartPath()));
+        long timeout = config.kubeContextProbeTimeout().toMillis();
+        List<CompletableFuture<Probe>> futures = contexts.stream()
+                .map(context -> CompletableFuture.supplyAsync(() -> probe(config, context, charts), PROBES)
+                        .completeOnTimeout(Probe.unreachable(context), timeout, TimeUnit.MILLISECONDS)
+                        .exceptionally(e -> {
+                            log.debugf("Kube context %s is not reachable: %s", context, e.getMessage());
+                            return Probe.unreachable(context);
+                        }))
+                .toList();
+        List<Probe> probes = new ArrayList<>(futures.stream().map(CompletableFuture::join).toList());
+        probes.sort(RANKING);
+        probes.forEach(p -> log.infof("Kube context %s: %s", p.context(), p.reachable()
+                ? "latency %d ms, cpu requested %.0f%%, %d releases deployed".formatted(p.latencyMillis(),
+                        p.utilization() * 100, p.deployedReleases())
+                : "not reachable"));
+        return probes;
+    }
+
+    /**
+     * @return a client for the kube context, which gives up within the probe
+     *         timeout and does not retry
+     */
+    public static KubernetesClient probeClient(K8sDevServicesBuildTimeConfig config, String context) {
+        Config k8sConfig = Config.autoConfigure(context);
+        int timeout = (int) config.kubeContextProbeTimeout().toMillis();
+        k8sConfig.setConnectionTimeout(timeout);
+        k8sConfig.setRequestTimeout(timeout);
+        k8sConfig.setRequestRetryBackoffLimit(0);
+        return new KubernetesClientBuilder().withConfig(k8sConfig).build();
+    }
+
+    static Probe probe(K8sDevServicesBuildTimeConfig config, String context, Map<String, String> charts) {
+        String namespace = K8sDevServicesUtils.namespace(config);
+        try (KubernetesClient client = probeClient(config, context)) {
+            long latency = Long.MAX_VALUE;
+            for (int i = 0; i < LATENCY_SAMPLES; i++) {
+                long start = System.nanoTime();
+                client.namespaces().withName(namespace).get();
+                latency = Math.min(latency, (System.nanoTime() - start) / 1_000_000);
+            }
+            return new Probe(context, true, latency, utilization(client), deployedReleases(client, namespace, charts));
+        }
+    }
+
+    private static double utilization(KubernetesClient client) {
+        try {
+            BigDecimal allocatable = BigDecimal.ZERO;
+            for (Node node : client.nodes().list().getItems()) {
+                allocatable = allocatable.add(cpu(node.getStatus() != null ? node.getStatus().getAllocatable() : null));
+            }
+            if (allocatable.signum() == 0) {
+                return UNKNOWN_UTILIZATION;
+            }
+            BigDecimal requested = BigDecimal.ZERO;
+            for (Pod pod : client.pods().inAnyNamespace().withField("status.phase", "Running").list().getItems()) {
+                for (Container container : pod.getSpec().getContainers()) {
+                    if (container.getResources() != null) {
+                        requested = requested.add(cpu(container.getResources().getRequests()));
+                    }
+                }
+            }
+            return Math.min(1, requested.divide(allocatable, 3, RoundingMode.HALF_UP).doubleValue());
+        } catch (RuntimeException e) {
+            log.debugf("Could not determine the utilization of the cluster: %s", e.getMessage());
+            return UNKNOWN_UTILIZATION;
+        }
+    }
+
+    private static BigDecimal cpu(Map<String, Quantity> resources) {
+        Quantity cpu = resources != null ? resources.get("cpu") : null;
+        return cpu != null ? Quantity.getAmountInBytes(cpu) : BigDecimal.ZERO;
+    }
+
+    /**
+     * @return the number of deployed releases, which have the chart version of
+     *         the chart path
+     */
+    private static int deployedReleases(KubernetesClient client, String namespace, Map<String, String> charts) {
+        if (charts.isEmpty()) {
+            return 0;
+        }
+        int deployed = 0;
+        for (Secret secret : client.secrets().inNamespace(namespace)
+                .withLabel("owner", "helm")
+                .withLabel("status", "deployed")
+                .list().getItems()) {
+            String releaseName = secret.getMetadata().getLabels().get("name");
+            String chart = charts.get(releaseName);
+            if (chart != null && chart.equals(releaseChart(secret))) {
+                deployed++;
+            }
+        }
+        return deployed;
+    }
+
+    /**
+     * @return {@code <name>:<version>} of the chart of the helm release secret
+     */
+    static String releaseChart(Secret secret) {
+        String release = secret.getData() != null ? secret.getData().get("release") : null;
+        if (release == null) {
+            return null;
+        }
+        // Base64 by kubernetes, base64 and gzip by helm
+        byte[] gzipped = Base64.getDecoder().decode(Base64.getDecoder().decode(release));
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            JsonNode metadata = new ObjectMapper().readTree(in).path("chart").path("metadata");
+            return metadata.path("name").asText() + ":" + metadata.path("version").asText();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return {@code <name>:<version>} of the charts of the chart path per
+     *         release name, like they are deployed by the helm deployer
+     */
+    static Map<String, String> chartVersions(Path chartsDir) {
+        Map<String, String> charts = new HashMap<>();
+        if (Files.exists(chartsDir.resolve("Chart.yaml"))) {
+            charts.put(DEFAULT_RELEASE_NAME, chartVersion(chartsDir));
+        } else if (Files.isDirectory(chartsDir)) {
+            try (Stream<Path> dirs = Files.list(chartsDir)) {
+                dirs.filter(dir -> Files.exists(dir.resolve("Chart.yaml")))
+                        .forEach(dir -> charts.put(dir.getFileName().toString(), chartVersion(dir)));
+            } catch (IOException e) {
+                log.debugf("Could not read charts of %s: %s", chartsDir, e.getMessage());
+            }
+        }
+        return charts;
+    }
+
+    private static String chartVersion(Path chartDir) {
+        try {
+            JsonNode chart = new ObjectMapper(new YAMLFactory()).readTree(chartDir.resolve("Chart.yaml").toFile());
+            return chart.path("name").asText() + ":" + chart.path("version").asText();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
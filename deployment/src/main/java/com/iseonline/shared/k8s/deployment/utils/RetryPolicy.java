@@ -0,0 +1,234 @@
+package com.iseonline.shared.k8s.deployment.utils;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Retries an operation with exponential backoff and jitter, till it succeeds,
+ * fails with an error which is not retryable, the attempts are used up or the
+ * deadline is reached. The attempts run on daemon threads and no thread is
+ * blocked while waiting for the next one. Cancelling the returned future or
+ * reaching the deadline stops the retries and interrupts a running attempt. A
+ * result which arrives too late is closed, if it is {@link AutoCloseable}.
+ *
+ * @param maxAttempts the attempts including the first one
+ * @param initialBackoff the wait before the second attempt, doubled for each
+ *        further one
+ * @param maxBackoff the longest wait between two attempts
+ * @param deadline the time all attempts together may take, null for none
+ * @param retryable whether an attempt failing with the error is retried
+ */
+public record RetryPolicy(String operation, int maxAttempts, Duration initialBackoff, Duration maxBackoff,
+        Duration deadline, Predicate<Throwable> retryable) {
+
+    private static final Logger log = Logger.getLogger(RetryPolicy.class);
+
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    private static final ExecutorService ATTEMPTS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "k8s-devservices-retry-" + threads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @return a policy with 3 attempts and a backoff from 500 ms up to 5 s, which
+     *         retries all errors without deadline
+     */
+    public static RetryPolicy of(String operation) {
+        return new RetryPolicy(operation, 3, Duration.ofMillis(500), Duration.ofSeconds(5), null, e -> true);
+    }
+
+    public RetryPolicy withMaxAttempts(int maxAttempts) {
+        return new RetryPolicy(operation, maxAttempts, initialBackoff, maxBackoff, deadline, retryable);
+    }
+
+    public RetryPolicy withBackoff(Duration initialBackoff, Duration maxBackoff) {
+        return new RetryPolicy(operation, maxAttempts, initialBackoff, maxBackoff, deadline, retryable);
+    }
+
+    public RetryPolicy withDeadline(Duration deadline) {
+        return new RetryPolicy(operation, maxAttempts, initialBackoff, maxBackoff, deadline, retryable);
+    }
+
+    public RetryPolicy retryOn(Predicate<Throwable> retryable) {
+        return new RetryPolicy(operation, maxAttempts, initialBackoff, maxBackoff, deadline, retryable);
+    }
+
+    /**
+     * @return the result of the first successful attempt
+     */
+    public <T> CompletableFuture<T> call(Callable<T> attempt) {
+        Attempts<T> attempts = new Attempts<>(attempt);
+        attempts.start();
+        return attempts.result;
+    }
+
+    public CompletableFuture<Void> run(Runnable attempt) {
+        return call(() -> {
+            attempt.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return the wait before the given attempt, a random value between the half
+     *         and the full exponential backoff, so retries of several callers
+     *         don't hit the server at once
+     */
+    Duration backoff(int attempt) {
+        long initial = initialBackoff.toMillis();
+        long max = maxBackoff.toMillis();
+        long exponential = Math.min(max, initial << Math.min(attempt - 2, 30));
+        return Duration.ofMillis(exponential / 2 + ThreadLocalRandom.current().nextLong(exponential / 2 + 1));
+    }
+
+    /**
+     * Waits for the retried operation. An interrupt cancels it.
+     *
+     * @return the result of the operation
+     * @throws RuntimeException the error of the last attempt
+     */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for the retries");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private class Attempts<T> {
+        private final Callable<T> attempt;
+
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private final long deadlineNanos;
+
+        /**
+         * The running or next attempt, interrupted on cancel and at the deadline.
+         */
+        private volatile Future<?> running;
+
+        Attempts(Callable<T> attempt) {
+            this.attempt = attempt;
+            this.deadlineNanos = deadline != null ? System.nanoTime() + deadline.toNanos() : Long.MAX_VALUE;
+        }
+
+        void start() {
+            result.whenComplete((r, e) -> {
+                if (result.isCancelled()) {
+                    cancelRunning();
+                }
+            });
+            if (deadline != null) {
+                CompletableFuture.delayedExecutor(deadline.toMillis(), TimeUnit.MILLISECONDS, ATTEMPTS)
+                        .execute(() -> {
+                            if (result.completeExceptionally(
+                                    new TimeoutException(operation + " did not succeed within " + deadline))) {
+                                cancelRunning();
+                            }
+                        });
+            }
+            submit(1);
+        }
+
+        private void submit(int number) {
+            if (result.isDone()) {
+                return;
+            }
+            Future<?> future = ATTEMPTS.submit(() -> attempt(number));
+            running = future;
+            if (result.isDone()) {
+                // Cancelled or timed out while submitting
+                future.cancel(true);
+            }
+        }
+
+        private void cancelRunning() {
+            Future<?> future = running;
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+
+        private void attempt(int number) {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                T value = attempt.call();
+                if (!result.complete(value)) {
+                    discard(value);
+                }
+            } catch (Exception e) {
+                failed(number, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } finally {
+                // The interrupt of a cancel must not hit the next task of the thread
+                Thread.interrupted();
+            }
+        }
+
+        /**
+         * Closes the result of an attempt, which finished after the deadline or a
+         * cancel, nobody else would.
+         */
+        private void discard(T value) {
+            if (value instanceof AutoCloseable closeable) {
+                log.debugf("%s finished too late, closing its result", operation);
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    log.debugf("Could not close late result of %s: %s", operation, e.getMessage());
+                }
+            }
+        }
+
+        private void failed(int number, Throwable error) {
+            if (result.isDone()) {
+                return;
+            }
+            if (!retryable.test(error)) {
+                result.completeExceptionally(error);
+                return;
+            }
+            if (number >= maxAttempts) {
+                result.completeExceptionally(
+                        new RuntimeException(operation + " failed after " + maxAttempts + " attempts", error));
+                return;
+            }
+            Duration wait = backoff(number + 1);
+            if (System.nanoTime() + wait.toNanos() >= deadlineNanos) {
+                TimeoutException timeout = new TimeoutException(operation + " did not succeed within " + deadline);
+                timeout.initCause(error);
+                result.completeExceptionally(timeout);
+                return;
+            }
+            log.warnf("%s failed, retrying %d/%d in %d ms: %s", operation, number, maxAttempts - 1, wait.toMillis(),
+                    error.getMessage());
+            // Submitted only, if the deadline or a cancel did not end the retries
+            CompletableFuture.delayedExecutor(wait.toMillis(), TimeUnit.MILLISECONDS, ATTEMPTS)
+                    .execute(() -> submit(number + 1));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.iseonline.shared.k8s.deployment.utils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Runs the teardown steps of a dev service in parallel within an overall
+ * deadline. Steps which are still running when the deadline is reached keep
+ * running on daemon threads in the background, so they don't block the exit of
+ * dev mode or the JVM.
+ */
+public class ShutdownCoordinator {
+    private static final Logger log = Logger.getLogger(ShutdownCoordinator.class);
+
+    private static final Executor DAEMONS = r -> {
+        Thread thread = new Thread(r, "k8s-devservices-shutdown");
+        thread.setDaemon(true);
+        thread.start();
+    };
+
+    private final long deadline;
+
+    /**
+     * @param timeout the time all steps together may take
+     */
+    public ShutdownCoordinator(Duration timeout) {
+        this.deadline = System.nanoTime() + timeout.toNanos();
+    }
+
+    /**
+     * Runs the tasks in parallel and waits till they are finished, at most till
+     * the deadline. Failures are logged, so one failing task does not prevent
+     * the others from being torn down.
+     *
+     * @param step description of the tasks for the log
+     * @return true, if all tasks finished in time
+     */
+    public boolean run(String step, List<Runnable> tasks) {
+        CompletableFuture<?>[] futures = tasks.stream()
+                .map(task -> CompletableFuture.runAsync(task, DAEMONS)
+                        .exceptionally(e -> {
+                            log.warnf(e.getCause() != null ? e.getCause() : e, "Error during %s", step);
+                            return null;
+                        }))
+                .toArray(CompletableFuture[]::new);
+        try {
+            CompletableFuture.allOf(futures).get(remainingNanos(), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // failures have been logged already
+            return true;
+        } catch (TimeoutException e) {
+            log.warnf("Could not finish %s within the shutdown timeout, continuing in the background", step);
+        }
+        return false;
+    }
+
+    /**
+     * Same as {@link #run(String, List)} for a single task.
+     */
+    public boolean run(String step, Runnable task) {
+        return run(step, List.of(task));
+    }
+
+    private long remainingNanos() {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+}
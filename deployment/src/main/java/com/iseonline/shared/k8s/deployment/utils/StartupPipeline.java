@@ -0,0 +1,124 @@
+package com.iseonline.shared.k8s.deployment.utils;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+
+import io.quarkus.builder.item.SimpleBuildItem;
+
+/**
+ * Coordinates the startup of the helm releases and the tunnels. The helm
+ * deployer marks each release as deployed, as soon as its upgrade is done, and
+ * the ssh deployer creates the tunnels into a release only then, so they don't
+ * point to services which don't exist yet. Everything else, like deploying the
+ * gateway and connecting ssh, runs concurrently with the helm deployment.
+ * <p>
+ * As build item it is produced before both deployers run, so neither one has
+ * to wait for the other build step.
+ */
+public final class StartupPipeline extends SimpleBuildItem {
+    private static final Logger log = Logger.getLogger(StartupPipeline.class);
+
+    private static final int MAX_THREADS = 4;
+
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    private static final ThreadPoolExecutor TASKS = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 30,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "k8s-devservices-pipeline-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    static {
+        TASKS.allowCoreThreadTimeOut(true);
+    }
+
+    private final Map<String, CompletableFuture<Void>> releases = new ConcurrentHashMap<>();
+
+    public StartupPipeline(Collection<String> releases) {
+        releases.forEach(release -> this.releases.put(release, new CompletableFuture<>()));
+    }
+
+    /**
+     * @return a pipeline with the releases of the chart path, like they are
+     *         deployed by the helm deployer
+     */
+    public static StartupPipeline of(Path chartsDir) {
+        return new StartupPipeline(KubeContextSelector.chartVersions(chartsDir).keySet());
+    }
+
+    /**
+     * @return a pipeline without releases to wait for, e.g. if helm does not run
+     *         in the same build
+     */
+    public static StartupPipeline none() {
+        return new StartupPipeline(List.of());
+    }
+
+    public void deployed(String release) {
+        CompletableFuture<Void> future = releases.get(release);
+        if (future != null) {
+            future.complete(null);
+        }
+    }
+
+    public void failed(String release, Throwable error) {
+        CompletableFuture<Void> future = releases.get(release);
+        if (future != null) {
+            future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Releases all tasks still waiting, e.g. for releases which were skipped as
+     * the helm deployment failed or is already running.
+     */
+    public void finish() {
+        releases.values().forEach(future -> future.complete(null));
+    }
+
+    /**
+     * Runs the task once the release is deployed, or right away if the release is
+     * null or not part of the pipeline. A failed release runs the task as well,
+     * its services may exist from an earlier deployment.
+     *
+     * @return completes with the task
+     */
+    public CompletableFuture<Void> afterRelease(String release, Runnable task) {
+        CompletableFuture<Void> future = release != null ? releases.get(release) : null;
+        if (future == null) {
+            return CompletableFuture.runAsync(task, TASKS);
+        }
+        return future.handle((r, e) -> {
+            if (e != null) {
+                log.debugf("Release %s failed, continuing anyway: %s", release, e.getMessage());
+            }
+            return null;
+        }).thenRunAsync(task, TASKS);
+    }
+
+    /**
+     * Waits for all tasks, the first failure is thrown once all are done.
+     */
+    public static void await(List<CompletableFuture<Void>> tasks) {
+        try {
+            RetryPolicy.await(CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)));
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.iseonline.shared.k8s.deployment.utils;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.jboss.logging.Logger;
+
+/**
+ * The watchdogs of a running dev service. A single scheduler thread only
+ * dispatches the checks, they run on a bounded pool of worker threads, so a
+ * slow call to the kubernetes api does not delay the other watchdogs. A check
+ * is skipped while the previous run of the same watchdog is still busy.
+ * <p>
+ * All threads are daemons and everything is cancelled and shut down in
+ * {@link #close()}, so dev mode restarts do not leave orphaned tasks behind.
+ */
+public class Watchdogs implements Closeable {
+    private static final Logger log = Logger.getLogger(Watchdogs.class);
+
+    private static final int MAX_WORKERS = 4;
+
+    private static final long SHUTDOWN_TIMEOUT = 1000;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final ThreadPoolExecutor workers;
+
+    private final List<Watchdog> watchdogs = new CopyOnWriteArrayList<>();
+
+    /**
+     * The worker threads, joined on close.
+     */
+    private final List<Thread> workerThreads = new CopyOnWriteArrayList<>();
+
+    private volatile boolean closed;
+
+    public Watchdogs(String name) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(daemon(name + "-scheduler"));
+        ThreadFactory workerFactory = daemon(name);
+        workers = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = workerFactory.newThread(r);
+                    workerThreads.removeIf(t -> !t.isAlive());
+                    workerThreads.add(thread);
+                    return thread;
+                });
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Will create a resource and watch it via the given condition in a fixed time
+     * interval. If it fails, it'll try to recreate the resource.
+     *
+     * @param creator the interface to (re)create the resource, invoked once
+     *        directly on the calling thread
+     * @param condition whether the resource is still running
+     * @param period the time period in which to check
+     * @param unit the time unit in which to check
+     * @return the watchdog, cancelling it stops the checks and interrupts a
+     *         running one. It has no result, {@link Future#get()} blocks till it
+     *         is cancelled and then throws a {@link CancellationException}.
+     */
+    public Future<?> createAndWatch(Runnable creator, Supplier<Boolean> condition, long period, TimeUnit unit) {
+        if (closed) {
+            throw new IllegalStateException("Watchdogs are already closed");
+        }
+        // Create the resource at the beginning. If there is already an error, it should
+        // be handled by the source.
+        creator.run();
+
+        Watchdog watchdog = new Watchdog(creator, condition);
+        watchdogs.add(watchdog);
+        watchdog.schedule = scheduler.scheduleAtFixedRate(watchdog::dispatch, period, period, unit);
+        return watchdog;
+    }
+
+    /**
+     * @return the number of watchdogs which have not been cancelled
+     */
+    public int size() {
+        return watchdogs.size();
+    }
+
+    /**
+     * Cancels all watchdogs and stops their threads. Waits shortly for running
+     * checks to react on the interrupt.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        watchdogs.forEach(w -> w.cancel(true));
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+        try {
+            if (!workers.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                log.debugf("Watchdogs still running after %d ms", SHUTDOWN_TIMEOUT);
+                return;
+            }
+            // The pool terminates shortly before its last thread exits
+            for (Thread thread : workerThreads) {
+                thread.join(SHUTDOWN_TIMEOUT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private class Watchdog implements Future<Object> {
+        private final Runnable creator;
+
+        private final Supplier<Boolean> condition;
+
+        private volatile ScheduledFuture<?> schedule;
+
+        /**
+         * The running check, null while idle.
+         */
+        private volatile Future<?> running;
+
+        private volatile boolean cancelled;
+
+        /**
+         * Released on cancel, to wake up callers of {@link #get()}.
+         */
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        Watchdog(Runnable creator, Supplier<Boolean> condition) {
+            this.creator = creator;
+            this.condition = condition;
+        }
+
+        void dispatch() {
+            Future<?> previous = running;
+            if (cancelled || (previous != null && !previous.isDone())) {
+                return;
+            }
+            try {
+                running = workers.submit(this::check);
+            } catch (RejectedExecutionException e) {
+                // shutting down
+            }
+        }
+
+        private void check() {
+            try {
+                if (!condition.get() && !cancelled) {
+                    creator.run();
+                }
+            } catch (Exception e) {
+                if (!cancelled) {
+                    log.warn("Error during createAndWatch", e);
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (cancelled) {
+                return false;
+            }
+            cancelled = true;
+            done.countDown();
+            watchdogs.remove(this);
+            if (schedule != null) {
+                schedule.cancel(false);
+            }
+            Future<?> current = running;
+            if (current != null) {
+                current.cancel(mayInterruptIfRunning);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled;
+        }
+
+        @Override
+        public Object get() throws InterruptedException {
+            done.await();
+            throw new CancellationException("Watchdog was cancelled");
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException("Watchdog is still running");
+            }
+            throw new CancellationException("Watchdog was cancelled");
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.iseonline.shared.k8s.deployment;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.apache.sshd.common.keyprovider.KeyPairProvider;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.forward.AcceptAllForwardingFilter;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.apps.Deployment;
+import io.fabric8.kubernetes.api.model.apps.DeploymentBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+import io.fabric8.kubernetes.client.server.mock.KubernetesCrudDispatcher;
+import io.fabric8.kubernetes.client.server.mock.KubernetesMockServer;
+import io.fabric8.mockwebserver.Context;
+import io.fabric8.mockwebserver.MockWebServer;
+import io.quarkus.deployment.pkg.builditem.BuildSystemTargetBuildItem;
+import io.smallrye.config.PropertiesConfigSource;
+import io.smallrye.config.SmallRyeConfig;
+import io.smallrye.config.SmallRyeConfigBuilder;
+
+/**
+ * Local stand-ins for the cluster: the fabric8 mock server in crud mode as
+ * kubernetes api and an embedded ssh server as gateway pod. The extension
+ * connects to the ssh server directly via {@code ssh-address}, as the mock
+ * server cannot forward ports.
+ */
+public class LocalCluster implements AutoCloseable {
+
+    public static final String KUBE_CONTEXT = "local-mock";
+
+    public static final String SSH_USERNAME = "dev";
+
+    public static final String SSH_PASSWORD = "dev";
+
+    private final KubernetesMockServer server;
+
+    private final KubernetesClient client;
+
+    private volatile SshServer sshd;
+
+    private final SharedIndexInformer<Deployment> readiness;
+
+    private final Path workDir;
+
+    public LocalCluster(Path workDir) throws IOException {
+        this.workDir = workDir;
+        server = new KubernetesMockServer(new Context(), new MockWebServer(), new HashMap<>(),
+                new KubernetesCrudDispatcher(), false);
+        server.init();
+        client = server.createClient();
+
+        Path kubeConfig = workDir.resolve("kubeconfig");
+        Files.writeString(kubeConfig, """
+                apiVersion: v1
+                kind: Config
+                clusters:
+                - name: local
+                  cluster:
+                    server: %s
+                contexts:
+                - name: %s
+                  context:
+                    cluster: local
+                    user: local
+                current-context: %s
+                users:
+                - name: local
+                  user:
+                    token: local
+                """.formatted(server.url("/"), KUBE_CONTEXT, KUBE_CONTEXT));
+        System.setProperty("kubeconfig", kubeConfig.toString());
+
+        sshd = startSshd(0, new SimpleGeneratorHostKeyProvider(workDir.resolve("hostkey.ser")));
+
+        // There are no controllers behind the mock api, so deployments are marked
+        // as ready and get a pod as soon as they are applied
+        readiness = client.apps().deployments().inAnyNamespace().inform(new ResourceEventHandler<>() {
+            @Override
+            public void onAdd(Deployment deployment) {
+                markReady(deployment);
+            }
+
+            @Override
+            public void onUpdate(Deployment oldDeployment, Deployment deployment) {
+                markReady(deployment);
+            }
+
+            @Override
+            public void onDelete(Deployment deployment, boolean deletedFinalStateUnknown) {
+            }
+        });
+    }
+
+    private static SshServer startSshd(int port, KeyPairProvider hostKeys) throws IOException {
+        SshServer server = SshServer.setUpDefaultServer();
+        server.setPort(port);
+        server.setKeyPairProvider(hostKeys);
+        server.setPasswordAuthenticator((username, password, session) -> SSH_USERNAME.equals(username)
+                && SSH_PASSWORD.equals(password));
+        server.setForwardingFilter(AcceptAllForwardingFilter.INSTANCE);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Kills the ssh server with all its connections and starts it again on the
+     * same port, like a restart of the ssh container.
+     */
+    public void restartSshd() throws IOException {
+        int port = sshd.getPort();
+        sshd.stop(true);
+        sshd = startSshd(port, sshd.getKeyPairProvider());
+    }
+
+    /**
+     * Deletes the gateway pod of the given deployment and replaces it with a new
+     * one, like the replicaset controller would. The ssh server is restarted with
+     * a new host key, all connections to the old pod are lost.
+     */
+    public void replaceGatewayPod(String namespace, String deploymentName) throws IOException {
+        client.pods().inNamespace(namespace).withLabel("app", deploymentName).delete();
+        int port = sshd.getPort();
+        sshd.stop(true);
+        sshd = startSshd(port, new SimpleGeneratorHostKeyProvider());
+        createPod(client.apps().deployments().inNamespace(namespace).withName(deploymentName).get());
+    }
+
+    /**
+     * Adds a pod to the given deployment, like the replicaset controller replacing
+     * a lost one. All pods share the local ssh server.
+     */
+    public void addGatewayPod(String namespace, String deploymentName) {
+        createPod(client.apps().deployments().inNamespace(namespace).withName(deploymentName).get());
+    }
+
+    private void createPod(Deployment deployment) {
+        client.pods()
+                .inNamespace(deployment.getMetadata().getNamespace())
+                .resource(new PodBuilder()
+                        .withNewMetadata()
+                        .withName(deployment.getMetadata().getName() + "-" + UUID.randomUUID().toString().substring(0, 5))
+                        .withLabels(deployment.getSpec().getTemplate().getMetadata().getLabels())
+                        .endMetadata()
+                        .build())
+                .create();
+    }
+
+    private void markReady(Deployment deployment) {
+        int replicas = deployment.getSpec().getReplicas() != null ? deployment.getSpec().getReplicas() : 1;
+        if (deployment.getStatus() != null && Integer.valueOf(replicas).equals(deployment.getStatus().getReadyReplicas())) {
+            return;
+        }
+        int pods = client.pods()
+                .inNamespace(deployment.getMetadata().getNamespace())
+                .withLabels(deployment.getSpec().getSelector().getMatchLabels())
+                .list().getItems().size();
+        for (int i = pods; i < replicas; i++) {
+            createPod(deployment);
+        }
+        client.apps().deployments()
+                .inNamespace(deployment.getMetadata().getNamespace())
+                .withName(deployment.getMetadata().getName())
+                .editStatus(d -> new DeploymentBuilder(d)
+                        .withNewStatus()
+                        .withReplicas(replicas)
+                        .withUpdatedReplicas(replicas)
+                        .withReadyReplicas(replicas)
+                        .withAvailableReplicas(replicas)
+                        .endStatus()
+                        .build());
+    }
+
+    public KubernetesClient client() {
+        return client;
+    }
+
+    public KubernetesMockServer server() {
+        return server;
+    }
+
+    public SshServer sshd() {
+        return sshd;
+    }
+
+    /**
+     * @return the extension configuration pointing to the stand-ins, with the
+     *         given additional properties (without the quarkus.k8s.devservices
+     *         prefix)
+     */
+    public K8sDevServicesBuildTimeConfig config(Map<String, String> properties) {
+        Map<String, String> props = new HashMap<>();
+        props.put("kube-context", KUBE_CONTEXT);
+        props.put("chart-path", workDir.resolve("dev").toString());
+        props.put("helm.cache-path", workDir.resolve("helm-cache").toString());
+        props.put("ssh-address", "127.0.0.1:" + sshd.getPort());
+        props.put("ssh-username", SSH_USERNAME);
+        props.put("ssh-password", SSH_PASSWORD);
+        props.put("timeline.log", "false");
+        props.putAll(properties);
+
+        Map<String, String> prefixed = new HashMap<>();
+        props.forEach((k, v) -> prefixed.put("quarkus.k8s.devservices." + k, v));
+        SmallRyeConfig config = new SmallRyeConfigBuilder()
+                .addDiscoveredConverters()
+                .withMapping(K8sDevServicesBuildTimeConfig.class)
+                .withSources(new PropertiesConfigSource(prefixed, "local-cluster", 500))
+                .build();
+        return config.getConfigMapping(K8sDevServicesBuildTimeConfig.class);
+    }
+
+    public K8sDevServicesBuildTimeConfig config() {
+        return config(Collections.emptyMap());
+    }
+
+    /**
+     * @return the build output of an application named {@code app} in
+     *         {@code target} of the work directory, with the given build system
+     *         properties
+     */
+    public BuildSystemTargetBuildItem buildTarget(Properties properties) throws IOException {
+        return new BuildSystemTargetBuildItem(Files.createDirectories(workDir.resolve("target")), "app", "app", false,
+                properties);
+    }
+
+    public BuildSystemTargetBuildItem buildTarget() throws IOException {
+        return buildTarget(new Properties());
+    }
+
+    @Override
+    public void close() throws IOException {
+        readiness.close();
+        client.close();
+        sshd.stop(true);
+        server.destroy();
+        System.clearProperty("kubeconfig");
+    }
+}
@@ -0,0 +1,150 @@
+package com.iseonline.shared.k8s.deployment;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iseonline.shared.k8s.deployment.helm.HelmCommands.HelmRelease;
+import com.iseonline.shared.k8s.deployment.helm.HelmDeployer;
+import com.iseonline.shared.k8s.deployment.helm.StubHelmCommands;
+import com.iseonline.shared.k8s.deployment.ssh.SshDeployer;
+import com.iseonline.shared.k8s.deployment.utils.K8sDevServicesUtils;
+import com.iseonline.shared.k8s.deployment.utils.KubeContextSelector;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.discovery.v1.EndpointSlice;
+import io.quarkus.deployment.pkg.builditem.BuildSystemTargetBuildItem;
+
+public class MultiUserTest {
+
+    private static final String SHARED_NAMESPACE = "dev-shared";
+
+    private static final int LOCAL_APP_PORT = 18080;
+
+    @TempDir
+    Path workDir;
+
+    private LocalCluster cluster;
+
+    private K8sDevServicesBuildTimeConfig config;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        cluster = new LocalCluster(workDir);
+        StubHelmCommands.reset();
+        config = cluster.config(Map.of(
+                "multi-user.enabled", "true",
+                "multi-user.user", "J.Doe",
+                "multi-user.shared-charts", "db",
+                "watchdog-interval", "200ms"));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        new SshDeployer().close();
+        new HelmDeployer().close();
+        StubHelmCommands.reset();
+        cluster.close();
+    }
+
+    @Test
+    public void namespacePerUser() {
+        assertThat(K8sDevServicesUtils.namespace(config)).isEqualTo("dev-services-j-doe");
+        assertThat(K8sDevServicesUtils.gatewayNamespace(config)).isEqualTo(SHARED_NAMESPACE);
+        assertThat(K8sDevServicesUtils.namespace(cluster.config())).isEqualTo("dev-services");
+    }
+
+    @Test
+    public void sharedChartsAreInstalledOnce() throws IOException {
+        chart("db");
+        chart("app");
+
+        startHelm();
+        assertThat(StubHelmCommands.upgradedReleases)
+                .containsExactlyInAnyOrder(SHARED_NAMESPACE + "/db", "dev-services-j-doe/app");
+
+        // Another developer finds the shared release deployed
+        new HelmDeployer().close();
+        StubHelmCommands.reset();
+        StubHelmCommands.releases = List.of(new HelmRelease("db", "1"));
+        startHelm();
+        assertThat(StubHelmCommands.upgradedReleases).containsExactly("dev-services-j-doe/app");
+    }
+
+    @Test
+    public void singleChartIsSharedByReleaseName() throws IOException {
+        config = cluster.config(Map.of(
+                "multi-user.enabled", "true",
+                "multi-user.user", "J.Doe",
+                "multi-user.shared-charts", KubeContextSelector.DEFAULT_RELEASE_NAME));
+        chart("dev");
+
+        startHelm();
+        assertThat(StubHelmCommands.upgradedReleases)
+                .containsExactly(SHARED_NAMESPACE + "/" + KubeContextSelector.DEFAULT_RELEASE_NAME);
+    }
+
+    @Test
+    public void reverseProxyViaSharedGateway() throws IOException {
+        Path chartDir = chart("dev");
+        Files.writeString(chartDir.resolve("values.yaml"), """
+                portforwarding:
+                  reverseProxy:
+                    - localPort: %d
+                      service:
+                        name: app
+                        port: 8080
+                """.formatted(LOCAL_APP_PORT));
+        new SshDeployer().clusterConnection(config);
+
+        String userNamespace = K8sDevServicesUtils.namespace(config);
+        assertThat(cluster.client().apps().deployments().inNamespace(SHARED_NAMESPACE)
+                .withName(SshDeployer.SSH_DEPLOYMENT_NAME).get()).isNotNull();
+        assertThat(cluster.client().apps().deployments().inNamespace(userNamespace)
+                .withName(SshDeployer.SSH_DEPLOYMENT_NAME).get()).isNull();
+
+        Service service = cluster.client().services().inNamespace(userNamespace).withName("app").get();
+        assertThat(service.getSpec().getSelector()).isNullOrEmpty();
+        int gatewayPort = service.getSpec().getPorts().get(0).getTargetPort().getIntVal();
+        assertThat(gatewayPort).isNotEqualTo(LOCAL_APP_PORT);
+
+        // The slice follows the gateway pod
+        Pod gateway = cluster.client().pods().inNamespace(SHARED_NAMESPACE)
+                .withLabel("app", SshDeployer.SSH_DEPLOYMENT_NAME).list().getItems().get(0);
+        cluster.client().pods().inNamespace(SHARED_NAMESPACE).resource(new PodBuilder(gateway)
+                .withNewStatus().withPodIP("10.1.2.3").endStatus().build()).updateStatus();
+        assertThat(K8sDevServicesUtils.waitTill(5000, () -> {
+            EndpointSlice slice = cluster.client().discovery().v1().endpointSlices().inNamespace(userNamespace)
+                    .withName("app-gateway").get();
+            return slice != null && !slice.getEndpoints().isEmpty()
+                    && slice.getEndpoints().get(0).getAddresses().contains("10.1.2.3")
+                    && slice.getPorts().get(0).getPort() == gatewayPort;
+        })).isTrue();
+    }
+
+    private Path chart(String name) throws IOException {
+        Path chartDir = Files.createDirectories(workDir.resolve("dev").resolve(name.equals("dev") ? "" : name));
+        Files.writeString(chartDir.resolve("Chart.yaml"), """
+                apiVersion: v2
+                name: %s
+                version: 0.0.1
+                """.formatted(name));
+        return chartDir;
+    }
+
+    private void startHelm() throws IOException {
+        BuildSystemTargetBuildItem bst = cluster.buildTarget();
+        new HelmDeployer().startServices(bst, config);
+    }
+}
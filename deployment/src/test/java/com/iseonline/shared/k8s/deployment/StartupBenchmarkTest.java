@@ -0,0 +1,191 @@
+package com.iseonline.shared.k8s.deployment;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import com.iseonline.shared.k8s.deployment.helm.HelmDeployer;
+import com.iseonline.shared.k8s.deployment.helm.StubHelmCommands;
+import com.iseonline.shared.k8s.deployment.ssh.SshDeployer;
+import com.iseonline.shared.k8s.deployment.utils.K8sDevServicesUtils;
+import com.iseonline.shared.k8s.deployment.utils.StartupPipeline;
+
+import io.quarkus.deployment.builditem.DevServicesResultBuildItem;
+import io.quarkus.deployment.pkg.builditem.BuildSystemTargetBuildItem;
+
+/**
+ * Measures the startup of {@link HelmDeployer} and {@link SshDeployer} against
+ * the {@link LocalCluster} stand-ins and a stubbed helm, and asserts wall time,
+ * kubernetes api requests and started threads against budgets. The budgets
+ * include the fixed 2 seconds the ssh deployment waits for the replicaset.
+ * Tagged as benchmark, so it only runs with {@code -Pbenchmark}.
+ */
+@Tag("benchmark")
+public class StartupBenchmarkTest {
+    private static final Logger log = Logger.getLogger(StartupBenchmarkTest.class);
+
+    @TempDir
+    Path workDir;
+
+    private LocalCluster cluster;
+
+    private ServerSocket echoServer;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        cluster = new LocalCluster(workDir);
+        StubHelmCommands.reset();
+        echoServer = startEchoServer();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        new SshDeployer().close();
+        new HelmDeployer().close();
+        echoServer.close();
+        cluster.close();
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "1, 8000, 20, 30",
+            "10, 10000, 20, 45",
+            "50, 15000, 20, 100" })
+    public void startup(int charts, long wallTimeBudget, int requestBudget, int threadBudget) throws IOException {
+        Path devDir = workDir.resolve("dev");
+        for (int i = 0; i < charts; i++) {
+            createChart(devDir.resolve("chart-" + i), "svc-" + i);
+        }
+        K8sDevServicesBuildTimeConfig config = cluster.config();
+        BuildSystemTargetBuildItem bst = cluster.buildTarget();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int requestsBefore = cluster.server().getRequestCount();
+        long threadsBefore = threads.getTotalStartedThreadCount();
+        long start = System.nanoTime();
+
+        new HelmDeployer().startServices(bst, config);
+        DevServicesResultBuildItem ssh = new SshDeployer().clusterConnection(config);
+
+        long wallTime = (System.nanoTime() - start) / 1_000_000;
+        int requests = cluster.server().getRequestCount() - requestsBefore;
+        long threadsStarted = threads.getTotalStartedThreadCount() - threadsBefore;
+        log.infof("Startup with %d charts: %d ms, %d api requests, %d threads started", charts, wallTime, requests,
+                threadsStarted);
+
+        assertThat(StubHelmCommands.upgrades).hasValue(charts);
+        assertThat(ssh.getConfig()).hasSize(2 * charts);
+        assertEcho(Integer.parseInt(ssh.getConfig().get("svc-" + (charts - 1) + ".port")));
+
+        assertThat(wallTime).as("wall time in ms").isLessThan(wallTimeBudget);
+        assertThat(requests).as("kubernetes api requests").isLessThan(requestBudget);
+        assertThat(threadsStarted).as("started threads").isLessThan(threadBudget);
+    }
+
+    @Test
+    public void tunnelsStartWhileHelmDeploys() throws Exception {
+        createChart(workDir.resolve("dev").resolve("chart-0"), "svc-0");
+        K8sDevServicesBuildTimeConfig config = cluster.config();
+        BuildSystemTargetBuildItem bst = cluster.buildTarget();
+        StubHelmCommands.upgradeDelay = 4000;
+
+        // Like the build steps, which only share the pipeline
+        StartupPipeline pipeline = new HelmDeployer().startupPipeline(config);
+        ExecutorService buildSteps = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> helm = buildSteps.submit(() -> new HelmDeployer().startServices(bst, config, pipeline));
+            Future<DevServicesResultBuildItem> ssh = buildSteps
+                    .submit(() -> new SshDeployer().clusterConnection(config, pipeline));
+
+            // The gateway is deployed while the release is still upgraded
+            assertThat(K8sDevServicesUtils.waitTill(3000, () -> cluster.client().apps().deployments()
+                    .inNamespace(config.namespace())
+                    .withName(SshDeployer.SSH_DEPLOYMENT_NAME)
+                    .get() != null)).isTrue();
+            assertThat(StubHelmCommands.upgrades).hasValue(0);
+            assertThat(ssh.isDone()).isFalse();
+
+            helm.get(30, TimeUnit.SECONDS);
+            Map<String, String> overrides = ssh.get(30, TimeUnit.SECONDS).getConfig();
+            assertThat(StubHelmCommands.upgrades).hasValue(1);
+            assertEcho(Integer.parseInt(overrides.get("svc-0.port")));
+        } finally {
+            buildSteps.shutdownNow();
+        }
+    }
+
+    private void createChart(Path chartDir, String name) throws IOException {
+        Files.createDirectories(chartDir);
+        Files.writeString(chartDir.resolve("Chart.yaml"), """
+                apiVersion: v2
+                name: %s
+                version: 0.0.1
+                """.formatted(name));
+        Files.writeString(chartDir.resolve("values.yaml"), """
+                portforwarding:
+                  services:
+                    - name: %s
+                      localPort: 0
+                      service:
+                        name: 127.0.0.1
+                        port: %d
+                """.formatted(name, echoServer.getLocalPort()));
+    }
+
+    private void assertEcho(int port) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            byte[] message = "ping".getBytes(StandardCharsets.UTF_8);
+            socket.getOutputStream().write(message);
+            assertThat(socket.getInputStream().readNBytes(message.length)).isEqualTo(message);
+        }
+    }
+
+    static ServerSocket startEchoServer() throws IOException {
+        ServerSocket server = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread echo = new Thread(() -> {
+                        try (socket; InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+                            in.transferTo(out);
+                        } catch (IOException e) {
+                            // connection closed
+                        }
+                    });
+                    echo.setDaemon(true);
+                    echo.start();
+                } catch (IOException e) {
+                    // server closed
+                }
+            }
+        }, "echo-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server;
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.iseonline.shared.k8s.deployment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * TCP proxy for fault injection between the extension and a stand-in. It can
+ * cut all connections, delay all traffic or partition the network, i.e. hold
+ * back all traffic (including new connections) until it is healed.
+ */
+public class TcpProxy implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+
+    private final int targetPort;
+
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+
+    private final Object connectivity = new Object();
+
+    private volatile boolean partitioned;
+
+    private volatile long delayMillis;
+
+    private record Chunk(long due, byte[] data) {
+        static final Chunk EOF = new Chunk(0, new byte[0]);
+    }
+
+    public TcpProxy(int targetPort) throws IOException {
+        this.targetPort = targetPort;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "tcp-proxy");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Closes all open connections, new connections are accepted.
+     */
+    public void cut() {
+        sockets.forEach(TcpProxy::closeQuietly);
+        sockets.clear();
+    }
+
+    /**
+     * Delays every chunk of data in each direction by the given time.
+     */
+    public void delay(long millis) {
+        delayMillis = millis;
+    }
+
+    /**
+     * Holds back all traffic till {@link #heal()}. Connections are still
+     * accepted, but nothing is transferred, like with dropped packets.
+     */
+    public void partition() {
+        partitioned = true;
+    }
+
+    public void heal() {
+        synchronized (connectivity) {
+            partitioned = false;
+            connectivity.notifyAll();
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                Socket target;
+                try {
+                    target = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+                } catch (IOException e) {
+                    closeQuietly(client);
+                    continue;
+                }
+                sockets.add(client);
+                sockets.add(target);
+                pump(client, target);
+                pump(target, client);
+            } catch (IOException e) {
+                // proxy closed
+            }
+        }
+    }
+
+    /**
+     * Reads from one socket and writes to the other in a separate thread, so the
+     * delay adds latency to every chunk without limiting the throughput.
+     */
+    private void pump(Socket from, Socket to) throws IOException {
+        InputStream in = from.getInputStream();
+        OutputStream out = to.getOutputStream();
+        BlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> {
+            byte[] buffer = new byte[16 * 1024];
+            try {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    chunks.add(new Chunk(System.currentTimeMillis() + delayMillis, Arrays.copyOf(buffer, read)));
+                }
+            } catch (IOException e) {
+                // connection cut
+            } finally {
+                chunks.add(Chunk.EOF);
+            }
+        }, "tcp-proxy-reader");
+        Thread writer = new Thread(() -> {
+            try {
+                Chunk chunk;
+                while ((chunk = chunks.take()) != Chunk.EOF) {
+                    awaitConnectivity(chunk.due());
+                    out.write(chunk.data());
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // connection cut
+            } finally {
+                closeQuietly(from);
+                closeQuietly(to);
+                sockets.remove(from);
+                sockets.remove(to);
+            }
+        }, "tcp-proxy-writer");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    private void awaitConnectivity(long due) throws InterruptedException {
+        synchronized (connectivity) {
+            while (partitioned) {
+                connectivity.wait();
+            }
+        }
+        long wait = due - System.currentTimeMillis();
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // can be ignored
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        heal();
+        cut();
+    }
+}
@@ -0,0 +1,218 @@
+package com.iseonline.shared.k8s.deployment;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import com.iseonline.shared.k8s.deployment.ssh.SshDeployer;
+
+import io.quarkus.deployment.builditem.DevServicesResultBuildItem;
+
+/**
+ * Injects faults into the tunnel of {@link SshDeployer} and measures for every
+ * port forwarding the time till it works again. The ssh connection runs through
+ * a {@link TcpProxy} to the {@link LocalCluster} stand-ins, the watchdog
+ * interval is 1s. Every fault is injected several times and the percentiles of
+ * the recovery times are asserted against budgets. Tagged as benchmark, so it
+ * only runs with {@code -Pbenchmark}.
+ */
+@Tag("benchmark")
+public class TunnelChaosTest {
+    private static final Logger log = Logger.getLogger(TunnelChaosTest.class);
+
+    private static final int FORWARDINGS = 3;
+
+    private static final int ITERATIONS = 5;
+
+    private static final long PARTITION_MILLIS = 5000;
+
+    private static final long DELAY_MILLIS = 300;
+
+    private static final long RECOVERY_TIMEOUT = 60000;
+
+    enum Fault {
+        /**
+         * The ssh server is killed and started again.
+         */
+        KILL_SSH_SERVER,
+        /**
+         * The connection to the ssh server is dropped, like a broken port-forward
+         * of the kubernetes api.
+         */
+        DROP_PORT_FORWARD,
+        /**
+         * The gateway pod is deleted and replaced with a new one.
+         */
+        DELETE_GATEWAY_POD,
+        /**
+         * No traffic at all for some seconds, like a laptop sleep or vpn
+         * reconnect. The recovery is measured from the end of the partition.
+         */
+        PARTITION,
+        /**
+         * Every chunk of data is delayed, the tunnel must not be torn down.
+         */
+        SLOW_NETWORK
+    }
+
+    @TempDir
+    Path workDir;
+
+    private LocalCluster cluster;
+
+    private TcpProxy proxy;
+
+    private ServerSocket echoServer;
+
+    private final ExecutorService pollers = Executors.newFixedThreadPool(FORWARDINGS);
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        cluster = new LocalCluster(workDir);
+        proxy = new TcpProxy(cluster.sshd().getPort());
+        echoServer = StartupBenchmarkTest.startEchoServer();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        new SshDeployer().close();
+        pollers.shutdownNow();
+        echoServer.close();
+        proxy.close();
+        cluster.close();
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "KILL_SSH_SERVER, 2000, 3500",
+            "DROP_PORT_FORWARD, 2000, 3500",
+            "DELETE_GATEWAY_POD, 2000, 3500",
+            "PARTITION, 2000, 3500",
+            "SLOW_NETWORK, 2000, 3000" })
+    public void recovery(Fault fault, long p50Budget, long p95Budget) throws Exception {
+        createChart(workDir.resolve("dev"));
+        K8sDevServicesBuildTimeConfig config = cluster.config(Map.of(
+                "ssh-address", "127.0.0.1:" + proxy.getPort(),
+                "watchdog-interval", "1s"));
+        DevServicesResultBuildItem ssh = new SshDeployer().clusterConnection(config);
+        List<Integer> ports = IntStream.range(0, FORWARDINGS)
+                .mapToObj(i -> Integer.parseInt(ssh.getConfig().get("svc-" + i + ".port")))
+                .toList();
+
+        List<Long> recoveries = new ArrayList<>();
+        for (int i = 0; i < ITERATIONS; i++) {
+            awaitRecovery(ports, System.nanoTime());
+
+            long start = inject(fault, config);
+            List<Long> times = awaitRecovery(ports, start);
+            proxy.delay(0);
+            log.infof("%s %d: recovered after %s ms", fault, i + 1, times);
+            recoveries.addAll(times);
+        }
+
+        Collections.sort(recoveries);
+        long p50 = percentile(recoveries, 0.5);
+        long p95 = percentile(recoveries, 0.95);
+        log.infof("%s: p50 %d ms, p95 %d ms, max %d ms", fault, p50, p95, recoveries.get(recoveries.size() - 1));
+        assertThat(p50).as("p50 of time to recovery in ms").isLessThan(p50Budget);
+        assertThat(p95).as("p95 of time to recovery in ms").isLessThan(p95Budget);
+    }
+
+    /**
+     * @return the time from which the recovery is measured
+     */
+    private long inject(Fault fault, K8sDevServicesBuildTimeConfig config) throws Exception {
+        switch (fault) {
+            case KILL_SSH_SERVER -> cluster.restartSshd();
+            case DROP_PORT_FORWARD -> proxy.cut();
+            case DELETE_GATEWAY_POD -> cluster.replaceGatewayPod(config.namespace(), SshDeployer.SSH_DEPLOYMENT_NAME);
+            case PARTITION -> {
+                proxy.partition();
+                Thread.sleep(PARTITION_MILLIS);
+                proxy.heal();
+            }
+            case SLOW_NETWORK -> proxy.delay(DELAY_MILLIS);
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Polls all forwardings in parallel till each of them echoes again.
+     *
+     * @return the time to recovery of every forwarding in ms
+     */
+    private List<Long> awaitRecovery(List<Integer> ports, long start) {
+        List<CompletableFuture<Long>> recoveries = ports.stream()
+                .map(port -> CompletableFuture.supplyAsync(() -> {
+                    while (!echoes(port)) {
+                        assertThat(System.nanoTime() - start).as("time to recovery")
+                                .isLessThan(RECOVERY_TIMEOUT * 1_000_000);
+                        try {
+                            Thread.sleep(50);
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                    return (System.nanoTime() - start) / 1_000_000;
+                }, pollers))
+                .toList();
+        return recoveries.stream().map(CompletableFuture::join).toList();
+    }
+
+    private boolean echoes(int port) {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(2000);
+            byte[] message = "ping".getBytes(StandardCharsets.UTF_8);
+            socket.getOutputStream().write(message);
+            return Arrays.equals(socket.getInputStream().readNBytes(message.length), message);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static long percentile(List<Long> sorted, double percentile) {
+        return sorted.get((int) Math.ceil(percentile * sorted.size()) - 1);
+    }
+
+    private void createChart(Path chartDir) throws IOException {
+        Files.createDirectories(chartDir);
+        Files.writeString(chartDir.resolve("Chart.yaml"), """
+                apiVersion: v2
+                name: chaos
+                version: 0.0.1
+                """);
+        StringBuilder values = new StringBuilder("portforwarding:\n  services:\n");
+        for (int i = 0; i < FORWARDINGS; i++) {
+            values.append("""
+                        - name: svc-%d
+                          localPort: 0
+                          service:
+                            name: 127.0.0.1
+                            port: %d
+                    """.formatted(i, echoServer.getLocalPort()));
+        }
+        Files.writeString(chartDir.resolve("values.yaml"), values);
+    }
+}
@@ -0,0 +1,106 @@
+package com.iseonline.shared.k8s.deployment.helm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.LocalCluster;
+import com.iseonline.shared.k8s.deployment.helm.HelmCommands.HelmRelease;
+import com.iseonline.shared.k8s.deployment.utils.K8sDevServicesUtils;
+
+import io.fabric8.kubernetes.api.model.batch.v1.Job;
+import io.quarkus.deployment.pkg.builditem.BuildSystemTargetBuildItem;
+
+public class HelmShutdownTest {
+
+    private static final List<HelmRelease> RELEASES = List.of(
+            new HelmRelease("db", "1"), new HelmRelease("queue", "1"), new HelmRelease("cache", "1"));
+
+    @TempDir
+    Path workDir;
+
+    private LocalCluster cluster;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        cluster = new LocalCluster(workDir);
+        StubHelmCommands.reset();
+        StubHelmCommands.releases = RELEASES;
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        new HelmDeployer().close();
+        // Uninstalls left in the background must not outlive the cluster
+        K8sDevServicesUtils.waitTill(10000,
+                () -> StubHelmCommands.finishedUninstalls.get() == StubHelmCommands.uninstalls.get());
+        StubHelmCommands.reset();
+        cluster.close();
+    }
+
+    @Test
+    public void uninstallIsBoundedByTimeout() throws IOException {
+        start(cluster.config(Map.of("shutdown", "true", "shutdown.timeout", "1s")));
+        StubHelmCommands.uninstallDelay = 3000;
+
+        long start = System.nanoTime();
+        new HelmDeployer().close();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(millis).isBetween(900L, 3000L);
+        // All releases are uninstalled at the same time
+        assertThat(StubHelmCommands.uninstalls).hasValue(RELEASES.size());
+    }
+
+    @Test
+    public void restartWaitsForPendingUninstall() throws IOException {
+        K8sDevServicesBuildTimeConfig config = cluster.config(Map.of("shutdown", "true", "shutdown.timeout", "1s"));
+        start(config);
+        StubHelmCommands.uninstallDelay = 2500;
+
+        new HelmDeployer().close();
+        assertThat(StubHelmCommands.finishedUninstalls).hasValue(0);
+
+        start(config);
+        // The uninstall did not run concurrently with the new start
+        assertThat(StubHelmCommands.finishedUninstalls).hasValue(RELEASES.size());
+        assertThat(workDir.resolve("target").resolve("kubeconfig.yaml")).doesNotExist();
+        StubHelmCommands.uninstallDelay = 0;
+    }
+
+    @Test
+    public void detachedUninstallCreatesJob() throws IOException {
+        K8sDevServicesBuildTimeConfig config = cluster.config(Map.of("shutdown", "true", "shutdown.detach", "true"));
+        start(config);
+
+        new HelmDeployer().close();
+
+        assertThat(StubHelmCommands.uninstalls).hasValue(0);
+        List<Job> jobs = cluster.client().batch().v1().jobs()
+                .inNamespace(config.namespace())
+                .withLabel("app", DetachedUninstall.NAME)
+                .list()
+                .getItems();
+        assertThat(jobs).hasSize(1);
+        assertThat(jobs.get(0).getSpec().getTemplate().getSpec().getContainers().get(0).getArgs())
+                .startsWith("uninstall", "db", "queue", "cache");
+        assertThat(cluster.client().rbac().roleBindings()
+                .inNamespace(config.namespace())
+                .withName(DetachedUninstall.NAME)
+                .get()).isNotNull();
+    }
+
+    private void start(K8sDevServicesBuildTimeConfig config) throws IOException {
+        BuildSystemTargetBuildItem bst = cluster.buildTarget();
+        new HelmDeployer().startServices(bst, config);
+    }
+}
@@ -0,0 +1,48 @@
+package com.iseonline.shared.k8s.deployment.helm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iseonline.shared.k8s.deployment.utils.K8sDevServicesUtils;
+
+public class RegistryLoginCacheTest {
+
+    @TempDir
+    Path workDir;
+
+    @Test
+    public void remembersLoginWhileHelmHasCredentials() throws IOException {
+        Path registryConfig = workDir.resolve("config.json");
+        Files.writeString(registryConfig, """
+                {"auths": {"registry.example.org": {"auth": "dXNlcjp0b2tlbg=="}}}
+                """);
+        RegistryLoginCache cache = new RegistryLoginCache(workDir, registryConfig, Duration.ofHours(1));
+        cache.loggedIn("registry.example.org", "user", "token");
+        cache.save();
+
+        RegistryLoginCache reloaded = new RegistryLoginCache(workDir, registryConfig, Duration.ofHours(1));
+        assertThat(reloaded.isValid("registry.example.org", "user", "token")).isTrue();
+        assertThat(reloaded.isValid("registry.example.org", "user", "changed")).isFalse();
+
+        // Neither the credentials nor their plain hash are stored
+        String stored = Files.readString(workDir.resolve("registry-logins.properties"));
+        assertThat(stored).doesNotContain("token")
+                .doesNotContain(K8sDevServicesUtils.sha256("user:token"));
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(
+                workDir.resolve("registry-logins.key")))).isEqualTo("rw-------");
+
+        // helm registry logout
+        Files.writeString(registryConfig, """
+                {"auths": {}}
+                """);
+        assertThat(reloaded.isValid("registry.example.org", "user", "token")).isFalse();
+    }
+}
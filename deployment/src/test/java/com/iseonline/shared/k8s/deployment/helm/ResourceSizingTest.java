@@ -0,0 +1,188 @@
+package com.iseonline.shared.k8s.deployment.helm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.LocalCluster;
+
+import io.fabric8.kubernetes.api.model.GenericKubernetesResource;
+import io.fabric8.kubernetes.api.model.GenericKubernetesResourceBuilder;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.client.dsl.base.ResourceDefinitionContext;
+import io.quarkus.deployment.pkg.builditem.BuildSystemTargetBuildItem;
+
+/**
+ * The metrics api is stood in by pod metrics stored in the mock server.
+ */
+public class ResourceSizingTest {
+
+    private static final ResourceDefinitionContext POD_METRICS = new ResourceDefinitionContext.Builder()
+            .withGroup("metrics.k8s.io")
+            .withVersion("v1beta1")
+            .withKind("PodMetrics")
+            .withPlural("pods")
+            .withNamespaced(true)
+            .build();
+
+    @TempDir
+    Path workDir;
+
+    private LocalCluster cluster;
+
+    private Path chartDir;
+
+    private Path sizingDir;
+
+    private Path valuesFile;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        cluster = new LocalCluster(workDir);
+        StubHelmCommands.reset();
+        chartDir = Files.createDirectories(workDir.resolve("dev"));
+        sizingDir = ResourceSizing.directory(workDir.resolve("target"));
+        valuesFile = ResourceSizing.valuesFile(sizingDir, "quarkus-dev-k8s");
+        Files.writeString(chartDir.resolve("Chart.yaml"), """
+                apiVersion: v2
+                name: app
+                version: 0.0.1
+                dependencies:
+                  - name: postgresql
+                    version: 16.0.0
+                  - name: keycloak
+                    alias: auth
+                    version: 24.0.0
+                """);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        new HelmDeployer().close();
+        cluster.close();
+    }
+
+    @Test
+    public void writesPeaksOfLastSessionsWithHeadroom() throws IOException {
+        K8sDevServicesBuildTimeConfig config = cluster.config(Map.of("sizing.sessions", "2"));
+        metrics("postgresql-0", "postgresql", "primary", "100m", "200Mi");
+        metrics("auth-0", "keycloak", "keycloak", "500m", "600Mi");
+        metrics("other-0", "other", null, "1", "1Gi");
+
+        sizing(config, 1).sample();
+        metrics("postgresql-0", "postgresql", "primary", "50m", "300Mi");
+        // A restart of the dev services continues the session of the JVM
+        sizing(config, 1).sample();
+
+        assertThat(valuesFile).exists();
+        assertThat(chartDir.resolve(ResourceSizing.VALUES_FILE)).doesNotExist();
+        assertThat(Files.readString(valuesFile)).contains("""
+                auth:
+                  resources:
+                    requests:
+                      cpu: "650m"
+                      memory: "780Mi"
+                postgresql:
+                  primary:
+                    resources:
+                      requests:
+                        cpu: "130m"
+                        memory: "390Mi"
+                """).doesNotContain("other");
+
+        // The peak of the first session is kept for two sessions
+        metrics("postgresql-0", "postgresql", "primary", "10m", "10Mi");
+        sizing(config, 2).sample();
+        assertThat(Files.readString(valuesFile)).contains("cpu: \"130m\"");
+        sizing(config, 3).sample();
+        assertThat(Files.readString(valuesFile)).contains("cpu: \"13m\"", "memory: \"32Mi\"");
+    }
+
+    @Test
+    public void capsRequestsAtLimitsOfContainer() throws IOException {
+        K8sDevServicesBuildTimeConfig config = cluster.config();
+        cluster.client().pods().inNamespace(config.namespace()).resource(new PodBuilder()
+                .withNewMetadata()
+                .withName("postgresql-0")
+                .endMetadata()
+                .withNewSpec()
+                .addNewContainer()
+                .withName("postgresql")
+                .withNewResources()
+                .addToLimits("cpu", new Quantity("200m"))
+                .addToLimits("memory", new Quantity("256Mi"))
+                .endResources()
+                .endContainer()
+                .endSpec()
+                .build()).create();
+        metrics("postgresql-0", "postgresql", "primary", "190m", "100Mi");
+
+        sizing(config, 1).sample();
+        assertThat(Files.readString(valuesFile)).contains("""
+                      requests:
+                        cpu: "200m"
+                        memory: "130Mi"
+                """);
+
+        // The limits are kept for the next session, even if the pod is gone
+        cluster.client().pods().inNamespace(config.namespace()).withName("postgresql-0").delete();
+        metrics("postgresql-0", "postgresql", "primary", "50m", "250Mi");
+        sizing(config, 2).sample();
+        assertThat(Files.readString(valuesFile)).contains("""
+                      requests:
+                        cpu: "200m"
+                        memory: "256Mi"
+                """);
+    }
+
+    @Test
+    public void upgradeAppliesOverlayBeforeProfileValues() throws IOException {
+        Files.createDirectories(valuesFile.getParent());
+        Files.writeString(valuesFile, "resources: {}\n");
+        Files.writeString(chartDir.resolve("values-dev.yaml"), "replicas: 1\n");
+        Properties properties = new Properties();
+        properties.setProperty("quarkus.profile", "dev");
+        BuildSystemTargetBuildItem bst = cluster.buildTarget(properties);
+
+        new HelmDeployer().startServices(bst, cluster.config(Map.of("sizing.enabled", "true")));
+
+        assertThat(StubHelmCommands.valuesFiles).containsExactly(valuesFile, chartDir.resolve("values-dev.yaml"));
+    }
+
+    private ResourceSizing sizing(K8sDevServicesBuildTimeConfig config, long session) {
+        return new ResourceSizing(config, cluster.client(), config.namespace(),
+                ResourceSizing.releases(chartDir), sizingDir, session);
+    }
+
+    private void metrics(String pod, String chart, String component, String cpu, String memory) {
+        GenericKubernetesResource metrics = new GenericKubernetesResourceBuilder()
+                .withApiVersion("metrics.k8s.io/v1beta1")
+                .withKind("PodMetrics")
+                .withNewMetadata()
+                .withName(pod)
+                .addToLabels("app.kubernetes.io/instance", "quarkus-dev-k8s")
+                .addToLabels("app.kubernetes.io/name", chart)
+                .endMetadata()
+                .addToAdditionalProperties("containers", List.of(
+                        Map.of("name", "metrics", "usage", Map.of("cpu", "5m", "memory", "5Mi")),
+                        Map.of("name", chart, "usage", Map.of("cpu", cpu, "memory", memory))))
+                .build();
+        if (component != null) {
+            metrics.getMetadata().getLabels().put("app.kubernetes.io/component", component);
+        }
+        cluster.client().genericKubernetesResources(POD_METRICS).inNamespace(cluster.config().namespace())
+                .resource(metrics).createOr(r -> r.update());
+    }
+}
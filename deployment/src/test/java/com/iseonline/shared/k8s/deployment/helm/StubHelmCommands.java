@@ -0,0 +1,113 @@
+package com.iseonline.shared.k8s.deployment.helm;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replaces the native helm calls in tests, registered via
+ * META-INF/services. Releases are not deployed, only the calls are counted.
+ */
+public class StubHelmCommands implements HelmCommands {
+
+    public static final AtomicInteger upgrades = new AtomicInteger();
+
+    /**
+     * The upgraded releases as {@code <namespace>/<release>}.
+     */
+    public static final Queue<String> upgradedReleases = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The values files of the last upgrade.
+     */
+    public static volatile List<Path> valuesFiles = Collections.emptyList();
+
+    public static final AtomicInteger dependencyUpdates = new AtomicInteger();
+
+    public static final AtomicInteger logins = new AtomicInteger();
+
+    public static final AtomicInteger uninstalls = new AtomicInteger();
+
+    /**
+     * Uninstalls which returned, after their delay.
+     */
+    public static final AtomicInteger finishedUninstalls = new AtomicInteger();
+
+    public static final AtomicInteger warmUps = new AtomicInteger();
+
+    /**
+     * The releases returned by list.
+     */
+    public static volatile List<HelmRelease> releases = Collections.emptyList();
+
+    /**
+     * How long an uninstall blocks, in milliseconds.
+     */
+    public static volatile long uninstallDelay;
+
+    /**
+     * How long an upgrade blocks, in milliseconds. It is counted afterwards.
+     */
+    public static volatile long upgradeDelay;
+
+    public static void reset() {
+        upgrades.set(0);
+        upgradedReleases.clear();
+        valuesFiles = Collections.emptyList();
+        dependencyUpdates.set(0);
+        logins.set(0);
+        uninstalls.set(0);
+        finishedUninstalls.set(0);
+        warmUps.set(0);
+        releases = Collections.emptyList();
+        uninstallDelay = 0;
+        upgradeDelay = 0;
+    }
+
+    @Override
+    public void warmUp() {
+        warmUps.incrementAndGet();
+    }
+
+    @Override
+    public List<HelmRelease> list(Path kubeConfig, String namespace, boolean all) {
+        return releases;
+    }
+
+    @Override
+    public void uninstall(Path kubeConfig, String namespace, String releaseName) {
+        uninstalls.incrementAndGet();
+        try {
+            Thread.sleep(uninstallDelay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finishedUninstalls.incrementAndGet();
+    }
+
+    @Override
+    public void registryLogin(String host, String username, String password) {
+        logins.incrementAndGet();
+    }
+
+    @Override
+    public void dependencyUpdate(Path chartDir) {
+        dependencyUpdates.incrementAndGet();
+    }
+
+    @Override
+    public void upgrade(Path chartDir, Path kubeConfig, String namespace, String releaseName,
+            List<Path> valuesFiles) {
+        try {
+            Thread.sleep(upgradeDelay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        upgrades.incrementAndGet();
+        upgradedReleases.add(namespace + "/" + releaseName);
+        StubHelmCommands.valuesFiles = valuesFiles;
+    }
+}
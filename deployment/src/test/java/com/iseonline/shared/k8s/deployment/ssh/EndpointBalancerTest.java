@@ -0,0 +1,182 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.LocalCluster;
+import com.iseonline.shared.k8s.deployment.ssh.EndpointBalancer.Target;
+import com.iseonline.shared.k8s.deployment.ssh.PortsConfiguration.LoadBalancing;
+import com.iseonline.shared.k8s.deployment.utils.K8sDevServicesUtils;
+
+import io.fabric8.kubernetes.api.model.ServiceBuilder;
+import io.fabric8.kubernetes.api.model.discovery.v1.EndpointSlice;
+import io.fabric8.kubernetes.api.model.discovery.v1.EndpointSliceBuilder;
+import io.quarkus.deployment.builditem.DevServicesResultBuildItem;
+
+/**
+ * Runs a service with three pods, each is a local server answering with its
+ * index and registered in its own EndpointSlice.
+ */
+public class EndpointBalancerTest {
+
+    private static final String SERVICE = "stub";
+
+    private static final int PODS = 3;
+
+    @TempDir
+    Path workDir;
+
+    private LocalCluster cluster;
+
+    private K8sDevServicesBuildTimeConfig config;
+
+    private final List<ServerSocket> pods = new ArrayList<>();
+
+    private EndpointBalancer balancer;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        cluster = new LocalCluster(workDir);
+        config = cluster.config();
+        cluster.client().services().inNamespace(config.namespace()).resource(new ServiceBuilder()
+                .withNewMetadata().withName(SERVICE).withNamespace(config.namespace()).endMetadata()
+                .withNewSpec().addNewPort().withName("http").withPort(80).endPort().endSpec()
+                .build()).create();
+        for (int i = 0; i < PODS; i++) {
+            pods.add(startPod(i));
+            cluster.client().discovery().v1().endpointSlices().inNamespace(config.namespace())
+                    .resource(slice(i, true)).create();
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (balancer != null) {
+            balancer.close();
+        }
+        new SshDeployer().close();
+        for (ServerSocket pod : pods) {
+            pod.close();
+        }
+        cluster.close();
+    }
+
+    @Test
+    public void leastConnections() {
+        balancer = new EndpointBalancer(cluster.client(), config.namespace(), SERVICE, 80,
+                LoadBalancing.LEAST_CONNECTIONS);
+        assertThat(balancer.start()).isTrue();
+
+        List<Target> acquired = new ArrayList<>();
+        for (int i = 0; i < PODS; i++) {
+            acquired.add(balancer.acquire());
+        }
+        assertThat(acquired).doesNotHaveDuplicates();
+        balancer.release(acquired.get(1));
+        assertThat(balancer.acquire()).isEqualTo(acquired.get(1));
+    }
+
+    @Test
+    public void followsReadiness() {
+        balancer = new EndpointBalancer(cluster.client(), config.namespace(), SERVICE, 80,
+                LoadBalancing.ROUND_ROBIN);
+        assertThat(balancer.start()).isTrue();
+        assertThat(balancer.getTargets()).hasSize(PODS);
+
+        cluster.client().discovery().v1().endpointSlices().inNamespace(config.namespace())
+                .resource(slice(0, false)).update();
+        assertThat(K8sDevServicesUtils.waitTill(5000, () -> balancer.getTargets().size() == PODS - 1)).isTrue();
+        assertThat(balancer.getTargets()).doesNotContain(new Target("127.0.0.1", pods.get(0).getLocalPort()));
+
+        cluster.client().discovery().v1().endpointSlices().inNamespace(config.namespace())
+                .withName(SERVICE + "-1").delete();
+        assertThat(K8sDevServicesUtils.waitTill(5000, () -> balancer.getTargets().size() == PODS - 2)).isTrue();
+    }
+
+    @Test
+    public void unknownServiceIsNotBalanced() {
+        balancer = new EndpointBalancer(cluster.client(), config.namespace(), "unknown", 80,
+                LoadBalancing.ROUND_ROBIN);
+        assertThat(balancer.start()).isFalse();
+    }
+
+    @Test
+    public void roundRobinThroughForwarding() throws IOException {
+        Path chartDir = Files.createDirectories(workDir.resolve("dev"));
+        Files.writeString(chartDir.resolve("Chart.yaml"), """
+                apiVersion: v2
+                name: stub
+                version: 0.0.1
+                """);
+        Files.writeString(chartDir.resolve("values.yaml"), """
+                portforwarding:
+                  services:
+                    - name: stub
+                      localPort: 0
+                      service:
+                        name: %s
+                        port: 80
+                        loadBalancing: round-robin
+                """.formatted(SERVICE));
+        DevServicesResultBuildItem ssh = new SshDeployer().clusterConnection(config);
+        int port = Integer.parseInt(ssh.getConfig().get("stub.port"));
+
+        Map<Integer, Integer> hits = new HashMap<>();
+        for (int i = 0; i < 2 * PODS; i++) {
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                hits.merge(socket.getInputStream().read(), 1, Integer::sum);
+            }
+        }
+        assertThat(hits).isEqualTo(Map.of(0, 2, 1, 2, 2, 2));
+    }
+
+    private EndpointSlice slice(int index, boolean ready) {
+        return new EndpointSliceBuilder()
+                .withNewMetadata()
+                .withName(SERVICE + "-" + index)
+                .withNamespace(config.namespace())
+                .addToLabels("kubernetes.io/service-name", SERVICE)
+                .endMetadata()
+                .withAddressType("IPv4")
+                .addNewPort().withName("http").withPort(pods.get(index).getLocalPort()).endPort()
+                .addNewEndpoint()
+                .withAddresses("127.0.0.1")
+                .withNewConditions().withReady(ready).endConditions()
+                .endEndpoint()
+                .build();
+    }
+
+    private static ServerSocket startPod(int index) throws IOException {
+        ServerSocket server = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try (Socket socket = server.accept(); OutputStream out = socket.getOutputStream()) {
+                    out.write(index);
+                    out.flush();
+                    socket.getInputStream().read();
+                } catch (IOException e) {
+                    // server closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server;
+    }
+}
@@ -0,0 +1,148 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.LocalCluster;
+import com.iseonline.shared.k8s.deployment.utils.K8sDevServicesUtils;
+
+import io.fabric8.kubernetes.api.model.Pod;
+
+public class GatewayStandbyTest {
+
+    private static final String ROLE_LABEL = "com.iseonline.quarkus.k8s/gateway-role";
+
+    @TempDir
+    Path workDir;
+
+    private ServerSocket echoServer;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        echoServer = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!echoServer.isClosed()) {
+                try {
+                    Socket socket = echoServer.accept();
+                    Thread echo = new Thread(() -> {
+                        try (socket; InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+                            in.transferTo(out);
+                        } catch (IOException e) {
+                            // connection closed
+                        }
+                    });
+                    echo.setDaemon(true);
+                    echo.start();
+                } catch (IOException e) {
+                    // server closed
+                }
+            }
+        }, "echo-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        echoServer.close();
+    }
+
+    @Test
+    public void switchesToStandbyWhenActiveGatewayIsLost() throws IOException {
+        int httpPort;
+        try (ServerSocket free = new ServerSocket(0)) {
+            httpPort = free.getLocalPort();
+        }
+        Path chartDir = Files.createDirectories(workDir.resolve("dev"));
+        Files.writeString(chartDir.resolve("Chart.yaml"), """
+                apiVersion: v2
+                name: app
+                version: 0.0.1
+                """);
+        Files.writeString(chartDir.resolve("values.yaml"), """
+                portforwarding:
+                  services:
+                    - name: echo
+                      localPort: 0
+                      service:
+                        name: 127.0.0.1
+                        port: %d
+                  reverseProxy:
+                    - localPort: %d
+                      service:
+                        name: frontend
+                        port: 80
+                        http: true
+                """.formatted(echoServer.getLocalPort(), echoServer.getLocalPort()));
+
+        try (LocalCluster cluster = new LocalCluster(workDir)) {
+            K8sDevServicesBuildTimeConfig config = cluster.config(Map.of(
+                    "gateway.standby", "true",
+                    "reverse-proxy.http-port", "" + httpPort,
+                    "watchdog-interval", "200ms"));
+            String namespace = K8sDevServicesUtils.gatewayNamespace(config);
+            Map<String, String> overrides = new SshDeployer().clusterConnection(config).getConfig();
+            try {
+                assertThat(cluster.client().apps().deployments().inNamespace(namespace)
+                        .withName(SshDeployer.SSH_DEPLOYMENT_NAME).get().getSpec().getReplicas()).isEqualTo(2);
+                assertThat(gatewayPods(cluster, namespace)).hasSize(2);
+                assertThat(activePods(cluster, namespace)).hasSize(1);
+                assertThat(K8sDevServicesUtils.waitTill(5000,
+                        () -> cluster.sshd().getActiveSessions().size() == 2)).isTrue();
+                assertThat(cluster.client().services().inNamespace(config.namespace()).withName("frontend").get()
+                        .getSpec().getSelector()).containsEntry(ROLE_LABEL, "active");
+                int port = Integer.parseInt(overrides.get("echo.port"));
+                assertThat(echo(port, "before")).isEqualTo("before");
+
+                // Deleted, e.g. by a node drain
+                String lost = activePods(cluster, namespace).get(0).getMetadata().getName();
+                cluster.client().pods().inNamespace(namespace).withName(lost).delete();
+                assertThat(K8sDevServicesUtils.waitTill(3000, () -> activePods(cluster, namespace).size() == 1
+                        && !activePods(cluster, namespace).get(0).getMetadata().getName().equals(lost))).isTrue();
+                assertThat(echo(port, "after")).isEqualTo("after");
+                assertThat(K8sDevServicesUtils.waitTill(5000,
+                        () -> cluster.sshd().getActiveSessions().size() == 1)).isTrue();
+
+                // The replacement of the lost pod becomes the next standby
+                cluster.addGatewayPod(namespace, SshDeployer.SSH_DEPLOYMENT_NAME);
+                assertThat(K8sDevServicesUtils.waitTill(5000,
+                        () -> cluster.sshd().getActiveSessions().size() == 2)).isTrue();
+                assertThat(activePods(cluster, namespace)).hasSize(1);
+            } finally {
+                new SshDeployer().close();
+            }
+        }
+    }
+
+    private static List<Pod> gatewayPods(LocalCluster cluster, String namespace) {
+        return cluster.client().pods().inNamespace(namespace).withLabel("app", SshDeployer.SSH_DEPLOYMENT_NAME)
+                .list().getItems();
+    }
+
+    private static List<Pod> activePods(LocalCluster cluster, String namespace) {
+        return cluster.client().pods().inNamespace(namespace).withLabel(ROLE_LABEL, "active").list().getItems();
+    }
+
+    private static String echo(int port, String message) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.getOutputStream().write(message.getBytes(StandardCharsets.UTF_8));
+            return new String(socket.getInputStream().readNBytes(message.length()), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.LocalCluster;
+import com.iseonline.shared.k8s.deployment.ssh.HttpRouter.Head;
+import com.iseonline.shared.k8s.deployment.ssh.HttpRouter.Route;
+import com.sun.net.httpserver.HttpServer;
+
+import io.fabric8.kubernetes.api.model.Service;
+
+public class HttpRouterTest {
+
+    @TempDir
+    Path workDir;
+
+    private HttpServer frontend;
+
+    private HttpServer api;
+
+    /**
+     * The client ports of the connections, which reached the local servers.
+     */
+    private final Set<Integer> connections = ConcurrentHashMap.newKeySet();
+
+    private HttpRouter router;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        frontend = startServer("frontend");
+        api = startServer("api");
+        router = new HttpRouter(new TunnelStats(TunnelStats.KIND_REVERSE_PROXY, "test"));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        router.close();
+        frontend.stop(0);
+        api.stop(0);
+    }
+
+    @Test
+    public void routesByHostAndPathPrefix() {
+        Route frontendRoute = new Route("frontend", "shop.example.com", null, 1);
+        Route apiRoute = new Route("frontend", null, "/api", 2);
+        Route backoffice = new Route("backoffice", null, null, 3);
+        router.add(frontendRoute);
+        router.add(apiRoute);
+        router.add(backoffice);
+
+        assertThat(router.route("frontend", "/index.html")).isEqualTo(frontendRoute);
+        assertThat(router.route("frontend.dev-services.svc.cluster.local:80", "/api/orders?id=1"))
+                .isEqualTo(apiRoute);
+        assertThat(router.route("frontend", "/api")).isEqualTo(apiRoute);
+        assertThat(router.route("frontend", "/apiary")).isEqualTo(frontendRoute);
+        assertThat(router.route("backoffice:8080", "/api/orders")).isEqualTo(backoffice);
+        // An ingress host, which is configured for no route
+        assertThat(router.route("other.example.com", "/api/orders")).isEqualTo(apiRoute);
+        assertThat(router.route("shop.example.com", "/")).isEqualTo(frontendRoute);
+
+        router.remove(frontendRoute);
+        router.remove(backoffice);
+        assertThat(router.route("frontend", "/index.html")).isNull();
+    }
+
+    @Test
+    public void reusesLocalConnectionsForKeepAlive() throws IOException {
+        router.add(new Route("frontend", null, null, frontend.getAddress().getPort()));
+        router.add(new Route("frontend", null, "/api", api.getAddress().getPort()));
+        int port = router.start();
+
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            for (int i = 0; i < 3; i++) {
+                assertThat(get(in, out, "frontend", "/index.html")).isEqualTo("frontend /index.html");
+                assertThat(get(in, out, "frontend:80", "/api/orders")).isEqualTo("api /api/orders");
+            }
+            assertThat(post(in, out, "frontend", "/api/orders", "order")).isEqualTo("api /api/orders order");
+        }
+        // One connection per local port for all requests of the client connection
+        assertThat(connections).hasSize(2);
+    }
+
+    @Test
+    public void answersMalformedMessages() throws IOException {
+        try (ServerSocket broken = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread local = new Thread(() -> {
+                try (Socket socket = broken.accept()) {
+                    Head.read(socket.getInputStream());
+                    socket.getOutputStream().write("HTTP/1.1 OK\r\nContent-Length: 2\r\n\r\nok"
+                            .getBytes(StandardCharsets.ISO_8859_1));
+                    socket.getOutputStream().flush();
+                    socket.getInputStream().read();
+                } catch (IOException e) {
+                    // closed by the router
+                }
+            });
+            local.setDaemon(true);
+            local.start();
+            router.add(new Route("frontend", null, null, frontend.getAddress().getPort()));
+            router.add(new Route("broken", null, null, broken.getLocalPort()));
+            int port = router.start();
+
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.getOutputStream().write("POST / HTTP/1.1\r\nHost: frontend\r\nContent-Length: x\r\n\r\n"
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                assertThat(Head.read(new BufferedInputStream(socket.getInputStream())).status()).isEqualTo(400);
+            }
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.getOutputStream().write("POST / HTTP/1.1\r\nHost: frontend\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n"
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                assertThat(Head.read(new BufferedInputStream(socket.getInputStream())).status()).isEqualTo(400);
+            }
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: broken\r\n\r\n"
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                assertThat(Head.read(new BufferedInputStream(socket.getInputStream())).status()).isEqualTo(502);
+            }
+        }
+    }
+
+    @Test
+    public void routesOverSingleTunnel() throws IOException {
+        int httpPort;
+        try (ServerSocket free = new ServerSocket(0)) {
+            httpPort = free.getLocalPort();
+        }
+        Path chartDir = Files.createDirectories(workDir.resolve("dev"));
+        Files.writeString(chartDir.resolve("Chart.yaml"), """
+                apiVersion: v2
+                name: app
+                version: 0.0.1
+                """);
+        Files.writeString(chartDir.resolve("values.yaml"), """
+                portforwarding:
+                  reverseProxy:
+                    - localPort: %d
+                      service:
+                        name: frontend
+                        port: 80
+                        http: true
+                    - localPort: %d
+                      service:
+                        name: frontend-api
+                        port: 8080
+                        pathPrefix: /api
+                """.formatted(frontend.getAddress().getPort(), api.getAddress().getPort()));
+
+        try (LocalCluster cluster = new LocalCluster(workDir)) {
+            K8sDevServicesBuildTimeConfig config = cluster.config(Map.of(
+                    "reverse-proxy.http-port", "" + httpPort,
+                    "watchdog-interval", "200ms"));
+            new SshDeployer().clusterConnection(config);
+            try {
+                for (String name : List.of("frontend", "frontend-api")) {
+                    Service service = cluster.client().services().inNamespace(config.namespace()).withName(name)
+                            .get();
+                    assertThat(service.getSpec().getPorts().get(0).getTargetPort().getIntVal()).isEqualTo(httpPort);
+                }
+
+                // The listener of the gateway, which is the local ssh server here
+                try (Socket socket = new Socket("127.0.0.1", httpPort)) {
+                    InputStream in = new BufferedInputStream(socket.getInputStream());
+                    OutputStream out = socket.getOutputStream();
+                    assertThat(get(in, out, "frontend", "/")).isEqualTo("frontend /");
+                    assertThat(get(in, out, "frontend-api.dev-services", "/api/orders"))
+                            .isEqualTo("api /api/orders");
+                }
+            } finally {
+                new SshDeployer().close();
+            }
+        }
+    }
+
+    private HttpServer startServer(String name) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            connections.add(exchange.getRemoteAddress().getPort());
+            String requestBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            byte[] body = (name + " " + exchange.getRequestURI().getPath()
+                    + (requestBody.isEmpty() ? "" : " " + requestBody)).getBytes(StandardCharsets.UTF_8);
+            // Chunked for the api, fixed length for the frontend
+            exchange.sendResponseHeaders(200, name.equals("api") ? 0 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static String get(InputStream in, OutputStream out, String host, String path) throws IOException {
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        return readResponse(in);
+    }
+
+    private static String post(InputStream in, OutputStream out, String host, String path, String body)
+            throws IOException {
+        out.write(("POST " + path + " HTTP/1.1\r\nHost: " + host + "\r\nContent-Length: " + body.length()
+                + "\r\n\r\n" + body).getBytes(StandardCharsets.UTF_8));
+        return readResponse(in);
+    }
+
+    private static String readResponse(InputStream in) throws IOException {
+        Head head = Head.read(in);
+        assertThat(head.status()).isEqualTo(200);
+        if (head.hasToken("Transfer-Encoding", "chunked")) {
+            StringBuilder body = new StringBuilder();
+            int size;
+            while ((size = Integer.parseInt(Head.readLine(in), 16)) > 0) {
+                body.append(new String(in.readNBytes(size), StandardCharsets.UTF_8));
+                Head.readLine(in);
+            }
+            Head.readLine(in);
+            return body.toString();
+        }
+        return new String(in.readNBytes(Integer.parseInt(head.header("Content-Length"))), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,238 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iseonline.shared.k8s.deployment.LocalCluster;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.Session;
+
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.apps.StatefulSetBuilder;
+
+public class KafkaForwarderTest {
+
+    private static final String NAMESPACE = "dev-services";
+
+    @TempDir
+    Path workDir;
+
+    private final List<ServerSocket> brokers = new ArrayList<>();
+
+    /**
+     * The advertised address of each broker by node id.
+     */
+    private final Map<Integer, String[]> advertised = new LinkedHashMap<>();
+
+    private final AtomicInteger[] connections = { new AtomicInteger(), new AtomicInteger() };
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        // Both resolve on the ssh server, like the pod names in the cluster
+        String[] hosts = { "127.0.0.1", "localhost" };
+        for (int i = 0; i < hosts.length; i++) {
+            ServerSocket broker = new ServerSocket(0);
+            brokers.add(broker);
+            advertised.put(i, new String[] { hosts[i], "" + broker.getLocalPort() });
+        }
+        for (int i = 0; i < brokers.size(); i++) {
+            int nodeId = i;
+            Thread acceptor = new Thread(() -> serve(nodeId), "kafka-broker-" + i);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        for (ServerSocket broker : brokers) {
+            broker.close();
+        }
+    }
+
+    @Test
+    public void forwardsEveryBrokerOnItsOwnPort() throws Exception {
+        try (LocalCluster cluster = new LocalCluster(workDir)) {
+            cluster.client().apps().statefulSets().inNamespace(NAMESPACE).resource(new StatefulSetBuilder()
+                    .withNewMetadata().withName("kafka-broker").withNamespace(NAMESPACE).endMetadata()
+                    .withNewSpec()
+                    .withServiceName("kafka-broker-headless")
+                    .withNewSelector().addToMatchLabels("app", "kafka").endSelector()
+                    .endSpec()
+                    .build()).create();
+            for (int i = 0; i < 3; i++) {
+                cluster.client().pods().inNamespace(NAMESPACE).resource(new PodBuilder()
+                        .withNewMetadata().withName("kafka-broker-" + i).addToLabels("app", "kafka").endMetadata()
+                        .build()).create();
+            }
+            Session session = new JSch().getSession(LocalCluster.SSH_USERNAME, "127.0.0.1", cluster.sshd().getPort());
+            session.setPassword(LocalCluster.SSH_PASSWORD);
+            session.setConfig("StrictHostKeyChecking", "no");
+            session.connect(10000);
+            KafkaForwarder forwarder = new KafkaForwarder(() -> session, "127.0.0.1", brokers.get(0).getLocalPort(),
+                    new TunnelStats(TunnelStats.KIND_FORWARDING, "kafka"), channel -> {
+                    }, cluster.client(), NAMESPACE, "kafka-broker");
+            try {
+                int bootstrap = forwarder.start(0);
+                // A port per broker pod right from the start
+                assertThat(forwarder.getBrokers()).containsOnlyKeys("kafka-broker-0", "kafka-broker-1",
+                        "kafka-broker-2");
+
+                // Flexible encoding of the current clients
+                Map<Integer, String[]> metadata = metadata(bootstrap, 12);
+                assertThat(metadata).hasSize(2);
+                for (String[] address : metadata.values()) {
+                    assertThat(address[0]).isEqualTo("127.0.0.1");
+                    assertThat(Integer.parseInt(address[1])).isNotEqualTo(brokers.get(0).getLocalPort())
+                            .isNotEqualTo(brokers.get(1).getLocalPort());
+                }
+                assertThat(forwarder.getBrokers()).containsKeys("127.0.0.1", "localhost");
+                assertThat(metadata.get(1)[1]).isEqualTo("" + forwarder.getBrokers().get("localhost"));
+
+                // Each broker is reached over its own port, also with old clients
+                for (int nodeId = 0; nodeId < 2; nodeId++) {
+                    int before = connections[nodeId].get();
+                    assertThat(metadata(Integer.parseInt(metadata.get(nodeId)[1]), 1)).hasSize(2);
+                    assertThat(connections[nodeId].get()).isEqualTo(before + 1);
+                }
+            } finally {
+                forwarder.close();
+                session.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Sends a metadata request and reads the broker addresses of the response.
+     */
+    private static Map<Integer, String[]> metadata(int port, int version) throws IOException {
+        boolean flexible = version >= 9;
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            // api key, version, correlation id, no client id
+            out.writeInt(10);
+            out.writeShort(3);
+            out.writeShort(version);
+            out.writeInt(42);
+            out.writeShort(-1);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] response = new byte[in.readInt()];
+            in.readFully(response);
+            ByteBuffer buffer = ByteBuffer.wrap(response);
+            assertThat(buffer.getInt()).isEqualTo(42);
+            if (flexible) {
+                // no tagged fields
+                buffer.get();
+            }
+            if (version >= 3) {
+                buffer.getInt();
+            }
+            int count = flexible ? buffer.get() - 1 : buffer.getInt();
+            Map<Integer, String[]> brokers = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                int nodeId = buffer.getInt();
+                byte[] host = new byte[flexible ? buffer.get() - 1 : buffer.getShort()];
+                buffer.get(host);
+                brokers.put(nodeId, new String[] { new String(host, StandardCharsets.UTF_8), "" + buffer.getInt() });
+                // rack
+                if (flexible) {
+                    assertThat(buffer.get()).isEqualTo((byte) 0);
+                    buffer.get();
+                } else {
+                    assertThat(buffer.getShort()).isEqualTo((short) -1);
+                }
+            }
+            // The rest is passed unchanged
+            assertThat(buffer.getInt()).isEqualTo(0);
+            return brokers;
+        }
+    }
+
+    /**
+     * Answers every request with the metadata of both brokers.
+     */
+    private void serve(int nodeId) {
+        ServerSocket server = brokers.get(nodeId);
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                connections[nodeId].incrementAndGet();
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                while (true) {
+                    byte[] request = new byte[in.readInt()];
+                    in.readFully(request);
+                    ByteBuffer header = ByteBuffer.wrap(request);
+                    header.getShort();
+                    short version = header.getShort();
+                    byte[] response = metadataResponse(header.getInt(), version);
+                    out.writeInt(response.length);
+                    out.write(response);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // connection or server closed
+            }
+        }
+    }
+
+    private byte[] metadataResponse(int correlationId, short version) throws IOException {
+        boolean flexible = version >= 9;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(correlationId);
+        if (flexible) {
+            out.writeByte(0);
+        }
+        if (version >= 3) {
+            out.writeInt(0);
+        }
+        if (flexible) {
+            out.writeByte(advertised.size() + 1);
+        } else {
+            out.writeInt(advertised.size());
+        }
+        for (Map.Entry<Integer, String[]> broker : advertised.entrySet()) {
+            out.writeInt(broker.getKey());
+            byte[] host = broker.getValue()[0].getBytes(StandardCharsets.UTF_8);
+            if (flexible) {
+                out.writeByte(host.length + 1);
+            } else {
+                out.writeShort(host.length);
+            }
+            out.write(host);
+            out.writeInt(Integer.parseInt(broker.getValue()[1]));
+            if (flexible) {
+                // no rack and tagged fields
+                out.writeByte(0);
+                out.writeByte(0);
+            } else {
+                out.writeShort(-1);
+            }
+        }
+        // controller id, no topics
+        out.writeInt(0);
+        out.writeInt(0);
+        return bytes.toByteArray();
+    }
+}
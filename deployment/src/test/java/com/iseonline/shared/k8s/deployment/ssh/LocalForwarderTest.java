@@ -0,0 +1,164 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.LocalCluster;
+
+public class LocalForwarderTest {
+
+    @TempDir
+    Path workDir;
+
+    private ServerSocket echoServer;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        echoServer = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!echoServer.isClosed()) {
+                try {
+                    Socket socket = echoServer.accept();
+                    Thread echo = new Thread(() -> {
+                        try (socket; InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+                            in.transferTo(out);
+                        } catch (IOException e) {
+                            // connection closed
+                        }
+                    });
+                    echo.setDaemon(true);
+                    echo.start();
+                } catch (IOException e) {
+                    // server closed
+                }
+            }
+        }, "echo-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        echoServer.close();
+    }
+
+    @Test
+    public void fallsBackToShortSocketDirectory() throws IOException {
+        writeChart();
+        Path socketDir = workDir.resolve("a".repeat(60)).resolve("b".repeat(60));
+
+        try (LocalCluster cluster = new LocalCluster(workDir)) {
+            K8sDevServicesBuildTimeConfig config = cluster.config(Map.of("unix-socket.directory", socketDir.toString()));
+            Path fallbackDir = null;
+            try {
+                Path socketPath = fallbackSocket(config);
+                fallbackDir = socketPath.getParent();
+
+                // A predictable directory, which is accessible by others, is not used
+                Files.setPosixFilePermissions(fallbackDir, PosixFilePermissions.fromString("rwxrwxrwx"));
+                socketPath = fallbackSocket(config);
+                assertThat(socketPath.getParent()).isNotEqualTo(fallbackDir);
+            } finally {
+                if (fallbackDir != null) {
+                    Files.deleteIfExists(fallbackDir.resolve("db.sock"));
+                    Files.deleteIfExists(fallbackDir);
+                }
+            }
+        }
+    }
+
+    private static Path fallbackSocket(K8sDevServicesBuildTimeConfig config) throws IOException {
+        Map<String, String> overrides = new SshDeployer().clusterConnection(config).getConfig();
+        try {
+            Path socketPath = Path.of(overrides.get("db.socket"));
+            assertThat(socketPath).startsWith(Path.of(System.getProperty("java.io.tmpdir")));
+            assertThat(LocalForwarder.fitsSocketPath(socketPath)).isTrue();
+            assertThat(permissions(socketPath.getParent())).isEqualTo("rwx------");
+            assertThat(permissions(socketPath)).isEqualTo("rw-------");
+            try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+                channel.connect(UnixDomainSocketAddress.of(socketPath));
+            }
+            return socketPath;
+        } finally {
+            new SshDeployer().close();
+        }
+    }
+
+    private static String permissions(Path path) throws IOException {
+        return PosixFilePermissions.toString(Files.getPosixFilePermissions(path));
+    }
+
+    @Test
+    public void forwardsOverUnixSocket() throws IOException {
+        writeChart();
+        Path socketDir = workDir.resolve("sockets");
+
+        try (LocalCluster cluster = new LocalCluster(workDir)) {
+            K8sDevServicesBuildTimeConfig config = cluster.config(Map.of("unix-socket.directory", socketDir.toString()));
+            Map<String, String> overrides = new SshDeployer().clusterConnection(config).getConfig();
+            try {
+                assertThat(overrides).containsEntry("db.socket", socketDir.resolve("db.sock").toString())
+                        .doesNotContainKeys("db.host", "db.port")
+                        .containsKeys("tcp.host", "tcp.port");
+
+                try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+                    channel.connect(UnixDomainSocketAddress.of(overrides.get("db.socket")));
+                    for (int i = 0; i < 3; i++) {
+                        ByteBuffer message = ByteBuffer.wrap(("ping " + i).getBytes(StandardCharsets.UTF_8));
+                        channel.write(message);
+                        ByteBuffer echo = ByteBuffer.allocate(message.capacity());
+                        while (echo.hasRemaining() && channel.read(echo) >= 0) {
+                        }
+                        assertThat(new String(echo.array(), StandardCharsets.UTF_8)).isEqualTo("ping " + i);
+                    }
+                }
+            } finally {
+                new SshDeployer().close();
+            }
+            assertThat(socketDir.resolve("db.sock")).doesNotExist();
+        }
+    }
+
+    private void writeChart() throws IOException {
+        Path chartDir = Files.createDirectories(workDir.resolve("dev"));
+        Files.writeString(chartDir.resolve("Chart.yaml"), """
+                apiVersion: v2
+                name: app
+                version: 0.0.1
+                """);
+        Files.writeString(chartDir.resolve("values.yaml"), """
+                portforwarding:
+                  services:
+                    - name: db
+                      unixSocket: true
+                      service:
+                        name: 127.0.0.1
+                        port: %d
+                    - name: tcp
+                      localPort: 0
+                      service:
+                        name: 127.0.0.1
+                        port: %d
+                """.formatted(echoServer.getLocalPort(), echoServer.getLocalPort()));
+    }
+}
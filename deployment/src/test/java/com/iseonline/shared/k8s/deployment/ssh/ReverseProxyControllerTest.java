@@ -0,0 +1,133 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.LocalCluster;
+import com.iseonline.shared.k8s.deployment.utils.K8sDevServicesUtils;
+
+import io.fabric8.kubernetes.api.model.ServiceBuilder;
+import io.fabric8.kubernetes.api.model.apps.DeploymentBuilder;
+import io.fabric8.kubernetes.api.model.apps.StatefulSetBuilder;
+import io.fabric8.mockwebserver.http.RecordedRequest;
+
+public class ReverseProxyControllerTest {
+
+    private static final String APP = "app";
+
+    @TempDir
+    Path workDir;
+
+    private LocalCluster cluster;
+
+    private K8sDevServicesBuildTimeConfig config;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        cluster = new LocalCluster(workDir);
+        config = cluster.config(Map.of("watchdog-interval", "200ms"));
+
+        Path chartDir = Files.createDirectories(workDir.resolve("dev"));
+        Files.writeString(chartDir.resolve("Chart.yaml"), """
+                apiVersion: v2
+                name: app
+                version: 0.0.1
+                """);
+        Files.writeString(chartDir.resolve("values.yaml"), """
+                portforwarding:
+                  reverseProxy:
+                    - localPort: 18081
+                      service:
+                        name: app
+                        port: 8080
+                        scaleDown: true
+                """);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        new SshDeployer().close();
+        cluster.close();
+    }
+
+    @Test
+    public void revertsDriftWithinMilliseconds() {
+        cluster.client().apps().deployments().inNamespace(config.namespace()).resource(new DeploymentBuilder()
+                .withNewMetadata().withName(APP).endMetadata()
+                .withNewSpec()
+                .withReplicas(2)
+                .withNewSelector().addToMatchLabels("app", APP).endSelector()
+                .withNewTemplate().withNewMetadata().addToLabels("app", APP).endMetadata().endTemplate()
+                .endSpec()
+                .build()).create();
+        cluster.client().apps().statefulSets().inNamespace(config.namespace()).resource(new StatefulSetBuilder()
+                .withNewMetadata().withName(APP).endMetadata()
+                .withNewSpec().withReplicas(1).endSpec()
+                .build()).create();
+
+        new SshDeployer().clusterConnection(config);
+        assertThat(deploymentReplicas()).isZero();
+        assertThat(statefulSetReplicas()).isZero();
+        assertThat(serviceSelector()).containsEntry("app", SshDeployer.SSH_DEPLOYMENT_NAME);
+
+        // A helm upgrade resets the replicas and the selector
+        cluster.client().apps().deployments().inNamespace(config.namespace()).withName(APP)
+                .edit(d -> new DeploymentBuilder(d).editSpec().withReplicas(3).endSpec().build());
+        cluster.client().services().inNamespace(config.namespace()).withName(APP)
+                .edit(s -> new ServiceBuilder(s).editSpec().withSelector(Map.of("app", APP)).endSpec().build());
+        // Far below the watchdog interval of 10s, which was used before
+        assertThat(K8sDevServicesUtils.waitTill(2000, () -> deploymentReplicas() == 0
+                && serviceSelector().equals(Map.of("app", SshDeployer.SSH_DEPLOYMENT_NAME)))).isTrue();
+
+        cluster.client().services().inNamespace(config.namespace()).withName(APP).delete();
+        assertThat(K8sDevServicesUtils.waitTill(2000, () -> cluster.client().services()
+                .inNamespace(config.namespace()).withName(APP).get() != null)).isTrue();
+    }
+
+    @Test
+    public void noRequestsWithoutDrift() throws InterruptedException {
+        new SshDeployer().clusterConnection(config);
+        assertThat(serviceSelector()).containsEntry("app", SshDeployer.SSH_DEPLOYMENT_NAME);
+        Thread.sleep(500);
+        while (cluster.server().takeRequest(10, TimeUnit.MILLISECONDS) != null) {
+            // drops the requests of the start
+        }
+
+        // Some resyncs of the cached state
+        Thread.sleep(1000);
+        List<String> requests = new ArrayList<>();
+        RecordedRequest request;
+        while ((request = cluster.server().takeRequest(10, TimeUnit.MILLISECONDS)) != null) {
+            requests.add(request.getMethod() + " " + request.getPath());
+        }
+        assertThat(requests).isEmpty();
+    }
+
+    private int deploymentReplicas() {
+        return cluster.client().apps().deployments().inNamespace(config.namespace()).withName(APP).get()
+                .getSpec().getReplicas();
+    }
+
+    private int statefulSetReplicas() {
+        return cluster.client().apps().statefulSets().inNamespace(config.namespace()).withName(APP).get()
+                .getSpec().getReplicas();
+    }
+
+    private Map<String, String> serviceSelector() {
+        return cluster.client().services().inNamespace(config.namespace()).withName(APP).get()
+                .getSpec().getSelector();
+    }
+}
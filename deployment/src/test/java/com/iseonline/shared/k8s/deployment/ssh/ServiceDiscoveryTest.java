@@ -0,0 +1,129 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.LocalCluster;
+import com.iseonline.shared.k8s.deployment.utils.K8sDevServicesUtils;
+
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.ServiceBuilder;
+import io.quarkus.deployment.builditem.DevServicesResultBuildItem;
+
+public class ServiceDiscoveryTest {
+
+    private static final String ANNOTATION = "com.iseonline.quarkus.k8s/forward";
+
+    @TempDir
+    Path workDir;
+
+    private LocalCluster cluster;
+
+    private K8sDevServicesBuildTimeConfig config;
+
+    private ServerSocket echoServer;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        cluster = new LocalCluster(workDir);
+        config = cluster.config();
+        echoServer = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!echoServer.isClosed()) {
+                try (Socket socket = echoServer.accept()) {
+                    socket.getInputStream().transferTo(socket.getOutputStream());
+                } catch (IOException e) {
+                    // server closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        Path chartDir = Files.createDirectories(workDir.resolve("dev"));
+        Files.writeString(chartDir.resolve("Chart.yaml"), """
+                apiVersion: v2
+                name: discovery
+                version: 0.0.1
+                """);
+        Files.writeString(chartDir.resolve("values.yaml"), """
+                portforwarding:
+                  services: []
+                """);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        new SshDeployer().close();
+        echoServer.close();
+        cluster.close();
+    }
+
+    @Test
+    public void parse() {
+        ServiceDiscovery discovery = new ServiceDiscovery(cluster.client(), config.namespace(), ANNOTATION, null);
+        assertThat(discovery.parse(service("db", null, 5432))).isNull();
+        assertThat(discovery.parse(service("db", "postgres", 5432)).getJschString()).isEqualTo("0:db:5432");
+        assertThat(discovery.parse(service("db", "postgres:15432", 5432)).getJschString()).isEqualTo("15432:db:5432");
+        assertThat(discovery.parse(service("db", "postgres:0:5433", 5432)).getJschString()).isEqualTo("0:db:5433");
+        assertThat(discovery.parse(service("db", "postgres:x", 5432))).isNull();
+    }
+
+    @Test
+    public void followsAnnotatedServices() throws IOException {
+        // localhost is a valid service name and resolvable by the embedded ssh server
+        create(service("localhost", "echo:0:" + echoServer.getLocalPort(), 80));
+        create(service("unrelated", null, 80));
+
+        DevServicesResultBuildItem ssh = new SshDeployer().clusterConnection(config);
+        Map<String, String> overrides = ssh.getConfig();
+        assertThat(overrides).containsOnlyKeys("echo.host", "echo.port");
+        assertEcho(Integer.parseInt(overrides.get("echo.port")));
+
+        create(service("cache", "cache", 6379));
+        assertThat(K8sDevServicesUtils.waitTill(5000, () -> overrides.containsKey("cache.port"))).isTrue();
+
+        int echoPort = Integer.parseInt(overrides.get("echo.port"));
+        cluster.client().services().inNamespace(config.namespace()).withName("localhost").delete();
+        assertThat(K8sDevServicesUtils.waitTill(5000, () -> !overrides.containsKey("echo.port"))).isTrue();
+        assertThatThrownBy(() -> new Socket("127.0.0.1", echoPort).close()).isInstanceOf(ConnectException.class);
+        assertThat(overrides).containsKey("cache.port");
+    }
+
+    private void create(Service service) {
+        cluster.client().services().inNamespace(config.namespace()).resource(service).create();
+    }
+
+    private Service service(String name, String annotation, int port) {
+        ServiceBuilder builder = new ServiceBuilder()
+                .withNewMetadata().withName(name).withNamespace(config.namespace()).endMetadata()
+                .withNewSpec().addNewPort().withPort(port).endPort().endSpec();
+        if (annotation != null) {
+            builder.editMetadata().addToAnnotations(ANNOTATION, annotation).endMetadata();
+        }
+        return builder.build();
+    }
+
+    private void assertEcho(int port) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            byte[] message = "ping".getBytes(StandardCharsets.UTF_8);
+            socket.getOutputStream().write(message);
+            assertThat(socket.getInputStream().readNBytes(message.length)).isEqualTo(message);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig.SshTransportProfile;
+import com.iseonline.shared.k8s.deployment.LocalCluster;
+import com.iseonline.shared.k8s.deployment.ssh.TransportTuning.Measurement;
+
+import io.quarkus.deployment.builditem.DevServicesResultBuildItem;
+
+public class TransportTuningTest {
+
+    @TempDir
+    Path workDir;
+
+    private LocalCluster cluster;
+
+    private ServerSocket echoServer;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        cluster = new LocalCluster(workDir);
+        echoServer = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!echoServer.isClosed()) {
+                try (Socket socket = echoServer.accept();
+                        InputStream in = socket.getInputStream();
+                        OutputStream out = socket.getOutputStream()) {
+                    in.transferTo(out);
+                } catch (IOException e) {
+                    // server closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        new SshDeployer().close();
+        echoServer.close();
+        cluster.close();
+    }
+
+    @Test
+    public void choose() {
+        assertThat(TransportTuning.choose(new Measurement(0.3, 500))).isEqualTo(SshTransportProfile.CPU);
+        assertThat(TransportTuning.choose(new Measurement(0.3, Double.NaN))).isEqualTo(SshTransportProfile.CPU);
+        assertThat(TransportTuning.choose(new Measurement(35, Double.NaN))).isEqualTo(SshTransportProfile.BANDWIDTH);
+        assertThat(TransportTuning.choose(new Measurement(8, 8))).isEqualTo(SshTransportProfile.BANDWIDTH);
+        assertThat(TransportTuning.choose(new Measurement(8, 100))).isEqualTo(SshTransportProfile.DEFAULT);
+        assertThat(TransportTuning.choose(new Measurement(Double.NaN, Double.NaN)))
+                .isEqualTo(SshTransportProfile.DEFAULT);
+    }
+
+    @Test
+    public void overrides() {
+        K8sDevServicesBuildTimeConfig config = cluster.config(Map.of(
+                "ssh.transport.ciphers", "aes256-ctr,aes128-ctr",
+                "ssh.transport.compression", "false",
+                "ssh.transport.window-size", "65536"));
+        TransportTuning tuning = TransportTuning.of(SshTransportProfile.BANDWIDTH, config);
+        assertThat(tuning.ciphers()).isEqualTo("aes256-ctr,aes128-ctr");
+        assertThat(tuning.compression()).isFalse();
+        assertThat(tuning.windowSize()).isEqualTo(65536);
+        assertThat(tuning.packetSize()).isEqualTo(32 * 1024);
+    }
+
+    /**
+     * Transfers data through a port forwarding with each profile. Which profile
+     * auto mode chooses depends on the load of the machine, as the embedded ssh
+     * server runs in the same jvm.
+     */
+    @ParameterizedTest
+    @CsvSource({ "auto, ", "default, DEFAULT", "bandwidth, BANDWIDTH", "cpu, CPU" })
+    public void transfer(String profile, SshTransportProfile expected) throws IOException {
+        Path chartDir = Files.createDirectories(workDir.resolve("dev"));
+        Files.writeString(chartDir.resolve("Chart.yaml"), """
+                apiVersion: v2
+                name: echo
+                version: 0.0.1
+                """);
+        Files.writeString(chartDir.resolve("values.yaml"), """
+                portforwarding:
+                  services:
+                    - name: echo
+                      localPort: 0
+                      service:
+                        name: 127.0.0.1
+                        port: %d
+                """.formatted(echoServer.getLocalPort()));
+
+        DevServicesResultBuildItem ssh = new SshDeployer()
+                .clusterConnection(cluster.config(Map.of("ssh.transport.profile", profile)));
+        if (expected != null) {
+            assertThat(SshDeployer.getTransportTuning().profile()).isEqualTo(expected);
+        } else {
+            assertThat(SshDeployer.getTransportTuning().profile()).isNotEqualTo(SshTransportProfile.AUTO);
+        }
+
+        byte[] payload = new byte[256 * 1024];
+        new Random(42).nextBytes(payload);
+        try (Socket socket = new Socket("127.0.0.1", Integer.parseInt(ssh.getConfig().get("echo.port")))) {
+            Thread writer = new Thread(() -> {
+                try {
+                    socket.getOutputStream().write(payload);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            writer.start();
+            assertThat(socket.getInputStream().readNBytes(payload.length)).isEqualTo(payload);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.iseonline.shared.k8s.deployment.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.LocalCluster;
+import com.iseonline.shared.k8s.deployment.ssh.PortsConfiguration.PortForwarding;
+import com.iseonline.shared.k8s.deployment.utils.K8sDevServicesUtils;
+
+import io.quarkus.deployment.builditem.DevServicesResultBuildItem;
+
+/**
+ * The deployer owns the shared tunnels, another application is simulated with
+ * a {@link TunnelClient}.
+ */
+public class TunnelDaemonTest {
+
+    @TempDir
+    Path workDir;
+
+    private LocalCluster cluster;
+
+    private K8sDevServicesBuildTimeConfig config;
+
+    private ServerSocket server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        cluster = new LocalCluster(workDir);
+        Map<String, String> properties = new HashMap<>();
+        properties.put("shared-tunnel.enabled", "true");
+        properties.put("shared-tunnel.directory", workDir.resolve("sockets").toString());
+        config = cluster.config(properties);
+        server = new ServerSocket(0);
+
+        Path chartDir = Files.createDirectories(workDir.resolve("dev"));
+        Files.writeString(chartDir.resolve("Chart.yaml"), """
+                apiVersion: v2
+                name: shared
+                version: 0.0.1
+                """);
+        Files.writeString(chartDir.resolve("values.yaml"), """
+                portforwarding:
+                  services:
+                    - name: app
+                      localPort: 0
+                      service:
+                        name: localhost
+                        port: %d
+                """.formatted(server.getLocalPort()));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        new SshDeployer().close();
+        server.close();
+        cluster.close();
+    }
+
+    @Test
+    public void sharesIdenticalForwardings() throws IOException {
+        DevServicesResultBuildItem ssh = new SshDeployer().clusterConnection(config);
+        int port = Integer.parseInt(ssh.getConfig().get("app.port"));
+        Path socketPath = TunnelDaemon.socketPath(config);
+        assertThat(socketPath).exists();
+        // Another application owns the lock already
+        assertThat(TunnelDaemon.tryAcquire(socketPath, null)).isNull();
+
+        TunnelClient client = TunnelClient.connect(socketPath);
+        assertThat(client).isNotNull();
+        PortForwarding same = PortForwarding.of("app", 0, "localhost", server.getLocalPort());
+        client.forward(same);
+        assertThat(same.getRealLocalPort()).isEqualTo(port);
+
+        PortForwarding other = PortForwarding.of("other", 0, "127.0.0.1", server.getLocalPort());
+        client.forward(other);
+        int otherPort = other.getRealLocalPort();
+        assertThat(otherPort).isNotEqualTo(port);
+        new Socket("127.0.0.1", otherPort).close();
+        assertThat(client.isAlive()).isTrue();
+
+        client.close();
+        assertThat(K8sDevServicesUtils.waitTill(5000, () -> {
+            try {
+                new Socket("127.0.0.1", otherPort).close();
+                return false;
+            } catch (IOException e) {
+                return true;
+            }
+        })).isTrue();
+        assertThatThrownBy(() -> new Socket("127.0.0.1", otherPort).close()).isInstanceOf(ConnectException.class);
+        // Still used by the owner
+        new Socket("127.0.0.1", port).close();
+    }
+
+    @Test
+    public void clientLosesDaemonOnClose() throws IOException {
+        new SshDeployer().clusterConnection(config);
+        TunnelClient client = TunnelClient.connect(TunnelDaemon.socketPath(config));
+        assertThat(client.isAlive()).isTrue();
+
+        new SshDeployer().close();
+        assertThat(client.isAlive()).isFalse();
+        assertThat(TunnelClient.connect(TunnelDaemon.socketPath(config))).isNull();
+        client.close();
+    }
+
+    @Test
+    public void sharedForwardingsUseLocalPortsWithUnixSockets() throws IOException {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("shared-tunnel.enabled", "true");
+        properties.put("shared-tunnel.directory", workDir.resolve("sockets").toString());
+        properties.put("unix-socket.enabled", "true");
+        properties.put("unix-socket.directory", workDir.resolve("forwardings").toString());
+        config = cluster.config(properties);
+
+        DevServicesResultBuildItem ssh = new SshDeployer().clusterConnection(config);
+        assertThat(ssh.getConfig()).doesNotContainKey("app.socket");
+        int port = Integer.parseInt(ssh.getConfig().get("app.port"));
+        assertThat(port).isPositive();
+        new Socket("127.0.0.1", port).close();
+
+        try (TunnelClient client = TunnelClient.connect(TunnelDaemon.socketPath(config))) {
+            PortForwarding other = PortForwarding.of("other", 0, "127.0.0.1", server.getLocalPort());
+            client.forward(other);
+            assertThat(other.getRealLocalPort()).isPositive();
+            new Socket("127.0.0.1", other.getRealLocalPort()).close();
+        }
+        assertThat(workDir.resolve("forwardings")).doesNotExist();
+    }
+
+    @Test
+    public void encodesFieldsAndRestrictsSocketDirectory() throws IOException {
+        new SshDeployer().clusterConnection(config);
+        Path socketPath = TunnelDaemon.socketPath(config);
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(socketPath.getParent())))
+                .isEqualTo("rwx------");
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(socketPath)))
+                .isEqualTo("rw-------");
+
+        try (TunnelClient client = TunnelClient.connect(socketPath)) {
+            // Spaces must not shift the following fields
+            PortForwarding spaced = PortForwarding.of("my app", 0, "127.0.0.1", server.getLocalPort());
+            client.forward(spaced);
+            new Socket("127.0.0.1", spaced.getRealLocalPort()).close();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.iseonline.shared.k8s.deployment.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iseonline.shared.k8s.deployment.LocalCluster;
+import com.iseonline.shared.k8s.deployment.helm.HelmDeployer;
+import com.iseonline.shared.k8s.deployment.helm.StubHelmCommands;
+
+import io.fabric8.kubernetes.client.KubernetesClient;
+
+public class KubeClientsTest {
+
+    @TempDir
+    Path workDir;
+
+    @Test
+    public void sharesWarmedUpClientTillLastRelease() throws IOException {
+        try (LocalCluster cluster = new LocalCluster(workDir)) {
+            KubeClients.warmUp(LocalCluster.KUBE_CONTEXT);
+            KubernetesClient helm = KubeClients.acquire(LocalCluster.KUBE_CONTEXT);
+            KubernetesClient ssh = KubeClients.acquire(LocalCluster.KUBE_CONTEXT);
+            assertThat(ssh).isSameAs(helm);
+            assertThat(KubeClients.config(LocalCluster.KUBE_CONTEXT).getMasterUrl())
+                    .isEqualTo(helm.getConfiguration().getMasterUrl());
+
+            KubeClients.release(helm);
+            assertThat(ssh.namespaces().list().getItems()).isNotNull();
+
+            KubeClients.release(ssh);
+            KubernetesClient next = KubeClients.acquire(LocalCluster.KUBE_CONTEXT);
+            try {
+                assertThat(next).isNotSameAs(helm);
+            } finally {
+                KubeClients.release(next);
+            }
+        }
+    }
+
+    @Test
+    public void startupPipelineWarmsUpHelm() throws Exception {
+        try (LocalCluster cluster = new LocalCluster(workDir)) {
+            StubHelmCommands.reset();
+            new HelmDeployer().startupPipeline(cluster.config());
+            assertThat(K8sDevServicesUtils.waitTill(5000, () -> StubHelmCommands.warmUps.get() == 1)).isTrue();
+            KubeClients.release(KubeClients.acquire(LocalCluster.KUBE_CONTEXT));
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.iseonline.shared.k8s.deployment.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iseonline.shared.k8s.deployment.K8sDevServicesBuildTimeConfig;
+import com.iseonline.shared.k8s.deployment.LocalCluster;
+import com.iseonline.shared.k8s.deployment.ssh.SshDeployer;
+import com.iseonline.shared.k8s.deployment.utils.KubeContextSelector.Probe;
+
+import io.fabric8.kubernetes.api.model.SecretBuilder;
+import io.quarkus.deployment.builditem.DevServicesResultBuildItem;
+
+/**
+ * Runs two local clusters as kube contexts {@code a} and {@code b}, besides a
+ * context whose api is not reachable and one whose api never answers.
+ */
+public class KubeContextSelectorTest {
+
+    @TempDir
+    Path workDir;
+
+    private LocalCluster a;
+
+    private LocalCluster b;
+
+    private ServerSocket echoServer;
+
+    /**
+     * The api of the context {@code slow}, it accepts connections but never
+     * answers.
+     */
+    private ServerSocket blackhole;
+
+    private final AtomicInteger blackholeConnections = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        a = new LocalCluster(Files.createDirectories(workDir.resolve("a")));
+        b = new LocalCluster(Files.createDirectories(workDir.resolve("b")));
+        blackhole = new ServerSocket(0);
+        Thread blackholeAcceptor = new Thread(() -> {
+            List<Socket> held = new ArrayList<>();
+            while (!blackhole.isClosed()) {
+                try {
+                    held.add(blackhole.accept());
+                    blackholeConnections.incrementAndGet();
+                } catch (IOException e) {
+                    // server closed
+                }
+            }
+        });
+        blackholeAcceptor.setDaemon(true);
+        blackholeAcceptor.start();
+        Path kubeConfig = workDir.resolve("kubeconfig");
+        Files.writeString(kubeConfig, """
+                apiVersion: v1
+                kind: Config
+                clusters:
+                - name: a
+                  cluster:
+                    server: %s
+                - name: b
+                  cluster:
+                    server: %s
+                - name: down
+                  cluster:
+                    server: http://127.0.0.1:1
+                - name: slow
+                  cluster:
+                    server: http://127.0.0.1:%d
+                contexts:
+                - name: a
+                  context:
+                    cluster: a
+                    user: local
+                - name: b
+                  context:
+                    cluster: b
+                    user: local
+                - name: down
+                  context:
+                    cluster: down
+                    user: local
+                - name: slow
+                  context:
+                    cluster: slow
+                    user: local
+                current-context: a
+                users:
+                - name: local
+                  user:
+                    token: local
+                """.formatted(a.server().url("/"), b.server().url("/"), blackhole.getLocalPort()));
+        System.setProperty("kubeconfig", kubeConfig.toString());
+        KubeContextSelector.reset();
+
+        echoServer = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!echoServer.isClosed()) {
+                try (Socket socket = echoServer.accept()) {
+                    socket.getInputStream().transferTo(socket.getOutputStream());
+                } catch (IOException e) {
+                    // server closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        // The chart path of the config of cluster a
+        Path chartDir = Files.createDirectories(workDir.resolve("a").resolve("dev"));
+        Files.writeString(chartDir.resolve("Chart.yaml"), """
+                apiVersion: v2
+                name: stack
+                version: 1.2.3
+                """);
+        Files.writeString(chartDir.resolve("values.yaml"), """
+                portforwarding:
+                  services:
+                    - name: echo
+                      localPort: 0
+                      service:
+                        name: 127.0.0.1
+                        port: %d
+                """.formatted(echoServer.getLocalPort()));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        new SshDeployer().close();
+        KubeContextSelector.reset();
+        echoServer.close();
+        blackhole.close();
+        b.close();
+        a.close();
+    }
+
+    @Test
+    public void prefersDeployedReleases() throws IOException {
+        K8sDevServicesBuildTimeConfig config = config(false);
+        deployRelease(b, config, "stack", "1.2.3");
+        // Another chart version has to be upgraded anyway
+        deployRelease(a, config, "stack", "1.0.0");
+
+        List<Probe> probes = KubeContextSelector.probeAll(config, List.of("down", "a", "b"));
+        assertThat(probes).extracting(Probe::context).containsExactly("b", "a", "down");
+        assertThat(probes.get(0).deployedReleases()).isEqualTo(1);
+        assertThat(probes.get(2).reachable()).isFalse();
+        assertThat(KubeContextSelector.current(config)).isEqualTo("b");
+    }
+
+    @Test
+    public void failsOverTunnels() throws IOException {
+        K8sDevServicesBuildTimeConfig config = config(true);
+        deployRelease(a, config, "stack", "1.2.3");
+
+        DevServicesResultBuildItem ssh = new SshDeployer().clusterConnection(config);
+        assertThat(KubeContextSelector.current(config)).isEqualTo("a");
+        int port = Integer.parseInt(ssh.getConfig().get("echo.port"));
+        assertEcho(port);
+
+        a.server().destroy();
+        assertThat(K8sDevServicesUtils.waitTill(30000, () -> b.client().apps().deployments()
+                .inNamespace(config.namespace())
+                .withName(SshDeployer.SSH_DEPLOYMENT_NAME)
+                .get() != null)).isTrue();
+        assertThat(KubeContextSelector.current(config)).isEqualTo("b");
+        // The application keeps its port
+        assertThat(K8sDevServicesUtils.waitTill(30000, () -> {
+            try {
+                assertEcho(port);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        })).isTrue();
+    }
+
+    @Test
+    public void runsOneFailoverAtATime() throws IOException, InterruptedException {
+        K8sDevServicesBuildTimeConfig config = config(true, "a,slow", "1s");
+        deployRelease(a, config, "stack", "1.2.3");
+        new SshDeployer().clusterConnection(config);
+        assertThat(KubeContextSelector.current(config)).isEqualTo("a");
+        int before = blackholeConnections.get();
+
+        // Every check past the threshold fails, while the probe of the other
+        // context hangs till its timeout
+        a.server().destroy();
+        assertThat(K8sDevServicesUtils.waitTill(10000, () -> blackholeConnections.get() > before)).isTrue();
+        Thread.sleep(300);
+        int probing = blackholeConnections.get();
+        // Neither during the probe nor right after it another failover starts
+        Thread.sleep(1200);
+        assertThat(blackholeConnections).hasValue(probing);
+        assertThat(KubeContextSelector.current(config)).isEqualTo("a");
+    }
+
+    private K8sDevServicesBuildTimeConfig config(boolean failover) {
+        return config(failover, "a,b", "5s");
+    }
+
+    private K8sDevServicesBuildTimeConfig config(boolean failover, String candidates, String probeTimeout) {
+        return a.config(Map.of(
+                "kube-context.candidates", candidates,
+                "kube-context.probe-timeout", probeTimeout,
+                "kube-context.failover", "" + failover,
+                "watchdog-interval", "200ms"));
+    }
+
+    private static void deployRelease(LocalCluster cluster, K8sDevServicesBuildTimeConfig config, String chart,
+            String version) throws IOException {
+        String release = """
+                {"name":"%s","chart":{"metadata":{"name":"%s","version":"%s"}}}
+                """.formatted(KubeContextSelector.DEFAULT_RELEASE_NAME, chart, version);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(release.getBytes(StandardCharsets.UTF_8));
+        }
+        String helmEncoded = Base64.getEncoder().encodeToString(gzipped.toByteArray());
+        cluster.client().secrets().inNamespace(config.namespace()).resource(new SecretBuilder()
+                .withNewMetadata()
+                .withName("sh.helm.release.v1." + KubeContextSelector.DEFAULT_RELEASE_NAME + ".v1")
+                .withNamespace(config.namespace())
+                .addToLabels("owner", "helm")
+                .addToLabels("status", "deployed")
+                .addToLabels("name", KubeContextSelector.DEFAULT_RELEASE_NAME)
+                .endMetadata()
+                .addToData("release", Base64.getEncoder()
+                        .encodeToString(helmEncoded.getBytes(StandardCharsets.UTF_8)))
+                .build()).create();
+    }
+
+    private static void assertEcho(int port) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            byte[] message = "ping".getBytes(StandardCharsets.UTF_8);
+            socket.getOutputStream().write(message);
+            assertThat(socket.getInputStream().readNBytes(message.length)).isEqualTo(message);
+        }
+    }
+}
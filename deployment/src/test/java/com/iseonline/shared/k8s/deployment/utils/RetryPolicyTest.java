@@ -0,0 +1,111 @@
+package com.iseonline.shared.k8s.deployment.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy policy = RetryPolicy.of("test")
+            .withMaxAttempts(5)
+            .withBackoff(Duration.ofMillis(20), Duration.ofMillis(100));
+
+    @Test
+    public void retriesTillSuccess() {
+        AtomicInteger attempts = new AtomicInteger();
+        String result = RetryPolicy.await(policy.call(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("not yet");
+            }
+            return "done";
+        }));
+
+        assertThat(result).isEqualTo("done");
+        assertThat(attempts).hasValue(3);
+    }
+
+    @Test
+    public void backoffGrowsWithJitter() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.backoff(2).toMillis()).isBetween(10L, 20L);
+            assertThat(policy.backoff(4).toMillis()).isBetween(40L, 80L);
+            assertThat(policy.backoff(40).toMillis()).isBetween(50L, 100L);
+        }
+    }
+
+    @Test
+    public void failsDirectlyOnPermanentErrors() {
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<Void> future = policy.retryOn(e -> !(e instanceof SecurityException)).run(() -> {
+            attempts.incrementAndGet();
+            throw new SecurityException("Auth fail");
+        });
+
+        assertThatThrownBy(() -> RetryPolicy.await(future)).isInstanceOf(SecurityException.class);
+        assertThat(attempts).hasValue(1);
+    }
+
+    @Test
+    public void stopsAtDeadline() {
+        long start = System.nanoTime();
+        CompletableFuture<Void> future = policy.withMaxAttempts(Integer.MAX_VALUE)
+                .withDeadline(Duration.ofMillis(300))
+                .run(() -> {
+                    throw new IllegalStateException("gateway not ready");
+                });
+
+        assertThatThrownBy(() -> RetryPolicy.await(future))
+                .hasCauseInstanceOf(TimeoutException.class);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+    }
+
+    @Test
+    public void cancelInterruptsRunningAttempt() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<Void> future = policy.run(() -> {
+            attempts.incrementAndGet();
+            started.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        future.cancel(true);
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(200);
+        assertThat(attempts).hasValue(1);
+    }
+
+    @Test
+    public void deadlineInterruptsAttemptAndClosesLateResult() throws InterruptedException {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        CompletableFuture<AutoCloseable> future = policy.withDeadline(Duration.ofMillis(200)).call(() -> {
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            // Finishes anyway, like a connection established right at the deadline
+            return (AutoCloseable) closed::countDown;
+        });
+
+        assertThatThrownBy(() -> RetryPolicy.await(future)).hasCauseInstanceOf(TimeoutException.class);
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(closed.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+}
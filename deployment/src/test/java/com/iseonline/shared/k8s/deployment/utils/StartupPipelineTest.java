@@ -0,0 +1,69 @@
+package com.iseonline.shared.k8s.deployment.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+public class StartupPipelineTest {
+
+    private final StartupPipeline pipeline = new StartupPipeline(List.of("a", "b"));
+
+    @Test
+    public void runsTaskOnceReleaseIsDeployed() throws Exception {
+        AtomicBoolean ran = new AtomicBoolean();
+        CompletableFuture<Void> task = pipeline.afterRelease("a", () -> ran.set(true));
+        Thread.sleep(200);
+        assertThat(ran).isFalse();
+
+        // Another release does not release the task
+        pipeline.deployed("b");
+        Thread.sleep(200);
+        assertThat(ran).isFalse();
+
+        pipeline.deployed("a");
+        task.get(5, TimeUnit.SECONDS);
+        assertThat(ran).isTrue();
+    }
+
+    @Test
+    public void runsTasksWithoutReleaseRightAway() throws Exception {
+        pipeline.afterRelease(null, () -> {
+        }).get(5, TimeUnit.SECONDS);
+        pipeline.afterRelease("unknown", () -> {
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void failedAndSkippedReleasesDontBlock() throws Exception {
+        CompletableFuture<Void> failed = pipeline.afterRelease("a", () -> {
+        });
+        CompletableFuture<Void> skipped = pipeline.afterRelease("b", () -> {
+        });
+
+        pipeline.failed("a", new IllegalStateException("upgrade failed"));
+        failed.get(5, TimeUnit.SECONDS);
+        pipeline.finish();
+        skipped.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void awaitThrowsFailureOfTask() {
+        pipeline.finish();
+        List<CompletableFuture<Void>> tasks = List.of(
+                pipeline.afterRelease("a", () -> {
+                }),
+                pipeline.afterRelease("b", () -> {
+                    throw new IllegalStateException("forwarding failed");
+                }));
+
+        assertThatThrownBy(() -> StartupPipeline.await(tasks))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("forwarding failed");
+    }
+}
@@ -0,0 +1,115 @@
+package com.iseonline.shared.k8s.deployment.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class WatchdogsTest {
+
+    private final Watchdogs watchdogs = new Watchdogs("test-watchdog");
+
+    @AfterEach
+    public void tearDown() {
+        watchdogs.close();
+    }
+
+    @Test
+    public void recreatesWhenConditionFails() throws InterruptedException {
+        AtomicInteger created = new AtomicInteger();
+        CountDownLatch recreated = new CountDownLatch(2);
+        watchdogs.createAndWatch(() -> {
+            created.incrementAndGet();
+            recreated.countDown();
+        }, () -> false, 20, TimeUnit.MILLISECONDS);
+
+        assertThat(created).hasValue(1);
+        assertThat(recreated.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void slowCheckDoesNotStallOthers() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger slowChecks = new AtomicInteger();
+        watchdogs.createAndWatch(() -> {
+        }, () -> {
+            slowChecks.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }, 10, TimeUnit.MILLISECONDS);
+        CountDownLatch fastChecks = new CountDownLatch(10);
+        watchdogs.createAndWatch(() -> {
+        }, () -> {
+            fastChecks.countDown();
+            return true;
+        }, 10, TimeUnit.MILLISECONDS);
+
+        assertThat(fastChecks.await(5, TimeUnit.SECONDS)).isTrue();
+        // Runs of the blocked watchdog do not pile up
+        assertThat(slowChecks).hasValue(1);
+        release.countDown();
+    }
+
+    @Test
+    public void closeCancelsAllWatchdogs() throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Future<?> watchdog = watchdogs.createAndWatch(() -> {
+        }, () -> {
+            running.countDown();
+            try {
+                Thread.sleep(60000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return true;
+        }, 10, TimeUnit.MILLISECONDS);
+        assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(watchdogs.size()).isEqualTo(1);
+
+        watchdogs.close();
+
+        assertThat(watchdog.isCancelled()).isTrue();
+        assertThat(watchdogs.size()).isZero();
+        assertThat(interrupted.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(Thread.getAllStackTraces().keySet())
+                .noneMatch(t -> t.getName().startsWith("test-watchdog") && t.isAlive());
+        assertThatThrownBy(() -> watchdogs.createAndWatch(() -> {
+        }, () -> true, 10, TimeUnit.MILLISECONDS)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void getBlocksTillCancelled() throws InterruptedException {
+        Future<?> watchdog = watchdogs.createAndWatch(() -> {
+        }, () -> true, 10, TimeUnit.MILLISECONDS);
+        assertThatThrownBy(() -> watchdog.get(50, TimeUnit.MILLISECONDS)).isInstanceOf(TimeoutException.class);
+
+        CountDownLatch returned = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                watchdog.get();
+            } catch (CancellationException e) {
+                returned.countDown();
+            } catch (Exception e) {
+                // fails the assertion below
+            }
+        });
+        waiter.start();
+        watchdog.cancel(false);
+
+        assertThat(returned.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(watchdog.isDone()).isTrue();
+    }
+}
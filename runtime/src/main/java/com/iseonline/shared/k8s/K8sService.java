@@ -1,16 +1,232 @@
 package com.iseonline.shared.k8s;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import io.quarkus.logging.Log;
+import io.quarkus.runtime.StartupEvent;
 
+/**
+ * Provides information about the tunnels into the cluster started by the dev
+ * services. The tunnels are created in the deployment part of the extension
+ * and publish their statistics as MBeans, which are registered here as
+ * micrometer metrics. Tunnels come and go while the application runs, e.g.
+ * discovered services or after a failover, so their metrics follow the
+ * registrations of the MBeans. The same holds for the ssh session, which only
+ * exists when the dev services run, so nothing is registered in prod.
+ */
 @ApplicationScoped
 public class K8sService {
 
+    private static final String DOMAIN = "com.iseonline.quarkus.k8s";
+
+    private static final ObjectName SESSION = objectName(DOMAIN + ":type=SshSession");
+
+    private final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    private final MeterRegistry registry;
+
+    /**
+     * The meters of each tunnel MBean and of the ssh session MBean, removed with
+     * it.
+     */
+    private final Map<ObjectName, List<Meter>> tunnelMeters = new ConcurrentHashMap<>();
+
+    private final NotificationListener registrations = this::onRegistration;
+
+    /**
+     * Snapshot of the statistics of a single tunnel.
+     *
+     * @param name the name of the port forwarding or the service of the reverse
+     *        proxy
+     * @param kind forwarding or reverse-proxy
+     */
+    public record Tunnel(String name, String kind, long bytesIn, long bytesOut, int activeConnections,
+            long connectCount, double connectTimeTotalMillis, long reconnects, long lastFailureEpochMillis) {
+    }
+
     @Inject
-    K8sService() {
-        Log.infof("Quarkus Dev Apps K8s started");
-        // TODO: provide information about started services
+    K8sService(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        // Listen first, so no tunnel created meanwhile is missed, registering twice
+        // is harmless
+        try {
+            mbeanServer.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, registrations, null, null);
+        } catch (JMException e) {
+            Log.warnf("Could not listen for tunnels of Quarkus Dev Apps K8s: %s", e.getMessage());
+        }
+        List<ObjectName> tunnels = queryTunnels();
+        if (!tunnels.isEmpty()) {
+            Log.infof("Quarkus Dev Apps K8s started with %d tunnels", tunnels.size());
+        }
+        tunnels.forEach(this::registerMetrics);
+        if (mbeanServer.isRegistered(SESSION)) {
+            tunnelMeters.computeIfAbsent(SESSION, this::registerSessionMetrics);
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        try {
+            mbeanServer.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, registrations);
+        } catch (JMException e) {
+            // never registered
+        }
+    }
+
+    private void onRegistration(Notification notification, Object handback) {
+        if (!(notification instanceof MBeanServerNotification registration)
+                || !DOMAIN.equals(registration.getMBeanName().getDomain())) {
+            return;
+        }
+        ObjectName name = registration.getMBeanName();
+        boolean session = SESSION.equals(name);
+        if (!session && !"Tunnel".equals(name.getKeyProperty("type"))) {
+            return;
+        }
+        if (MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(notification.getType())) {
+            if (session) {
+                tunnelMeters.computeIfAbsent(name, this::registerSessionMetrics);
+            } else {
+                registerMetrics(name);
+            }
+        } else if (MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+            List<Meter> meters = tunnelMeters.remove(name);
+            if (meters != null) {
+                meters.forEach(registry::remove);
+            }
+        }
+    }
+
+    /**
+     * @return the current statistics of all tunnels from and into the cluster
+     */
+    public List<Tunnel> getTunnels() {
+        List<Tunnel> result = new ArrayList<>();
+        for (ObjectName name : queryTunnels()) {
+            try {
+                result.add(new Tunnel(
+                        (String) mbeanServer.getAttribute(name, "Name"),
+                        (String) mbeanServer.getAttribute(name, "Kind"),
+                        (Long) mbeanServer.getAttribute(name, "BytesIn"),
+                        (Long) mbeanServer.getAttribute(name, "BytesOut"),
+                        (Integer) mbeanServer.getAttribute(name, "ActiveConnections"),
+                        (Long) mbeanServer.getAttribute(name, "ConnectCount"),
+                        (Double) mbeanServer.getAttribute(name, "ConnectTimeTotalMillis"),
+                        (Long) mbeanServer.getAttribute(name, "Reconnects"),
+                        (Long) mbeanServer.getAttribute(name, "LastFailureEpochMillis")));
+            } catch (JMException e) {
+                // tunnel has been closed in the meantime
+            }
+        }
+        return result;
+    }
+
+    private void registerMetrics(ObjectName name) {
+        Tags tags;
+        try {
+            tags = Tags.of("tunnel", (String) mbeanServer.getAttribute(name, "Name"),
+                    "kind", (String) mbeanServer.getAttribute(name, "Kind"));
+        } catch (JMException e) {
+            return;
+        }
+        tunnelMeters.computeIfAbsent(name, n -> registerMetrics(n, tags));
+    }
+
+    private List<Meter> registerMetrics(ObjectName name, Tags tags) {
+        List<Meter> meters = new ArrayList<>();
+        meters.add(FunctionCounter.builder("k8s.devservices.tunnel.bytes", name, n -> getDouble(n, "BytesIn"))
+                .description("Bytes transferred through the tunnel")
+                .baseUnit("bytes")
+                .tags(tags).tag("direction", "in")
+                .register(registry));
+        meters.add(FunctionCounter.builder("k8s.devservices.tunnel.bytes", name, n -> getDouble(n, "BytesOut"))
+                .description("Bytes transferred through the tunnel")
+                .baseUnit("bytes")
+                .tags(tags).tag("direction", "out")
+                .register(registry));
+        meters.add(Gauge.builder("k8s.devservices.tunnel.connections.active", name, n -> getDouble(n, "ActiveConnections"))
+                .description("Currently open connections through the tunnel")
+                .tags(tags)
+                .register(registry));
+        meters.add(FunctionTimer.builder("k8s.devservices.tunnel.connect", name,
+                n -> (long) getDouble(n, "ConnectCount"),
+                n -> getDouble(n, "ConnectTimeTotalMillis"), TimeUnit.MILLISECONDS)
+                .description("Time to establish a connection through the tunnel")
+                .tags(tags)
+                .register(registry));
+        meters.add(FunctionCounter.builder("k8s.devservices.tunnel.reconnects", name, n -> getDouble(n, "Reconnects"))
+                .description("Number of times the tunnel had to be recreated")
+                .tags(tags)
+                .register(registry));
+        meters.add(Gauge.builder("k8s.devservices.tunnel.last.failure.age", name, n -> {
+            double lastFailure = getDouble(n, "LastFailureEpochMillis");
+            return lastFailure > 0 ? (System.currentTimeMillis() - lastFailure) / 1000 : Double.NaN;
+        })
+                .description("Time since the last failure of the tunnel")
+                .baseUnit("seconds")
+                .tags(tags)
+                .register(registry));
+        return meters;
+    }
+
+    private List<Meter> registerSessionMetrics(ObjectName session) {
+        return List.of(
+                Gauge.builder("k8s.devservices.ssh.rtt", session, s -> getDouble(s, "RttMillis"))
+                        .description("Round trip time of the ssh session to the gateway pod")
+                        .baseUnit("milliseconds")
+                        .register(registry),
+                FunctionCounter.builder("k8s.devservices.ssh.reconnects", session, s -> getDouble(s, "Reconnects"))
+                        .description("Number of times the ssh session was recreated")
+                        .register(registry));
+    }
+
+    private List<ObjectName> queryTunnels() {
+        Set<ObjectName> names = mbeanServer.queryNames(objectName(DOMAIN + ":type=Tunnel,*"), null);
+        return names != null ? new ArrayList<>(names) : Collections.emptyList();
+    }
+
+    private double getDouble(ObjectName name, String attribute) {
+        try {
+            return ((Number) mbeanServer.getAttribute(name, attribute)).doubleValue();
+        } catch (JMException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static ObjectName objectName(String name) {
+        try {
+            return new ObjectName(name);
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
     }
 }